@@ -408,6 +408,7 @@ public final class LogicMail extends UiApplication {
         
         AnalyticsDataCollector.getInstance().onApplicationTerminate();
         
+        DataStoreFactory.flushAll();
         System.exit(0);
     }
 
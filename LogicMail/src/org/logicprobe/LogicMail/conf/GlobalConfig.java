@@ -79,6 +79,8 @@ public class GlobalConfig implements Serializable {
     private boolean dispOrder;
     /** Filesystem for local file storage */
     private String filesystemRoot = "";
+    /** Size limit for locally cached message content, in megabytes */
+    private int localCacheLimit;
     /** Preferred network transport type */
     private int transportType;
     /** Whether WiFi should be used if available */
@@ -140,6 +142,7 @@ public class GlobalConfig implements Serializable {
         this.hideDeletedMsg = true;
         this.localHostname = "";
         this.filesystemRoot = "";
+        this.localCacheLimit = 32;
         this.promptOnDelete = true;
         this.expungeMode = GlobalConfig.EXPUNGE_PROMPT;
         this.autoStartupEnabled = false;
@@ -257,6 +260,30 @@ public class GlobalConfig implements Serializable {
         return filesystemRoot;
     }
     
+    /**
+     * Sets the size limit for locally cached message content.
+     * 
+     * @param localCacheLimit the size limit in megabytes, or 0 for no limit
+     */
+    public void setLocalCacheLimit(int localCacheLimit) {
+        if(localCacheLimit < 0) {
+            throw new IllegalArgumentException();
+        }
+        if(this.localCacheLimit != localCacheLimit) {
+            this.localCacheLimit = localCacheLimit;
+            changeType |= CHANGE_TYPE_DATA;
+        }
+    }
+    
+    /**
+     * Gets the size limit for locally cached message content.
+     * 
+     * @return the size limit in megabytes, or 0 for no limit
+     */
+    public int getLocalCacheLimit() {
+        return localCacheLimit;
+    }
+    
     /**
      * Set the root URL for local file storage.
      * 
@@ -501,6 +528,7 @@ public class GlobalConfig implements Serializable {
         table.put("global_messageDisplayFormat", new Integer(messageDisplayFormat));
         table.put("global_dispOrder", new Boolean(dispOrder));
         table.put("global_filesystemRoot", filesystemRoot);
+        table.put("global_localCacheLimit", new Integer(localCacheLimit));
         table.put("global_transportType", new Integer(transportType));
         table.put("global_enableWiFi", new Boolean(enableWiFi));
         table.put("global_connectionHandoverEnabled", new Boolean(connectionHandoverEnabled));
@@ -548,6 +576,10 @@ public class GlobalConfig implements Serializable {
         if (value instanceof String) {
             this.filesystemRoot = (String)value;
         }
+        value = table.get("global_localCacheLimit");
+        if(value instanceof Integer) {
+            localCacheLimit = ((Integer)value).intValue();
+        }
         value = table.get("global_transportType");
         if(value instanceof Integer) {
             transportType = ((Integer)value).intValue();
@@ -54,6 +54,10 @@ public class ImapConfig extends AccountConfig {
     private int maxFolderDepth;
     private boolean onlySubscribedFolders;
     private boolean enableCompression;
+    private int maxConnections;
+
+    /** Largest supported number of simultaneous server connections */
+    public static final int MAX_CONNECTIONS_LIMIT = 4;
 
     /**
      * Instantiates a new connection configuration with defaults.
@@ -84,6 +88,7 @@ public class ImapConfig extends AccountConfig {
         this.folderPrefix = "";
         this.onlySubscribedFolders = true;
         this.enableCompression = false;
+        this.maxConnections = 1;
     }
 
     /* (non-Javadoc)
@@ -252,6 +257,35 @@ public class ImapConfig extends AccountConfig {
         }
     }
     
+    /**
+     * Gets the maximum number of simultaneous server connections.
+     * Any connections beyond the first are only used for downloading
+     * message content, so that other requests are not blocked behind
+     * long transfers.
+     *
+     * @return the maximum number of connections
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+    
+    /**
+     * Sets the maximum number of simultaneous server connections.
+     *
+     * @param maxConnections the maximum number of connections, which must
+     *     be at least one, and is limited to {@link #MAX_CONNECTIONS_LIMIT}
+     */
+    public void setMaxConnections(int maxConnections) {
+        if(maxConnections < 1) {
+            throw new IllegalArgumentException();
+        }
+        maxConnections = Math.min(maxConnections, MAX_CONNECTIONS_LIMIT);
+        if(this.maxConnections != maxConnections) {
+            this.maxConnections = maxConnections;
+            changeType |= CHANGE_TYPE_ADVANCED;
+        }
+    }
+    
     /* (non-Javadoc)
      * @see org.logicprobe.LogicMail.conf.AccountConfig#writeConfigItems(org.logicprobe.LogicMail.util.SerializableHashtable)
      */
@@ -275,6 +309,7 @@ public class ImapConfig extends AccountConfig {
         table.put("account_imap_maxFolderDepth", new Integer(maxFolderDepth));
         table.put("account_imap_onlySubscribedFolders", new Boolean(onlySubscribedFolders));
         table.put("account_imap_enableCompression", new Boolean(enableCompression));
+        table.put("account_imap_maxConnections", new Integer(maxConnections));
     }
 
     /* (non-Javadoc)
@@ -310,5 +345,9 @@ public class ImapConfig extends AccountConfig {
         if(value instanceof Boolean) {
             enableCompression = ((Boolean)value).booleanValue();
         }
+        value = table.get("account_imap_maxConnections");
+        if(value instanceof Integer) {
+            maxConnections = Math.min(Math.max(1, ((Integer)value).intValue()), MAX_CONNECTIONS_LIMIT);
+        }
     }
 }
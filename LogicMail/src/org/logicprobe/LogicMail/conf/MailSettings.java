@@ -309,9 +309,11 @@ public class MailSettings {
         removeExistingSettings(ACCOUNT_CONFIGS);
         removeExistingSettings(OUTGOING_CONFIGS);
         
-        SerializableVector identityConfigIds = new SerializableVector();
-        SerializableVector accountConfigIds = new SerializableVector();
-        SerializableVector outgoingConfigIds = new SerializableVector();
+        // Reuse the existing ID lists, so the store can tell when nothing
+        // has actually changed
+        SerializableVector identityConfigIds = getConfigIdVector(IDENTITY_CONFIGS);
+        SerializableVector accountConfigIds = getConfigIdVector(ACCOUNT_CONFIGS);
+        SerializableVector outgoingConfigIds = getConfigIdVector(OUTGOING_CONFIGS);
         
         configStore.putNamedObject(GLOBAL_CONFIG, globalConfig);
         configStore.putNamedObject(IDENTITY_CONFIGS, identityConfigIds);
@@ -364,6 +366,18 @@ public class MailSettings {
         }
     }
 
+    private SerializableVector getConfigIdVector(String key) {
+        Object object = configStore.getNamedObject(key);
+        if(object instanceof SerializableVector) {
+            SerializableVector configIds = (SerializableVector)object;
+            configIds.removeAllElements();
+            return configIds;
+        }
+        else {
+            return new SerializableVector();
+        }
+    }
+
     /**
      * Load the configurations from persistent storage.
      * This method should only be called once in the lifetime of
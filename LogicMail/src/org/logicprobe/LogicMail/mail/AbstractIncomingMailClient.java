@@ -37,6 +37,7 @@ import net.rim.device.api.util.ToIntHashtable;
 import org.logicprobe.LogicMail.message.MessageFlags;
 import org.logicprobe.LogicMail.message.MimeMessageContent;
 import org.logicprobe.LogicMail.message.MimeMessagePart;
+import org.logicprobe.LogicMail.util.DataSpool;
 
 /**
  * Common base implementation of an {@code IncomingMailClient} that provides
@@ -93,12 +94,22 @@ public abstract class AbstractIncomingMailClient implements IncomingMailClient {
     
     public void appendMessage(
             FolderTreeItem folder,
-            String rawMessage,
+            DataSpool rawMessage,
             MessageFlags initialFlags)
     throws IOException, MailException {
         // Default empty implementation for unsupported feature
     }
 
+    public void appendMessages(
+            FolderTreeItem folder,
+            DataSpool[] rawMessages,
+            MessageFlags[] initialFlags)
+    throws IOException, MailException {
+        for(int i=0; i<rawMessages.length; i++) {
+            appendMessage(folder, rawMessages[i], initialFlags[i]);
+        }
+    }
+
     public boolean hasCopy() {
         return false;
     }
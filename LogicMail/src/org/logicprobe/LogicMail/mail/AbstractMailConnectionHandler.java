@@ -39,7 +39,6 @@ import net.rim.device.api.system.EventLogger;
 import org.logicprobe.LogicMail.AnalyticsDataCollector;
 import org.logicprobe.LogicMail.AppInfo;
 import org.logicprobe.LogicMail.LogicMailResource;
-import org.logicprobe.LogicMail.util.Queue;
 
 /**
  * This class is responsible for managing the lifecycle of a mail
@@ -52,7 +51,7 @@ public abstract class AbstractMailConnectionHandler {
 	private ConnectionThread connectionThread;
 	private int state;
 	private boolean transitionSilent;
-	private Queue requestQueue;
+	private RequestQueue requestQueue;
 	private int retryCount;
 	private boolean invalidLogin;
 	private boolean shutdownInProgress;
@@ -75,7 +74,7 @@ public abstract class AbstractMailConnectionHandler {
 		this.client = client;
 		this.connectionThread = new ConnectionThread();
 		this.state = STATE_CLOSED;
-		this.requestQueue = new Queue();
+		this.requestQueue = new RequestQueue();
 		this.retryCount = 0;
 		this.invalidLogin = false;
 		this.shutdownInProgress = false;
@@ -126,9 +125,7 @@ public abstract class AbstractMailConnectionHandler {
 		synchronized(requestQueue) {
 			shutdownInProgress = false;
 		}
-		MailConnectionManager.getInstance().fireMailConnectionStateChanged(
-				client.getConnectionConfig(),
-				MailConnectionStateEvent.STATE_DISCONNECTED);
+		fireConnectionStateChanged(MailConnectionStateEvent.STATE_DISCONNECTED);
 	}
 
 	/**
@@ -141,7 +138,8 @@ public abstract class AbstractMailConnectionHandler {
 	}
 	
 	/**
-	 * Add a request to the queue.
+	 * Add a request to the queue, behind any other requests of the same or
+	 * higher priority.
 	 * If the connection is shutting down, all requests will be ignored.
 	 * 
 	 * @param request Request object to be added
@@ -216,9 +214,7 @@ public abstract class AbstractMailConnectionHandler {
 			if(client.open()) {
 				invalidLogin = false;
 				setConnectionState(STATE_OPENED);
-				MailConnectionManager.getInstance().fireMailConnectionStateChanged(
-						client.getConnectionConfig(),
-						MailConnectionStateEvent.STATE_CONNECTED);
+				fireConnectionStateChanged(MailConnectionStateEvent.STATE_CONNECTED);
 				return;
 			}
 			else {
@@ -261,13 +257,16 @@ public abstract class AbstractMailConnectionHandler {
      * @throws MailException on protocol errors
      */
 	private void handlePendingRequests() throws IOException, MailException {
-		Queue requestQueue = getRequestQueue();
-		Object element;
-		synchronized(requestQueue) {
-			element = requestQueue.element();
-		}
-		while(element != null) {
-			synchronized (requestQueue) {
+		RequestQueue requestQueue = getRequestQueue();
+		while(true) {
+			// The head of the queue can change between calls, as new requests
+			// may be merged with queued ones, so it must be removed atomically.
+			Object element;
+			synchronized(requestQueue) {
+				element = requestQueue.element();
+				if(element == null) {
+					break;
+				}
 				requestQueue.remove();
 			}
 			ConnectionHandlerRequest request = (ConnectionHandlerRequest)element;
@@ -281,10 +280,6 @@ public abstract class AbstractMailConnectionHandler {
 			    handleRequest(request);
 			}
 			requestInProgress = null;
-			
-			synchronized(requestQueue) {
-				element = requestQueue.element();
-			}
 		}
 		setConnectionState(STATE_IDLE);
 	}
@@ -451,9 +446,7 @@ public abstract class AbstractMailConnectionHandler {
 		try { client.close(); } catch (IOException e) {} catch (MailException e) {}
 		setConnectionState(STATE_CLOSED);
 		if(!shutdownInProgress) {
-			MailConnectionManager.getInstance().fireMailConnectionStateChanged(
-					client.getConnectionConfig(),
-					MailConnectionStateEvent.STATE_DISCONNECTED);
+			fireConnectionStateChanged(MailConnectionStateEvent.STATE_DISCONNECTED);
 		}
 	}
 
@@ -464,6 +457,20 @@ public abstract class AbstractMailConnectionHandler {
 	 */
 	protected void handleBeforeClosing() { }
 	
+	/**
+	 * Notifies listeners that the server connection has been opened or closed.
+	 * <p>
+	 * Subclasses should override this if their connection is not the one
+	 * that represents the state of the account.
+	 * </p>
+	 * 
+	 * @param state the new state, from {@link MailConnectionStateEvent}
+	 */
+	protected void fireConnectionStateChanged(int state) {
+		MailConnectionManager.getInstance().fireMailConnectionStateChanged(
+				client.getConnectionConfig(), state);
+	}
+	
 	/**
 	 * Gets the current connection state.
 	 * 
@@ -501,7 +508,7 @@ public abstract class AbstractMailConnectionHandler {
 	 * 
 	 * @return Request queue
 	 */
-	protected Queue getRequestQueue() {
+	protected RequestQueue getRequestQueue() {
 		return this.requestQueue;
 	}
 	
@@ -648,9 +655,7 @@ public abstract class AbstractMailConnectionHandler {
 			
 			// Explicitly notify any listeners that the connection dropped,
 			// since the CLOSING state is not entered in this situation.
-            MailConnectionManager.getInstance().fireMailConnectionStateChanged(
-                    client.getConnectionConfig(),
-                    MailConnectionStateEvent.STATE_DISCONNECTED);
+            fireConnectionStateChanged(MailConnectionStateEvent.STATE_DISCONNECTED);
             
             // Set the next state to opening
 			setConnectionState(STATE_OPENING, isSilent);
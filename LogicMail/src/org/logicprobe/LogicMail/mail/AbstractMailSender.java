@@ -33,6 +33,7 @@ package org.logicprobe.LogicMail.mail;
 
 import org.logicprobe.LogicMail.message.Message;
 import org.logicprobe.LogicMail.message.MessageEnvelope;
+import org.logicprobe.LogicMail.util.DataSpool;
 import org.logicprobe.LogicMail.util.EventListenerList;
 
 /**
@@ -118,7 +119,7 @@ public abstract class AbstractMailSender {
      * @param message The message that was sent.
      * @param messageSource The raw source for the message that was sent.
      */
-    protected void fireMessageSent(MessageEnvelope envelope, Message message, String messageSource) {
+    protected void fireMessageSent(MessageEnvelope envelope, Message message, DataSpool messageSource) {
         Object[] listeners = listenerList.getListeners(MailSenderListener.class);
         MessageSentEvent e = null;
         for(int i=0; i<listeners.length; i++) {
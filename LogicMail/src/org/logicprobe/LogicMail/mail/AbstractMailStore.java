@@ -37,6 +37,7 @@ import org.logicprobe.LogicMail.message.FolderMessage;
 import org.logicprobe.LogicMail.message.MimeMessageContent;
 import org.logicprobe.LogicMail.message.MessageFlags;
 import org.logicprobe.LogicMail.message.MimeMessagePart;
+import org.logicprobe.LogicMail.util.DataSpool;
 import org.logicprobe.LogicMail.util.EventListenerList;
 
 /**
@@ -346,7 +347,7 @@ public abstract class AbstractMailStore {
      * @param initialFlags The initial flags for the message
      * @return the request object
      */
-    public abstract MessageAppendRequest createMessageAppendRequest(FolderTreeItem folder, String rawMessage, MessageFlags initialFlags);
+    public abstract MessageAppendRequest createMessageAppendRequest(FolderTreeItem folder, DataSpool rawMessage, MessageFlags initialFlags);
 
     /**
      * Creates a request for a message to be copied into a folder on the
@@ -376,6 +377,23 @@ public abstract class AbstractMailStore {
      */
     public abstract void processRequest(MailStoreRequest request);
     
+    /**
+     * Submits a set of requests to the mail store for processing, as a
+     * single batch.
+     * <p>
+     * Mail stores that can combine the work of several requests should
+     * override this method.  The default implementation simply submits
+     * each request in turn.
+     * </p>
+     *
+     * @param requests the requests to process
+     */
+    public void processRequests(MailStoreRequest[] requests) {
+        for(int i=0; i<requests.length; i++) {
+            processRequest(requests[i]);
+        }
+    }
+    
     /**
      * Adds a <tt>MailStoreListener</tt> to the mail store.
      * 
@@ -37,6 +37,22 @@ import java.io.IOException;
  * Interface used by the connection handler to manage requests. 
  */
 public interface ConnectionHandlerRequest {
+    /**
+     * Priority for requests that the user is actively waiting on.
+     */
+    public static final int PRIORITY_INTERACTIVE = 0;
+    
+    /**
+     * Priority for requests that fetch data the user is likely to want soon,
+     * but is not yet waiting on.
+     */
+    public static final int PRIORITY_PREFETCH = 1;
+    
+    /**
+     * Priority for automated background requests, such as periodic refreshes.
+     */
+    public static final int PRIORITY_BACKGROUND = 2;
+    
     /**
      * Sets whether this is a deliberate request.
      * Deliberate requests are created in response to direct user action,
@@ -51,6 +67,23 @@ public interface ConnectionHandlerRequest {
      */
     boolean isDeliberate();
     
+    /**
+     * Sets the scheduling priority of this request, overriding the default
+     * priority implied by whether the request is deliberate.
+     * 
+     * @param priority one of the <code>PRIORITY_</code> constants
+     */
+    void setPriority(int priority);
+    
+    /**
+     * Gets the scheduling priority of this request.
+     * Requests are processed in order of priority, and in the order they
+     * were added within each priority.
+     * 
+     * @return one of the <code>PRIORITY_</code> constants
+     */
+    int getPriority();
+    
     /**
      * Checks if this is an administrative request.  Administrative requests
      * change client configuration parameters, and do not require an active
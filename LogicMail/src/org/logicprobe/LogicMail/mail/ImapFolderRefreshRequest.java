@@ -70,6 +70,23 @@ class ImapFolderRefreshRequest extends NetworkMailStoreRequest implements MailSt
         return folder;
     }
     
+    boolean isRedundantWith(NetworkMailStoreRequest request) {
+        return request instanceof ImapFolderRefreshRequest
+            && isSameFolder(folder, ((ImapFolderRefreshRequest)request).folder);
+    }
+    
+    boolean supersedes(NetworkMailStoreRequest request) {
+        // A refresh also fetches any recent messages
+        if(request instanceof NetworkFolderMessagesRequest) {
+            NetworkFolderMessagesRequest folderRequest = (NetworkFolderMessagesRequest)request;
+            return folderRequest.getType() == FolderMessagesRequest.TYPE_RECENT
+                && isSameFolder(folder, folderRequest.getFolder());
+        }
+        else {
+            return false;
+        }
+    }
+    
     public boolean isAdministrative() {
         // If this request enters the queue during IMAP IDLE, and it is for the
         // same folder that is currently being idled on, then mark it as
@@ -137,7 +154,65 @@ class ImapFolderRefreshRequest extends NetworkMailStoreRequest implements MailSt
                 new GetFolderMessageCallback(folderMessages, true),
                 getProgressHandler(statusMessage));
         
-        initialFlagsRefreshComplete(incomingClient, folderMessages);
+        if(incomingClient.hasActiveFolderChanges()) {
+            // The server already reported everything that changed since the
+            // last refresh, so the cached messages do not need to be checked
+            quickResyncComplete(incomingClient, folderMessages);
+        }
+        else {
+            initialFlagsRefreshComplete(incomingClient, folderMessages);
+        }
+    }
+
+    private void quickResyncComplete(ImapClient incomingClient, Vector pendingFlagUpdates) throws IOException, MailException {
+        secondaryMessageTokensToFetch = new Vector();
+        
+        // Remove new messages from the orphan set, and fetch any that are
+        // not already cached
+        int size = pendingFlagUpdates.size();
+        for(int i=0; i<size; i++) {
+            FolderMessage message = (FolderMessage)pendingFlagUpdates.elementAt(i);
+            MessageToken token = message.getMessageToken();
+            if(loadedMessageMap.remove(token.getMessageUid()) == null) {
+                secondaryMessageTokensToFetch.addElement(token);
+            }
+        }
+        messageRetentionLimit -= size;
+        pendingFlagUpdates.removeAllElements();
+        
+        if(loadedMessageMap.isEmpty() || messageRetentionLimit <= 0) {
+            removeOrphanedMessages();
+            finalFolderMessageFetch(incomingClient);
+            return;
+        }
+        
+        MessageToken[] cachedTokens = new MessageToken[loadedMessageMap.size()];
+        int index = 0;
+        for(Enumeration e = loadedMessageMap.elements(); e.hasMoreElements() ;) {
+            cachedTokens[index++] = ((FolderMessage)e.nextElement()).getMessageToken();
+        }
+        
+        // Notify of flag changes, and find out which cached messages are gone
+        MessageToken[] vanishedTokens = incomingClient.getActiveFolderChanges(
+                cachedTokens,
+                new GetFolderMessageCallback(true));
+        
+        Hashtable vanishedMap = new Hashtable();
+        for(int i=0; i<vanishedTokens.length; i++) {
+            vanishedMap.put(vanishedTokens[i].getMessageUid(), Boolean.TRUE);
+        }
+        
+        // Every other cached message still exists, so it can be handled
+        // exactly as if its flags had been fetched
+        Vector existingMessages = new Vector();
+        for(Enumeration e = loadedMessageMap.elements(); e.hasMoreElements() ;) {
+            FolderMessage message = (FolderMessage)e.nextElement();
+            if(!vanishedMap.containsKey(message.getMessageToken().getMessageUid())) {
+                existingMessages.addElement(message);
+            }
+        }
+        
+        secondaryFlagsRefreshComplete(incomingClient, existingMessages);
     }
 
     private void initialFlagsRefreshComplete(ImapClient incomingClient, Vector pendingFlagUpdates) throws IOException, MailException {
@@ -271,6 +346,8 @@ class ImapFolderRefreshRequest extends NetworkMailStoreRequest implements MailSt
                     getProgressHandler(statusMessage));
         }
         
+        incomingClient.activeFolderSynchronized();
+        
         fireMailStoreRequestComplete();
     }
     
@@ -41,6 +41,7 @@ import org.logicprobe.LogicMail.message.MessageFlags;
 import org.logicprobe.LogicMail.message.MimeMessageContent;
 import org.logicprobe.LogicMail.message.MimeMessagePart;
 import org.logicprobe.LogicMail.util.Connection;
+import org.logicprobe.LogicMail.util.DataSpool;
 
 /**
  * Provides a generic interface to different incoming mail protocols.
@@ -112,7 +113,7 @@ public interface IncomingMailClient extends MailClient {
      * mailboxes.
      * 
      * @return True of append is supported
-     * @see #appendMessage(FolderTreeItem, String, MessageFlags)
+     * @see #appendMessage(FolderTreeItem, DataSpool, MessageFlags)
      */
     boolean hasAppend();
     
@@ -476,7 +477,20 @@ public interface IncomingMailClient extends MailClient {
      * @throws MailException on protocol errors
      * @see #hasAppend()
      */
-    void appendMessage(FolderTreeItem folder, String rawMessage, MessageFlags initialFlags) throws IOException, MailException;
+    void appendMessage(FolderTreeItem folder, DataSpool rawMessage, MessageFlags initialFlags) throws IOException, MailException;
+    
+    /**
+     * Appends several messages to the specified folder.
+     * Protocols that can append multiple messages in a single operation
+     * should do so, while others append the messages one at a time.
+     * This should do nothing if the underlying protocol does not support
+     * appending.
+     *
+     * @throws IOException on I/O errors
+     * @throws MailException on protocol errors
+     * @see #appendMessage(FolderTreeItem, DataSpool, MessageFlags)
+     */
+    void appendMessages(FolderTreeItem folder, DataSpool[] rawMessages, MessageFlags[] initialFlags) throws IOException, MailException;
     
     /**
      * Copies a message from its current location to the specified folder.
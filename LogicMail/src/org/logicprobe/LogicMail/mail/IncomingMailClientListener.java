@@ -67,6 +67,15 @@ public interface IncomingMailClientListener {
      */
     void folderMessageExpunged(MessageToken expungedToken, MessageToken[] updatedTokens);
     
+    /**
+     * Called to indicate that the status of a mailbox other than the active
+     * one has changed, such as when new messages arrive in it.
+     * The folder's message counts have already been updated.
+     * 
+     * @param folder the folder whose status has changed
+     */
+    void folderStatusChanged(FolderTreeItem folder);
+    
     /**
      * Called to indicate that idle processing has prematurely terminated
      * due to an error condition.  This should be handled by calling
@@ -32,8 +32,6 @@
 package org.logicprobe.LogicMail.mail;
 
 import java.io.IOException;
-import java.util.Timer;
-import java.util.TimerTask;
 
 import net.rim.device.api.system.Backlight;
 import net.rim.device.api.system.DeviceInfo;
@@ -44,7 +42,7 @@ import org.logicprobe.LogicMail.conf.AccountConfig;
 import org.logicprobe.LogicMail.conf.ConnectionConfig;
 import org.logicprobe.LogicMail.conf.MailSettings;
 import org.logicprobe.LogicMail.message.MessageFlags;
-import org.logicprobe.LogicMail.util.Queue;
+import org.logicprobe.LogicMail.util.TimerWheel;
 
 public class IncomingMailConnectionHandler extends AbstractMailConnectionHandler {
     private final NetworkMailStore mailStore;
@@ -77,16 +75,15 @@ public class IncomingMailConnectionHandler extends AbstractMailConnectionHandler
      */
     private static final int LOCKED_INTERVAL = 15000;
     
-    private final Timer idleTimer = new Timer();
-    private TimerTask idleTimerTask;
+    private TimerWheel.Timeout idleTimerTask;
     private boolean idleTimeout;
     private boolean idleRecentMessagesRequested;
     private long idleStartTime;
     private boolean idleEnabledAtBegin;
     
     private volatile long accumulatedIdleTime;
-    private final Timer pollingTimer = new Timer();
-    private TimerTask pollingTimerTask;
+    private final Object pollingLock = new Object();
+    private PollCoordinator.ScheduledRefresh pollingRefresh;
     
     private static final int MS_PER_MIN = 60000;
     private static final int REFRESH_TOLERANCE = 60000;
@@ -108,6 +105,9 @@ public class IncomingMailConnectionHandler extends AbstractMailConnectionHandler
         public void folderMessageExpunged(MessageToken expungedToken, MessageToken[] updatedTokens) {
             handleFolderMessageExpunged(expungedToken, updatedTokens);
         }
+        public void folderStatusChanged(FolderTreeItem folder) {
+            handleFolderStatusChanged(folder);
+        }
         public void idleModeError() {
             handleIdleModeError();
         }
@@ -180,9 +180,18 @@ public class IncomingMailConnectionHandler extends AbstractMailConnectionHandler
         mailStore.fireFolderExpunged(incomingClient.getActiveFolder(), new MessageToken[] { expungedToken }, updatedTokens);
     }
 
+    private void handleFolderStatusChanged(FolderTreeItem folder) {
+        // This notification just updates local data, so it does not need to
+        // break out of the idle state.
+        
+        mailStore.fireFolderStatusChanged(folder);
+    }
+
     private void handleIdleModeError() {
-        idleTimerTask.cancel();
-        Queue requestQueue = getRequestQueue();
+        if(idleTimerTask != null) {
+            idleTimerTask.cancel();
+        }
+        RequestQueue requestQueue = getRequestQueue();
         synchronized(requestQueue) {
             requestQueue.notifyAll();
         }
@@ -230,18 +239,17 @@ public class IncomingMailConnectionHandler extends AbstractMailConnectionHandler
     private void startIdleTimer(int timeout) {
         idleRecentMessagesRequested = false;
         idleTimeout = false;
-        idleTimerTask = new TimerTask() {
+        idleTimerTask = TimerWheel.getInstance().schedule("IncomingMailConnectionHandler.idle", new Runnable() {
             public void run() {
                 handleIdleModeTimeout();
             }
-        };
-        idleTimer.schedule(idleTimerTask, timeout);
+        }, timeout);
     }
     
     private void startLockedFoldersIdleTimer() {
         idleRecentMessagesRequested = false;
         idleTimeout = false;
-        idleTimerTask = new TimerTask() {
+        idleTimerTask = TimerWheel.getInstance().scheduleAtFixedRate("IncomingMailConnectionHandler.lockedIdle", new Runnable() {
             public void run() {
                 boolean handleTimeout = false;
                 long timeInIdle = System.currentTimeMillis() - idleStartTime;
@@ -271,13 +279,12 @@ public class IncomingMailConnectionHandler extends AbstractMailConnectionHandler
                     handleIdleModeTimeout();
                 }
             }
-        };
-        idleTimer.scheduleAtFixedRate(idleTimerTask, LOCKED_INTERVAL, LOCKED_INTERVAL);
+        }, LOCKED_INTERVAL, LOCKED_INTERVAL);
     }
 
     protected void handleIdleModeTimeout() {
         idleTimeout = true;
-        Queue requestQueue = getRequestQueue();
+        RequestQueue requestQueue = getRequestQueue();
         synchronized(requestQueue) {
             requestQueue.notifyAll();
         }
@@ -478,8 +485,8 @@ public class IncomingMailConnectionHandler extends AbstractMailConnectionHandler
 
     public void startPollingThread() {
         long refreshFrequency = 0;
-        synchronized(pollingTimer) {
-            if(getConnectionState() == STATE_CLOSED && pollingTimerTask == null) {
+        synchronized(pollingLock) {
+            if(getConnectionState() == STATE_CLOSED && pollingRefresh == null) {
                 refreshFrequency = accountConfig.getRefreshFrequency() * MS_PER_MIN;
             }
         }
@@ -489,26 +496,27 @@ public class IncomingMailConnectionHandler extends AbstractMailConnectionHandler
     }
 
     private void schedulePollingRefresh(long nextRefresh) {
-        synchronized(pollingTimer) {
-            if(pollingTimerTask != null) {
-                pollingTimerTask.cancel();
-                pollingTimerTask = null;
+        synchronized(pollingLock) {
+            if(pollingRefresh != null) {
+                pollingRefresh.cancel();
+                pollingRefresh = null;
             }
-            pollingTimerTask = new TimerTask() {
+            // Polling refreshes are coordinated across accounts, so they can
+            // share a wake-up with any other account due at about the same time
+            pollingRefresh = PollCoordinator.getInstance().schedule("IncomingMailConnectionHandler.polling", new Runnable() {
                 public void run() {
                     accumulatedIdleTime = 0;
                     mailStore.fireRefreshRequired(false);
                 }
-            };
-            pollingTimer.schedule(pollingTimerTask, nextRefresh);
+            }, nextRefresh, REFRESH_TOLERANCE);
         }
     }
     
     private void cleanupIdleState() {
-        synchronized(pollingTimer) {
-            if(pollingTimerTask != null) {
-                pollingTimerTask.cancel();
-                pollingTimerTask = null;
+        synchronized(pollingLock) {
+            if(pollingRefresh != null) {
+                pollingRefresh.cancel();
+                pollingRefresh = null;
             }
         }
         accumulatedIdleTime = 0;
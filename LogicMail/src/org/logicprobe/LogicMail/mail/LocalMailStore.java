@@ -46,6 +46,7 @@ import org.logicprobe.LogicMail.conf.GlobalConfig;
 import org.logicprobe.LogicMail.conf.MailSettings;
 import org.logicprobe.LogicMail.message.MessageFlags;
 import org.logicprobe.LogicMail.message.MimeMessagePart;
+import org.logicprobe.LogicMail.util.DataSpool;
 import org.logicprobe.LogicMail.util.ThreadQueue;
 
 /**
@@ -64,7 +65,7 @@ public class LocalMailStore extends AbstractMailStore {
     public LocalMailStore() {
         super();
         globalConfig = MailSettings.getInstance().getGlobalConfig();
-        threadQueue = new ThreadQueue();
+        threadQueue = new ThreadQueue("LocalMailStore");
         folderMaildirMap = new Hashtable();
         
         // Build the local folder tree, which matches a fixed layout for now.
@@ -192,7 +193,7 @@ public class LocalMailStore extends AbstractMailStore {
         return request;
     }
     
-    public MessageAppendRequest createMessageAppendRequest(FolderTreeItem folder, String rawMessage, MessageFlags initialFlags) {
+    public MessageAppendRequest createMessageAppendRequest(FolderTreeItem folder, DataSpool rawMessage, MessageFlags initialFlags) {
         LocalMessageAppendRequest request = new LocalMessageAppendRequest(
                 this, folder, rawMessage, initialFlags);
         return request;
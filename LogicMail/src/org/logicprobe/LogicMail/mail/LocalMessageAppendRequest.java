@@ -39,13 +39,14 @@ import org.logicprobe.LogicMail.AnalyticsDataCollector;
 import org.logicprobe.LogicMail.AppInfo;
 import org.logicprobe.LogicMail.message.FolderMessage;
 import org.logicprobe.LogicMail.message.MessageFlags;
+import org.logicprobe.LogicMail.util.DataSpool;
 
 class LocalMessageAppendRequest extends LocalMailStoreRequest implements MessageAppendRequest {
     private final FolderTreeItem folder;
-    private final String rawMessage;
+    private final DataSpool rawMessage;
     private final MessageFlags initialFlags;
     
-    LocalMessageAppendRequest(LocalMailStore mailStore, FolderTreeItem folder, String rawMessage, MessageFlags initialFlags) {
+    LocalMessageAppendRequest(LocalMailStore mailStore, FolderTreeItem folder, DataSpool rawMessage, MessageFlags initialFlags) {
         super(mailStore);
         this.folder = folder;
         this.rawMessage = rawMessage;
@@ -56,7 +57,7 @@ class LocalMessageAppendRequest extends LocalMailStoreRequest implements Message
         return folder;
     }
     
-    public String getRawMessage() {
+    public DataSpool getRawMessage() {
         return rawMessage;
     }
     
@@ -67,7 +68,7 @@ class LocalMessageAppendRequest extends LocalMailStoreRequest implements Message
     public void run() {
         FolderTreeItem requestFolder = mailStore.getMatchingFolderTreeItem(folder.getPath());
         
-        if(requestFolder == null || rawMessage == null || rawMessage.length() == 0 || initialFlags == null) {
+        if(requestFolder == null || rawMessage == null || rawMessage.size() == 0 || initialFlags == null) {
             fireMailStoreRequestFailed(null, true);
             return;
         }
@@ -39,6 +39,7 @@ import org.logicprobe.LogicMail.AnalyticsDataCollector;
 import org.logicprobe.LogicMail.AppInfo;
 import org.logicprobe.LogicMail.message.FolderMessage;
 import org.logicprobe.LogicMail.message.MessageFlags;
+import org.logicprobe.LogicMail.util.DataSpool;
 
 class LocalMessageCopyRequest extends LocalMailStoreRequest implements MessageCopyRequest {
     private final LocalMessageToken messageToken;
@@ -78,7 +79,7 @@ class LocalMessageCopyRequest extends LocalMailStoreRequest implements MessageCo
 
             String messageSource = fromMaildirFolder.getMessageSource(messageToken);
             copiedMessage = toMaildirFolder.appendMessage(
-                    messageSource,
+                    new DataSpool(messageSource),
                     (new MessageFlags()).setRecent(true));
 
             toMaildirFolder.close();
@@ -31,6 +31,7 @@
 
 package org.logicprobe.LogicMail.mail;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Enumeration;
@@ -91,10 +92,12 @@ class LocalMessageRequest extends LocalMailStoreRequest implements MessageReques
             messageSource = maildirFolder.getMessageSource(messageToken);
             maildirFolder.close();
             
-            // Parse the message source
+            // Parse the message source, which is already held in memory
+            // and cannot be fetched again, so parts are not size limited
             Hashtable contentMap = new Hashtable();
-            InputStream messageStream = MailMessageParser.convertMessageResultToStream(messageSource);
-            MimeMessagePart rootPart = MailMessageParser.parseRawMessage(contentMap, messageStream);
+            InputStream messageStream = new ByteArrayInputStream(messageSource.getBytes());
+            MimeMessagePart rootPart = MailMessageParser.parseRawMessage(
+                    contentMap, messageStream, Integer.MAX_VALUE);
             message = new Message(rootPart);
             Enumeration e = contentMap.keys();
             while(e.hasMoreElements()) {
@@ -76,6 +76,27 @@ public class MailClientFactory {
         return createMailClientImpl(accountConfig, true);
     }
     
+    /**
+     * Get a new concrete mail client instance to be used as a secondary
+     * connection for an account, alongside the client provided by
+     * {@link #createMailClient(AccountConfig)}.
+     * Only protocols that support simultaneous connections can provide
+     * secondary clients.
+     *
+     * @param accountConfig User account configuration
+     * @return Usable mail client instance, or null if not supported
+     */
+    static IncomingMailClient createSecondaryMailClient(AccountConfig accountConfig) {
+        if(accountConfig instanceof ImapConfig) {
+            ImapClient client = (ImapClient)createMailClientImpl(accountConfig, false);
+            client.setSecondary(true);
+            return client;
+        }
+        else {
+            return null;
+        }
+    }
+    
     private static IncomingMailClient createMailClientImpl(AccountConfig accountConfig, boolean useTable) {
         IncomingMailClient client = useTable ? (IncomingMailClient)incomingClientTable.get(accountConfig) : null;
         
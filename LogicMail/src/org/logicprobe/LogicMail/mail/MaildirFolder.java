@@ -35,7 +35,6 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
 import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.Vector;
@@ -53,6 +52,7 @@ import org.logicprobe.LogicMail.AppInfo;
 import org.logicprobe.LogicMail.message.FolderMessage;
 import org.logicprobe.LogicMail.message.MessageEnvelope;
 import org.logicprobe.LogicMail.message.MessageFlags;
+import org.logicprobe.LogicMail.util.DataSpool;
 import org.logicprobe.LogicMail.util.MailMessageParser;
 import org.logicprobe.LogicMail.util.StringParser;
 
@@ -385,7 +385,7 @@ public class MaildirFolder {
      * @param initialFlags The initial flags
      * @return The folder message
      */
-    public FolderMessage appendMessage(String rawMessage, MessageFlags initialFlags) {
+    public FolderMessage appendMessage(DataSpool rawMessage, MessageFlags initialFlags) {
         if (EventLogger.getMinimumLevel() >= EventLogger.DEBUG_INFO) {
             EventLogger.logEvent(AppInfo.GUID,
                     ("MaildirFolder.appendMessage()").getBytes(),
@@ -420,8 +420,12 @@ public class MaildirFolder {
 
             // Write out the message
             DataOutputStream outputStream = mailFileConnection.openDataOutputStream();
-            OutputStreamWriter writer = new OutputStreamWriter(outputStream);
-            writer.write(rawMessage);
+            InputStream messageStream = rawMessage.getInputStream();
+            byte[] data = new byte[4096];
+            int len;
+            while((len = messageStream.read(data)) != -1) {
+                outputStream.write(data, 0, len);
+            }
             outputStream.close();
 
             // Make sure the message was written, by trying to read the headers back from it
@@ -32,9 +32,10 @@
 package org.logicprobe.LogicMail.mail;
 
 import org.logicprobe.LogicMail.message.MessageFlags;
+import org.logicprobe.LogicMail.util.DataSpool;
 
 public interface MessageAppendRequest extends MailStoreRequest {
     FolderTreeItem getFolder();
-    String getRawMessage();
+    DataSpool getRawMessage();
     MessageFlags getInitialFlags();
 }
@@ -33,6 +33,7 @@ package org.logicprobe.LogicMail.mail;
 
 import org.logicprobe.LogicMail.message.Message;
 import org.logicprobe.LogicMail.message.MessageEnvelope;
+import org.logicprobe.LogicMail.util.DataSpool;
 
 /**
  * Object for sent message events. 
@@ -40,12 +41,12 @@ import org.logicprobe.LogicMail.message.MessageEnvelope;
 public class MessageSentEvent extends MailSenderEvent {
 	private final MessageEnvelope envelope;
 	private final Message message;
-	private final String messageSource;
+	private final DataSpool messageSource;
 	private final Throwable exception;
 	private final boolean isFinal;
 	
 	/** Creates a new instance of MessageSentEvent */
-	public MessageSentEvent(Object source, MessageEnvelope envelope, Message message, String messageSource) {
+	public MessageSentEvent(Object source, MessageEnvelope envelope, Message message, DataSpool messageSource) {
 		this(source, envelope, message, messageSource, null, true);
 	}
 	
@@ -54,7 +55,7 @@ public class MessageSentEvent extends MailSenderEvent {
         this(source, envelope, message, null, exception, isFinal);
     }
 	
-    private MessageSentEvent(Object source, MessageEnvelope envelope, Message message, String messageSource, Throwable exception, boolean isFinal) {
+    private MessageSentEvent(Object source, MessageEnvelope envelope, Message message, DataSpool messageSource, Throwable exception, boolean isFinal) {
         super(source);
         this.envelope = envelope;
         this.message = message;
@@ -89,7 +90,7 @@ public class MessageSentEvent extends MailSenderEvent {
 	 * 
 	 * @return Message source, or null if the operation failed
 	 */
-	public String getMessageSource() {
+	public DataSpool getMessageSource() {
 		return this.messageSource;
 	}
 	
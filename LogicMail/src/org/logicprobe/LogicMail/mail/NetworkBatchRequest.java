@@ -0,0 +1,186 @@
+/*-
+ * Copyright (c) 2011, Derek Konigsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution. 
+ * 3. Neither the name of the project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.logicprobe.LogicMail.mail;
+
+import java.io.IOException;
+
+import org.logicprobe.LogicMail.mail.imap.ImapClient;
+
+/**
+ * Executes a set of requests together, as a single request to the
+ * connection handler.
+ * <p>
+ * If the client supports command pipelining, then the commands issued by
+ * all the batched requests are sent to the server together, and each request
+ * is only completed once the outcome of its own commands is known.
+ * Flag changes that the server reports for a failed command are discarded,
+ * so a rejected request is never shown as having taken effect.
+ * Otherwise, the requests are simply executed in sequence.
+ * </p>
+ */
+class NetworkBatchRequest extends NetworkMailStoreRequest {
+    private final NetworkMailStoreRequest[] requests;
+    private final boolean[] notified;
+    
+    NetworkBatchRequest(NetworkMailStore mailStore, NetworkMailStoreRequest[] requests) {
+        super(mailStore);
+        this.requests = requests;
+        this.notified = new boolean[requests.length];
+    }
+    
+    public NetworkMailStoreRequest[] getRequests() {
+        return requests;
+    }
+    
+    public void setDeliberate(boolean deliberate) {
+        super.setDeliberate(deliberate);
+        for(int i=0; i<requests.length; i++) {
+            requests[i].setDeliberate(deliberate);
+        }
+    }
+    
+    protected String getInitialStatus() {
+        return requests[0].getInitialStatus();
+    }
+    
+    public void execute(MailClient client) throws IOException, MailException {
+        if(client instanceof ImapClient) {
+            executePipelined((ImapClient)client);
+        }
+        else {
+            for(int i=0; i<requests.length; i++) {
+                try {
+                    requests[i].execute(client);
+                    notified[i] = true;
+                } catch (MailException e) {
+                    if(e.isFatal()) { throw e; }
+                    notified[i] = true;
+                    requests[i].fireMailStoreRequestFailed(e, true);
+                }
+            }
+        }
+        
+        fireMailStoreRequestComplete();
+    }
+    
+    private void executePipelined(ImapClient imapClient) throws IOException, MailException {
+        // Each request reports its outcome as soon as its commands are
+        // queued, so those notifications are held back until the commands
+        // have actually been executed.
+        DeferredRequestCallback[] deferred = new DeferredRequestCallback[requests.length];
+        int[] commandIndex = new int[requests.length + 1];
+        String[] results = null;
+        
+        imapClient.beginBatch();
+        try {
+            for(int i=0; i<requests.length; i++) {
+                deferred[i] = new DeferredRequestCallback(requests[i].getRequestCallback());
+                requests[i].setRequestCallback(deferred[i]);
+                commandIndex[i] = imapClient.getBatchSize();
+                try {
+                    requests[i].execute(imapClient);
+                } catch (MailException e) {
+                    if(e.isFatal()) { throw e; }
+                    deferred[i].mailStoreRequestFailed(requests[i], e, true);
+                }
+            }
+            commandIndex[requests.length] = imapClient.getBatchSize();
+            
+            results = imapClient.endBatch();
+        } finally {
+            // Make sure a failed batch does not leave commands queued
+            // behind it on the connection
+            if(results == null) {
+                imapClient.abortBatch();
+            }
+            for(int i=0; i<requests.length; i++) {
+                if(deferred[i] != null) {
+                    requests[i].setRequestCallback(deferred[i].requestCallback);
+                }
+            }
+        }
+        
+        for(int i=0; i<requests.length; i++) {
+            String failure = null;
+            for(int j=commandIndex[i]; j<commandIndex[i + 1] && failure == null; j++) {
+                failure = results[j];
+            }
+            
+            notified[i] = true;
+            if(failure != null) {
+                requests[i].fireMailStoreRequestFailed(new MailException(failure), true);
+            }
+            else if(deferred[i].complete) {
+                requests[i].fireMailStoreRequestComplete();
+            }
+            else if(deferred[i].exception != null) {
+                requests[i].fireMailStoreRequestFailed(deferred[i].exception, deferred[i].isFinal);
+            }
+        }
+    }
+    
+    public void notifyConnectionRequestFailed(Throwable exception, boolean isFinal) {
+        // Only notify the requests whose outcome has not yet been reported,
+        // so that they can be individually retried if necessary.
+        for(int i=0; i<requests.length; i++) {
+            if(!notified[i]) {
+                notified[i] = true;
+                requests[i].notifyConnectionRequestFailed(exception, isFinal);
+            }
+        }
+        super.notifyConnectionRequestFailed(exception, isFinal);
+    }
+    
+    /**
+     * Request callback that records the outcome reported by a request,
+     * so that it can be reported to the original callback later.
+     */
+    private static class DeferredRequestCallback implements MailStoreRequestCallback {
+        private final MailStoreRequestCallback requestCallback;
+        private boolean complete;
+        private Throwable exception;
+        private boolean isFinal;
+        
+        public DeferredRequestCallback(MailStoreRequestCallback requestCallback) {
+            this.requestCallback = requestCallback;
+        }
+        
+        public void mailStoreRequestComplete(MailStoreRequest request) {
+            this.complete = true;
+        }
+        
+        public void mailStoreRequestFailed(MailStoreRequest request, Throwable exception, boolean isFinal) {
+            this.exception = exception;
+            this.isFinal = isFinal;
+        }
+    }
+}
@@ -103,6 +103,26 @@ class NetworkFolderMessagesRequest extends NetworkMailStoreRequest implements Fo
         return resources.getString(LogicMailResource.MAILCONNECTION_REQUEST_FOLDER_MESSAGES) + "...";
     }
     
+    boolean isRedundantWith(NetworkMailStoreRequest request) {
+        // Recent message requests are commonly triggered by server
+        // notifications, and can therefore pile up behind other requests
+        if(type != TYPE_RECENT) {
+            return false;
+        }
+        else if(request instanceof NetworkFolderMessagesRequest) {
+            NetworkFolderMessagesRequest folderRequest = (NetworkFolderMessagesRequest)request;
+            return folderRequest.type == TYPE_RECENT
+                && isSameFolder(folder, folderRequest.folder)
+                && (flagsOnly || !folderRequest.flagsOnly);
+        }
+        else if(request instanceof ImapFolderRefreshRequest) {
+            return isSameFolder(folder, ((ImapFolderRefreshRequest)request).getFolder());
+        }
+        else {
+            return false;
+        }
+    }
+    
     public void execute(MailClient client) throws IOException, MailException {
         IncomingMailClient incomingClient = (IncomingMailClient)client;
 
@@ -51,6 +51,28 @@ class NetworkFolderStatusRequest extends NetworkMailStoreRequest implements Fold
         return resources.getString(LogicMailResource.MAILCONNECTION_REQUEST_FOLDER_STATUS);
     }
     
+    boolean isRedundantWith(NetworkMailStoreRequest request) {
+        if(!(request instanceof NetworkFolderStatusRequest)) {
+            return false;
+        }
+        
+        // Redundant if the queued request covers all of our folders
+        FolderTreeItem[] queuedFolders = ((NetworkFolderStatusRequest)request).folders;
+        for(int i=0; i<folders.length; i++) {
+            boolean found = false;
+            for(int j=0; j<queuedFolders.length; j++) {
+                if(isSameFolder(folders[i], queuedFolders[j])) {
+                    found = true;
+                    break;
+                }
+            }
+            if(!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
     public void execute(MailClient client) throws IOException, MailException {
         IncomingMailClient incomingClient = (IncomingMailClient)client;
         
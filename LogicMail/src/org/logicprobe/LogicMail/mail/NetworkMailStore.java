@@ -32,20 +32,30 @@
 package org.logicprobe.LogicMail.mail;
 
 import java.util.Date;
+import java.util.Vector;
 
 import net.rim.device.api.system.UnsupportedOperationException;
 
 import org.logicprobe.LogicMail.conf.AccountConfig;
+import org.logicprobe.LogicMail.conf.ImapConfig;
 import org.logicprobe.LogicMail.mail.imap.ImapClient;
 import org.logicprobe.LogicMail.mail.pop.PopClient;
 import org.logicprobe.LogicMail.message.FolderMessage;
 import org.logicprobe.LogicMail.message.MessageFlags;
 import org.logicprobe.LogicMail.message.MimeMessagePart;
+import org.logicprobe.LogicMail.util.DataSpool;
 
 public class NetworkMailStore extends AbstractMailStore {
 	private IncomingMailClient client;
 	private IncomingMailConnectionHandler connectionHandler;
 	private AccountConfig accountConfig;
+	
+	/**
+	 * Pool of secondary connections used for downloading message content,
+	 * which is created as needed up to the limit in the account configuration.
+	 */
+	private final Vector secondaryHandlers = new Vector();
+	
 	public NetworkMailStore(AccountConfig accountConfig) {
 		super();
 		this.client = MailClientFactory.createMailClient(accountConfig);
@@ -65,6 +75,12 @@ public class NetworkMailStore extends AbstractMailStore {
 	
 	public void shutdown(boolean wait) {
 		connectionHandler.shutdown(wait);
+		synchronized(secondaryHandlers) {
+		    int size = secondaryHandlers.size();
+		    for(int i=0; i<size; i++) {
+		        ((SecondaryConnectionHandler)secondaryHandlers.elementAt(i)).shutdown(wait);
+		    }
+		}
 	}
 
 	/**
@@ -150,6 +166,16 @@ public class NetworkMailStore extends AbstractMailStore {
      */
     public void requestDisconnect() {
         processRequest(new NetworkDisconnectRequest(this, NetworkDisconnectRequest.REQUEST_DISCONNECT));
+        synchronized(secondaryHandlers) {
+            int size = secondaryHandlers.size();
+            for(int i=0; i<size; i++) {
+                SecondaryConnectionHandler handler = (SecondaryConnectionHandler)secondaryHandlers.elementAt(i);
+                if(handler.isRunning()
+                        && handler.getConnectionState() != AbstractMailConnectionHandler.STATE_CLOSED) {
+                    handler.addRequest(new NetworkDisconnectRequest(this, NetworkDisconnectRequest.REQUEST_DISCONNECT));
+                }
+            }
+        }
     }
 
     /**
@@ -293,7 +319,7 @@ public class NetworkMailStore extends AbstractMailStore {
 	    throw new UnsupportedOperationException();
 	}
     
-	public MessageAppendRequest createMessageAppendRequest(FolderTreeItem folder, String rawMessage, MessageFlags initialFlags) {
+	public MessageAppendRequest createMessageAppendRequest(FolderTreeItem folder, DataSpool rawMessage, MessageFlags initialFlags) {
 		if(!this.hasAppend()) {
 			throw new UnsupportedOperationException();
 		}
@@ -310,7 +336,17 @@ public class NetworkMailStore extends AbstractMailStore {
 	}
 	
     public void processRequest(MailStoreRequest request) {
-        if(request instanceof NetworkMailStoreRequest
+        if(request instanceof NetworkMessageRequest) {
+            SecondaryConnectionHandler handler =
+                getSecondaryHandler(((NetworkMessageRequest)request).getMessageToken());
+            if(handler != null) {
+                handler.addRequest((ConnectionHandlerRequest)request);
+            }
+            else {
+                connectionHandler.addRequest((ConnectionHandlerRequest)request);
+            }
+        }
+        else if(request instanceof NetworkMailStoreRequest
                 && request instanceof ConnectionHandlerRequest) {
             connectionHandler.addRequest((ConnectionHandlerRequest)request);
         }
@@ -319,6 +355,36 @@ public class NetworkMailStore extends AbstractMailStore {
         }
     }
     
+    /**
+     * Submits a set of requests to the mail store for processing, as a
+     * single request to the connection handler.
+     * <p>
+     * For IMAP accounts, the commands issued by all the requests are
+     * pipelined, so the whole batch is sent to the server in a single write
+     * instead of waiting for a round trip per command.
+     * </p>
+     *
+     * @param requests the requests to process
+     */
+    public void processRequests(MailStoreRequest[] requests) {
+        if(requests.length == 0) {
+            return;
+        }
+        else if(requests.length == 1) {
+            processRequest(requests[0]);
+            return;
+        }
+        
+        NetworkMailStoreRequest[] networkRequests = new NetworkMailStoreRequest[requests.length];
+        for(int i=0; i<requests.length; i++) {
+            if(!(requests[i] instanceof NetworkMailStoreRequest)) {
+                throw new IllegalArgumentException();
+            }
+            networkRequests[i] = (NetworkMailStoreRequest)requests[i];
+        }
+        connectionHandler.addRequest(new NetworkBatchRequest(this, networkRequests));
+    }
+    
     /**
      * Submits the request to the mail store for processing, placing it at the
      * top of the request queue.
@@ -338,4 +404,120 @@ public class NetworkMailStore extends AbstractMailStore {
     IncomingMailConnectionHandler getConnectionHandler() {
         return connectionHandler;
     }
+    
+    /**
+     * Gets the number of requests waiting to be processed by the connections
+     * for this mail store, at a particular priority.
+     *
+     * @param priority the request priority, from {@link ConnectionHandlerRequest}
+     * @return the number of queued requests
+     */
+    public int getRequestQueueDepth(int priority) {
+        int result;
+        RequestQueue requestQueue = connectionHandler.getRequestQueue();
+        synchronized(requestQueue) {
+            result = requestQueue.size(priority);
+        }
+        synchronized(secondaryHandlers) {
+            int size = secondaryHandlers.size();
+            for(int i=0; i<size; i++) {
+                requestQueue = ((SecondaryConnectionHandler)secondaryHandlers.elementAt(i)).getRequestQueue();
+                synchronized(requestQueue) {
+                    result += requestQueue.size(priority);
+                }
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Gets the average time that requests at a particular priority have
+     * waited for the main connection of this mail store.
+     *
+     * @param priority the request priority, from {@link ConnectionHandlerRequest}
+     * @return the average wait time, in milliseconds
+     */
+    public long getRequestWaitTime(int priority) {
+        RequestQueue requestQueue = connectionHandler.getRequestQueue();
+        synchronized(requestQueue) {
+            return requestQueue.getAverageWaitTime(priority);
+        }
+    }
+    
+    /**
+     * Gets the secondary connection that should handle a content download
+     * for the provided message.
+     * <p>
+     * Secondary connections are only used once the main connection has been
+     * opened, so that any login prompts and connection errors are handled
+     * there first.  A connection that already has the message's folder
+     * selected is preferred, followed by any connection that is not busy.
+     * New connections are added to the pool before queueing behind a busy one.
+     * </p>
+     *
+     * @param messageToken the token for the message being downloaded
+     * @return the secondary connection handler, or null if the request
+     *     should be handled by the main connection
+     */
+    private SecondaryConnectionHandler getSecondaryHandler(MessageToken messageToken) {
+        if(!(accountConfig instanceof ImapConfig)) { return null; }
+        
+        int maxSecondary = ((ImapConfig)accountConfig).getMaxConnections() - 1;
+        int state = connectionHandler.getConnectionState();
+        if(maxSecondary <= 0
+                || state == AbstractMailConnectionHandler.STATE_CLOSED
+                || state == AbstractMailConnectionHandler.STATE_OPENING
+                || state == AbstractMailConnectionHandler.STATE_CLOSING) {
+            return null;
+        }
+        
+        SecondaryConnectionHandler result = null;
+        synchronized(secondaryHandlers) {
+            int size = Math.min(secondaryHandlers.size(), maxSecondary);
+            SecondaryConnectionHandler availableHandler = null;
+            SecondaryConnectionHandler folderHandler = null;
+            for(int i=0; i<size; i++) {
+                SecondaryConnectionHandler handler = (SecondaryConnectionHandler)secondaryHandlers.elementAt(i);
+                boolean busy = handler.isBusy();
+                if(handler.isActiveFolder(messageToken)) {
+                    if(!busy) {
+                        result = handler;
+                        break;
+                    }
+                    else if(folderHandler == null) {
+                        folderHandler = handler;
+                    }
+                }
+                else if(!busy && availableHandler == null) {
+                    availableHandler = handler;
+                }
+            }
+            
+            if(result == null) {
+                if(availableHandler != null) {
+                    result = availableHandler;
+                }
+                else if(size < maxSecondary) {
+                    IncomingMailClient secondaryClient = MailClientFactory.createSecondaryMailClient(accountConfig);
+                    if(secondaryClient == null) { return null; }
+                    result = new SecondaryConnectionHandler(secondaryClient);
+                    secondaryHandlers.addElement(result);
+                }
+                else if(folderHandler != null) {
+                    result = folderHandler;
+                }
+                else {
+                    result = (SecondaryConnectionHandler)secondaryHandlers.elementAt(0);
+                }
+            }
+            
+            // Use the credentials that were accepted by the main connection,
+            // in case they were provided through a login prompt
+            IncomingMailClient secondaryClient = result.getClient();
+            secondaryClient.setUsername(client.getUsername());
+            secondaryClient.setPassword(client.getPassword());
+            result.start();
+        }
+        return result;
+    }
 }
@@ -32,6 +32,7 @@
 package org.logicprobe.LogicMail.mail;
 
 import java.io.IOException;
+import java.util.Vector;
 
 import net.rim.device.api.i18n.MessageFormat;
 
@@ -42,6 +43,8 @@ abstract class NetworkMailStoreRequest extends AbstractMailStoreRequest implemen
     protected final NetworkMailStore mailStore;
     protected final AccountConfig config;
     private boolean deliberate = true;
+    private int priority = -1;
+    private Vector mergedRequests;
     
     NetworkMailStoreRequest(NetworkMailStore mailStore) {
         this.mailStore = mailStore;
@@ -60,10 +63,119 @@ abstract class NetworkMailStoreRequest extends AbstractMailStoreRequest implemen
         return deliberate;
     }
     
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
+    
+    public int getPriority() {
+        if(priority != -1) {
+            return priority;
+        }
+        else {
+            return getDefaultPriority();
+        }
+    }
+    
+    /**
+     * Gets the priority of this request if one has not been explicitly set.
+     * The default implementation treats deliberate requests as interactive,
+     * and all other requests as background.
+     * 
+     * @return the default priority
+     */
+    protected int getDefaultPriority() {
+        return deliberate ? PRIORITY_INTERACTIVE : PRIORITY_BACKGROUND;
+    }
+    
     public boolean isAdministrative() {
         return false;
     }
     
+    /**
+     * Checks whether this request would accomplish nothing beyond what an
+     * already queued request will accomplish.  If so, the request queue merges
+     * this request into the queued one instead of adding it.
+     * <p>
+     * Since a merged request is never executed, it only receives its
+     * completion or failure notification.  Therefore, only requests whose
+     * results are delivered through mail store events should return true.
+     * </p>
+     * 
+     * @param request the queued request
+     * @return true, if this request is redundant
+     */
+    boolean isRedundantWith(NetworkMailStoreRequest request) {
+        return false;
+    }
+    
+    /**
+     * Checks whether this request makes an already queued request
+     * unnecessary.  If so, the request queue removes the queued request and
+     * merges it into this one.
+     * 
+     * @param request the queued request
+     * @return true, if this request supersedes the queued request
+     * @see #isRedundantWith(NetworkMailStoreRequest)
+     */
+    boolean supersedes(NetworkMailStoreRequest request) {
+        return false;
+    }
+    
+    /**
+     * Merges another request into this request, so that it is notified when
+     * this request completes or fails.
+     * 
+     * @param request the request to merge
+     */
+    void mergeRequest(NetworkMailStoreRequest request) {
+        synchronized(this) {
+            if(mergedRequests == null) {
+                mergedRequests = new Vector();
+            }
+            mergedRequests.addElement(request);
+        }
+    }
+    
+    protected void fireMailStoreRequestComplete() {
+        super.fireMailStoreRequestComplete();
+        NetworkMailStoreRequest[] requests = getMergedRequests();
+        for(int i=0; i<requests.length; i++) {
+            requests[i].fireMailStoreRequestComplete();
+        }
+    }
+    
+    protected void fireMailStoreRequestFailed(Throwable exception, boolean isFinal) {
+        super.fireMailStoreRequestFailed(exception, isFinal);
+        NetworkMailStoreRequest[] requests = getMergedRequests();
+        for(int i=0; i<requests.length; i++) {
+            requests[i].fireMailStoreRequestFailed(exception, isFinal);
+        }
+    }
+    
+    private synchronized NetworkMailStoreRequest[] getMergedRequests() {
+        NetworkMailStoreRequest[] result;
+        if(mergedRequests != null) {
+            result = new NetworkMailStoreRequest[mergedRequests.size()];
+            mergedRequests.copyInto(result);
+        }
+        else {
+            result = new NetworkMailStoreRequest[0];
+        }
+        return result;
+    }
+    
+    /**
+     * Checks whether two folders have the same path.
+     * 
+     * @param folder1 the first folder
+     * @param folder2 the second folder
+     * @return true, if the folders are the same
+     */
+    protected static boolean isSameFolder(FolderTreeItem folder1, FolderTreeItem folder2) {
+        return folder1 != null && folder2 != null
+            && folder1.getPath().equals(folder2.getPath());
+    }
+    
     protected abstract String getInitialStatus();
     
     public void showInitialStatus() {
@@ -32,16 +32,19 @@
 package org.logicprobe.LogicMail.mail;
 
 import java.io.IOException;
+import java.util.Vector;
 
 import org.logicprobe.LogicMail.LogicMailResource;
 import org.logicprobe.LogicMail.message.MessageFlags;
+import org.logicprobe.LogicMail.util.DataSpool;
 
 class NetworkMessageAppendRequest extends NetworkMailStoreRequest implements MessageAppendRequest {
     private final FolderTreeItem folder;
-    private final String rawMessage;
+    private final DataSpool rawMessage;
     private final MessageFlags initialFlags;
+    private Vector batchedRequests;
     
-    NetworkMessageAppendRequest(NetworkMailStore mailStore, FolderTreeItem folder, String rawMessage, MessageFlags initialFlags) {
+    NetworkMessageAppendRequest(NetworkMailStore mailStore, FolderTreeItem folder, DataSpool rawMessage, MessageFlags initialFlags) {
         super(mailStore);
         this.folder = folder;
         this.rawMessage = rawMessage;
@@ -52,7 +55,7 @@ class NetworkMessageAppendRequest extends NetworkMailStoreRequest implements Mes
         return folder;
     }
     
-    public String getRawMessage() {
+    public DataSpool getRawMessage() {
         return rawMessage;
     }
     
@@ -60,6 +63,46 @@ class NetworkMessageAppendRequest extends NetworkMailStoreRequest implements Mes
         return initialFlags;
     }
     
+    /**
+     * Queued appends to the same folder are folded into the newest one, so
+     * they can be uploaded together if the server supports it.
+     */
+    boolean supersedes(NetworkMailStoreRequest request) {
+        return request instanceof NetworkMessageAppendRequest
+            && isSameFolder(folder, ((NetworkMessageAppendRequest)request).folder);
+    }
+    
+    void mergeRequest(NetworkMailStoreRequest request) {
+        super.mergeRequest(request);
+        if(request instanceof NetworkMessageAppendRequest) {
+            NetworkMessageAppendRequest appendRequest = (NetworkMessageAppendRequest)request;
+            NetworkMessageAppendRequest[] requests = appendRequest.getBatchedRequests();
+            synchronized(this) {
+                if(batchedRequests == null) {
+                    batchedRequests = new Vector();
+                }
+                // Queued requests are merged newest first, so insert at the
+                // head to keep the messages in the order they were added
+                batchedRequests.insertElementAt(appendRequest, 0);
+                for(int i=requests.length - 1; i >= 0; i--) {
+                    batchedRequests.insertElementAt(requests[i], 0);
+                }
+            }
+        }
+    }
+    
+    private synchronized NetworkMessageAppendRequest[] getBatchedRequests() {
+        NetworkMessageAppendRequest[] result;
+        if(batchedRequests != null) {
+            result = new NetworkMessageAppendRequest[batchedRequests.size()];
+            batchedRequests.copyInto(result);
+        }
+        else {
+            result = new NetworkMessageAppendRequest[0];
+        }
+        return result;
+    }
+    
     protected String getInitialStatus() {
         return resources.getString(LogicMailResource.MAILCONNECTION_REQUEST_MESSAGE_APPEND);
     }
@@ -68,7 +111,21 @@ class NetworkMessageAppendRequest extends NetworkMailStoreRequest implements Mes
         IncomingMailClient incomingClient = (IncomingMailClient)client;
         
         if(incomingClient.hasAppend()) {
-            incomingClient.appendMessage(folder, rawMessage, initialFlags);
+            NetworkMessageAppendRequest[] requests = getBatchedRequests();
+            if(requests.length == 0) {
+                incomingClient.appendMessage(folder, rawMessage, initialFlags);
+            }
+            else {
+                DataSpool[] rawMessages = new DataSpool[requests.length + 1];
+                MessageFlags[] flags = new MessageFlags[requests.length + 1];
+                for(int i=0; i<requests.length; i++) {
+                    rawMessages[i] = requests[i].rawMessage;
+                    flags[i] = requests[i].initialFlags;
+                }
+                rawMessages[requests.length] = rawMessage;
+                flags[requests.length] = initialFlags;
+                incomingClient.appendMessages(folder, rawMessages, flags);
+            }
         }
         
         fireMailStoreRequestComplete();
@@ -81,6 +81,12 @@ class NetworkMessageRequest extends NetworkMailStoreRequest implements MessageRe
         return messageParts;
     }
     
+    protected int getDefaultPriority() {
+        // Content requests that the user is not waiting on are still more
+        // urgent than other background work
+        return isDeliberate() ? PRIORITY_INTERACTIVE : PRIORITY_PREFETCH;
+    }
+    
     protected String getInitialStatus() {
         return resources.getString(LogicMailResource.MAILCONNECTION_REQUEST_MESSAGE);
     }
@@ -38,6 +38,7 @@ import net.rim.device.api.i18n.ResourceBundle;
 import org.logicprobe.LogicMail.LogicMailResource;
 import org.logicprobe.LogicMail.message.Message;
 import org.logicprobe.LogicMail.message.MessageEnvelope;
+import org.logicprobe.LogicMail.util.DataSpool;
 
 class NetworkSendMessageRequest implements ConnectionHandlerRequest {
     
@@ -49,6 +50,7 @@ class NetworkSendMessageRequest implements ConnectionHandlerRequest {
     private final MessageEnvelope envelope;
     private final Message message;
     private boolean deliberate = true;
+    private int priority = -1;
     
     NetworkSendMessageRequest(NetworkMailSender mailSender, MessageEnvelope envelope, Message message) {
         this.mailSender = mailSender;
@@ -64,6 +66,19 @@ class NetworkSendMessageRequest implements ConnectionHandlerRequest {
         return deliberate;
     }
     
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
+    
+    public int getPriority() {
+        if(priority != -1) {
+            return priority;
+        }
+        else {
+            return deliberate ? PRIORITY_INTERACTIVE : PRIORITY_BACKGROUND;
+        }
+    }
+    
     public boolean isAdministrative() {
         return false;
     }
@@ -78,10 +93,10 @@ class NetworkSendMessageRequest implements ConnectionHandlerRequest {
         OutgoingMailClient outgoingClient = (OutgoingMailClient)client;
         
         showStatus(outgoingClient, resources.getString(LogicMailResource.MAILCONNECTION_REQUEST_SEND_MESSAGE));
-		byte[] rawMessage = outgoingClient.sendMessage(envelope, message);
-		String messageSource;
-		if(rawMessage != null && rawMessage.length > 0) {
-		    messageSource = new String(rawMessage);
+		DataSpool rawMessage = outgoingClient.sendMessage(envelope, message);
+		DataSpool messageSource;
+		if(rawMessage != null && rawMessage.size() > 0) {
+		    messageSource = rawMessage;
 		}
 		else {
 		    messageSource = null;
@@ -34,6 +34,7 @@ package org.logicprobe.LogicMail.mail;
 import java.io.IOException;
 import org.logicprobe.LogicMail.message.Message;
 import org.logicprobe.LogicMail.message.MessageEnvelope;
+import org.logicprobe.LogicMail.util.DataSpool;
 
 /**
  * Create a generic interface to outgoing mail protocols.
@@ -44,9 +45,10 @@ public interface OutgoingMailClient extends MailClient {
      *
      * @param envelope Envelope of the message to send.
      * @param message Message to send.
-     * @return Actual raw message text that was sent.
+     * @return Actual raw message data that was sent, which can be read again
+     *     to save a copy of the message.
      * @throws IOException on I/O errors
      * @throws MailException on protocol errors
      */
-    public abstract byte[] sendMessage(MessageEnvelope envelope, Message message) throws IOException, MailException;
+    public abstract DataSpool sendMessage(MessageEnvelope envelope, Message message) throws IOException, MailException;
 }
@@ -1,27 +1,22 @@
 package org.logicprobe.LogicMail.mail;
 
 import java.io.IOException;
-import java.util.Timer;
-import java.util.TimerTask;
 
-import org.logicprobe.LogicMail.util.Queue;
+import org.logicprobe.LogicMail.util.TimerWheel;
 
 public class OutgoingMailConnectionHandler extends AbstractMailConnectionHandler {
-	private Timer connectionTimer = null;
-	
 	/** Two minute timeout */
 	private static final int CONNECTION_TIMEOUT = 120 * 1000;
 	
 	public OutgoingMailConnectionHandler(OutgoingMailClient client) {
 		super(client);
-		this.connectionTimer = new Timer();
 	}
 
-	private TimerTask connectionTimerTask;
+	private TimerWheel.Timeout connectionTimerTask;
 	
-	private class ConnectionTimerTask extends TimerTask {
+	private class ConnectionTimerTask implements Runnable {
 		public void run() {
-			Queue requestQueue = getRequestQueue();
+			RequestQueue requestQueue = getRequestQueue();
 			synchronized(requestQueue) {
 				setConnectionState(STATE_CLOSING);
 				requestQueue.notifyAll();
@@ -45,8 +40,8 @@ public class OutgoingMailConnectionHandler extends AbstractMailConnectionHandler
 			connectionTimerTask.cancel();
 			connectionTimerTask = null;
 		}
-		connectionTimerTask = new ConnectionTimerTask();
-		connectionTimer.schedule(connectionTimerTask, CONNECTION_TIMEOUT);
+		connectionTimerTask = TimerWheel.getInstance().schedule(
+				"OutgoingMailConnectionHandler.connection", new ConnectionTimerTask(), CONNECTION_TIMEOUT);
 	}
 	
 	protected void handleEndIdle() throws IOException, MailException {
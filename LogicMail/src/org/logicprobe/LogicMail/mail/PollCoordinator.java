@@ -0,0 +1,256 @@
+/*-
+ * Copyright (c) 2011, Derek Konigsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution. 
+ * 3. Neither the name of the project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.logicprobe.LogicMail.mail;
+
+import java.util.Vector;
+
+import net.rim.device.api.system.EventLogger;
+
+import org.logicprobe.LogicMail.AppInfo;
+import org.logicprobe.LogicMail.util.TimerWheel;
+import org.logicprobe.LogicMail.util.WorkerPool;
+
+/**
+ * Coordinates the polling refreshes of all accounts, so they share as few
+ * radio wake-ups as possible.
+ * <p>
+ * Each refresh is scheduled with a tolerance, which is how far it may be
+ * moved away from its requested time.  Refreshes are grouped into wake
+ * windows, and a new refresh joins the closest existing window within its
+ * tolerance instead of starting one of its own.  When a window is due, all
+ * of its refreshes are started together on the {@link WorkerPool}, so the
+ * accounts connect concurrently during a single wake-up.
+ * </p>
+ * <p>
+ * Since every account schedules its next refresh from the time of its last
+ * one, accounts with the same polling interval stay in the same window once
+ * they have been grouped together.
+ * </p>
+ */
+public class PollCoordinator {
+    private static PollCoordinator instance;
+    
+    private final TimerWheel timerWheel;
+    private final WorkerPool workerPool;
+    private final Vector windows = new Vector();
+    private int wakeUpCount;
+    private int refreshCount;
+    
+    /**
+     * Gets the poll coordinator shared by all accounts.
+     *
+     * @return the shared poll coordinator
+     */
+    public static synchronized PollCoordinator getInstance() {
+        if(instance == null) {
+            instance = new PollCoordinator(TimerWheel.getInstance(), WorkerPool.getInstance());
+        }
+        return instance;
+    }
+    
+    /**
+     * Instantiates a new poll coordinator.
+     *
+     * @param timerWheel the timer wheel to schedule wake windows on
+     * @param workerPool the pool to run refreshes on
+     */
+    PollCoordinator(TimerWheel timerWheel, WorkerPool workerPool) {
+        this.timerWheel = timerWheel;
+        this.workerPool = workerPool;
+    }
+    
+    /**
+     * Schedules a refresh to run once, as close as possible to the requested
+     * delay while sharing a wake window with other refreshes.
+     *
+     * @param name the name to record worker pool statistics under
+     * @param task the refresh task
+     * @param delay the requested delay before running the task, in milliseconds
+     * @param tolerance how far the task may be moved from the requested
+     *     time, in milliseconds
+     * @return the scheduled refresh, which can be used to cancel it
+     */
+    public ScheduledRefresh schedule(String name, Runnable task, long delay, long tolerance) {
+        if(name == null || task == null) {
+            throw new NullPointerException();
+        }
+        if(delay < 0 || tolerance < 0) {
+            throw new IllegalArgumentException();
+        }
+        
+        ScheduledRefresh refresh = new ScheduledRefresh(name, task);
+        long now = System.currentTimeMillis();
+        long deadline = now + delay;
+        synchronized(windows) {
+            Window window = null;
+            long bestDistance = Long.MAX_VALUE;
+            int size = windows.size();
+            for(int i=0; i<size; i++) {
+                Window candidate = (Window)windows.elementAt(i);
+                long distance = Math.abs(candidate.time - deadline);
+                if(distance <= tolerance && distance < bestDistance && candidate.time > now) {
+                    window = candidate;
+                    bestDistance = distance;
+                }
+            }
+            
+            if(window == null) {
+                window = new Window(deadline);
+                windows.addElement(window);
+                final Window newWindow = window;
+                window.timeout = timerWheel.schedule("PollCoordinator", new Runnable() {
+                    public void run() {
+                        fireWindow(newWindow);
+                    }
+                }, delay);
+            }
+            window.refreshes.addElement(refresh);
+            refresh.window = window;
+        }
+        return refresh;
+    }
+    
+    /**
+     * Gets the number of wake windows that have fired.
+     *
+     * @return the wake-up count
+     */
+    public int getWakeUpCount() {
+        synchronized(windows) {
+            return wakeUpCount;
+        }
+    }
+    
+    /**
+     * Gets the number of refreshes that have been run.
+     *
+     * @return the refresh count
+     */
+    public int getRefreshCount() {
+        synchronized(windows) {
+            return refreshCount;
+        }
+    }
+    
+    /**
+     * Gets the number of wake-ups saved by running refreshes together,
+     * compared to waking up separately for each refresh.
+     *
+     * @return the saved wake-up count
+     */
+    public int getSavedWakeUpCount() {
+        synchronized(windows) {
+            return refreshCount - wakeUpCount;
+        }
+    }
+    
+    private void fireWindow(Window window) {
+        ScheduledRefresh[] refreshes;
+        int saved;
+        synchronized(windows) {
+            windows.removeElement(window);
+            int size = window.refreshes.size();
+            if(size == 0) { return; }
+            refreshes = new ScheduledRefresh[size];
+            window.refreshes.copyInto(refreshes);
+            window.refreshes.removeAllElements();
+            for(int i=0; i<size; i++) {
+                refreshes[i].window = null;
+            }
+            wakeUpCount++;
+            refreshCount += size;
+            saved = refreshCount - wakeUpCount;
+        }
+        
+        if(EventLogger.getMinimumLevel() >= EventLogger.DEBUG_INFO) {
+            EventLogger.logEvent(AppInfo.GUID,
+                    ("Poll window: " + refreshes.length
+                    + " refreshes, " + saved + " wake-ups saved").getBytes(),
+                    EventLogger.DEBUG_INFO);
+        }
+        
+        for(int i=0; i<refreshes.length; i++) {
+            workerPool.execute(refreshes[i].name, refreshes[i].task);
+        }
+    }
+    
+    private boolean cancel(ScheduledRefresh refresh) {
+        synchronized(windows) {
+            Window window = refresh.window;
+            if(window == null) {
+                return false;
+            }
+            window.refreshes.removeElement(refresh);
+            refresh.window = null;
+            if(window.refreshes.isEmpty()) {
+                window.timeout.cancel();
+                windows.removeElement(window);
+            }
+            return true;
+        }
+    }
+    
+    /**
+     * Group of refreshes that run during the same wake-up.
+     */
+    private static class Window {
+        private final long time;
+        private final Vector refreshes = new Vector();
+        private TimerWheel.Timeout timeout;
+        
+        private Window(long time) {
+            this.time = time;
+        }
+    }
+    
+    /**
+     * Handle to a scheduled refresh.
+     */
+    public class ScheduledRefresh {
+        private final String name;
+        private final Runnable task;
+        private Window window;
+        
+        private ScheduledRefresh(String name, Runnable task) {
+            this.name = name;
+            this.task = task;
+        }
+        
+        /**
+         * Cancels the refresh, if it has not already started.
+         *
+         * @return true, if the refresh was still scheduled
+         */
+        public boolean cancel() {
+            return PollCoordinator.this.cancel(this);
+        }
+    }
+}
@@ -66,6 +66,11 @@ class PopFolderRefreshRequest extends NetworkMailStoreRequest implements MailSto
     protected String getInitialStatus() {
         return statusMessage + "...";
     }
+    
+    boolean isRedundantWith(NetworkMailStoreRequest request) {
+        return request instanceof PopFolderRefreshRequest
+            && isSameFolder(folder, ((PopFolderRefreshRequest)request).folder);
+    }
 
     public void execute(MailClient client) throws IOException, MailException {
         PopClient incomingClient = (PopClient)client;
@@ -0,0 +1,299 @@
+/*-
+ * Copyright (c) 2011, Derek Konigsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution. 
+ * 3. Neither the name of the project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.logicprobe.LogicMail.mail;
+
+import java.util.NoSuchElementException;
+import java.util.Vector;
+
+import net.rim.device.api.system.EventLogger;
+
+import org.logicprobe.LogicMail.AppInfo;
+
+/**
+ * Request queue used by the connection handlers, which schedules requests
+ * according to their priority.
+ * <p>
+ * Requests are kept in separate first-in-first-out lists for each of the
+ * priority classes defined by {@link ConnectionHandlerRequest}, and the
+ * head of the queue is always the oldest request of the most urgent class.
+ * When a mail store request is added that duplicates one that is already
+ * queued, the two are merged instead of running the same operation twice.
+ * Any use of the queue must be synchronized on the queue object.
+ * </p>
+ */
+public class RequestQueue {
+    private static class Entry {
+        public final ConnectionHandlerRequest request;
+        public final long time;
+        
+        public Entry(ConnectionHandlerRequest request, long time) {
+            this.request = request;
+            this.time = time;
+        }
+    }
+    
+    private static final int PRIORITY_COUNT = ConnectionHandlerRequest.PRIORITY_BACKGROUND + 1;
+    
+    /**
+     * Waits longer than this are logged at the debug level.
+     * Currently set to 5 seconds.
+     */
+    private static final long WAIT_LOG_THRESHOLD = 5000;
+    
+    private final Vector[] entries = new Vector[PRIORITY_COUNT];
+    private final int[] removedCount = new int[PRIORITY_COUNT];
+    private final long[] totalWaitTime = new long[PRIORITY_COUNT];
+    private final long[] maxWaitTime = new long[PRIORITY_COUNT];
+    private int mergedCount;
+    
+    public RequestQueue() {
+        for(int i=0; i<PRIORITY_COUNT; i++) {
+            entries[i] = new Vector();
+        }
+    }
+    
+    /**
+     * Adds a request to the end of its priority class.
+     * <p>
+     * If the request is redundant with a request that is already queued, it
+     * is merged into that request instead of being added, and the queued
+     * request is moved up to the priority of the new one if necessary.
+     * Otherwise, any queued requests that it supersedes are removed and
+     * merged into it.  Merged requests are notified when the request they
+     * were merged into completes or fails.
+     * </p>
+     * 
+     * @param request the request
+     * @throws NullPointerException if the request is null
+     */
+    public synchronized void add(ConnectionHandlerRequest request) {
+        if(request == null) {
+            throw new NullPointerException();
+        }
+        int priority = getPriority(request);
+        long time = System.currentTimeMillis();
+        
+        if(request instanceof NetworkMailStoreRequest) {
+            NetworkMailStoreRequest networkRequest = (NetworkMailStoreRequest)request;
+            
+            // Check whether this request duplicates one that is already queued
+            for(int i=0; i<PRIORITY_COUNT; i++) {
+                int size = entries[i].size();
+                for(int j=0; j<size; j++) {
+                    Entry entry = (Entry)entries[i].elementAt(j);
+                    if(!(entry.request instanceof NetworkMailStoreRequest)) { continue; }
+                    
+                    NetworkMailStoreRequest queuedRequest = (NetworkMailStoreRequest)entry.request;
+                    if(networkRequest.isRedundantWith(queuedRequest)) {
+                        queuedRequest.mergeRequest(networkRequest);
+                        if(networkRequest.isDeliberate()) {
+                            queuedRequest.setDeliberate(true);
+                        }
+                        if(priority < i) {
+                            entries[i].removeElementAt(j);
+                            queuedRequest.setPriority(priority);
+                            entries[priority].addElement(entry);
+                        }
+                        mergedCount++;
+                        return;
+                    }
+                }
+            }
+            
+            // Remove any queued requests that this request makes unnecessary
+            for(int i=0; i<PRIORITY_COUNT; i++) {
+                for(int j=entries[i].size() - 1; j >= 0; j--) {
+                    Entry entry = (Entry)entries[i].elementAt(j);
+                    if(!(entry.request instanceof NetworkMailStoreRequest)) { continue; }
+                    
+                    NetworkMailStoreRequest queuedRequest = (NetworkMailStoreRequest)entry.request;
+                    if(networkRequest.supersedes(queuedRequest)) {
+                        entries[i].removeElementAt(j);
+                        networkRequest.mergeRequest(queuedRequest);
+                        if(queuedRequest.isDeliberate()) {
+                            networkRequest.setDeliberate(true);
+                        }
+                        if(i < priority) {
+                            priority = i;
+                            networkRequest.setPriority(priority);
+                        }
+                        time = Math.min(time, entry.time);
+                        mergedCount++;
+                    }
+                }
+            }
+        }
+        
+        entries[priority].addElement(new Entry(request, time));
+    }
+    
+    /**
+     * Pushes a request onto the head of the queue, ahead of all other
+     * requests regardless of their priority.
+     * 
+     * @param request the request
+     * @throws NullPointerException if the request is null
+     */
+    public synchronized void push(ConnectionHandlerRequest request) {
+        if(request == null) {
+            throw new NullPointerException();
+        }
+        entries[ConnectionHandlerRequest.PRIORITY_INTERACTIVE].insertElementAt(
+                new Entry(request, System.currentTimeMillis()), 0);
+    }
+    
+    /**
+     * Retrieves the request at the head of the queue.
+     * 
+     * @return the request, or null if the queue is empty
+     */
+    public synchronized Object element() {
+        for(int i=0; i<PRIORITY_COUNT; i++) {
+            if(!entries[i].isEmpty()) {
+                return ((Entry)entries[i].firstElement()).request;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Retrieves and removes the request at the head of the queue.
+     * 
+     * @return the request
+     * @throws NoSuchElementException if the queue is empty
+     */
+    public synchronized Object remove() {
+        for(int i=0; i<PRIORITY_COUNT; i++) {
+            if(!entries[i].isEmpty()) {
+                Entry entry = (Entry)entries[i].firstElement();
+                entries[i].removeElementAt(0);
+                
+                long waitTime = System.currentTimeMillis() - entry.time;
+                removedCount[i]++;
+                totalWaitTime[i] += waitTime;
+                if(waitTime > maxWaitTime[i]) {
+                    maxWaitTime[i] = waitTime;
+                }
+                if(waitTime > WAIT_LOG_THRESHOLD
+                        && EventLogger.getMinimumLevel() >= EventLogger.DEBUG_INFO) {
+                    EventLogger.logEvent(AppInfo.GUID,
+                            ("Request waited " + waitTime + "ms at priority " + i).getBytes(),
+                            EventLogger.DEBUG_INFO);
+                }
+                return entry.request;
+            }
+        }
+        throw new NoSuchElementException();
+    }
+    
+    /**
+     * Removes all requests from the queue.
+     */
+    public synchronized void clear() {
+        for(int i=0; i<PRIORITY_COUNT; i++) {
+            entries[i].removeAllElements();
+        }
+    }
+    
+    /**
+     * Gets the number of queued requests.
+     * 
+     * @return the queue depth
+     */
+    public synchronized int size() {
+        int result = 0;
+        for(int i=0; i<PRIORITY_COUNT; i++) {
+            result += entries[i].size();
+        }
+        return result;
+    }
+    
+    /**
+     * Gets the number of queued requests in a priority class.
+     * 
+     * @param priority the priority class
+     * @return the queue depth for the priority class
+     */
+    public synchronized int size(int priority) {
+        return entries[priority].size();
+    }
+    
+    /**
+     * Gets the average time that requests in a priority class have waited in
+     * the queue before being removed for processing.
+     * 
+     * @param priority the priority class
+     * @return the average wait time, in milliseconds
+     */
+    public synchronized long getAverageWaitTime(int priority) {
+        if(removedCount[priority] == 0) {
+            return 0;
+        }
+        else {
+            return totalWaitTime[priority] / removedCount[priority];
+        }
+    }
+    
+    /**
+     * Gets the longest time that a request in a priority class has waited in
+     * the queue before being removed for processing.
+     * 
+     * @param priority the priority class
+     * @return the maximum wait time, in milliseconds
+     */
+    public synchronized long getMaxWaitTime(int priority) {
+        return maxWaitTime[priority];
+    }
+    
+    /**
+     * Gets the number of requests that have been merged with other requests
+     * instead of being processed separately.
+     * 
+     * @return the number of merged requests
+     */
+    public synchronized int getMergedCount() {
+        return mergedCount;
+    }
+    
+    private static int getPriority(ConnectionHandlerRequest request) {
+        int priority = request.getPriority();
+        if(priority < ConnectionHandlerRequest.PRIORITY_INTERACTIVE) {
+            return ConnectionHandlerRequest.PRIORITY_INTERACTIVE;
+        }
+        else if(priority > ConnectionHandlerRequest.PRIORITY_BACKGROUND) {
+            return ConnectionHandlerRequest.PRIORITY_BACKGROUND;
+        }
+        else {
+            return priority;
+        }
+    }
+}
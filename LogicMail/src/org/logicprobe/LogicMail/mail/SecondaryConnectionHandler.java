@@ -0,0 +1,144 @@
+/*-
+ * Copyright (c) 2011, Derek Konigsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution. 
+ * 3. Neither the name of the project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.logicprobe.LogicMail.mail;
+
+import java.io.IOException;
+
+import org.logicprobe.LogicMail.util.TimerWheel;
+
+/**
+ * Connection handler for a secondary connection to a mail server, used to
+ * download message content without blocking the main connection for the
+ * account.
+ * <p>
+ * Unlike {@link IncomingMailConnectionHandler}, this handler does not
+ * maintain an idle session with the server.  It simply disconnects after it
+ * has been idle for a short while, and its connection state is not reported
+ * as the state of the account.
+ * </p>
+ */
+class SecondaryConnectionHandler extends AbstractMailConnectionHandler {
+    private final IncomingMailClient incomingClient;
+    
+    /**
+     * Amount of time to stay connected after the last request is completed.
+     * Currently set to 1 minute.
+     */
+    private static final int IDLE_TIMEOUT = 60000;
+    
+    private TimerWheel.Timeout idleTimerTask;
+    private volatile boolean idleTimeout;
+    
+    SecondaryConnectionHandler(IncomingMailClient client) {
+        super(client);
+        this.incomingClient = client;
+    }
+    
+    /**
+     * Gets the mail client for this connection.
+     *
+     * @return the mail client
+     */
+    IncomingMailClient getClient() {
+        return incomingClient;
+    }
+    
+    /**
+     * Gets whether this connection currently has a request in progress,
+     * or has requests waiting in its queue.
+     *
+     * @return true, if the connection is busy
+     */
+    boolean isBusy() {
+        if(getRequestInProgress() != null) {
+            return true;
+        }
+        RequestQueue requestQueue = getRequestQueue();
+        synchronized(requestQueue) {
+            return requestQueue.element() != null;
+        }
+    }
+    
+    /**
+     * Gets whether this connection is open and has the folder containing the
+     * provided message selected.
+     *
+     * @param messageToken the message token
+     * @return true, if the message's folder is active
+     */
+    boolean isActiveFolder(MessageToken messageToken) {
+        int state = getConnectionState();
+        if(state == STATE_CLOSED || state == STATE_OPENING || state == STATE_CLOSING) {
+            return false;
+        }
+        FolderTreeItem activeFolder = incomingClient.getActiveFolder();
+        return activeFolder != null && messageToken.containedWithin(activeFolder);
+    }
+    
+    protected void handleRequest(ConnectionHandlerRequest request) throws IOException, MailException {
+        if(request instanceof NetworkDisconnectRequest) {
+            throw new MailException("Requested disconnect", true, REQUEST_DISCONNECT);
+        }
+        super.handleRequest(request);
+    }
+    
+    protected void handleBeginIdle() throws IOException, MailException {
+        idleTimeout = false;
+        idleTimerTask = TimerWheel.getInstance().schedule("SecondaryConnectionHandler.idle", new Runnable() {
+            public void run() {
+                idleTimeout = true;
+                RequestQueue requestQueue = getRequestQueue();
+                synchronized(requestQueue) {
+                    requestQueue.notifyAll();
+                }
+            }
+        }, IDLE_TIMEOUT);
+    }
+    
+    protected void handleEndIdle() throws IOException, MailException {
+        if(idleTimerTask != null) {
+            idleTimerTask.cancel();
+            idleTimerTask = null;
+        }
+        
+        if(idleTimeout) {
+            // This only closes the connection if no new requests have
+            // arrived in the meantime
+            throw new MailException("Timeout disconnect", true, REQUEST_DISCONNECT_TIMEOUT);
+        }
+    }
+    
+    protected void fireConnectionStateChanged(int state) {
+        // The main connection handler for the account is responsible for
+        // reporting connection state changes.
+    }
+}
@@ -0,0 +1,208 @@
+/*-
+ * Copyright (c) 2011, Derek Konigsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution. 
+ * 3. Neither the name of the project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.logicprobe.LogicMail.mail.imap;
+
+import java.util.Hashtable;
+
+import net.rim.device.api.system.ControlledAccessException;
+import net.rim.device.api.system.PersistentObject;
+import net.rim.device.api.system.PersistentStore;
+import net.rim.device.api.util.MathUtilities;
+
+import org.logicprobe.LogicMail.conf.ConnectionConfig;
+
+/**
+ * Estimates the window size for partial message body fetches, based on the
+ * throughput and round-trip time measured on previous fetches.
+ * <p>
+ * The window is sized to cover the bandwidth-delay product of the link,
+ * plus enough data to keep each fetch about a second long.  This keeps the
+ * link busy while the next fetch is pipelined behind the current one, and
+ * still allows regular progress updates on slow links.
+ * </p>
+ * <p>
+ * Estimates are shared by all connections using the same transport type,
+ * and are persisted so they do not have to be learned again every session.
+ * </p>
+ */
+class FetchWindowEstimator {
+    static final int WINDOW_MIN = 1024;
+    static final int WINDOW_MAX = 262144;
+    private static final int WINDOW_INITIAL_WIFI = 8192;
+    private static final int WINDOW_INITIAL_MOBILE = 4096;
+    
+    /** Target time to receive each window, in milliseconds. */
+    private static final int TARGET_TIME = 1000;
+    
+    /** Fraction of window change that causes the estimate to be persisted. */
+    private static final int PERSIST_THRESHOLD_SHIFT = 2;
+    
+    private static final Hashtable estimators = new Hashtable();
+    private static PersistentObject store;
+    
+    private final Integer transportKey;
+    private boolean persistent;
+    private int window;
+    private int throughput;
+    private int roundTripTime;
+    private int persistedWindow;
+    
+    /**
+     * Gets the estimator for the provided transport type.
+     *
+     * @param transportType the transport type, based on the
+     *     <code>ConnectionConfig.TRANSPORT_XXXX</code> constants
+     * @return the estimator
+     */
+    public static synchronized FetchWindowEstimator getInstance(int transportType) {
+        Integer transportKey = new Integer(transportType);
+        FetchWindowEstimator estimator = (FetchWindowEstimator)estimators.get(transportKey);
+        if(estimator == null) {
+            estimator = new FetchWindowEstimator(transportType, loadEstimate(transportKey));
+            estimator.persistent = true;
+            estimators.put(transportKey, estimator);
+        }
+        return estimator;
+    }
+    
+    /**
+     * Instantiates a new estimator, which is not persisted.
+     *
+     * @param transportType the transport type
+     * @param estimate the previously saved estimate, or <code>null</code>
+     */
+    FetchWindowEstimator(int transportType, int[] estimate) {
+        this.transportKey = new Integer(transportType);
+        if(estimate != null && estimate.length == 3) {
+            this.window = MathUtilities.clamp(WINDOW_MIN, estimate[0], WINDOW_MAX);
+            this.throughput = estimate[1];
+            this.roundTripTime = estimate[2];
+        }
+        else if(transportType == ConnectionConfig.TRANSPORT_WIFI_ONLY) {
+            this.window = WINDOW_INITIAL_WIFI;
+        }
+        else {
+            this.window = WINDOW_INITIAL_MOBILE;
+        }
+        this.persistedWindow = window;
+    }
+    
+    /**
+     * Gets the current window size.
+     *
+     * @return the number of octets to request with the next fetch
+     */
+    public synchronized int getWindow() {
+        return window;
+    }
+    
+    /**
+     * Updates the estimate with the measurements from a completed fetch.
+     *
+     * @param octets the number of octets received
+     * @param elapsed the time taken to receive them, in milliseconds
+     * @param pipelined true if the fetch was requested before the previous
+     *     one had completed, so the elapsed time does not include a round trip
+     */
+    public synchronized void update(int octets, long elapsed, boolean pipelined) {
+        if(octets <= 0) { return; }
+        if(elapsed < 1) { elapsed = 1; }
+        
+        long sample = ((long)octets * 1000) / elapsed;
+        
+        if(!pipelined) {
+            // The time for a fetch that was not pipelined is the round trip
+            // time plus the transfer time, so the throughput sample would be
+            // too low.  It can be used to measure the round trip instead.
+            if(throughput > 0) {
+                long transferTime = ((long)octets * 1000) / throughput;
+                int rttSample = (int)Math.max(0, elapsed - transferTime);
+                roundTripTime = (roundTripTime == 0) ? rttSample : ((roundTripTime * 3) + rttSample) >> 2;
+            }
+            else {
+                throughput = (int)Math.min(sample, Integer.MAX_VALUE);
+            }
+        }
+        else {
+            throughput = (int)Math.min(((long)throughput * 3 + sample) >> 2, Integer.MAX_VALUE);
+        }
+        
+        // Size the window to the bandwidth-delay product plus the target
+        // time, but do not more than double or halve it in one step.
+        long target = ((long)throughput * (roundTripTime + TARGET_TIME)) / 1000;
+        target = Math.max(window >>> 1, Math.min(target, (long)window << 1));
+        window = (int)Math.max(WINDOW_MIN, Math.min(target, WINDOW_MAX));
+        
+        if(persistent && Math.abs(window - persistedWindow) > (persistedWindow >>> PERSIST_THRESHOLD_SHIFT)) {
+            persistedWindow = window;
+            saveEstimate(transportKey, new int[] { window, throughput, roundTripTime });
+        }
+    }
+    
+    private static int[] loadEstimate(Integer transportKey) {
+        if(!tryInitializeStore()) { return null; }
+        synchronized(store) {
+            Object contents = store.getContents();
+            if(contents instanceof Hashtable) {
+                Object estimate = ((Hashtable)contents).get(transportKey);
+                if(estimate instanceof int[]) {
+                    return (int[])estimate;
+                }
+            }
+        }
+        return null;
+    }
+    
+    private static void saveEstimate(Integer transportKey, int[] estimate) {
+        if(!tryInitializeStore()) { return; }
+        synchronized(store) {
+            Object contents = store.getContents();
+            if(!(contents instanceof Hashtable)) {
+                contents = new Hashtable();
+                store.setContents(contents);
+            }
+            ((Hashtable)contents).put(transportKey, estimate);
+            store.commit();
+        }
+    }
+    
+    private static synchronized boolean tryInitializeStore() {
+        if(store != null) { return true; }
+        try {
+            //"org.logicprobe.LogicMail.mail.imap.FetchWindowEstimator"
+            store = PersistentStore.getPersistentObject(0x2d6c5b1f39e4a870L);
+            return true;
+        } catch (ControlledAccessException e) {
+            return false;
+        }
+    }
+}
@@ -31,6 +31,7 @@
 
 package org.logicprobe.LogicMail.mail.imap;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.Enumeration;
 import java.util.Hashtable;
@@ -53,17 +54,22 @@ import org.logicprobe.LogicMail.mail.MailException;
 import org.logicprobe.LogicMail.mail.MailProgressHandler;
 import org.logicprobe.LogicMail.mail.MessageToken;
 import org.logicprobe.LogicMail.mail.imap.ImapProtocol.FetchEnvelopeResponse;
+import org.logicprobe.LogicMail.message.ContentPart;
 import org.logicprobe.LogicMail.message.FolderMessage;
 import org.logicprobe.LogicMail.message.Message;
+import org.logicprobe.LogicMail.message.MessagePart;
 import org.logicprobe.LogicMail.message.MimeMessageContent;
 import org.logicprobe.LogicMail.message.MimeMessageContentFactory;
 import org.logicprobe.LogicMail.message.MessageFlags;
 import org.logicprobe.LogicMail.message.MimeMessagePart;
 import org.logicprobe.LogicMail.message.MimeMessagePartFactory;
 import org.logicprobe.LogicMail.message.MultiPart;
+import org.logicprobe.LogicMail.message.TextPart;
 import org.logicprobe.LogicMail.message.UnsupportedContentException;
 import org.logicprobe.LogicMail.message.UnsupportedPart;
+import org.logicprobe.LogicMail.util.Base64DecodingOutputStream;
 import org.logicprobe.LogicMail.util.Connection;
+import org.logicprobe.LogicMail.util.DataSpool;
 import org.logicprobe.LogicMail.util.NetworkConnector;
 import org.logicprobe.LogicMail.util.DataStore;
 import org.logicprobe.LogicMail.util.DataStoreFactory;
@@ -130,12 +136,71 @@ public class ImapClient extends AbstractIncomingMailClient {
      */
     private final Hashtable knownMailboxes = new Hashtable();
 
+    /**
+     * Whether the QRESYNC extension has been enabled for this session.
+     */
+    private boolean qresyncEnabled;
+
+    /**
+     * Whether a NOTIFY request is in effect for this session, so changes to
+     * other mailboxes are pushed by the server while idle.
+     */
+    private boolean notifyEnabled;
+
+    /**
+     * Whether the server rejected the NOTIFY request for this session.
+     */
+    private boolean notifyFailed;
+
+    /**
+     * Mailboxes whose status is tracked while idle, either from NOTIFY
+     * responses or from the fallback STATUS cycle.
+     * (mailbox path to <code>FolderTreeItem</code>)
+     */
+    private final Hashtable statusMailboxes = new Hashtable();
+
+    /**
+     * Time of the last STATUS cycle, when NOTIFY is not available.
+     */
+    private long lastStatusCycleTime;
+
+    /**
+     * Response from the last <tt>SELECT</tt> of the active mailbox, used
+     * to provide the changes reported by the server for a quick
+     * resynchronization.
+     */
+    private ImapProtocol.SelectResponse activeSelectResponse;
+
+    /**
+     * Whether the last <tt>SELECT</tt> of the active mailbox reported all
+     * changes since its last synchronization.
+     */
+    private boolean activeMailboxResync;
+
+    /**
+     * Whether this client is a secondary connection, which is only used for
+     * message content transfers alongside the account's main connection.
+     */
+    private boolean secondary;
+
     private static String INBOX = "INBOX";
     private static String CAPABILITY_CHILDREN = "CHILDREN";
     private static String CAPABILITY_NAMESPACE = "NAMESPACE";
     private static String CAPABILITY_STARTTLS = "STARTTLS";
     private static String CAPABILITY_IDLE = "IDLE";
     private static String CAPABILITY_COMPRESS = "COMPRESS=DEFLATE";
+    private static String CAPABILITY_QRESYNC = "QRESYNC";
+    private static String CAPABILITY_LITERAL_PLUS = "LITERAL+";
+    private static String CAPABILITY_LITERAL_MINUS = "LITERAL-";
+    private static String CAPABILITY_MULTIAPPEND = "MULTIAPPEND";
+    private static String CAPABILITY_NOTIFY = "NOTIFY";
+    /**
+     * Minimum time between STATUS cycles while idle, when NOTIFY is not
+     * available.  Currently set to 5 minutes.
+     */
+    private static final long STATUS_CYCLE_INTERVAL = 300000;
+    /** Largest non-synchronizing literal allowed by LITERAL- (RFC 7888) */
+    private static final int LITERAL_MINUS_LIMIT = 4096;
     
     public ImapClient(NetworkConnector networkConnector, GlobalConfig globalConfig, ImapConfig accountConfig) {
         this(networkConnector, globalConfig, accountConfig, new ImapProtocol());
@@ -216,6 +281,9 @@ public class ImapClient extends AbstractIncomingMailClient {
                 watchdog.setDefaultTimeoutForConnection(connection.getConnectionType());
                 
                 activeMailbox = null;
+                qresyncEnabled = false;
+                notifyEnabled = false;
+                notifyFailed = false;
 
                 // Swallow the initial "* OK" line from the server
                 watchdog.start(45000); // wait 45 sec for initial greeting
@@ -224,6 +292,17 @@ public class ImapClient extends AbstractIncomingMailClient {
                 
                 // Find out server capabilities
                 capabilities = imapProtocol.executeCapability();
+                
+                // Use non-synchronizing literals, if supported
+                if(capabilities.containsKey(CAPABILITY_LITERAL_PLUS)) {
+                    imapProtocol.setNonSyncLiteralLimit(Integer.MAX_VALUE);
+                }
+                else if(capabilities.containsKey(CAPABILITY_LITERAL_MINUS)) {
+                    imapProtocol.setNonSyncLiteralLimit(LITERAL_MINUS_LIMIT);
+                }
+                else {
+                    imapProtocol.setNonSyncLiteralLimit(0);
+                }
 
                 // TLS initialization
                 int serverSecurity = accountConfig.getServerSecurity();
@@ -251,6 +330,16 @@ public class ImapClient extends AbstractIncomingMailClient {
                 }
             }
             
+            // Enable quick mailbox resynchronization, if supported
+            if(capabilities.containsKey(CAPABILITY_QRESYNC)) {
+                try {
+                    Hashtable enabled = imapProtocol.executeEnable(new String[] { CAPABILITY_QRESYNC });
+                    qresyncEnabled = enabled.containsKey(CAPABILITY_QRESYNC);
+                } catch (MailException e) {
+                    qresyncEnabled = false;
+                }
+            }
+            
             // Get the namespaces, if supported
             if(capabilities.containsKey(CAPABILITY_NAMESPACE)) {
                 ImapProtocol.NamespaceResponse nsResponse = imapProtocol.executeNamespace();
@@ -445,13 +534,14 @@ public class ImapClient extends AbstractIncomingMailClient {
 
             // Since we have no way to find the inbox with a hard-coded prefix,
             // assume it to be there and then do a STATUS to verify.
-            // If the STATUS fails, a MailException will be thrown, which we can
-            // safely ignore.  Otherwise, create a folder item and add it.
-            try {
+            // If the STATUS fails, there is no status for it.  Otherwise,
+            // create a folder item and add it.
+            ImapProtocol.StatusResponse[] inboxStatus =
                 imapProtocol.executeStatus(new String[] { INBOX }, null);
+            if(inboxStatus[0] != null) {
                 FolderTreeItem inboxItem = new FolderTreeItem(rootItem, INBOX, INBOX, folderDelim, true, true);
                 rootItem.addChild(inboxItem);
-            } catch (MailException exp) { }
+            }
 
             if(fakeRootItem.hasChildren()) {
                 FolderTreeItem[] children = fakeRootItem.children();
@@ -488,6 +578,8 @@ public class ImapClient extends AbstractIncomingMailClient {
             }
         }
         
+        statusMailboxes.clear();
+        addStatusMailboxes(rootItem);
         return rootItem;
     }
 
@@ -588,12 +680,35 @@ public class ImapClient extends AbstractIncomingMailClient {
         // Execute the STATUS command on the folders
         ImapProtocol.StatusResponse[] response = imapProtocol.executeStatus(mboxPathsArray, progressHandler);
 
-        // Iterate through the results and update the FolderTreeItem objects
+        // Iterate through the results and update the FolderTreeItem objects,
+        // leaving any the server returned no data for unchanged
         for(i=0; i<mboxPathsArray.length; i++) {
+            if(response[i] == null) { continue; }
             FolderTreeItem item = (FolderTreeItem)mboxMap.get(mboxPathsArray[i]);
             item.setMsgCount(response[i].exists);
             item.setUnseenCount(response[i].unseen);
             item.setRecentCount(response[i].recent);
+            statusMailboxes.put(item.getPath(), item);
+        }
+        lastStatusCycleTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Adds every selectable folder in a tree to the set of mailboxes whose
+     * status is tracked while idle.  The set is cleared before each new
+     * folder tree is added, so that removed folders are no longer checked.
+     *
+     * @param folder the root of the tree
+     */
+    private void addStatusMailboxes(FolderTreeItem folder) {
+        if(folder.isSelectable()) {
+            statusMailboxes.put(folder.getPath(), folder);
+        }
+        if(folder.hasChildren()) {
+            FolderTreeItem[] children = folder.children();
+            for(int i=0; i<children.length; i++) {
+                addStatusMailboxes(children[i]);
+            }
         }
     }
 
@@ -655,6 +770,22 @@ public class ImapClient extends AbstractIncomingMailClient {
         }
     }
 
+    /**
+     * Sets whether this client is a secondary connection for its account.
+     * <p>
+     * A secondary client only downloads message content by UID, while the
+     * main client for the account remains responsible for tracking the state
+     * of each mailbox.  As such, the mailbox state of a secondary client
+     * never causes a folder refresh to be requested, and it should not have
+     * a listener for mailbox change notifications.
+     * </p>
+     *
+     * @param secondary true, if this is a secondary connection
+     */
+    public void setSecondary(boolean secondary) {
+        this.secondary = secondary;
+    }
+    
     /* (non-Javadoc)
      * @see org.logicprobe.LogicMail.mail.IncomingMailClient#getActiveFolder()
      */
@@ -692,12 +823,25 @@ public class ImapClient extends AbstractIncomingMailClient {
         
         boolean mapValid = setActiveFolderImpl(mailbox, notifyAvailable);
         
-        return (mapValid ? null : mailbox);
+        return ((mapValid || secondary) ? null : mailbox);
     }
 
     private boolean setActiveFolderImpl(FolderTreeItem mailbox, boolean notifyAvailable) throws IOException, MailException {
-        // Change active mailbox
-        ImapProtocol.SelectResponse response = imapProtocol.executeSelect(mailbox.getPath());
+        MailboxState mailboxState = (MailboxState)knownMailboxes.get(mailbox);
+        
+        // Change active mailbox, asking the server for all changes since the
+        // last synchronization if possible
+        boolean resync = qresyncEnabled && mailboxState != null && mailboxState.getHighestModSeq() > 0;
+        ImapProtocol.SelectResponse response;
+        if(resync) {
+            response = imapProtocol.executeSelect(
+                    mailbox.getPath(),
+                    mailboxState.getUidValidity(),
+                    mailboxState.getHighestModSeq());
+        }
+        else {
+            response = imapProtocol.executeSelect(mailbox.getPath());
+        }
 
         this.activeMailbox = mailbox;
         activeMailbox.setMsgCount(response.exists);
@@ -706,7 +850,6 @@ public class ImapClient extends AbstractIncomingMailClient {
         
         // If the response lacked a valid UIDNEXT value, then copy it over from
         // the previous SELECT of this mailbox
-        MailboxState mailboxState = (MailboxState)knownMailboxes.get(activeMailbox);
         if(mailboxState == null) {
             mailboxState = new MailboxState();
             knownMailboxes.put(activeMailbox, mailboxState);
@@ -717,7 +860,21 @@ public class ImapClient extends AbstractIncomingMailClient {
         
         int previousExists = mailboxState.getExists();
         
+        // The server ignores the QRESYNC parameters if UIDVALIDITY has changed
+        activeSelectResponse = response;
+        activeMailboxResync = resync
+            && response.highestModSeq > 0
+            && response.uidValidity == mailboxState.getUidValidity();
+        
         boolean mapValid = mailboxState.mailboxSelected(response);
+        
+        if(response.fetchResponses != null) {
+            for(int i=0; i<response.fetchResponses.length; i++) {
+                ImapMessageToken token = new ImapMessageToken(activeMailbox.getPath(), response.fetchResponses[i].uid);
+                token.setMessageIndex(response.fetchResponses[i].index);
+                mailboxState.messageFetched(token);
+            }
+        }
 
         if(mapValid && notifyAvailable && mailboxState.getExists() > previousExists) {
             if(clientListener != null) {
@@ -731,6 +888,71 @@ public class ImapClient extends AbstractIncomingMailClient {
         return mapValid;
     }
     
+    /**
+     * Checks whether the server reported all changes to the active folder,
+     * since its last synchronization, when the folder was selected.
+     * If this returns true, {@link #getActiveFolderChanges(MessageToken[], FolderMessageCallback)}
+     * can be used instead of fetching the flags of every cached message.
+     *
+     * @return true, if a quick resynchronization is possible
+     */
+    public boolean hasActiveFolderChanges() {
+        return activeMailbox != null && activeMailboxResync;
+    }
+    
+    /**
+     * Gets the changes to the active folder that were reported by the server
+     * when the folder was selected.
+     *
+     * @param cachedTokens tokens for the locally cached messages
+     * @param callback callback for messages whose flags have changed
+     * @return the subset of the cached tokens for messages that have been
+     *     expunged from the folder
+     */
+    public MessageToken[] getActiveFolderChanges(MessageToken[] cachedTokens, FolderMessageCallback callback) throws MailException {
+        if(!hasActiveFolderChanges()) {
+            throw new MailException("Mailbox changes not available");
+        }
+        
+        if(activeSelectResponse.fetchResponses != null) {
+            FolderMessage[] result = prepareFolderMessagesFlags(activeSelectResponse.fetchResponses);
+            for(int i=0; i<result.length; i++) {
+                callback.folderMessageUpdate(result[i]);
+            }
+        }
+        callback.folderMessageUpdate(null);
+        
+        Vector vanishedTokens = new Vector();
+        int[] vanishedUids = activeSelectResponse.vanishedUids;
+        if(vanishedUids != null) {
+            for(int i=0; i<cachedTokens.length; i++) {
+                ImapMessageToken token = (ImapMessageToken)cachedTokens[i];
+                if(ImapParser.sequenceSetContains(vanishedUids, token.getImapMessageUid())) {
+                    vanishedTokens.addElement(token);
+                }
+            }
+        }
+        MessageToken[] result = new MessageToken[vanishedTokens.size()];
+        vanishedTokens.copyInto(result);
+        return result;
+    }
+    
+    /**
+     * Notifies the client that the locally cached state of the active
+     * folder has been fully synchronized with the state reported when the
+     * folder was selected.  This allows the next selection of the folder to
+     * only request the changes that occurred after this point.
+     */
+    public void activeFolderSynchronized() {
+        if(activeMailbox == null || activeSelectResponse == null) { return; }
+        
+        MailboxState mailboxState = (MailboxState)knownMailboxes.get(activeMailbox);
+        if(mailboxState != null && qresyncEnabled) {
+            mailboxState.setHighestModSeq(activeSelectResponse.highestModSeq);
+        }
+        activeMailboxResync = false;
+    }
+    
     private FolderTreeItem getFolderForPath(String folderPath) {
         FolderTreeItem mailbox = null;
         Enumeration e = knownMailboxes.keys();
@@ -1042,10 +1264,9 @@ public class ImapClient extends AbstractIncomingMailClient {
         if(!(messageToken instanceof ImapMessageToken)) { return null; }
 
 
-        byte[] data = getMessageBody(imapMessageToken.getImapMessageUid(), partAddress, progressHandler);
         MimeMessageContent content;
         try {
-            content = MimeMessageContentFactory.createContentEncoded(mimeMessagePart, data);
+            content = getMessageContent(imapMessageToken.getImapMessageUid(), mimeMessagePart, progressHandler);
         } catch (UnsupportedContentException e) {
             content = null;
         }
@@ -1062,12 +1283,9 @@ public class ImapClient extends AbstractIncomingMailClient {
     {
         MimeMessagePart part;
         if(MimeMessagePartFactory.isMimeMessagePartSupported(structure.type, structure.subtype)) {
-            byte[] data;
-            if(structure.type.equalsIgnoreCase("multipart"))
-                data = null;
-            else {
+            boolean isMultipart = structure.type.equalsIgnoreCase("multipart");
+            if(!isMultipart) {
                 if(structure.size < maxSize) {
-                    data = getMessageBody(uid, structure.address, progressHandler);
                     maxSize -= structure.size;
                 }
                 else {
@@ -1085,12 +1303,14 @@ public class ImapClient extends AbstractIncomingMailClient {
                     structure.contentId,
                     structure.size,
                     structure.address);
-            try {
-                contentMap.put(part, MimeMessageContentFactory.createContentEncoded(part, data));
-            } catch (UnsupportedContentException e) {
-                EventLogger.logEvent(AppInfo.GUID,
-                        ("UnsupportedContentException: " + e.getMessage()).getBytes(),
-                        EventLogger.WARNING);
+            if(!isMultipart) {
+                try {
+                    contentMap.put(part, getMessageContent(uid, part, progressHandler));
+                } catch (UnsupportedContentException e) {
+                    EventLogger.logEvent(AppInfo.GUID,
+                            ("UnsupportedContentException: " + e.getMessage()).getBytes(),
+                            EventLogger.WARNING);
+                }
             }
         }
         else if(structure.address.equals("1")) {
@@ -1176,11 +1396,41 @@ public class ImapClient extends AbstractIncomingMailClient {
         return item;
     }
 
-    private byte[] getMessageBody(int uid, String address, MailProgressHandler progressHandler) throws IOException, MailException {
+    /**
+     * Fetches the content for a message part.
+     * <p>
+     * Non-text parts that are Base64 encoded are decoded as each partial
+     * fetch arrives, so the encoded form of the part is never held in memory
+     * as a whole.  All other parts are fetched in encoded form, and decoded
+     * by the content factory.
+     * </p>
+     */
+    private MimeMessageContent getMessageContent(int uid, MimeMessagePart part, MailProgressHandler progressHandler)
+    throws IOException, MailException, UnsupportedContentException {
         if(activeMailbox == null) {
             throw new MailException("Mailbox not selected");
         }
-        return imapProtocol.executeFetchBody(uid, address, progressHandler);
+        
+        if(isStreamDecodable(part)) {
+            ByteArrayOutputStream buf = new ByteArrayOutputStream(Math.max(part.getSize() * 3 / 4, 32));
+            Base64DecodingOutputStream decoder = new Base64DecodingOutputStream(buf);
+            imapProtocol.executeFetchBody(uid, part.getTag(), decoder, progressHandler);
+            decoder.close();
+            return MimeMessageContentFactory.createContentRaw(part, buf.toByteArray());
+        }
+        else {
+            byte[] data = imapProtocol.executeFetchBody(uid, part.getTag(), progressHandler);
+            return MimeMessageContentFactory.createContentEncoded(part, data);
+        }
+    }
+    
+    private static boolean isStreamDecodable(MimeMessagePart part) {
+        if(!(part instanceof ContentPart)
+                || part instanceof TextPart
+                || part instanceof MessagePart) {
+            return false;
+        }
+        return "base64".equalsIgnoreCase(((ContentPart)part).getEncoding());
     }
 
     /* (non-Javadoc)
@@ -1278,9 +1528,29 @@ public class ImapClient extends AbstractIncomingMailClient {
     }
 
     /* (non-Javadoc)
-     * @see org.logicprobe.LogicMail.mail.IncomingMailClient#appendMessage(org.logicprobe.LogicMail.mail.FolderTreeItem, java.lang.String, org.logicprobe.LogicMail.message.MessageFlags)
+     * @see org.logicprobe.LogicMail.mail.IncomingMailClient#appendMessage(org.logicprobe.LogicMail.mail.FolderTreeItem, org.logicprobe.LogicMail.util.DataSpool, org.logicprobe.LogicMail.message.MessageFlags)
+     */
+    public void appendMessage(FolderTreeItem folder, DataSpool rawMessage, MessageFlags initialFlags) throws IOException, MailException {
+        imapProtocol.executeAppend(folder.getPath(), rawMessage, createAppendFlags(initialFlags));
+    }
+
+    /* (non-Javadoc)
+     * @see org.logicprobe.LogicMail.mail.IncomingMailClient#appendMessages(org.logicprobe.LogicMail.mail.FolderTreeItem, org.logicprobe.LogicMail.util.DataSpool[], org.logicprobe.LogicMail.message.MessageFlags[])
      */
-    public void appendMessage(FolderTreeItem folder, String rawMessage, MessageFlags initialFlags) throws IOException, MailException {
+    public void appendMessages(FolderTreeItem folder, DataSpool[] rawMessages, MessageFlags[] initialFlags) throws IOException, MailException {
+        if(rawMessages.length > 1 && !capabilities.containsKey(CAPABILITY_MULTIAPPEND)) {
+            super.appendMessages(folder, rawMessages, initialFlags);
+            return;
+        }
+        
+        ImapProtocol.MessageFlags[] flags = new ImapProtocol.MessageFlags[initialFlags.length];
+        for(int i=0; i<initialFlags.length; i++) {
+            flags[i] = createAppendFlags(initialFlags[i]);
+        }
+        imapProtocol.executeAppend(folder.getPath(), rawMessages, flags);
+    }
+
+    private static ImapProtocol.MessageFlags createAppendFlags(MessageFlags initialFlags) {
         ImapProtocol.MessageFlags flags = new ImapProtocol.MessageFlags();
         flags.seen = initialFlags.isSeen();
         flags.answered = initialFlags.isAnswered();
@@ -1290,8 +1560,7 @@ public class ImapClient extends AbstractIncomingMailClient {
         flags.junk = initialFlags.isJunk();
         flags.forwarded = initialFlags.isForwarded();
         flags.recent = false; // invalid for appending
-
-        imapProtocol.executeAppend(folder.getPath(), rawMessage, flags);
+        return flags;
     }
 
     /* (non-Javadoc)
@@ -1306,6 +1575,47 @@ public class ImapClient extends AbstractIncomingMailClient {
         imapProtocol.executeCopy(imapMessageToken.getImapMessageUid(), destinationFolder.getPath());
     }
 
+    /**
+     * Begins a batch of operations whose commands should be pipelined.
+     * Until {@link #endBatch()} is called, flag changes and message copies
+     * are queued and sent to the server together, instead of each waiting
+     * for the previous command to complete.
+     */
+    public void beginBatch() {
+        imapProtocol.beginPipeline();
+    }
+    
+    /**
+     * Gets the number of commands queued since the batch was started.
+     * This can be sampled between operations to determine which commands
+     * belong to each operation.
+     *
+     * @return the number of batched commands
+     */
+    public int getBatchSize() {
+        return imapProtocol.getPipelineSize();
+    }
+    
+    /**
+     * Sends any commands still queued in the current batch, and waits for
+     * all of them to complete.
+     *
+     * @return the outcome of each command in the batch, which is
+     *     <code>null</code> on success and the server response on failure
+     */
+    public String[] endBatch() throws IOException, MailException {
+        return imapProtocol.endPipeline(null);
+    }
+    
+    /**
+     * Discards the current batch without waiting for its commands to
+     * complete.  This must be called if the batch cannot be ended normally,
+     * so that later commands are not queued behind it.
+     */
+    public void abortBatch() {
+        imapProtocol.abortPipeline();
+    }
+
     /* (non-Javadoc)
      * @see org.logicprobe.LogicMail.mail.IncomingMailClient#noop()
      */
@@ -1317,8 +1627,70 @@ public class ImapClient extends AbstractIncomingMailClient {
      * @see org.logicprobe.LogicMail.mail.IncomingMailClient#idleModeBegin()
      */
     public void idleModeBegin() throws IOException, MailException {
+        // Ask the server to push changes to all mailboxes over this
+        // connection, if it supports NOTIFY.  Otherwise, the other mailboxes
+        // are periodically checked with a batch of STATUS commands.
+        if(!notifyEnabled && !notifyFailed
+                && capabilities.containsKey(CAPABILITY_NOTIFY)) {
+            try {
+                imapProtocol.executeNotify(accountConfig.getOnlySubscribedFolders());
+                notifyEnabled = true;
+            } catch (MailException e) {
+                notifyFailed = true;
+            }
+        }
+        if(!notifyEnabled) {
+            refreshStatusMailboxes();
+        }
+        
         imapProtocol.executeIdle(idleListener);
     }
+    
+    /**
+     * Checks the status of every tracked mailbox other than the active one,
+     * using a single pipelined batch of STATUS commands, and notifies the
+     * listener of any that have changed.  This is only done if enough time
+     * has passed since the last check.
+     */
+    private void refreshStatusMailboxes() throws IOException, MailException {
+        long currentTime = System.currentTimeMillis();
+        if(currentTime - lastStatusCycleTime < STATUS_CYCLE_INTERVAL) { return; }
+        lastStatusCycleTime = currentTime;
+        
+        Vector mboxPaths = new Vector();
+        Enumeration e = statusMailboxes.keys();
+        while(e.hasMoreElements()) {
+            String path = (String)e.nextElement();
+            if(activeMailbox == null || !activeMailbox.getPath().equals(path)) {
+                mboxPaths.addElement(path);
+            }
+        }
+        if(mboxPaths.isEmpty()) { return; }
+        String[] mboxPathsArray = new String[mboxPaths.size()];
+        mboxPaths.copyInto(mboxPathsArray);
+        
+        // A mailbox may have been removed since the folder tree was loaded,
+        // in which case it simply has no status in the response.
+        ImapProtocol.StatusResponse[] response =
+            imapProtocol.executeStatus(mboxPathsArray, null);
+        
+        for(int i=0; i<mboxPathsArray.length; i++) {
+            // A mailbox with no status data is skipped, rather than being
+            // reported as empty
+            if(response[i] == null) { continue; }
+            FolderTreeItem item = (FolderTreeItem)statusMailboxes.get(mboxPathsArray[i]);
+            if(item.getMsgCount() != response[i].exists
+                    || item.getUnseenCount() != response[i].unseen
+                    || item.getRecentCount() != response[i].recent) {
+                item.setMsgCount(response[i].exists);
+                item.setUnseenCount(response[i].unseen);
+                item.setRecentCount(response[i].recent);
+                if(clientListener != null) {
+                    clientListener.folderStatusChanged(item);
+                }
+            }
+        }
+    }
 
     /* (non-Javadoc)
      * @see org.logicprobe.LogicMail.mail.IncomingMailClient#idleModeEnd()
@@ -1376,6 +1748,61 @@ public class ImapClient extends AbstractIncomingMailClient {
                 clientListener.folderMessageFlagsChanged(token, messageFlags);
             }
         }
+        public void vanishedResponse(int[] uids) {
+            MailboxState mailboxState = (MailboxState)knownMailboxes.get(activeMailbox);
+            if(mailboxState == null) { return; }
+            
+            Vector updatedTokenVector = new Vector();
+            ImapMessageToken[] knownTokens = mailboxState.messagesVanished(uids, updatedTokenVector);
+            
+            if(clientListener != null) {
+                MessageToken[] updatedTokens = new MessageToken[updatedTokenVector.size()];
+                updatedTokenVector.copyInto(updatedTokens);
+                
+                // The ranges may cover far more UIDs than were ever fetched,
+                // so they are not expanded.  Only the known messages that
+                // vanished are reported, and the shifted tokens are sent
+                // along with the first of them.
+                if(knownTokens.length == 0) {
+                    if(updatedTokens.length > 0) {
+                        clientListener.folderMessageExpunged(null, updatedTokens);
+                    }
+                    return;
+                }
+                for(int i=0; i<knownTokens.length; i++) {
+                    clientListener.folderMessageExpunged(knownTokens[i], updatedTokens);
+                    updatedTokens = new MessageToken[0];
+                }
+            }
+        }
+        public void statusResponse(String mboxpath, ImapProtocol.StatusResponse value) {
+            FolderTreeItem item = (FolderTreeItem)statusMailboxes.get(mboxpath);
+            if(item == null) { return; }
+            
+            // Changes to the active mailbox are already reported by the
+            // other untagged responses.
+            if(activeMailbox != null && activeMailbox.getPath().equals(mboxpath)) { return; }
+            
+            // The server is only required to include the items relevant to
+            // the event, so any new messages are assumed to be unseen and
+            // recent until the next full refresh.
+            if(value.exists != -1) {
+                int added = value.exists - item.getMsgCount();
+                item.setMsgCount(value.exists);
+                if(added > 0) {
+                    if(value.unseen == -1) { item.setUnseenCount(item.getUnseenCount() + added); }
+                    if(value.recent == -1) { item.setRecentCount(item.getRecentCount() + added); }
+                }
+            }
+            if(value.unseen != -1) { item.setUnseenCount(value.unseen); }
+            if(value.recent != -1) { item.setRecentCount(value.recent); }
+            if(item.getUnseenCount() > item.getMsgCount()) { item.setUnseenCount(item.getMsgCount()); }
+            if(item.getRecentCount() > item.getMsgCount()) { item.setRecentCount(item.getMsgCount()); }
+            
+            if(clientListener != null) {
+                clientListener.folderStatusChanged(item);
+            }
+        }
     };
     
     private ImapProtocol.IdleListener idleListener = new ImapProtocol.IdleListener() {
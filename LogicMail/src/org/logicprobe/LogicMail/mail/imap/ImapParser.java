@@ -108,6 +108,46 @@ class ImapParser {
         return flags;
     }
 
+    /**
+     * Parse a FLAGS list directly from a response cursor.
+     * Flags are matched in place, without allocating a string for each one.
+     *
+     * @param cursor the cursor, positioned at the start of the list
+     * @return the parsed flags, or null if the next element was not a list
+     */
+    static ImapProtocol.MessageFlags parseMessageFlags(ImapResponseCursor cursor) {
+        if(!cursor.enterList()) {
+            cursor.skipValue();
+            return null;
+        }
+        
+        ImapProtocol.MessageFlags flags = new ImapProtocol.MessageFlags();
+        while(cursor.hasNext()) {
+            if(cursor.readAtom(FLAG_SEEN)) {
+                flags.seen = true;
+            } else if(cursor.readAtom(FLAG_ANSWERED)) {
+                flags.answered = true;
+            } else if(cursor.readAtom(FLAG_FLAGGED)) {
+                flags.flagged = true;
+            } else if(cursor.readAtom(FLAG_DELETED)) {
+                flags.deleted = true;
+            } else if(cursor.readAtom(FLAG_DRAFT)) {
+                flags.draft = true;
+            } else if(cursor.readAtom(FLAG_RECENT)) {
+                flags.recent = true;
+            } else if(cursor.readAtom(FLAG_FORWARDED)) {
+                flags.forwarded = true;
+            } else if(cursor.readAtom(FLAG_JUNK0) || cursor.readAtom(FLAG_JUNK1)) {
+                flags.junk = true;
+            } else {
+                cursor.skipValue();
+            }
+        }
+        cursor.leaveList();
+        
+        return flags;
+    }
+
     static String createMessageFlagsString(ImapProtocol.MessageFlags flags) {
         StringBuffer buf = new StringBuffer();
 
@@ -179,14 +219,10 @@ class ImapParser {
         MessageEnvelope env = new MessageEnvelope();
 
         if (parsedEnv.elementAt(0) instanceof byte[]) {
-            try {
-                env.date = StringParser.parseDateString(
-                        new String((byte[]) parsedEnv.elementAt(0)));
-            } catch (Exception e) {
-                env.date = Calendar.getInstance().getTime();
-            }
+            env.date = StringParser.parseDateString(
+                    new String((byte[]) parsedEnv.elementAt(0)));
         }
-        else {
+        if (env.date == null) {
             env.date = Calendar.getInstance().getTime();
         }
 
@@ -286,6 +322,144 @@ class ImapParser {
         return addrList;
     }
 
+    /**
+     * Parse an ENVELOPE list directly from a response cursor.
+     * The result is identical to what {@link #parseMessageEnvelope(Vector)}
+     * would produce from the parsed tree of the same list.
+     *
+     * @param cursor the cursor, positioned at the start of the list
+     * @return the parsed envelope, or null if the next element was not a list
+     */
+    static MessageEnvelope parseMessageEnvelope(ImapResponseCursor cursor) {
+        if(!cursor.enterList()) {
+            cursor.skipValue();
+            return null;
+        }
+        
+        MessageEnvelope env = new MessageEnvelope();
+        int index = 0;
+        while(cursor.hasNext()) {
+            switch(index) {
+            case 0:
+                env.date = StringParser.parseDateString(cursor.readText());
+                if(env.date == null) {
+                    env.date = Calendar.getInstance().getTime();
+                }
+                break;
+            case 1:
+                String subject = cursor.readText();
+                env.subject = (subject != null) ? StringParser.parseEncodedHeader(subject) : "";
+                break;
+            case 2:
+                env.from = parseAddressList(cursor);
+                break;
+            case 3:
+                env.sender = parseAddressList(cursor);
+                break;
+            case 4:
+                env.replyTo = parseAddressList(cursor);
+                break;
+            case 5:
+                env.to = parseAddressList(cursor);
+                break;
+            case 6:
+                env.cc = parseAddressList(cursor);
+                break;
+            case 7:
+                env.bcc = parseAddressList(cursor);
+                break;
+            case 8:
+                String inReplyTo = cursor.readText();
+                env.inReplyTo = (inReplyTo != null) ? inReplyTo : "";
+                break;
+            case 9:
+                String messageId = cursor.readText();
+                env.messageId = (messageId != null) ? messageId : "";
+                break;
+            default:
+                cursor.skipValue();
+                break;
+            }
+            index++;
+        }
+        cursor.leaveList();
+        
+        // Sanity checking
+        if (index < 10) {
+            EventLogger.logEvent(AppInfo.GUID,
+                "ImapParser.parseMessageEnvelope: Sanity check failed".getBytes(),
+                EventLogger.WARNING);
+
+            return generateDummyEnvelope();
+        }
+        
+        return env;
+    }
+
+    /**
+     * Parse an address list directly from a response cursor.
+     *
+     * @param cursor the cursor, positioned at the start of the list
+     * @return the parsed addresses, or null if the next element was not a list
+     */
+    static String[] parseAddressList(ImapResponseCursor cursor) {
+        if(!cursor.enterList()) {
+            cursor.skipValue();
+            return null;
+        }
+        
+        Vector addresses = new Vector();
+        while(cursor.hasNext()) {
+            if(!cursor.enterList()) {
+                cursor.skipValue();
+                continue;
+            }
+            
+            String realName = null;
+            String mbName = null;
+            String hostName = null;
+            int index = 0;
+            while(cursor.hasNext()) {
+                switch(index) {
+                case 0:
+                    realName = cursor.readText();
+                    break;
+                case 2:
+                    mbName = cursor.readText();
+                    break;
+                case 3:
+                    hostName = cursor.readText();
+                    break;
+                default:
+                    cursor.skipValue();
+                    break;
+                }
+                index++;
+            }
+            cursor.leaveList();
+            
+            if(index < 4) { continue; }
+            
+            String addrStr = ((mbName == null) ? "" : mbName) +
+                ((hostName == null) ? "" : ('@' + hostName));
+            
+            if(realName != null) {
+                realName = StringParser.parseEncodedHeader(realName);
+            }
+            
+            if ((realName != null) && (realName.length() > 0)) {
+                addresses.addElement(realName + " <" + addrStr + ">");
+            } else {
+                addresses.addElement(addrStr);
+            }
+        }
+        cursor.leaveList();
+        
+        String[] addrList = new String[addresses.size()];
+        addresses.copyInto(addrList);
+        return addrList;
+    }
+
     static MessageEnvelope generateDummyEnvelope() {
         MessageEnvelope env = new MessageEnvelope();
         env.date = Calendar.getInstance().getTime();
@@ -303,11 +477,25 @@ class ImapParser {
      * @return Root of the message structure tree
      */
     static MessageSection parseMessageStructure(byte[] rawText) {
-        Vector parsedText = null;
+        MessageSection msgStructure = null;
+        boolean found = false;
 
         try {
+            // Find the BODYSTRUCTURE portion of the reply
             int offset = Arrays.getIndex(rawText, (byte)'(');
-            parsedText = ImapParser.parenListParser(rawText, offset, rawText.length - offset);
+            ImapResponseCursor cursor = new ImapResponseCursor(rawText, offset, rawText.length - offset);
+            cursor.enterList();
+            
+            while (cursor.hasNext()) {
+                if (cursor.readAtom(BODYSTRUCTURE) &&
+                        cursor.peekType() == ImapResponseCursor.TYPE_LIST) {
+                    msgStructure = parseMessageStructure(cursor);
+                    found = true;
+                }
+                else {
+                    cursor.skipValue();
+                }
+            }
         } catch (Exception exp) {
             EventLogger.logEvent(AppInfo.GUID,
                 ("ImapParser.parseMessageStructure: " +
@@ -317,24 +505,8 @@ class ImapParser {
             return null;
         }
 
-        // Find the BODYSTRUCTURE portion of the reply
-        Vector parsedStruct = null;
-        int size = parsedText.size();
-
-        for (int i = 0; i < size; i++) {
-            if (parsedText.elementAt(i) instanceof String) {
-                String label = (String) parsedText.elementAt(i);
-
-                if (label.equalsIgnoreCase(BODYSTRUCTURE) &&
-                        (i < (size - 1)) &&
-                        parsedText.elementAt(i + 1) instanceof Vector) {
-                    parsedStruct = (Vector) parsedText.elementAt(i + 1);
-                }
-            }
-        }
-
         // Sanity checking
-        if (parsedStruct == null) {
+        if (!found) {
             EventLogger.logEvent(AppInfo.GUID,
                 "ImapParser.parseMessageStructure: Sanity check failed".getBytes(),
                 EventLogger.WARNING);
@@ -342,8 +514,6 @@ class ImapParser {
             return null;
         }
 
-        MessageSection msgStructure = parseMessageStructureParameter(parsedStruct);
-
         return msgStructure;
     }
 
@@ -503,6 +673,276 @@ class ImapParser {
         return sec;
     }
 
+    /**
+     * Parse the IMAP message structure tree directly from a response cursor.
+     * The result is identical to what
+     * {@link #parseMessageStructureParameter(Vector)} would produce from
+     * the parsed tree of the same list.
+     *
+     * @param cursor the cursor, positioned at the list that follows a BODYSTRUCTURE string
+     * @return Root of the message structure tree
+     */
+    static MessageSection parseMessageStructure(ImapResponseCursor cursor) {
+        MessageSection msgStructure = parseMessageStructureHelper(
+                null, 1, cursor);
+        fixMessageStructure(msgStructure);
+
+        return msgStructure;
+    }
+
+    private static MessageSection parseMessageStructureHelper(
+        String parentAddress, int index, ImapResponseCursor cursor) {
+        if (!cursor.enterList()) {
+            cursor.skipValue();
+            return null;
+        }
+        
+        // Determine the address of this body part
+        String address;
+
+        if (parentAddress == null) {
+            address = Integer.toString(index);
+        } else {
+            address = parentAddress + "." + Integer.toString(index);
+        }
+
+        MessageSection section = null;
+        int type = cursor.peekType();
+        if (type == ImapResponseCursor.TYPE_STRING) {
+            // The first element is a string, so we hit a simple message part
+            section = parseMessageStructureSection(cursor);
+            section.address = address;
+        } else if (type == ImapResponseCursor.TYPE_LIST) {
+            // The first element is a list, so we hit a multipart message part
+            Vector subSectionsVector = new Vector();
+
+            for (int i = 0; cursor.hasNext(); i++) {
+                // Iterate through the message parts
+                type = cursor.peekType();
+                if (type == ImapResponseCursor.TYPE_LIST) {
+                    subSectionsVector.addElement(parseMessageStructureHelper(
+                            address, i + 1, cursor));
+                } else if (type == ImapResponseCursor.TYPE_STRING) {
+                    section = new MessageSection();
+                    section.type = MultiPart.TYPE;
+                    section.subtype = cursor.readText().toLowerCase();
+                    section.subsections = new MessageSection[subSectionsVector.size()];
+                    subSectionsVector.copyInto(section.subsections);
+                    section.address = address;
+                    break;
+                } else {
+                    cursor.skipValue();
+                }
+            }
+        }
+        cursor.leaveList();
+
+        return section;
+    }
+
+    private static MessageSection parseMessageStructureSection(
+        ImapResponseCursor cursor) {
+        MessageSection sec = new MessageSection();
+        sec.charset = null;
+        int dispositionIndex = 8;
+        
+        for (int index = 0; cursor.hasNext(); index++) {
+            String value;
+            switch (index) {
+            case 0:
+                value = cursor.readText();
+                if (value != null) {
+                    sec.type = value.toLowerCase();
+                }
+                if (TextPart.TYPE.equalsIgnoreCase(sec.type)) {
+                    dispositionIndex = 9;
+                } else if (MessagePart.TYPE.equalsIgnoreCase(sec.type)) {
+                    dispositionIndex = 11;
+                }
+                break;
+            case 1:
+                value = cursor.readText();
+                if (value != null) {
+                    sec.subtype = value.toLowerCase();
+                }
+                break;
+            case 2:
+                if (cursor.enterList()) {
+                    while (cursor.hasNext()) {
+                        String key = cursor.readText();
+                        if (!cursor.hasNext()) { break; }
+                        value = cursor.readText();
+                        if (key == null || value == null) { continue; }
+                        
+                        if (key.equalsIgnoreCase(CHARSET)) {
+                            sec.charset = value;
+                        } else if (key.equalsIgnoreCase(NAME)) {
+                            sec.name = StringParser.parseEncodedHeader(value);
+                        }
+                    }
+                    cursor.leaveList();
+                } else {
+                    cursor.skipValue();
+                }
+                break;
+            case 3:
+                sec.contentId = cursor.readText();
+                break;
+            case 5:
+                value = cursor.readText();
+                if (value != null) {
+                    sec.encoding = value.toLowerCase();
+                }
+                break;
+            case 6:
+                if (cursor.peekType() == ImapResponseCursor.TYPE_ATOM) {
+                    sec.size = cursor.readNumber();
+                } else {
+                    cursor.skipValue();
+                }
+                break;
+            default:
+                if (index == dispositionIndex && cursor.enterList()) {
+                    if (cursor.peekType() == ImapResponseCursor.TYPE_STRING) {
+                        sec.disposition = cursor.readText().toLowerCase();
+                    }
+                    cursor.leaveList();
+                } else {
+                    cursor.skipValue();
+                }
+                break;
+            }
+        }
+        
+        return sec;
+    }
+
+    /**
+     * Parses an IMAP sequence set, such as <tt>"1:5,7,9:11"</tt>, as used in
+     * <tt>VANISHED</tt> responses.
+     * <p>
+     * The set is not expanded, since servers may report very large ranges.
+     * Instead, the result is a flat array of inclusive range pairs, where
+     * element <code>2n</code> is the start of a range and element
+     * <code>2n+1</code> is its end.  Reversed ranges are normalized, and
+     * malformed elements are skipped.
+     * </p>
+     *
+     * @param rawText the sequence set text
+     * @return array of inclusive range pairs
+     */
+    static int[] parseSequenceSet(String rawText) {
+        int[] ranges = new int[8];
+        int count = 0;
+        int len = rawText.length();
+        int index = 0;
+        while(index < len) {
+            int p = rawText.indexOf(',', index);
+            if(p == -1) { p = len; }
+            String element = rawText.substring(index, p).trim();
+            index = p + 1;
+            
+            int start;
+            int end;
+            try {
+                int q = element.indexOf(':');
+                if(q == -1) {
+                    start = Integer.parseInt(element);
+                    end = start;
+                }
+                else {
+                    start = Integer.parseInt(element.substring(0, q));
+                    end = Integer.parseInt(element.substring(q + 1));
+                }
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            
+            if(count + 2 > ranges.length) {
+                int[] newRanges = new int[ranges.length * 2];
+                System.arraycopy(ranges, 0, newRanges, 0, count);
+                ranges = newRanges;
+            }
+            ranges[count++] = Math.min(start, end);
+            ranges[count++] = Math.max(start, end);
+        }
+        
+        int[] result = new int[count];
+        System.arraycopy(ranges, 0, result, 0, count);
+        return result;
+    }
+    
+    /**
+     * Checks whether a value is contained within a parsed sequence set.
+     *
+     * @param ranges range pairs, as returned by {@link #parseSequenceSet(String)}
+     * @param value the value to check
+     * @return true, if the value is within one of the ranges
+     */
+    static boolean sequenceSetContains(int[] ranges, int value) {
+        for(int i=0; i<ranges.length; i+=2) {
+            if(value >= ranges[i] && value <= ranges[i + 1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Creates IMAP sequence sets, such as <tt>"1:500,502,510:900"</tt>, from
+     * a list of message numbers or unique IDs.
+     * <p>
+     * The values are sorted and duplicates are dropped, so that runs of
+     * consecutive values can be collapsed into ranges.  If the result would
+     * be longer than the provided limit, it is split into several sets, which
+     * can then be sent with separate commands.
+     * </p>
+     *
+     * @param values the values to include, in any order
+     * @param maxLength the maximum length of each sequence set
+     * @return the sequence sets, or an empty array if no values were provided
+     */
+    static String[] createSequenceSets(int[] values, int maxLength) {
+        if(values.length == 0) {
+            return new String[0];
+        }
+        
+        int[] sorted = new int[values.length];
+        System.arraycopy(values, 0, sorted, 0, values.length);
+        Arrays.sort(sorted, 0, sorted.length);
+        
+        Vector result = new Vector();
+        StringBuffer buf = new StringBuffer();
+        int i = 0;
+        while(i < sorted.length) {
+            int start = sorted[i++];
+            int end = start;
+            while(i < sorted.length && sorted[i] <= end + 1) {
+                end = sorted[i++];
+            }
+            
+            String element = (start == end)
+                ? Integer.toString(start)
+                : (Integer.toString(start) + ':' + Integer.toString(end));
+            
+            if(buf.length() > 0) {
+                if(buf.length() + 1 + element.length() > maxLength) {
+                    result.addElement(buf.toString());
+                    buf.setLength(0);
+                }
+                else {
+                    buf.append(',');
+                }
+            }
+            buf.append(element);
+        }
+        result.addElement(buf.toString());
+        
+        String[] resultArray = new String[result.size()];
+        result.copyInto(resultArray);
+        return resultArray;
+    }
+    
     /**
      * Takes in the raw IMAP folder name, and outputs a string that
      * has been properly decoded according to section 5.1.3 of
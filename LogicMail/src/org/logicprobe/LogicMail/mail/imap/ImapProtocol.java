@@ -33,23 +33,25 @@ package org.logicprobe.LogicMail.mail.imap;
 import net.rim.device.api.i18n.MessageFormat;
 import net.rim.device.api.system.EventLogger;
 import net.rim.device.api.util.Arrays;
-import net.rim.device.api.util.DataBuffer;
-import net.rim.device.api.util.IntIntHashtable;
-import net.rim.device.api.util.MathUtilities;
 
 import org.logicprobe.LogicMail.AnalyticsDataCollector;
 import org.logicprobe.LogicMail.AppInfo;
-import org.logicprobe.LogicMail.conf.ConnectionConfig;
 import org.logicprobe.LogicMail.mail.MailException;
 import org.logicprobe.LogicMail.mail.MailProgressHandler;
 import org.logicprobe.LogicMail.message.MessageEnvelope;
 import org.logicprobe.LogicMail.util.Connection;
 import org.logicprobe.LogicMail.util.ConnectionResponseTester;
+import org.logicprobe.LogicMail.util.DataSpool;
 import org.logicprobe.LogicMail.util.StringArrays;
 import org.logicprobe.LogicMail.util.StringParser;
 import org.logicprobe.LogicMail.util.Watchdog;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 import java.util.Hashtable;
 import java.util.Vector;
@@ -65,17 +67,46 @@ public class ImapProtocol {
     private UntaggedResponseListener untaggedResponseListener;
     private String selectedMailbox;
 
-    // Number of octets to fetch at a time, when fetching body content.
-    private static final int FETCH_INCREMENT_INITIAL_WIFI = 8192;
-    private static final int FETCH_INCREMENT_INITIAL_MOBILE = 4096;
-    private static final int FETCH_INCREMENT_MIN = 1024;
-    private static final int FETCH_INCREMENT_MAX = 32768;
+    // Maximum length of the sequence set in a single command, to keep the
+    // command line within the limits enforced by some servers.
+    private static final int SEQUENCE_SET_MAX = 1000;
     
     /**
      * Counts the commands executed so far in this session. Every command of an
      * IMAP session needs a unique ID that is prepended to the command line.
      */
     private int commandCount = 0;
+    
+    /**
+     * True if the body fetch increment being measured was requested before
+     * the previous increment had been received.
+     */
+    private boolean fetchPipelined;
+
+    /** Commands queued while pipelining, which have not yet been sent. */
+    private final Vector pipelineQueue = new Vector();
+    
+    /**
+     * Outcome of each command queued since the pipeline was started, in queue
+     * order, for those commands that have already been sent.
+     */
+    private final Vector pipelineResults = new Vector();
+    
+    /** True if commands are being queued for pipelined execution. */
+    private boolean pipelining;
+    /** Largest literal that may be sent without waiting for a continuation. */
+    private int nonSyncLiteralLimit;
+    
+    /**
+     * Pipelined command callback that checks every untagged response for a
+     * value of interest to the untagged response listener.
+     */
+    private final ExecuteCallback untaggedValueCallback = new ExecuteCallback() {
+        public void processResponse(byte[] rawLine) {
+            checkForUntaggedValue(rawLine);
+        }
+        public void executeComplete() { }
+    };
 
     /** Creates a new instance of ImapProtocol */
     public ImapProtocol() {
@@ -91,6 +122,9 @@ public class ImapProtocol {
      */
     public void setConnection(Connection connection) {
         this.connection = connection;
+        this.pipelining = false;
+        pipelineQueue.removeAllElements();
+        pipelineResults.removeAllElements();
     }
 
     /**
@@ -113,6 +147,102 @@ public class ImapProtocol {
         this.untaggedResponseListener = untaggedResponseListener;
     }
     
+    /**
+     * Sets the largest literal that may be sent as a non-synchronizing
+     * literal, without waiting for a continuation from the server.
+     * This should be unlimited if the server supports LITERAL+, limited to
+     * 4096 bytes if the server supports LITERAL- (RFC 7888), and zero
+     * otherwise.
+     *
+     * @param nonSyncLiteralLimit the largest non-synchronizing literal size
+     */
+    public void setNonSyncLiteralLimit(int nonSyncLiteralLimit) {
+        this.nonSyncLiteralLimit = nonSyncLiteralLimit;
+    }
+    
+    /**
+     * Gets the largest literal that may be sent as a non-synchronizing literal.
+     *
+     * @return the largest non-synchronizing literal size
+     */
+    public int getNonSyncLiteralLimit() {
+        return nonSyncLiteralLimit;
+    }
+    
+    /**
+     * Starts queueing commands for pipelined execution.
+     * <p>
+     * While pipelining, commands that do not return any data to the caller,
+     * such as STORE and COPY, are queued instead of being executed.  All the
+     * queued commands are then sent to the server in a single write, as soon
+     * as any other command needs to be executed or the pipeline is ended.
+     * </p>
+     */
+    public void beginPipeline() {
+        pipelining = true;
+        pipelineQueue.removeAllElements();
+        pipelineResults.removeAllElements();
+    }
+    
+    /**
+     * Checks whether commands are being queued for pipelined execution.
+     *
+     * @return true, if pipelining
+     */
+    public boolean isPipelining() {
+        return pipelining;
+    }
+    
+    /**
+     * Gets the number of commands queued since the pipeline was started,
+     * including those that have already been sent.
+     *
+     * @return the number of pipelined commands
+     */
+    public int getPipelineSize() {
+        return pipelineResults.size() + pipelineQueue.size();
+    }
+    
+    /**
+     * Sends any commands that are still queued, waits for all of them to
+     * complete, and stops pipelining.
+     *
+     * @param progressHandler the progress handler
+     * @return the outcome of each command queued since the pipeline was
+     *     started, in queue order, which is <code>null</code> for commands that
+     *     completed successfully and the tagged response for those that failed
+     */
+    public String[] endPipeline(MailProgressHandler progressHandler) throws IOException, MailException {
+        if (EventLogger.getMinimumLevel() >= EventLogger.DEBUG_INFO) {
+            EventLogger.logEvent(AppInfo.GUID,
+                ("ImapProtocol.endPipeline(" + getPipelineSize() + ")").getBytes(),
+                EventLogger.DEBUG_INFO);
+        }
+        
+        try {
+            flushPipeline(progressHandler);
+        } finally {
+            pipelining = false;
+        }
+        
+        String[] result = new String[pipelineResults.size()];
+        pipelineResults.copyInto(result);
+        pipelineResults.removeAllElements();
+        return result;
+    }
+    
+    /**
+     * Discards any commands that are still queued, along with the outcome
+     * of those already sent, and stops pipelining.
+     * This is used to clean up after a failure that prevents the pipeline
+     * from being ended normally.
+     */
+    public void abortPipeline() {
+        pipelining = false;
+        pipelineQueue.removeAllElements();
+        pipelineResults.removeAllElements();
+    }
+    
     /**
      * Execute the "STARTTLS" command.
      * The underlying connection mode must be switched after the
@@ -215,6 +345,40 @@ public class ImapProtocol {
         return table;
     }
 
+    /**
+     * Execute the "ENABLE" command
+     * @param extensions the extensions to enable
+     * @return Hashtable containing a mapping from String to the boolean
+     * value "true" for every extension the server reported as enabled.
+     */
+    public Hashtable executeEnable(String[] extensions) throws IOException, MailException {
+        StringBuffer buf = new StringBuffer();
+        for(int i=0; i<extensions.length; i++) {
+            if(i > 0) { buf.append(CHAR_SP); }
+            buf.append(extensions[i]);
+        }
+        String arguments = buf.toString();
+        
+        if (EventLogger.getMinimumLevel() >= EventLogger.DEBUG_INFO) {
+            EventLogger.logEvent(AppInfo.GUID,
+                ("ImapProtocol.executeEnable(\"" + arguments + "\")").getBytes(),
+                EventLogger.DEBUG_INFO);
+        }
+
+        String[] replyText = execute(ENABLE, arguments, null);
+
+        Hashtable table = new Hashtable();
+        for (int i = 0; i < replyText.length; i++) {
+            String[] tokens = StringParser.parseTokenString(replyText[i], CHAR_SP);
+            if ((tokens.length > 2) && tokens[1].equals(ENABLED)) {
+                for (int j = 2; j < tokens.length; j++)
+                    table.put(tokens[j], Boolean.TRUE);
+            }
+        }
+
+        return table;
+    }
+    
     /**
      * Execute the "COMPRESS DEFLATE" command
      * @return true, if compression was successfully enabled
@@ -363,10 +527,42 @@ public class ImapProtocol {
                 EventLogger.DEBUG_INFO);
         }
 
+        return executeSelectImpl(mboxpath, null);
+    }
+    
+    /**
+     * Execute the "SELECT" command with the QRESYNC parameter, as described
+     * in RFC 7162.  The QRESYNC extension must have already been enabled.
+     * <p>
+     * If the provided UIDVALIDITY matches the mailbox, the response will
+     * also contain the messages that have been expunged, and the flags of
+     * messages that have changed, since the provided mod-sequence.
+     * </p>
+     * @param mboxpath The mailbox path to select
+     * @param uidValidity The last known UIDVALIDITY of the mailbox
+     * @param highestModSeq The last known HIGHESTMODSEQ of the mailbox
+     * @return Parsed response object
+     */
+    public SelectResponse executeSelect(String mboxpath, int uidValidity, long highestModSeq)
+        throws IOException, MailException {
+        if (EventLogger.getMinimumLevel() >= EventLogger.DEBUG_INFO) {
+            EventLogger.logEvent(AppInfo.GUID,
+                ("ImapProtocol.executeSelect(\"" + mboxpath + "\", "
+                        + uidValidity + ", " + highestModSeq + ")").getBytes(),
+                EventLogger.DEBUG_INFO);
+        }
+
+        return executeSelectImpl(mboxpath,
+                "(QRESYNC (" + uidValidity + CHAR_SP + highestModSeq + "))");
+    }
+    
+    private SelectResponse executeSelectImpl(String mboxpath, String selectParams)
+        throws IOException, MailException {
         String[] replyText = execute(SELECT,
                 CHAR_QUOTE + StringParser.addEscapedChars(mboxpath) +
-                CHAR_QUOTE, null);
+                CHAR_QUOTE + ((selectParams == null) ? "" : (CHAR_SP + selectParams)), null);
         SelectResponse response = new SelectResponse();
+        Vector fetchResponses = null;
 
         int p;
         int q;
@@ -374,7 +570,37 @@ public class ImapProtocol {
         for (int i = 0; i < replyText.length; i++) {
             String rowText = replyText[i];
 
-            if ((p = rowText.indexOf(_EXISTS)) != -1) {
+            if (rowText.startsWith(VANISHED_EARLIER_)) {
+                int[] vanished = ImapParser.parseSequenceSet(
+                        rowText.substring(VANISHED_EARLIER_.length()));
+                if (response.vanishedUids == null) {
+                    response.vanishedUids = vanished;
+                } else {
+                    int[] merged = new int[response.vanishedUids.length + vanished.length];
+                    System.arraycopy(response.vanishedUids, 0, merged, 0, response.vanishedUids.length);
+                    System.arraycopy(vanished, 0, merged, response.vanishedUids.length, vanished.length);
+                    response.vanishedUids = merged;
+                }
+            } else if (rowText.indexOf(_FETCH_) != -1) {
+                FetchFlagsResponse fetchResponse = prepareFetchFlagsResponse(rowText.getBytes());
+                if (fetchResponse != null && fetchResponse.uid != -1) {
+                    if (fetchResponses == null) {
+                        fetchResponses = new Vector();
+                    }
+                    fetchResponses.addElement(fetchResponse);
+                }
+            } else if ((p = rowText.indexOf(HIGHESTMODSEQ_)) != -1) {
+                p += 14;
+                q = rowText.indexOf(']');
+
+                if ((q != -1) && (q > p)) {
+                    try {
+                        response.highestModSeq = Long.parseLong(rowText.substring(p, q));
+                    } catch (NumberFormatException e) {
+                        response.highestModSeq = 0;
+                    }
+                }
+            } else if ((p = rowText.indexOf(_EXISTS)) != -1) {
                 q = p;
                 p = rowText.indexOf(' ');
 
@@ -437,6 +663,11 @@ public class ImapProtocol {
             }
         }
 
+        if (fetchResponses != null) {
+            response.fetchResponses = new FetchFlagsResponse[fetchResponses.size()];
+            fetchResponses.copyInto(response.fetchResponses);
+        }
+
         // Keep track of the selected mailbox for the few commands that
         // can operate on any mailbox.
         this.selectedMailbox = mboxpath;
@@ -461,6 +692,16 @@ public class ImapProtocol {
         }
     }
 
+    /**
+     * Execute the "STATUS" command on a set of mailboxes, as a single
+     * pipelined batch.
+     *
+     * @param mboxpaths the paths of the mailboxes to check
+     * @param progressHandler the progress handler
+     * @return the status of each mailbox, with a <code>null</code> entry
+     *     for any mailbox the server returned no status data for, or
+     *     rejected the command for
+     */
     public StatusResponse[] executeStatus(String[] mboxpaths,
         MailProgressHandler progressHandler) throws IOException, MailException {
         if (EventLogger.getMinimumLevel() >= EventLogger.DEBUG_INFO) {
@@ -480,70 +721,128 @@ public class ImapProtocol {
                 EventLogger.DEBUG_INFO);
         }
 
-        StatusResponse[] response = new StatusResponse[mboxpaths.length];
-        String[] result = new String[mboxpaths.length];
+        flushPipeline(progressHandler);
         
-        int i;
-        for (i = 0; i < mboxpaths.length; i+=10) {
-            int increment = Math.min(10, mboxpaths.length - i);
-            String[] arguments = new String[increment];
-            for(int j=0; j<increment; j++) {
-                arguments[j] = CHAR_QUOTE
-                    + StringParser.addEscapedChars(mboxpaths[i + j])
-                    + "\" (MESSAGES RECENT UNSEEN)";
-            }
-            
-            String[] tempResult = executeBatch(STATUS, arguments, progressHandler);
-            if ((tempResult == null) || (tempResult.length != arguments.length)) {
-                throw new MailException("Unable to query folder status");
-            }
-            for(int j=0; j<increment; j++) {
-                result[i + j] = tempResult[j];
-            }
+        // All the mailboxes are queried in a single pipelined batch, and each
+        // response is matched to its command by mailbox name.  If a command
+        // gets no matching response, but did get exactly one STATUS response
+        // for a mailbox outside the batch, that response is taken to be the
+        // server's spelling of the requested name.  Any other STATUS
+        // response, such as an unsolicited one sent because of a NOTIFY
+        // request, is passed along like any other untagged response.
+        final StatusResponse[] response = new StatusResponse[mboxpaths.length];
+        final String[] requestedPaths = mboxpaths;
+        PipelinedCommand[] commands = new PipelinedCommand[mboxpaths.length];
+        for (int i = 0; i < mboxpaths.length; i++) {
+            final int index = i;
+            final String mboxpath = mboxpaths[i];
+            commands[i] = createPipelinedCommand(STATUS,
+                    CHAR_QUOTE + StringParser.addEscapedChars(mboxpath)
+                    + "\" (MESSAGES RECENT UNSEEN)",
+                    new ExecuteCallback() {
+                private final Vector unmatchedLines = new Vector();
+                private StatusResponse unmatchedResponse;
+                private String unmatchedMailbox;
+                
+                public void processResponse(byte[] rawLine) {
+                    StatusResponse statusResponse = new StatusResponse();
+                    String mailbox = parseStatusResponse(rawLine, statusResponse);
+                    if(mailbox != null && isSameMailbox(mboxpath, mailbox)) {
+                        response[index] = statusResponse;
+                    }
+                    else {
+                        if(mailbox != null) {
+                            unmatchedResponse = statusResponse;
+                            unmatchedMailbox = mailbox;
+                        }
+                        unmatchedLines.addElement(rawLine);
+                    }
+                }
+                public void executeComplete() {
+                    int size = unmatchedLines.size();
+                    if(response[index] == null && size == 1 && unmatchedResponse != null
+                            && !isRequestedMailbox(requestedPaths, unmatchedMailbox)) {
+                        response[index] = unmatchedResponse;
+                        return;
+                    }
+                    for(int j=0; j<size; j++) {
+                        checkForUntaggedValue((byte[])unmatchedLines.elementAt(j));
+                    }
+                }
+            });
         }
-
-        for (i = 0; i < result.length; i++) {
-            response[i] = new StatusResponse();
-
-            if (result[i] == null) {
-                continue;
+        
+        executePipelined(commands, progressHandler);
+        
+        // A mailbox that cannot be checked, such as one removed by another
+        // client, should not prevent the others from being reported.
+        for (int i = 0; i < commands.length; i++) {
+            if(commands[i].failure != null) {
+                response[i] = null;
             }
+        }
 
-            int p = result[i].indexOf('(');
-            int q = result[i].indexOf(')');
+        return response;
+    }
 
-            if ((p == -1) || (q == -1) || (p >= q)) {
-                continue;
+    /**
+     * Checks whether two mailbox names refer to the same mailbox.
+     * Names must match exactly, except for INBOX which is case-insensitive.
+     */
+    private static boolean isSameMailbox(String mboxpath, String mailbox) {
+        return mboxpath.equals(mailbox)
+                || (mboxpath.equalsIgnoreCase(INBOX) && mailbox.equalsIgnoreCase(INBOX));
+    }
+    
+    private static boolean isRequestedMailbox(String[] mboxpaths, String mailbox) {
+        for(int i=0; i<mboxpaths.length; i++) {
+            if(isSameMailbox(mboxpaths[i], mailbox)) { return true; }
+        }
+        return false;
+    }
+    
+    /**
+     * Parses an untagged STATUS response.
+     * Any status items that are not present in the response are left
+     * unchanged in the provided response object.
+     *
+     * @param rawLine the raw response line
+     * @param response the object to populate with the status items
+     * @return the mailbox name, or null if the line is not a STATUS response
+     */
+    private static String parseStatusResponse(byte[] rawLine, StatusResponse response) {
+        try {
+            ImapResponseCursor cursor = new ImapResponseCursor(rawLine, 0, rawLine.length);
+            if(!cursor.readAtom("*") || !cursor.readAtom(STATUS)) {
+                return null;
             }
-
-            String[] fields = StringParser.parseTokenString(result[i].substring(p +
-                        1, q), CHAR_SP);
-
-            if (fields.length != 6) {
-                continue;
+            String mailbox = cursor.readAstring();
+            if(mailbox == null || !cursor.enterList()) {
+                return null;
             }
-
-            for (int j = 0; j < fields.length; j += 2) {
-                if (fields[j].equalsIgnoreCase(MESSAGES)) {
-                    try {
-                        response[i].exists = Integer.parseInt(fields[j + 1]);
-                    } catch (NumberFormatException e) {
-                    }
-                } else if (fields[j].equalsIgnoreCase(RECENT)) {
-                    try {
-                        response[i].recent = Integer.parseInt(fields[j + 1]);
-                    } catch (NumberFormatException e) {
-                    }
-                } else if (fields[j].equalsIgnoreCase(UNSEEN)) {
-                    try {
-                        response[i].unseen = Integer.parseInt(fields[j + 1]);
-                    } catch (NumberFormatException e) {
-                    }
+            while(cursor.hasNext()) {
+                if(cursor.readAtom(MESSAGES)) {
+                    int value = cursor.readNumber();
+                    if(value >= 0) { response.exists = value; }
+                }
+                else if(cursor.readAtom(RECENT)) {
+                    int value = cursor.readNumber();
+                    if(value >= 0) { response.recent = value; }
+                }
+                else if(cursor.readAtom(UNSEEN)) {
+                    int value = cursor.readNumber();
+                    if(value >= 0) { response.unseen = value; }
+                }
+                else {
+                    // Skip the item name and its value
+                    cursor.skipValue();
+                    cursor.skipValue();
                 }
             }
+            return mailbox;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return null;
         }
-
-        return response;
     }
 
     /**
@@ -634,17 +933,17 @@ public class ImapProtocol {
             return new FetchFlagsResponse[0];
         }
 
-        String uidList = getUidList(uids);
+        String[] uidSets = getSequenceSets(uids);
         
         if (EventLogger.getMinimumLevel() >= EventLogger.DEBUG_INFO) {
             EventLogger.logEvent(AppInfo.GUID,
-                ("ImapProtocol.executeFetchFlagsUid(" + uidList + ")").getBytes(),
+                ("ImapProtocol.executeFetchFlagsUid(" + getSequenceSetsText(uidSets) + ")").getBytes(),
                 EventLogger.DEBUG_INFO);
         }
 
         final Vector result = new Vector();
-        executeResponse(UID_FETCH,
-                uidList + " (FLAGS UID)",
+        executeSequenceSets(UID_FETCH,
+                uidSets, "(FLAGS UID)",
                 new ExecuteCallback() {
             public void processResponse(byte[] rawLine) {
                 FetchFlagsResponse response = prepareFetchFlagsResponse(rawLine);
@@ -663,16 +962,20 @@ public class ImapProtocol {
         return resultArray;
     }
 
-    private static String getUidList(int[] uids) {
+    private static String[] getSequenceSets(int[] values) {
+        return ImapParser.createSequenceSets(values, SEQUENCE_SET_MAX);
+    }
+    
+    private static String getSequenceSetsText(String[] sequenceSets) {
         StringBuffer buf = new StringBuffer();
 
-        for (int i = 0; i < (uids.length - 1); i++) {
-            buf.append(uids[i]);
-            buf.append(',');
+        for (int i = 0; i < sequenceSets.length; i++) {
+            if (i > 0) {
+                buf.append(' ');
+            }
+            buf.append(sequenceSets[i]);
         }
 
-        buf.append(uids[uids.length - 1]);
-
         return buf.toString();
     }
 
@@ -684,42 +987,35 @@ public class ImapProtocol {
         FetchFlagsResponse flagRespItem = new FetchFlagsResponse();
         
         try {
-            Vector parsedText = null;
+            flagRespItem.flags = null;
 
+            // Iterate through results, locating and parsing the
+            // FLAGS and UID sections in an order-independent way.
             try {
                 int offset = Arrays.getIndex(rawText, (byte)'(');
                 if(offset == -1) { return null; }
-                parsedText = ImapParser.parenListParser(rawText, offset, rawText.length - offset);
-            } catch (Throwable exp) {
-                parsedText = null;
-                return null;
-            }
-
-            
-            flagRespItem.flags = null;
-
-            // Iterate through results, locating and parsing the
-            // FLAGS and ENVELOPE sections in an order-independent way.
-            int parsedSize = parsedText.size();
-
-            for (int j = 0; j < parsedSize; j++) {
-                if (parsedText.elementAt(j) instanceof String) {
-                    if (((String) parsedText.elementAt(j)).equals(FLAGS) &&
-                            (parsedSize > (j + 1)) &&
-                            parsedText.elementAt(j + 1) instanceof Vector) {
-                        flagRespItem.flags = ImapParser.parseMessageFlags((Vector) parsedText.elementAt(j +
-                                    1));
-                    } else if (((String) parsedText.elementAt(j)).equals(
-                                UID) && (parsedSize > (j + 1)) &&
-                            parsedText.elementAt(j + 1) instanceof String) {
-                        try {
-                            flagRespItem.uid = Integer.parseInt((String) parsedText.elementAt(j +
-                                        1));
-                        } catch (NumberFormatException e) {
-                            flagRespItem.uid = -1;
+                ImapResponseCursor cursor = new ImapResponseCursor(rawText, offset, rawText.length - offset);
+                cursor.enterList();
+                
+                while (cursor.hasNext()) {
+                    if (cursor.readAtom(FLAGS)) {
+                        if (cursor.peekType() == ImapResponseCursor.TYPE_LIST) {
+                            flagRespItem.flags = ImapParser.parseMessageFlags(cursor);
+                        } else {
+                            cursor.skipValue();
                         }
+                    } else if (cursor.readAtom(UID)) {
+                        if (cursor.peekType() == ImapResponseCursor.TYPE_ATOM) {
+                            flagRespItem.uid = cursor.readNumber();
+                        } else {
+                            cursor.skipValue();
+                        }
+                    } else {
+                        cursor.skipValue();
                     }
                 }
+            } catch (Throwable exp) {
+                return null;
             }
 
             if (flagRespItem.flags == null) {
@@ -825,16 +1121,16 @@ public class ImapProtocol {
             return;
         }
 
-        String indexList = getUidList(indices);
+        String[] indexSets = getSequenceSets(indices);
 
         if (EventLogger.getMinimumLevel() >= EventLogger.DEBUG_INFO) {
             EventLogger.logEvent(AppInfo.GUID,
-                ("ImapProtocol.executeFetchEnvelopeUid(" + indexList + ")").getBytes(),
+                ("ImapProtocol.executeFetchEnvelope(" + getSequenceSetsText(indexSets) + ")").getBytes(),
                 EventLogger.DEBUG_INFO);
         }
 
-        executeResponse(FETCH,
-                indexList + " (FLAGS UID ENVELOPE BODYSTRUCTURE)",
+        executeSequenceSets(FETCH,
+                indexSets, "(FLAGS UID ENVELOPE BODYSTRUCTURE)",
                 new ExecuteCallback() {
             public void processResponse(byte[] rawLine) {
                 if(!prepareFetchEnvelopeResponse(rawLine, callback)) {
@@ -865,16 +1161,16 @@ public class ImapProtocol {
             return;
         }
 
-        String uidList = getUidList(uids);
+        String[] uidSets = getSequenceSets(uids);
 
         if (EventLogger.getMinimumLevel() >= EventLogger.DEBUG_INFO) {
             EventLogger.logEvent(AppInfo.GUID,
-                ("ImapProtocol.executeFetchEnvelopeUid(" + uidList + ")").getBytes(),
+                ("ImapProtocol.executeFetchEnvelopeUid(" + getSequenceSetsText(uidSets) + ")").getBytes(),
                 EventLogger.DEBUG_INFO);
         }
 
-        executeResponse(UID_FETCH,
-                uidList + " (FLAGS UID ENVELOPE BODYSTRUCTURE)",
+        executeSequenceSets(UID_FETCH,
+                uidSets, "(FLAGS UID ENVELOPE BODYSTRUCTURE)",
                 new ExecuteCallback() {
             public void processResponse(byte[] rawLine) {
                 if(!prepareFetchEnvelopeResponse(rawLine, callback)) {
@@ -901,50 +1197,62 @@ public class ImapProtocol {
         try {
             MessageEnvelope env = null;
             ImapParser.MessageSection structure = null;
-            Vector parsedText = null;
-
-            try {
-                int offset = Arrays.getIndex(rawText, (byte)'(');
-                if(offset == -1) { return false; }
-                parsedText = ImapParser.parenListParser(rawText, offset, rawText.length - offset);
-            } catch (Throwable exp) {
-                return false;
-            }
 
             envRespItem = new FetchEnvelopeResponse();
             envRespItem.flags = null;
 
-            // Iterate through results, locating and parsing the
-            // FLAGS and ENVELOPE sections in an order-independent way.
-            int parsedSize = parsedText.size();
-
-            for (int j = 0; j < parsedSize; j++) {
-                if (FLAGS.equals(parsedText.elementAt(j))
-                        && (parsedSize > (j + 1))
-                        && parsedText.elementAt(j + 1) instanceof Vector) {
-                    envRespItem.flags = ImapParser.parseMessageFlags((Vector) parsedText.elementAt(j + 1));
-                }
-                else if (UID.equals(parsedText.elementAt(j))
-                        && (parsedSize > (j + 1))
-                        && parsedText.elementAt(j + 1) instanceof String) {
-                    try {
-                        envRespItem.uid = Integer.parseInt((String) parsedText.elementAt(j + 1));
-                    } catch (NumberFormatException e) {
-                        envRespItem.uid = -1;
+            // Iterate through results, decoding the FLAGS, UID, ENVELOPE
+            // and BODYSTRUCTURE sections in an order-independent way
+            // directly from the raw response.
+            try {
+                int offset = Arrays.getIndex(rawText, (byte)'(');
+                if(offset == -1) { return false; }
+                ImapResponseCursor cursor = new ImapResponseCursor(rawText, offset, rawText.length - offset);
+                cursor.enterList();
+                
+                // Each keyword is read once, and a value of the wrong type
+                // is skipped so that only that item is lost.
+                while (cursor.hasNext()) {
+                    if (cursor.readAtom(FLAGS)) {
+                        if (cursor.peekType() == ImapResponseCursor.TYPE_LIST) {
+                            envRespItem.flags = ImapParser.parseMessageFlags(cursor);
+                        }
+                        else {
+                            cursor.skipValue();
+                        }
+                    }
+                    else if (cursor.readAtom(UID)) {
+                        if (cursor.peekType() == ImapResponseCursor.TYPE_ATOM) {
+                            envRespItem.uid = cursor.readNumber();
+                        }
+                        else {
+                            cursor.skipValue();
+                        }
+                    }
+                    else if (cursor.readAtom(ENVELOPE)) {
+                        if (cursor.peekType() == ImapResponseCursor.TYPE_LIST) {
+                            env = ImapParser.parseMessageEnvelope(cursor);
+                            hasEnvelopeOrStructure = true;
+                        }
+                        else {
+                            cursor.skipValue();
+                        }
+                    }
+                    else if (cursor.readAtom(BODYSTRUCTURE)) {
+                        if (cursor.peekType() == ImapResponseCursor.TYPE_LIST) {
+                            structure = ImapParser.parseMessageStructure(cursor);
+                            hasEnvelopeOrStructure = true;
+                        }
+                        else {
+                            cursor.skipValue();
+                        }
+                    }
+                    else {
+                        cursor.skipValue();
                     }
                 }
-                else if (ENVELOPE.equals(parsedText.elementAt(j))
-                        && (parsedSize > (j + 1))
-                        && parsedText.elementAt(j + 1) instanceof Vector) {
-                    env = ImapParser.parseMessageEnvelope((Vector) parsedText.elementAt(j + 1));
-                    hasEnvelopeOrStructure = true;
-                }
-                else if (BODYSTRUCTURE.equals(parsedText.elementAt(j))
-                        && (parsedSize > (j + 1))
-                        && parsedText.elementAt(j + 1) instanceof Vector) {
-                    structure = ImapParser.parseMessageStructureParameter((Vector) parsedText.elementAt(j + 1));
-                    hasEnvelopeOrStructure = true;
-                }
+            } catch (Throwable exp) {
+                return false;
             }
 
             if(!hasEnvelopeOrStructure) { return false; }
@@ -1027,79 +1335,113 @@ public class ImapProtocol {
      * @return Body text as a string
      */
     public byte[] executeFetchBody(int uid, String address, MailProgressHandler progressHandler) throws IOException, MailException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        executeFetchBody(uid, address, buf, progressHandler);
+        return buf.toByteArray();
+    }
+    
+    /**
+     * Execute the "FETCH (BODY)" command, writing the body data to the
+     * provided stream as each partial fetch is received.
+     * <p>
+     * This allows the caller to decode or store the body data as it arrives,
+     * so memory usage is limited by the fetch increment instead of the size
+     * of the body section.
+     * </p>
+     * 
+     * @param uid Unique ID of the message
+     * @param address Address of the body section (i.e. "1", "1.2")
+     * @param sink the stream to write the body data to
+     * @param progressHandler the progress handler
+     */
+    public void executeFetchBody(int uid, String address, OutputStream sink, MailProgressHandler progressHandler) throws IOException, MailException {
         if (EventLogger.getMinimumLevel() >= EventLogger.DEBUG_INFO) {
             EventLogger.logEvent(AppInfo.GUID,
                 ("ImapProtocol.executeFetchBody(" + uid + ", \"" + address +
                 "\")").getBytes(), EventLogger.DEBUG_INFO);
         }
 
-        DataBuffer buf = new DataBuffer();
+        // The first increment is fetched on its own, since most body
+        // sections fit within it.  If it comes back full, then the next
+        // increment is always requested before the current one has been
+        // received, so the server can keep sending without waiting for
+        // a round trip between increments.
         int fetchOffset = 0;
-        int previousIncrement = -1;
-        long previousTime = -1L;
+        int fetchIncrement = getFetchIncrement(-1, -1L);
+        String fetchTag = sendFetchBodyIncrement(uid, address, fetchOffset, fetchIncrement);
+        boolean currentPipelined = false;
+        long startTime = System.currentTimeMillis();
+        
+        String nextTag = null;
+        int nextIncrement = -1;
+        boolean nextPipelined = false;
+        
         while(true) {
-            int fetchIncrement = getFetchIncrement(previousIncrement, previousTime);
-            long time1 = System.currentTimeMillis();
-            int fetched = fetchBodyIncrement(buf, uid, address, fetchOffset, fetchIncrement, progressHandler);
-            long time2 = System.currentTimeMillis();
-            previousTime = Math.abs(time2 - time1);
-            previousIncrement = fetchIncrement;
+            int fetched;
+            try {
+                fetched = receiveFetchBodyIncrement(fetchTag, sink, progressHandler);
+            } catch (MailException e) {
+                if(nextTag != null) {
+                    // Keep the connection in sync before giving up
+                    try {
+                        receiveResponse(nextTag, progressHandler);
+                    } catch (MailException exp) { }
+                }
+                throw e;
+            }
+            long endTime = System.currentTimeMillis();
             
             if(fetched < fetchIncrement) {
+                if(nextTag != null) {
+                    // The pipelined request starts past the end of the
+                    // body section, so it should not return any data
+                    receiveFetchBodyIncrement(nextTag, sink, progressHandler);
+                }
                 break;
             }
-            else {
-                fetchOffset += fetched;
+            
+            fetchPipelined = currentPipelined;
+            int increment = getFetchIncrement(fetchIncrement, Math.abs(endTime - startTime));
+            fetchOffset += fetched;
+            startTime = endTime;
+            
+            if(nextTag == null) {
+                nextIncrement = increment;
+                nextTag = sendFetchBodyIncrement(uid, address, fetchOffset, nextIncrement);
+                nextPipelined = false;
             }
+            
+            fetchTag = nextTag;
+            fetchIncrement = nextIncrement;
+            currentPipelined = nextPipelined;
+            
+            nextIncrement = increment;
+            nextTag = sendFetchBodyIncrement(uid, address, fetchOffset + fetchIncrement, nextIncrement);
+            nextPipelined = true;
         }
-        
-        return buf.toArray();
     }
 
     /**
      * Gets the fetch increment for the next message body fetch operation.
-     * The initial value is based on the network transport type.  With each
-     * successful fetch, the increment is updated using a form of additive
-     * increase / multiplicative decrease algorithm.
+     * The increment comes from the fetch window estimator for the current
+     * network transport type, which is updated with the measurements from
+     * each full increment that has been received.
      *
-     * @param previousIncrement the previous increment
+     * @param previousIncrement the previous increment, or <code>-1</code>
+     *     if this is the first increment for the body section
      * @param previousTime the previous increment's receive time
      * @return the next fetch increment
      */
     protected int getFetchIncrement(int previousIncrement, long previousTime) {
-        int fetchIncrement;
-        if(previousIncrement < 0 || previousTime < 0) {
-            if(connection.getConnectionType() == ConnectionConfig.TRANSPORT_WIFI_ONLY) {
-                fetchIncrement = FETCH_INCREMENT_INITIAL_WIFI;
-            }
-            else {
-                fetchIncrement = FETCH_INCREMENT_INITIAL_MOBILE;
-            }
+        FetchWindowEstimator estimator =
+            FetchWindowEstimator.getInstance(connection.getConnectionType());
+        if(previousIncrement >= 0 && previousTime >= 0) {
+            estimator.update(previousIncrement, previousTime, fetchPipelined);
         }
-        else {
-            if(previousTime < 900) {
-                // If we fetched the previous increment too quickly, then
-                // increase the increment size by 1024 bytes.
-                fetchIncrement = previousIncrement + 1024;
-            }
-            else if(previousTime > 1100) {
-                // If we fetched the previous increment too slowly, then
-                // halve the increment size.
-                fetchIncrement = previousIncrement >>> 1;
-            }
-            else {
-                // If the previous increment was fetched in 1000 +/- 100 sec,
-                // consider ourselves stable and change nothing.
-                fetchIncrement = previousIncrement;
-            }
-            
-            // Make sure our chosen increment is within the allowable range.
-            fetchIncrement = MathUtilities.clamp(FETCH_INCREMENT_MIN, fetchIncrement, FETCH_INCREMENT_MAX);
-        }
-        return fetchIncrement;
+        return estimator.getWindow();
     }
 
-    private int fetchBodyIncrement(DataBuffer buf, int uid, String address, int fetchOffset, int fetchIncrement, MailProgressHandler progressHandler) throws IOException, MailException {
+    private String sendFetchBodyIncrement(int uid, String address, int fetchOffset, int fetchIncrement) throws IOException, MailException {
         String args = MessageFormat.format(
                 "{0} (BODY[{1}]<{2}.{3}>)",
                 new Object[] {
@@ -1109,37 +1451,52 @@ public class ImapProtocol {
                         Integer.toString(fetchIncrement)
                 });
         
-        byte[][] rawList = executeResponse(UID_FETCH, args, progressHandler);
+        return executeNoReply(UID_FETCH, args);
+    }
+    
+    private int receiveFetchBodyIncrement(String tag, OutputStream sink, MailProgressHandler progressHandler) throws IOException, MailException {
+        byte[][] rawList = receiveResponse(tag, progressHandler);
 
         if (rawList.length < 1) {
             return -1;
         }
 
-        byte[] rawMessage = null;
+        int fetched = -1;
         
         for(int i=0; i<rawList.length; i++) {
-            if(rawMessage == null) {
-                // If we don't yet have the raw message body, try to find it in
-                // the current response line
-                int offset = Arrays.getIndex(rawList[i], (byte)'(');
-                if(offset != -1) {
-                    Vector parsedList = ImapParser.parenListParser(rawList[i], offset, rawList[i].length - offset);
-                    int size = parsedList.size();
-
-                    for(int j=0; j<(size - 1); j++) {
-                        Object element = parsedList.elementAt(j);
-                        if(element instanceof String
-                                && ((String)element).startsWith(BODY)
-                                && parsedList.elementAt(j + 1) instanceof byte[]) {
-                            rawMessage = (byte[])parsedList.elementAt(j + 1);
+            if(fetched == -1) {
+                // If we don't yet have the raw message body, try to write it
+                // directly from the literal in the current response line
+                fetched = writeBodyLiteral(rawList[i], sink);
+                
+                // If the body was not sent as a literal, fall back to
+                // parsing the complete response line
+                if(fetched == -1) {
+                    byte[] rawMessage = null;
+                    int offset = Arrays.getIndex(rawList[i], (byte)'(');
+                    if(offset != -1) {
+                        Vector parsedList = ImapParser.parenListParser(rawList[i], offset, rawList[i].length - offset);
+                        int size = parsedList.size();
+    
+                        for(int j=0; j<(size - 1); j++) {
+                            Object element = parsedList.elementAt(j);
+                            if(element instanceof String
+                                    && ((String)element).startsWith(BODY)
+                                    && parsedList.elementAt(j + 1) instanceof byte[]) {
+                                rawMessage = (byte[])parsedList.elementAt(j + 1);
+                            }
                         }
                     }
-                }
-                
-                // If it wasn't in the current response line, then check for
-                // an untagged response instead
-                if(rawMessage == null) {
-                    checkForUntaggedValue(rawList[i]);
+                    
+                    // If it wasn't in the current response line, then check for
+                    // an untagged response instead
+                    if(rawMessage != null) {
+                        sink.write(rawMessage, 0, rawMessage.length);
+                        fetched = rawMessage.length;
+                    }
+                    else {
+                        checkForUntaggedValue(rawList[i]);
+                    }
                 }
             }
             else {
@@ -1149,13 +1506,55 @@ public class ImapProtocol {
             }
         }
 
-        if(rawMessage != null && rawMessage.length > 0) {
-            buf.write(rawMessage, 0, rawMessage.length);
-            return rawMessage.length;
-        }
-        else {
-            return 0;
+        return (fetched > 0) ? fetched : 0;
+    }
+    
+    /**
+     * Writes the body section literal contained within a FETCH response line
+     * directly to the provided stream, without building a parse tree or
+     * copying the literal into a separate array.
+     *
+     * @param rawLine the raw response line
+     * @param sink the stream to write the literal data to
+     * @return the number of bytes written, or <code>-1</code> if the line did
+     *     not contain a body section in literal form
+     */
+    private static int writeBodyLiteral(byte[] rawLine, OutputStream sink) throws IOException {
+        if(rawLine.length == 0 || rawLine[0] != CHAR_ASTERISK) { return -1; }
+        
+        int p = StringArrays.indexOf(rawLine, BODY_SECTION_B, 0, rawLine.length, true);
+        if(p == -1) { return -1; }
+        
+        // Skip past the section specifier and any partial origin
+        p = StringArrays.indexOf(rawLine, (byte)']', p + BODY_SECTION_B.length);
+        if(p == -1) { return -1; }
+        p++;
+        if(p < rawLine.length && rawLine[p] == (byte)'<') {
+            p = StringArrays.indexOf(rawLine, (byte)'>', p);
+            if(p == -1) { return -1; }
+            p++;
+        }
+        while(p < rawLine.length && rawLine[p] == (byte)' ') { p++; }
+        if(p >= rawLine.length || rawLine[p] != (byte)'{') { return -1; }
+        
+        // Parse the literal length, which is followed by a line break
+        int q = StringArrays.indexOf(rawLine, (byte)'}', p);
+        if(q == -1) { return -1; }
+        int literalLength;
+        try {
+            literalLength = StringArrays.parseInt(rawLine, p + 1, q - p - 1);
+        } catch (NumberFormatException e) {
+            return -1;
         }
+        
+        int start = q + 1;
+        if(start < rawLine.length && rawLine[start] == (byte)'\r') { start++; }
+        if(start >= rawLine.length || rawLine[start] != (byte)'\n') { return -1; }
+        start++;
+        if(start + literalLength > rawLine.length) { return -1; }
+        
+        sink.write(rawLine, start, literalLength);
+        return literalLength;
     }
     
     /**
@@ -1187,7 +1586,7 @@ public class ImapProtocol {
             EventLogger.logEvent(AppInfo.GUID, buf.toString().getBytes(), EventLogger.DEBUG_INFO);
         }
 
-        executeStoreImpl(Integer.toString(uid), addOrRemove, flags);
+        executeStoreImpl(new String[] { Integer.toString(uid) }, addOrRemove, flags);
     }
 
     /**
@@ -1201,13 +1600,13 @@ public class ImapProtocol {
     public void executeStore(int[] uids, boolean addOrRemove, String[] flags) throws IOException, MailException {
         if(uids.length == 0) { return; }
         
-        String uidList = getUidList(uids);
+        String[] uidSets = getSequenceSets(uids);
         
         if (EventLogger.getMinimumLevel() >= EventLogger.DEBUG_INFO) {
             StringBuffer buf = new StringBuffer();
             buf.append("ImapProtocol.executeStore(");
             buf.append('{');
-            buf.append(uidList);
+            buf.append(getSequenceSetsText(uidSets));
             buf.append("}, ");
             buf.append(addOrRemove ? "add" : "remove");
             buf.append(", {");
@@ -1224,13 +1623,11 @@ public class ImapProtocol {
             EventLogger.logEvent(AppInfo.GUID, buf.toString().getBytes(), EventLogger.DEBUG_INFO);
         }
 
-        executeStoreImpl(uidList, addOrRemove, flags);
+        executeStoreImpl(uidSets, addOrRemove, flags);
     }
 
-    private void executeStoreImpl(String uidParam, boolean addOrRemove, String[] flags) throws IOException, MailException {
+    private void executeStoreImpl(String[] uidSets, boolean addOrRemove, String[] flags) throws IOException, MailException {
         StringBuffer buf = new StringBuffer();
-        buf.append(uidParam);
-        buf.append(' ');
         buf.append(addOrRemove ? '+' : '-');
         buf.append("FLAGS (");
 
@@ -1243,8 +1640,20 @@ public class ImapProtocol {
         }
 
         buf.append(')');
+        String arguments = buf.toString();
+        
+        if(pipelining) {
+            for(int i=0; i<uidSets.length; i++) {
+                queueCommand(UID_STORE, uidSets[i] + CHAR_SP + arguments, untaggedValueCallback);
+            }
+            return;
+        }
+        else if(uidSets.length > 1) {
+            executeSequenceSets(UID_STORE, uidSets, arguments, untaggedValueCallback, null);
+            return;
+        }
         
-        byte[][] rawList = executeResponse(UID_STORE, buf.toString(), null);
+        byte[][] rawList = executeResponse(UID_STORE, uidSets[0] + CHAR_SP + arguments, null);
 
         if (rawList.length < 1) {
             return;
@@ -1261,21 +1670,38 @@ public class ImapProtocol {
      * @param rawMessage The raw message text, in RFC2822-complaint format.
      * @param flags Flags to store the message with.
      */
-    public void executeAppend(String mboxName, String rawMessage,
+    public void executeAppend(String mboxName, DataSpool rawMessage,
         MessageFlags flags) throws IOException, MailException {
-        String flagsString = ImapParser.createMessageFlagsString(flags);
+        executeAppend(mboxName, new DataSpool[] { rawMessage }, new MessageFlags[] { flags });
+    }
 
+    /**
+     * Execute the "APPEND" command to add several messages to an existing
+     * mailbox in a single command.
+     * If more than one message is provided, this uses the MULTIAPPEND
+     * extension (RFC 3502), so the server must support it.
+     * @param mboxName Mailbox name.
+     * @param rawMessages The raw message texts, in RFC2822-complaint format.
+     * @param flags Flags to store each message with.
+     */
+    public void executeAppend(String mboxName, DataSpool[] rawMessages,
+        MessageFlags[] flags) throws IOException, MailException {
         if (EventLogger.getMinimumLevel() >= EventLogger.DEBUG_INFO) {
             EventLogger.logEvent(AppInfo.GUID,
-                ("ImapProtocol.executeAppend(rawMessage, \"" + flagsString +
-                "\")").getBytes(), EventLogger.DEBUG_INFO);
+                ("ImapProtocol.executeAppend(\"" + mboxName + "\", " +
+                rawMessages.length + ")").getBytes(), EventLogger.DEBUG_INFO);
         }
 
+        String[] arguments = new String[rawMessages.length];
+        for(int i=0; i<rawMessages.length; i++) {
+            String argument = '(' + ImapParser.createMessageFlagsString(flags[i]) + ')';
+            if(i == 0) {
+                argument = CHAR_QUOTE + StringParser.addEscapedChars(mboxName) + "\" " + argument;
+            }
+            arguments[i] = argument;
+        }
         
-        byte[] rawData = rawMessage.getBytes();
-        byte[][] rawList = executeContinue(APPEND,
-            CHAR_QUOTE + StringParser.addEscapedChars(mboxName) + "\" (" +
-            flagsString + ") {" + rawData.length + "}", rawData,
+        byte[][] rawList = executeContinue(APPEND, arguments, rawMessages,
             "Unable to append message to " + mboxName);
         
         if(selectedMailbox != null && selectedMailbox.equals(mboxName)) {
@@ -1300,9 +1726,15 @@ public class ImapProtocol {
                 "\")").getBytes(), EventLogger.DEBUG_INFO);
         }
 
-        execute(UID_COPY,
-            uid + " \"" + StringParser.addEscapedChars(mboxPath) + CHAR_QUOTE,
-            null);
+        String arguments =
+            uid + " \"" + StringParser.addEscapedChars(mboxPath) + CHAR_QUOTE;
+        
+        if(pipelining) {
+            queueCommand(UID_COPY, arguments, untaggedValueCallback);
+        }
+        else {
+            execute(UID_COPY, arguments, null);
+        }
     }
 
     /**
@@ -1528,6 +1960,39 @@ public class ImapProtocol {
         }
     }
     
+    /**
+     * Execute the "NOTIFY SET" command (RFC 5465).
+     * <p>
+     * This requests the same events for the selected mailbox that are
+     * normally sent during IDLE, and new or expunged message events for
+     * every other mailbox in the requested set.  Those are reported as
+     * unsolicited STATUS responses, which are passed to
+     * {@link UntaggedResponseListener#statusResponse(String, StatusResponse)}.
+     * The request remains in effect for the rest of the session.
+     * </p>
+     * 
+     * @param subscribed true to watch only subscribed mailboxes, false to
+     *     watch all mailboxes in the personal namespace
+     * @throws MailException if the server rejected the request
+     */
+    public void executeNotify(boolean subscribed) throws IOException, MailException {
+        String arguments = "SET (SELECTED (MessageNew MessageExpunge FlagChange)) ("
+            + (subscribed ? "SUBSCRIBED" : "PERSONAL")
+            + " (MessageNew MessageExpunge))";
+        
+        if (EventLogger.getMinimumLevel() >= EventLogger.DEBUG_INFO) {
+            EventLogger.logEvent(AppInfo.GUID,
+                ("ImapProtocol.executeNotify(\"" + arguments + "\")").getBytes(),
+                EventLogger.DEBUG_INFO);
+        }
+
+        byte[][] responses = executeResponse(NOTIFY, arguments, null);
+
+        for (int i = 0; i < responses.length; i++) {
+            checkForUntaggedValue(responses[i]);
+        }
+    }
+    
     /**
      * Execute the "IDLE" command.
      * @param idleListener the listener to receive notifications during idle
@@ -1628,7 +2093,51 @@ public class ImapProtocol {
         if(response.length > 2 && response[0] == CHAR_ASTERISK && response[1] == (byte)' ') {
             int p = StringArrays.indexOf(response, (byte)' ', 2);
             
-            if(p > 2 && Character.isDigit((char)response[2])) {
+            if(p > 2 && Arrays.equals(response, 2, VANISHED_B, 0, VANISHED_B.length)
+                    && p == 2 + VANISHED_B.length) {
+                // With QRESYNC enabled, the server reports expunges as UID
+                // sets instead of sequence numbers.  The "(EARLIER)" form is
+                // only sent in response to commands we issue explicitly, so
+                // it is ignored here.
+                if(p + 1 < response.length && response[p + 1] != (byte)'(') {
+                    int[] uids = ImapParser.parseSequenceSet(
+                            new String(response, p + 1, response.length - p - 1));
+                    if(untaggedResponseListener != null) {
+                        untaggedResponseListener.vanishedResponse(uids);
+                    }
+                }
+                result = true;
+                
+                if(EventLogger.getMinimumLevel() >= EventLogger.DEBUG_INFO) {
+                    EventLogger.logEvent(AppInfo.GUID,
+                            ("Untagged: " + (new String(response, 2, response.length - 2))).getBytes(),
+                            EventLogger.DEBUG_INFO);
+                }
+            }
+            else if(p > 2 && Arrays.equals(response, 2, STATUS_B, 0, STATUS_B.length)
+                    && p == 2 + STATUS_B.length) {
+                // With NOTIFY enabled, the server reports changes to
+                // mailboxes other than the selected one as STATUS responses.
+                // Items missing from the response are reported as -1.
+                StatusResponse statusResponse = new StatusResponse();
+                statusResponse.exists = -1;
+                statusResponse.recent = -1;
+                statusResponse.unseen = -1;
+                String mailbox = parseStatusResponse(response, statusResponse);
+                if(mailbox != null) {
+                    if(untaggedResponseListener != null) {
+                        untaggedResponseListener.statusResponse(mailbox, statusResponse);
+                    }
+                    result = true;
+                }
+                
+                if(result && EventLogger.getMinimumLevel() >= EventLogger.DEBUG_INFO) {
+                    EventLogger.logEvent(AppInfo.GUID,
+                            ("Untagged: " + (new String(response, 2, response.length - 2))).getBytes(),
+                            EventLogger.DEBUG_INFO);
+                }
+            }
+            else if(p > 2 && Character.isDigit((char)response[2])) {
                 int value;
                 try {
                     value = StringArrays.parseInt(response, 2, p - 2);
@@ -1661,23 +2170,27 @@ public class ImapProtocol {
                     fetchResponse.uid = -1;
                     try {
                         int offset = Arrays.getIndex(response, (byte)'(');
-                        Vector parsedText = ImapParser.parenListParser(response, offset, response.length - offset);
-                        int parsedSize = parsedText.size();
-                        for (int i = 0; i < parsedSize; i++) {
-                            if(!(parsedText.elementAt(i) instanceof String)) { continue; }
-                            String element = (String)parsedText.elementAt(i);
-                            if(element.equals(FLAGS)
-                                    && (parsedSize > (i + 1))
-                                    && parsedText.elementAt(i + 1) instanceof Vector) {
-                                fetchResponse.flags =
-                                    ImapParser.parseMessageFlags((Vector)parsedText.elementAt(i + 1));
+                        ImapResponseCursor cursor = new ImapResponseCursor(response, offset, response.length - offset);
+                        cursor.enterList();
+                        while (cursor.hasNext()) {
+                            if(cursor.readAtom(FLAGS)) {
+                                if(cursor.peekType() == ImapResponseCursor.TYPE_LIST) {
+                                    fetchResponse.flags = ImapParser.parseMessageFlags(cursor);
+                                }
+                                else {
+                                    cursor.skipValue();
+                                }
+                            }
+                            else if(cursor.readAtom(UID)) {
+                                if(cursor.peekType() == ImapResponseCursor.TYPE_ATOM) {
+                                    fetchResponse.uid = cursor.readNumber();
+                                }
+                                else {
+                                    cursor.skipValue();
+                                }
                             }
-                            else if(element.equals(UID)
-                                    && (parsedSize > (i + 1))
-                                    && parsedText.elementAt(i + 1) instanceof String) {
-                                try {
-                                    fetchResponse.uid = Integer.parseInt((String)parsedText.elementAt(i + 1));
-                                } catch (NumberFormatException e) { }
+                            else {
+                                cursor.skipValue();
                             }
                         }
                     } catch (Throwable exp) {
@@ -1745,6 +2258,8 @@ public class ImapProtocol {
     /**
      * Executes an IMAP command several times, with different arguments,
      * and return the replies as an array of strings.
+     * The commands are pipelined, and the reply for each command is the last
+     * untagged response received while it was being processed.
      * @param command IMAP command
      * @param arguments Arguments for the commands
      * @param progressHandler the progress handler
@@ -1752,20 +2267,157 @@ public class ImapProtocol {
      */
     protected String[] executeBatch(String command, String[] arguments,
         MailProgressHandler progressHandler) throws IOException, MailException {
-        String[] result = new String[arguments.length];
-        int count = 0;
+        flushPipeline(progressHandler);
+        
+        final String[] result = new String[arguments.length];
+        PipelinedCommand[] commands = new PipelinedCommand[arguments.length];
+
+        for (int i = 0; i < arguments.length; i++) {
+            final int index = i;
+            commands[i] = createPipelinedCommand(command, arguments[i], new ExecuteCallback() {
+                public void processResponse(byte[] rawLine) {
+                    result[index] = new String(rawLine);
+                }
+                public void executeComplete() {
+                    if(result[index] == null) { result[index] = ""; }
+                }
+            });
+        }
+
+        executePipelined(commands, progressHandler);
+        
+        for (int i = 0; i < commands.length; i++) {
+            if(commands[i].failure != null) {
+                throw new MailException(commands[i].failure);
+            }
+        }
+        
+        return result;
+    }
+
+    /**
+     * Executes a command once for each of the provided sequence sets.  If
+     * there is more than one set, the commands are pipelined.  The callback
+     * is invoked on each line of every response, but is only completed once
+     * all the commands have completed.
+     * 
+     * @param command IMAP command
+     * @param sequenceSets Sequence sets, each of which is the first argument
+     *     of one command
+     * @param arguments Remaining arguments for the command
+     * @param callback the callback to invoke on each line of the response
+     * @param progressHandler the progress handler
+     */
+    private void executeSequenceSets(String command, String[] sequenceSets,
+            String arguments, final ExecuteCallback callback,
+            MailProgressHandler progressHandler) throws IOException, MailException {
+        if(sequenceSets.length == 1) {
+            executeResponse(command, sequenceSets[0] + CHAR_SP + arguments,
+                    callback, progressHandler);
+            return;
+        }
+        
+        flushPipeline(progressHandler);
+        
+        final int count = sequenceSets.length;
+        ExecuteCallback setCallback = new ExecuteCallback() {
+            private int remaining = count;
+            public void processResponse(byte[] rawLine) {
+                callback.processResponse(rawLine);
+            }
+            public void executeComplete() {
+                if(--remaining == 0) { callback.executeComplete(); }
+            }
+        };
+        
+        PipelinedCommand[] commands = new PipelinedCommand[count];
+        for (int i = 0; i < count; i++) {
+            commands[i] = createPipelinedCommand(command,
+                    sequenceSets[i] + CHAR_SP + arguments, setCallback);
+        }
 
-        IntIntHashtable commandMap = new IntIntHashtable();
+        executePipelined(commands, progressHandler);
+        
+        for (int i = 0; i < count; i++) {
+            if(commands[i].failure != null) {
+                throw new MailException(commands[i].failure);
+            }
+        }
+    }
+    
+    /**
+     * Queues a command for pipelined execution.
+     * 
+     * @param command IMAP command
+     * @param arguments Arguments for the command
+     * @param callback the callback to invoke on each untagged line of the
+     *     response, and on completion
+     */
+    protected void queueCommand(String command, String arguments, ExecuteCallback callback) {
+        PipelinedCommand pipelinedCommand = createPipelinedCommand(command, arguments, callback);
+        pipelinedCommand.deferredResponses = new Vector();
+        pipelineQueue.addElement(pipelinedCommand);
+    }
+    
+    private PipelinedCommand createPipelinedCommand(String command, String arguments, ExecuteCallback callback) {
+        String tag = TAG_PREFIX + commandCount++;
+        return new PipelinedCommand(tag,
+                tag + CHAR_SP + command + ((arguments == null) ? "" : (CHAR_SP + arguments)),
+                callback);
+    }
+    
+    /**
+     * Executes any commands queued for pipelined execution, and records their
+     * outcome.  This must be called before sending any other command to the
+     * server, so that commands are always processed in the order they were
+     * issued.
+     * 
+     * @param progressHandler the progress handler
+     */
+    private void flushPipeline(MailProgressHandler progressHandler) throws IOException {
+        if(pipelineQueue.isEmpty()) { return; }
+        
+        PipelinedCommand[] commands = new PipelinedCommand[pipelineQueue.size()];
+        pipelineQueue.copyInto(commands);
+        pipelineQueue.removeAllElements();
+        
+        executePipelined(commands, progressHandler);
+        
+        for (int i = 0; i < commands.length; i++) {
+            pipelineResults.addElement(commands[i].failure);
+        }
+    }
+    
+    /**
+     * Sends a set of commands to the server in a single write, then reads
+     * responses until all of them have completed.
+     * <p>
+     * Tagged responses are matched to their commands by tag, so they may
+     * arrive in any order.  Untagged responses are passed to the callback of
+     * the oldest command still outstanding, since that is the command the
+     * server is processing when it sends them.  A failed command does not
+     * stop the processing of the others, so its tagged response is recorded
+     * instead of being thrown.
+     * </p>
+     * <p>
+     * Commands queued with {@link #queueCommand(String, String, ExecuteCallback)}
+     * only have their untagged responses processed once their own tagged
+     * response has arrived, and any FETCH responses are discarded if the
+     * command failed.  This keeps a rejected STORE from being reported as
+     * a flag change.
+     * </p>
+     * 
+     * @param commands the commands to execute
+     * @param progressHandler the progress handler
+     */
+    private void executePipelined(PipelinedCommand[] commands,
+        MailProgressHandler progressHandler) throws IOException {
+        Hashtable commandMap = new Hashtable(commands.length);
         StringBuffer commandBuf = new StringBuffer();
 
-        for (int i = 0; i < arguments.length; i++) {
-            String tag = TAG_PREFIX + (commandCount++);
-            commandMap.put(StringArrays.hashCode(tag.getBytes()), i);
-            commandBuf.append(tag);
-            commandBuf.append(' ');
-            commandBuf.append(command);
-            commandBuf.append(
-                    ((arguments[i] == null) ? "" : (CHAR_SP + arguments[i])));
+        for (int i = 0; i < commands.length; i++) {
+            commandMap.put(commands[i].tag, commands[i]);
+            commandBuf.append(commands[i].commandLine);
             commandBuf.append(CRLF);
         }
 
@@ -1783,14 +2435,15 @@ public class ImapProtocol {
                 (postCount - preCount), -1);
         }
 
+        int remaining = commands.length;
+        int oldest = 0;
         byte[] temp;
-        String tempResult = "";
         int p;
 
-        while (count < arguments.length) {
+        while (remaining > 0) {
             preCount = postCount;
 
-            temp = connection.receive();
+            temp = connection.receive(executeResponseTester);
             watchdog.kick();
             
             postCount = connection.getBytesReceived();
@@ -1800,28 +2453,111 @@ public class ImapProtocol {
                     (postCount - preCount), -1);
             }
 
-            p = Arrays.getIndex(temp, (byte) ' ');
-
-            if(Arrays.equals(temp, p + 1, BAD_PREFIX, 0, BAD_PREFIX.length)
-                    || Arrays.equals(temp, p + 1, NO_PREFIX, 0, NO_PREFIX.length)) {
-                watchdog.cancel();
-                throw new MailException(new String(temp));
+            PipelinedCommand taggedCommand = null;
+            p = -1;
+            if(temp.length > 0 && temp[0] != CHAR_ASTERISK) {
+                p = Arrays.getIndex(temp, (byte) ' ');
+                if(p > 0) {
+                    taggedCommand = (PipelinedCommand)commandMap.remove(new String(temp, 0, p));
+                }
             }
-
-            int keyHashCode = StringArrays.hashCode(temp, 0, p);
-
-            if ((p != -1) && commandMap.containsKey(keyHashCode)) {
-                result[commandMap.get(keyHashCode)] = tempResult;
-                tempResult = "";
-                count++;
-            } else {
-                tempResult = new String(temp);
+            
+            if(taggedCommand != null) {
+                if(Arrays.equals(temp, p + 1, BAD_PREFIX, 0, BAD_PREFIX.length)
+                        || Arrays.equals(temp, p + 1, NO_PREFIX, 0, NO_PREFIX.length)) {
+                    taggedCommand.failure = new String(temp);
+                }
+                taggedCommand.complete = true;
+                remaining--;
+                
+                if(taggedCommand.deferredResponses != null) {
+                    processDeferredResponses(taggedCommand);
+                }
+                
+                try {
+                    taggedCommand.callback.executeComplete();
+                } catch (Throwable t) {
+                    EventLogger.logEvent(AppInfo.GUID,
+                            ("Unable to complete processing the response: " + t.getMessage()).getBytes(),
+                            EventLogger.ERROR);
+                }
+                
+                while(oldest < commands.length && commands[oldest].complete) {
+                    oldest++;
+                }
+            }
+            else if(oldest < commands.length) {
+                if(commands[oldest].deferredResponses != null) {
+                    commands[oldest].deferredResponses.addElement(temp);
+                }
+                else {
+                    processPipelinedResponse(commands[oldest], temp);
+                }
             }
         }
 
         watchdog.cancel();
+    }
+    
+    private static void processPipelinedResponse(PipelinedCommand command, byte[] rawLine) {
+        try {
+            command.callback.processResponse(rawLine);
+        } catch (Throwable t) {
+            EventLogger.logEvent(AppInfo.GUID,
+                    ("Unable to parse response: " + t.getMessage()).getBytes(),
+                    EventLogger.ERROR);
+            AnalyticsDataCollector.getInstance().onApplicationError("Unable to parse response: " + t.getMessage());
+        }
+    }
+    
+    /**
+     * Processes the untagged responses that were held back until a queued
+     * command completed.  If the command failed, any FETCH responses are
+     * dropped, since they would otherwise report changes that the command
+     * did not make.
+     *
+     * @param command the completed command
+     */
+    private static void processDeferredResponses(PipelinedCommand command) {
+        int size = command.deferredResponses.size();
+        for(int i=0; i<size; i++) {
+            byte[] rawLine = (byte[])command.deferredResponses.elementAt(i);
+            if(command.failure == null || !isFetchResponse(rawLine)) {
+                processPipelinedResponse(command, rawLine);
+            }
+        }
+        command.deferredResponses.removeAllElements();
+    }
+    
+    private static boolean isFetchResponse(byte[] rawLine) {
+        try {
+            ImapResponseCursor cursor = new ImapResponseCursor(rawLine, 0, rawLine.length);
+            return cursor.readAtom("*") && cursor.readNumber() >= 0 && cursor.readAtom(FETCH);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return false;
+        }
+    }
+    
+    /**
+     * A command queued for pipelined execution, along with its outcome.
+     */
+    private static class PipelinedCommand {
+        public final String tag;
+        public final String commandLine;
+        public final ExecuteCallback callback;
+        public boolean complete;
+        public String failure;
+        /**
+         * Untagged responses held back until the command completes, or
+         * null if they are processed as they arrive.
+         */
+        public Vector deferredResponses;
         
-        return result;
+        public PipelinedCommand(String tag, String commandLine, ExecuteCallback callback) {
+            this.tag = tag;
+            this.commandLine = commandLine;
+            this.callback = callback;
+        }
     }
 
     /**
@@ -1834,15 +2570,22 @@ public class ImapProtocol {
      */
     protected byte[][] executeResponse(String command, String arguments,
         MailProgressHandler progressHandler) throws IOException, MailException {
-        byte[][] result = new byte[0][];
+        String tag = executeNoReply(command, arguments);
+        return receiveResponse(tag, progressHandler);
+    }
+    
+    /**
+     * Receives the reply to a command that has already been sent, and returns
+     * it as an array of strings.
+     * @param tag Tag used to send the command
+     * @param progressHandler the progress handler
+     * @return List of returned strings
+     */
+    protected byte[][] receiveResponse(String tag,
+        MailProgressHandler progressHandler) throws IOException, MailException {
+        Vector resultVector = createResponseVector();
 
-        String tag = TAG_PREFIX + commandCount++ + CHAR_SP;
-        
         watchdog.start();
-        connection.sendCommand(tag + command +
-            ((arguments == null) ? "" : (CHAR_SP + arguments)));
-        watchdog.kick();
-
         byte[] tagBytes = tag.getBytes();
 
         int preCount = connection.getBytesReceived();
@@ -1856,7 +2599,7 @@ public class ImapProtocol {
         }
 
         while (!StringArrays.startsWith(temp, tagBytes)) {
-            Arrays.add(result, temp);
+            resultVector.addElement(temp);
             preCount = postCount;
             temp = connection.receive(executeResponseTester);
             watchdog.kick();
@@ -1875,9 +2618,22 @@ public class ImapProtocol {
             throw new MailException(new String(temp));
         }
         
+        byte[][] result = new byte[resultVector.size()][];
+        resultVector.copyInto(result);
         return result;
     }
 
+    /**
+     * Creates the vector used to accumulate the lines of a response.
+     * This method is intended to be overridden by tests that check how
+     * the response buffer grows.
+     *
+     * @return an empty vector
+     */
+    protected Vector createResponseVector() {
+        return new Vector();
+    }
+
     /**
      * Executes an IMAP command, invoking the supplied callback on each line
      * of the response.
@@ -1891,6 +2647,7 @@ public class ImapProtocol {
     protected void executeResponse(String command, String arguments,
             ExecuteCallback callback, MailProgressHandler progressHandler)
     throws IOException, MailException {
+        flushPipeline(progressHandler);
         
         String tag = TAG_PREFIX + commandCount++ + CHAR_SP;
         watchdog.start();
@@ -1965,7 +2722,8 @@ public class ImapProtocol {
      */
     protected String[] execute(String command, String arguments,
         MailProgressHandler progressHandler) throws IOException, MailException {
-        String[] result = new String[0];
+        flushPipeline(progressHandler);
+        Vector resultVector = new Vector();
 
         String tag = TAG_PREFIX + commandCount++ + CHAR_SP;
         watchdog.start();
@@ -1986,7 +2744,7 @@ public class ImapProtocol {
         }
 
         while (!StringArrays.startsWith(temp, tagBytes)) {
-            Arrays.add(result, new String(temp));
+            resultVector.addElement(new String(temp));
             preCount = postCount;
             temp = connection.receive();
             watchdog.kick();
@@ -2005,50 +2763,90 @@ public class ImapProtocol {
             throw new MailException(new String(temp));
         }
 
+        String[] result = new String[resultVector.size()];
+        resultVector.copyInto(result);
         return result;
     }
 
     /**
-     * Executes an IMAP command, waits for a reply starting with a "+",
-     * then sends more text, and ultimately returns the reply as an
-     * array of strings.
+     * Executes an IMAP command that carries one or more literals, and
+     * returns the reply as an array of strings.
+     * <p>
+     * Each literal is sent after its corresponding argument.  Literals no
+     * larger than the non-synchronizing literal limit are sent as "{n+}"
+     * right away, while larger ones are only sent after a continuation reply
+     * starting with a "+".  The command and literal data are sent through a
+     * buffer, so the connection is written in large blocks.
+     * </p>
      * This method is designed specifically for executeAppend().
      * @param command IMAP command
-     * @param arguments Arguments for the command
+     * @param arguments Arguments to send before each literal
+     * @param literals Literal data to send
      * @param errorMsg Error message if we get back something other than a continue
      * @return Command responses
      */
-    protected byte[][] executeContinue(String command, String arguments,
-        byte[] textData, String errorMsg) throws IOException, MailException {
-        byte[][] result = new byte[0][];
+    protected byte[][] executeContinue(String command, String[] arguments,
+        DataSpool[] literals, String errorMsg) throws IOException, MailException {
+        flushPipeline(null);
+        Vector resultVector = new Vector();
 
         String tag = TAG_PREFIX + commandCount++ + CHAR_SP;
-        watchdog.start();
-        connection.sendCommand(tag + command +
-            ((arguments == null) ? "" : (CHAR_SP + arguments)));
-        watchdog.kick();
-
         byte[] tagBytes = tag.getBytes();
-
-        byte[] temp = connection.receive();
-        watchdog.kick();
-
-        if (Arrays.getIndex(temp, CHAR_PLUS) == -1) {
-            throw new MailException(errorMsg);
+        byte[] buf = new byte[CONTINUE_BUFFER_SIZE];
+        int count = 0;
+        byte[] temp;
+        
+        watchdog.start();
+        
+        StringBuffer line = new StringBuffer();
+        line.append(tag).append(command);
+        for(int i=0; i<literals.length; i++) {
+            int length = literals[i].size();
+            boolean synchronizing = length > nonSyncLiteralLimit;
+            line.append(CHAR_SP).append(arguments[i]).append(" {").append(length);
+            if(!synchronizing) {
+                line.append('+');
+            }
+            line.append('}').append(CRLF);
+            
+            byte[] lineBytes = line.toString().getBytes();
+            line.setLength(0);
+            count = bufferLiteral(buf, count, new ByteArrayInputStream(lineBytes), lineBytes.length);
+            
+            if(synchronizing) {
+                connection.sendRaw(buf, 0, count);
+                count = 0;
+                watchdog.kick();
+                
+                temp = connection.receive();
+                watchdog.kick();
+                while(temp.length > 0 && temp[0] == CHAR_ASTERISK) {
+                    resultVector.addElement(temp);
+                    temp = connection.receive();
+                    watchdog.kick();
+                }
+                
+                if(temp.length == 0 || temp[0] != CHAR_PLUS) {
+                    watchdog.cancel();
+                    throw new MailException(errorMsg);
+                }
+            }
+            
+            count = bufferLiteral(buf, count, literals[i].getInputStream(), length);
         }
-
-        for(int i=0; i<textData.length; i+=1024) {
-            connection.sendRaw(textData, i, Math.min(1024, textData.length - i));
-            watchdog.kick();
+        
+        // Send the line terminator with the last block of data
+        count = bufferLiteral(buf, count, new ByteArrayInputStream(CRLF_B), CRLF_B.length);
+        if(count > 0) {
+            connection.sendRaw(buf, 0, count);
         }
-        connection.sendRaw(CRLF_B, 0, CRLF_B.length);
         watchdog.kick();
 
         temp = connection.receive();
         watchdog.kick();
 
         while (!StringArrays.startsWith(temp, tagBytes)) {
-            Arrays.add(result, temp);
+            resultVector.addElement(temp);
             temp = connection.receive();
             watchdog.kick();
         }
@@ -2060,9 +2858,38 @@ public class ImapProtocol {
             throw new MailException(new String(temp));
         }
 
+        byte[][] result = new byte[resultVector.size()][];
+        resultVector.copyInto(result);
         return result;
     }
 
+    /**
+     * Copies data from a stream into a send buffer, sending the buffer
+     * whenever it fills up.
+     *
+     * @param buf the send buffer
+     * @param count the number of bytes already in the buffer
+     * @param input the stream to read from
+     * @param length the number of bytes to read from the stream
+     * @return the number of bytes left in the buffer
+     */
+    private int bufferLiteral(byte[] buf, int count, InputStream input, int length) throws IOException {
+        while(length > 0) {
+            int len = input.read(buf, count, Math.min(length, buf.length - count));
+            if(len == -1) {
+                throw new EOFException();
+            }
+            count += len;
+            length -= len;
+            if(count == buf.length) {
+                connection.sendRaw(buf, 0, count);
+                count = 0;
+                watchdog.kick();
+            }
+        }
+        return count;
+    }
+
     /**
      * Attempts to read a line of text from the server, without sending
      * anything first.
@@ -2092,6 +2919,7 @@ public class ImapProtocol {
      */
     protected String executeNoReply(String command, String arguments)
         throws IOException, MailException {
+        flushPipeline(null);
         String tag = TAG_PREFIX + commandCount++ + CHAR_SP;
         
         watchdog.start();
@@ -2112,7 +2940,8 @@ public class ImapProtocol {
      */
     protected String[] executeUntagged(String command, String arguments,
         String endTag) throws IOException, MailException {
-        String[] result = new String[0];
+        flushPipeline(null);
+        Vector resultVector = new Vector();
 
         watchdog.start();
         connection.sendCommand(command +
@@ -2123,7 +2952,7 @@ public class ImapProtocol {
         byte[] temp = connection.receive();
 
         while (!StringArrays.startsWith(temp, tagBytes)) {
-            Arrays.add(result, new String(temp));
+            resultVector.addElement(new String(temp));
             temp = connection.receive();
             watchdog.kick();
         }
@@ -2135,6 +2964,8 @@ public class ImapProtocol {
             throw new MailException(new String(temp));
         }
 
+        String[] result = new String[resultVector.size()];
+        resultVector.copyInto(result);
         return result;
     }
 
@@ -2213,6 +3044,19 @@ public class ImapProtocol {
         public int unseen;
         public int uidNext = -1;
         public int uidValidity;
+        /** Highest mod-sequence of the mailbox, or 0 if not available */
+        public long highestModSeq;
+        /**
+         * UIDs of messages expunged since the requested mod-sequence, as
+         * range pairs from {@link ImapParser#parseSequenceSet(String)},
+         * or <code>null</code> if none were reported.
+         */
+        public int[] vanishedUids;
+        /**
+         * Messages whose flags changed since the requested mod-sequence,
+         * or <code>null</code> if none were reported.
+         */
+        public FetchFlagsResponse[] fetchResponses;
     }
 
     /**
@@ -2261,6 +3105,8 @@ public class ImapProtocol {
         void recentResponse(int value);
         void expungeResponse(int value);
         void fetchResponse(FetchFlagsResponse value);
+        void vanishedResponse(int[] uids);
+        void statusResponse(String mboxpath, StatusResponse value);
     }
     
     /**
@@ -2293,7 +3139,11 @@ public class ImapProtocol {
     private static String CAPABILITY = "CAPABILITY";
     private static String EXPUNGE = "EXPUNGE";
     private static String APPEND = "APPEND";
+    private static String ENABLE = "ENABLE";
+    private static String NOTIFY = "NOTIFY";
+    private static String ENABLED = "ENABLED";
     private static String STATUS = "STATUS";
+    private static String INBOX = "INBOX";
     private static String SELECT = "SELECT";
     private static String CLOSE = "CLOSE";
     private static String LOGOUT = "LOGOUT";
@@ -2312,6 +3162,9 @@ public class ImapProtocol {
     private static final byte[] EXISTS_SUFFIX = "EXISTS".getBytes();
     private static final byte[] EXPUNGE_SUFFIX = "EXPUNGE".getBytes();
     private static final byte[] FETCH_B = "FETCH".getBytes();
+    private static final byte[] VANISHED_B = "VANISHED".getBytes();
+    private static final byte[] STATUS_B = "STATUS".getBytes();
+    private static final byte[] BODY_SECTION_B = "BODY[".getBytes();
     private static String CHAR_SP = " ";
     private static final byte CHAR_PLUS = (byte)'+';
     private static String CHAR_COLON = ":";
@@ -2320,8 +3173,13 @@ public class ImapProtocol {
     private static String CHAR_COLON_ASTERISK = ":*";
     private static String CRLF = "\r\n";
     private static final byte[] CRLF_B = CRLF.getBytes();
+    /** Size of the blocks used to send the text of an APPEND command */
+    private static final int CONTINUE_BUFFER_SIZE = 16384;
     private static String TIME = "time";
     private static String UIDNEXT_ = "UIDNEXT ";
+    private static String HIGHESTMODSEQ_ = "HIGHESTMODSEQ ";
+    private static String VANISHED_EARLIER_ = "* VANISHED (EARLIER) ";
+    private static String _FETCH_ = " FETCH (";
     private static String UIDVALIDITY_ = "UIDVALIDITY ";
     private static String UNSEEN_ = "UNSEEN ";
     private static String _RECENT = " RECENT";
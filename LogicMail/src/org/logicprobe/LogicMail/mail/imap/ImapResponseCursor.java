@@ -0,0 +1,397 @@
+/*-
+ * Copyright (c) 2011, Derek Konigsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution. 
+ * 3. Neither the name of the project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.logicprobe.LogicMail.mail.imap;
+
+import org.logicprobe.LogicMail.util.StringArrays;
+
+/**
+ * Pull-style cursor over the raw bytes of an IMAP parenthesized list.
+ * <p>
+ * Unlike {@link ImapParser#parenListParser(byte[], int, int)}, this class
+ * does not build an intermediate token list or object tree.  Callers walk
+ * the response one element at a time, decoding the elements they care about
+ * directly from the underlying array and skipping everything else.
+ * Tokenization rules match those of the tree parser: quoted strings may
+ * contain escaped quotes and backslashes and have line breaks removed,
+ * literals are of the form <tt>{n}\r\n</tt>, and atoms end at a space or
+ * closing parenthesis.
+ * </p>
+ */
+class ImapResponseCursor {
+    /** There are no more elements in the response. */
+    static final int TYPE_END = 0;
+    /** The next element is the start of a parenthesized list. */
+    static final int TYPE_LIST = 1;
+    /** The next element is the end of the current list. */
+    static final int TYPE_LIST_END = 2;
+    /** The next element is a quoted string or a literal. */
+    static final int TYPE_STRING = 3;
+    /** The next element is an atom, such as a keyword, flag, number or NIL. */
+    static final int TYPE_ATOM = 4;
+    
+    private final byte[] data;
+    private final int end;
+    private int position;
+    
+    /**
+     * Instantiates a new cursor.
+     *
+     * @param data the raw response data
+     * @param offset the offset to start parsing from
+     * @param length the length of the data to parse
+     */
+    ImapResponseCursor(byte[] data, int offset, int length) {
+        if(offset < 0 || offset + length > data.length) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+        this.data = data;
+        this.position = offset;
+        this.end = offset + length;
+    }
+    
+    /**
+     * Gets the current position of the cursor within the data.
+     *
+     * @return the position
+     */
+    int getPosition() {
+        return position;
+    }
+    
+    /**
+     * Gets the type of the next element, without consuming it.
+     *
+     * @return the element type
+     */
+    int peekType() {
+        skipWhitespace();
+        if(position >= end) {
+            return TYPE_END;
+        }
+        
+        byte ch = data[position];
+        if(ch == (byte)'(') {
+            return TYPE_LIST;
+        }
+        else if(ch == (byte)')') {
+            return TYPE_LIST_END;
+        }
+        else if(ch == (byte)'"' || ch == (byte)'{') {
+            return TYPE_STRING;
+        }
+        else {
+            return TYPE_ATOM;
+        }
+    }
+    
+    /**
+     * Checks whether the current list has more elements.
+     *
+     * @return true, if there is another element before the end of the list
+     */
+    boolean hasNext() {
+        int type = peekType();
+        return type != TYPE_LIST_END && type != TYPE_END;
+    }
+    
+    /**
+     * Enters a list, if the next element is the start of one.
+     *
+     * @return true, if a list was entered
+     */
+    boolean enterList() {
+        if(peekType() == TYPE_LIST) {
+            position++;
+            return true;
+        }
+        else {
+            return false;
+        }
+    }
+    
+    /**
+     * Skips any remaining elements of the current list, and consumes the
+     * closing parenthesis.
+     */
+    void leaveList() {
+        while(hasNext()) {
+            skipValue();
+        }
+        if(position < end) {
+            position++;
+        }
+    }
+    
+    /**
+     * Skips the next element, including the entire contents of a list.
+     * Does nothing if positioned at the end of a list.
+     */
+    void skipValue() {
+        switch(peekType()) {
+        case TYPE_LIST:
+            position++;
+            leaveList();
+            break;
+        case TYPE_STRING:
+            skipString();
+            break;
+        case TYPE_ATOM:
+            position = findAtomEnd();
+            break;
+        default:
+            break;
+        }
+    }
+    
+    /**
+     * Consumes the next element if it is an atom matching the provided
+     * keyword, ignoring case.  No objects are allocated to make the
+     * comparison.
+     *
+     * @param keyword the keyword to match
+     * @return true, if the keyword matched and was consumed
+     */
+    boolean readAtom(String keyword) {
+        if(peekType() != TYPE_ATOM) {
+            return false;
+        }
+        
+        int atomEnd = findAtomEnd();
+        int length = keyword.length();
+        if(atomEnd - position != length) {
+            return false;
+        }
+        
+        for(int i=0; i<length; i++) {
+            char ch = (char)(data[position + i] & 0xFF);
+            if(Character.toLowerCase(ch) != Character.toLowerCase(keyword.charAt(i))) {
+                return false;
+            }
+        }
+        position = atomEnd;
+        return true;
+    }
+    
+    /**
+     * Reads the next element as a non-negative number.
+     * The element is always consumed.
+     *
+     * @return the number, or -1 if the element was not a valid number
+     */
+    int readNumber() {
+        if(peekType() != TYPE_ATOM) {
+            skipValue();
+            return -1;
+        }
+        
+        int atomEnd = findAtomEnd();
+        long value = -1;
+        for(int i=position; i<atomEnd; i++) {
+            byte ch = data[i];
+            if(ch < (byte)'0' || ch > (byte)'9') {
+                value = -1;
+                break;
+            }
+            value = ((value == -1) ? 0 : (value * 10)) + (ch - '0');
+            if(value > Integer.MAX_VALUE) {
+                value = -1;
+                break;
+            }
+        }
+        position = atomEnd;
+        return (int)value;
+    }
+    
+    /**
+     * Reads the next element as a string.
+     * The element is always consumed, unless positioned at the end of a list.
+     *
+     * @return the string contents, or null if the element was not a
+     *     quoted string or literal
+     */
+    byte[] readString() {
+        if(peekType() != TYPE_STRING) {
+            skipValue();
+            return null;
+        }
+        
+        if(data[position] == (byte)'{') {
+            int start = consumeLiteral();
+            int length = position - start;
+            byte[] result = new byte[length];
+            System.arraycopy(data, start, result, 0, length);
+            return result;
+        }
+        
+        // Measure the quoted string first, so the result can be allocated
+        // once at its final size.
+        int start = position + 1;
+        int i = start;
+        int length = 0;
+        boolean escaped = false;
+        while(i < end && data[i] != (byte)'"') {
+            byte ch = data[i];
+            if(ch == (byte)'\\') {
+                if(i + 1 < end && (data[i + 1] == (byte)'\\' || data[i + 1] == (byte)'"')) {
+                    length++;
+                }
+                escaped = true;
+                i += 2;
+            }
+            else if(ch == (byte)'\r' || ch == (byte)'\n') {
+                escaped = true;
+                i++;
+            }
+            else {
+                length++;
+                i++;
+            }
+        }
+        position = Math.min(i + 1, end);
+        
+        byte[] result = new byte[length];
+        if(!escaped) {
+            System.arraycopy(data, start, result, 0, length);
+        }
+        else {
+            int j = 0;
+            i = start;
+            while(j < length) {
+                byte ch = data[i];
+                if(ch == (byte)'\\') {
+                    byte ch1 = data[i + 1];
+                    if(ch1 == (byte)'\\' || ch1 == (byte)'"') {
+                        result[j++] = ch1;
+                    }
+                    i += 2;
+                }
+                else if(ch == (byte)'\r' || ch == (byte)'\n') {
+                    i++;
+                }
+                else {
+                    result[j++] = ch;
+                    i++;
+                }
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Reads the next element as a string, and decodes it using the
+     * platform default encoding.
+     *
+     * @return the string, or null if the element was not a quoted string
+     *     or literal
+     * @see #readString()
+     */
+    String readText() {
+        byte[] value = readString();
+        return (value != null) ? new String(value) : null;
+    }
+    
+    /**
+     * Reads the next element as either an atom or a string, such as a
+     * mailbox name, and decodes it using the platform default encoding.
+     * The element is always consumed, unless positioned at the end of a list.
+     *
+     * @return the string, or null if the element was a list
+     */
+    String readAstring() {
+        if(peekType() == TYPE_ATOM) {
+            int atomEnd = findAtomEnd();
+            String result = new String(data, position, atomEnd - position);
+            position = atomEnd;
+            return result;
+        }
+        else {
+            return readText();
+        }
+    }
+    
+    private void skipWhitespace() {
+        while(position < end) {
+            byte ch = data[position];
+            if(ch == (byte)' ' || ch == (byte)'\r' || ch == (byte)'\n') {
+                position++;
+            }
+            else {
+                break;
+            }
+        }
+    }
+    
+    private int findAtomEnd() {
+        int i = position;
+        while(i < end) {
+            byte ch = data[i];
+            if(ch == (byte)' ' || ch == (byte)')' || ch == (byte)'\r' || ch == (byte)'\n') {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+    
+    private void skipString() {
+        if(data[position] == (byte)'{') {
+            consumeLiteral();
+        }
+        else {
+            int i = position + 1;
+            while(i < end && data[i] != (byte)'"') {
+                i += (data[i] == (byte)'\\') ? 2 : 1;
+            }
+            position = Math.min(i + 1, end);
+        }
+    }
+    
+    /**
+     * Consumes a literal, leaving the cursor positioned after its contents.
+     *
+     * @return the offset of the literal contents
+     */
+    private int consumeLiteral() {
+        int p = StringArrays.indexOf(data, (byte)'}', position);
+        if(p == -1 || p >= end) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+        int length = StringArrays.parseInt(data, position + 1, p - position - 1);
+        int start = p + 1;
+        if(start < end && data[start] == (byte)'\r') { start++; }
+        if(start < end && data[start] == (byte)'\n') { start++; }
+        if(length < 0 || start + length > end) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+        position = start + length;
+        return start;
+    }
+}
@@ -54,6 +54,7 @@ public class MailboxState {
     private int unseen;
     private int uidNext = -1;
     private int uidValidity;
+    private long highestModSeq;
     
     public MailboxState() {
         indexToTokenMap = new IntHashtable();
@@ -73,6 +74,7 @@ public class MailboxState {
             unseen = 0;
             uidNext = -1;
             uidValidity = 0;
+            highestModSeq = 0;
         }
     }
     
@@ -91,6 +93,11 @@ public class MailboxState {
                 indexVector.removeAllElements();
                 result = false;
             }
+            if(this.uidValidity != selectResponse.uidValidity) {
+                // The synchronized mod-sequence is meaningless across a
+                // change in UIDVALIDITY
+                this.highestModSeq = 0;
+            }
             this.exists = selectResponse.exists;
             this.recent = selectResponse.recent;
             this.unseen = selectResponse.unseen;
@@ -170,6 +177,31 @@ public class MailboxState {
         }
     }
     
+    /**
+     * Gets the highest mod-sequence that the locally cached state of the
+     * mailbox has been fully synchronized with.
+     *
+     * @return the highest mod-sequence, or 0 if unknown
+     */
+    public long getHighestModSeq() {
+        return highestModSeq;
+    }
+    
+    /**
+     * Sets the highest mod-sequence that the locally cached state of the
+     * mailbox has been fully synchronized with.  This is not updated by
+     * {@link #mailboxSelected(SelectResponse)}, since changes reported
+     * by a <tt>SELECT</tt> are not synchronized until they have been
+     * processed.
+     *
+     * @param highestModSeq the highest mod-sequence
+     */
+    public void setHighestModSeq(long highestModSeq) {
+        synchronized(lock) {
+            this.highestModSeq = highestModSeq;
+        }
+    }
+    
     /**
      * Update mailbox state from a <tt>FETCH</tt> response.
      *
@@ -260,6 +292,63 @@ public class MailboxState {
         return result;
     }
     
+    /**
+     * Expunge messages, by UID, from the mailbox.
+     * <p>
+     * Since a <tt>VANISHED</tt> response lists exactly the messages that
+     * were expunged, and UIDs are strictly ascending with message index,
+     * every known message is shifted down by the number of vanished UIDs
+     * that are below its own UID.  This works even if the vanished messages
+     * were never fetched.
+     * </p>
+     *
+     * @param uids range pairs of the vanished UIDs, as returned by
+     *        {@link ImapParser#parseSequenceSet(String)}
+     * @param updatedTokens empty <code>Vector</code> to be populated with
+     *        <code>MessageToken</code>s updated by the expunge operation
+     * @return tokens for the known messages that vanished
+     */
+    public ImapMessageToken[] messagesVanished(int[] uids, Vector updatedTokens) {
+        Vector result = new Vector();
+        synchronized(lock) {
+            int size = indexVector.size();
+            ImapMessageToken[] tokens = new ImapMessageToken[size];
+            for(int i=0; i<size; i++) {
+                tokens[i] = (ImapMessageToken)indexToTokenMap.get(indexVector.elementAt(i));
+            }
+            indexToTokenMap.clear();
+            indexVector.removeAllElements();
+            
+            for(int i=0; i<size; i++) {
+                ImapMessageToken token = tokens[i];
+                int uid = token.getImapMessageUid();
+                if(ImapParser.sequenceSetContains(uids, uid)) {
+                    result.addElement(token);
+                    continue;
+                }
+                
+                int shift = 0;
+                for(int j=0; j<uids.length; j+=2) {
+                    if(uids[j] < uid) {
+                        shift += Math.min(uids[j + 1], uid - 1) - uids[j] + 1;
+                    }
+                }
+                
+                int index = token.getMessageIndex();
+                if(shift > 0) {
+                    index -= shift;
+                    token.setMessageIndex(index);
+                    updatedTokens.addElement(token);
+                }
+                indexToTokenMap.put(index, token);
+                indexVector.addElement(index);
+            }
+        }
+        ImapMessageToken[] resultArray = new ImapMessageToken[result.size()];
+        result.copyInto(resultArray);
+        return resultArray;
+    }
+    
     private void removeIndexFromVector(int index, Vector updatedTokens) {
         // Find the index of the expunged element
         int p = indexVector.binarySearch(index, SimpleSortingIntVector.SORT_TYPE_NUMERIC);
@@ -32,11 +32,12 @@
 package org.logicprobe.LogicMail.mail.pop;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.Enumeration;
 import java.util.Hashtable;
 
 import net.rim.device.api.util.Arrays;
+import net.rim.device.api.util.IntHashtable;
+import net.rim.device.api.util.IntIntHashtable;
 import net.rim.device.api.util.ToIntHashtable;
 
 import org.logicprobe.LogicMail.conf.AccountConfig;
@@ -82,12 +83,38 @@ public class PopClient extends AbstractIncomingMailClient {
     private boolean openStarted;
     
     private static String CAPA_STLS = "STLS"; 
+    private static String CAPA_PIPELINING = "PIPELINING";
+    
+    /**
+     * Maximum number of messages to request headers for in a single batch
+     * of pipelined commands.
+     */
+    private static final int PIPELINE_DEPTH = 16;
+    
+    /**
+     * Ratio of mailbox size to request size, below which it is cheaper to
+     * fetch the unique IDs and sizes for the entire mailbox than to request
+     * them for each message.
+     */
+    private static final int BULK_FETCH_RATIO = 10;
     
     /**
      * Table of supported server capabilities
      */
     private Hashtable capabilities;
     
+    /**
+     * Map of message indices to unique IDs for the current session.
+     * POP3 servers keep the mailbox fixed for the duration of a session,
+     * so this remains valid until the connection is closed.
+     */
+    private IntHashtable indexUidMap;
+    
+    /**
+     * Map of message indices to message sizes for the current session.
+     */
+    private IntIntHashtable indexSizeMap;
+    
     /**
      * Active mailbox.  Since POP3 does not support multiple
      * mailboxes for a user, it is used to contain some
@@ -195,6 +222,7 @@ public class PopClient extends AbstractIncomingMailClient {
             
             // Find out server capabilities
             capabilities = popProtocol.executeCapa();
+            popProtocol.setPipelining(capabilities != null && capabilities.containsKey(CAPA_PIPELINING));
             
             // TLS initialization
             int serverSecurity = accountConfig.getServerSecurity();
@@ -236,6 +264,8 @@ public class PopClient extends AbstractIncomingMailClient {
         }
         // Update message counts
         activeMailbox.setMsgCount(popProtocol.executeStat());
+        indexUidMap = null;
+        indexSizeMap = null;
         
         openStarted = false;
         return true;
@@ -246,6 +276,8 @@ public class PopClient extends AbstractIncomingMailClient {
      */
     public void close() throws IOException, MailException {
         openStarted = false;
+        indexUidMap = null;
+        indexSizeMap = null;
         if(connection != null) {
             if(connection.isConnected()) {
                 try {
@@ -457,40 +489,106 @@ public class PopClient extends AbstractIncomingMailClient {
 	
     private void getFolderMessagesImpl(int[] indices, boolean flagsOnly, FolderMessageCallback callback, MailProgressHandler progressHandler)
     		throws IOException, MailException {
-        for(int i=0; i<indices.length; i++) {
-            MessageEnvelope env;
-            if(!flagsOnly) {
-                byte[][] topResult = popProtocol.executeTop(indices[i], 0);
-                String[] headerText = new String[topResult.length];
-                for(int j=0; j<topResult.length; j++) {
-                    headerText[j] = new String(topResult[j]);
+        // Unique IDs and sizes come from a single multi-line command each if
+        // they are already known, or if enough of the mailbox is requested
+        // to make that cheaper than asking for them one message at a time.
+        boolean bulkFetch = indices.length > 1
+            && activeMailbox.getMsgCount() <= indices.length * BULK_FETCH_RATIO;
+        if(indexUidMap == null && bulkFetch) {
+            getFolderMessageIndexMap(progressHandler);
+        }
+        if(indexSizeMap == null && bulkFetch) {
+            indexSizeMap = popProtocol.executeList(progressHandler);
+        }
+        
+        // Headers are requested in batches, which are pipelined if the
+        // server supports it, and each batch is passed along to the
+        // callback as soon as it has been parsed.
+        int batchSize = popProtocol.isPipelining() ? PIPELINE_DEPTH : 1;
+        for(int i=0; i<indices.length; i+=batchSize) {
+            int count = Math.min(batchSize, indices.length - i);
+            int[] batch = new int[count];
+            System.arraycopy(indices, i, batch, 0, count);
+            
+            byte[][][] topResults = flagsOnly ? null : popProtocol.executeTop(batch, 0, null);
+            String[] uids = getMessageUids(batch);
+            int[] messageSizes = getMessageSizes(batch);
+            
+            for(int j=0; j<count; j++) {
+                MessageEnvelope env;
+                if(!flagsOnly) {
+                    byte[][] topResult = topResults[j];
+                    topResults[j] = null;
+                    String[] headerText = new String[topResult.length];
+                    for(int k=0; k<topResult.length; k++) {
+                        headerText[k] = new String(topResult[k]);
+                    }
+                    
+                    env = MailMessageParser.parseMessageEnvelope(headerText);
+                }
+                else {
+                    env = null;
                 }
                 
-                env = MailMessageParser.parseMessageEnvelope(headerText);
-            }
-            else {
-                env = null;
+                FolderMessage folderMessage = new FolderMessage(
+                        new PopMessageToken(batch[j], uids[j]),
+                        env, batch[j], uids[j].hashCode(), messageSizes[j]);
+                
+                if(progressHandler != null) { progressHandler.mailProgress(MailProgressHandler.TYPE_PROCESSING, i + j + 1, indices.length); }
+    
+                callback.folderMessageUpdate(folderMessage);
             }
-            String uid = popProtocol.executeUidl(indices[i]);
-            int messageSize = popProtocol.executeList(indices[i]);
-            
-            FolderMessage folderMessage = new FolderMessage(
-                    new PopMessageToken(indices[i], uid),
-                    env, indices[i], uid.hashCode(), messageSize);
-            
-            if(progressHandler != null) { progressHandler.mailProgress(MailProgressHandler.TYPE_PROCESSING, i + 1, indices.length); }
-
-            callback.folderMessageUpdate(folderMessage);
         }
         callback.folderMessageUpdate(null);
     }
+    
+    private String[] getMessageUids(int[] indices) throws IOException, MailException {
+        if(indexUidMap != null) {
+            String[] uids = new String[indices.length];
+            boolean complete = true;
+            for(int i=0; i<indices.length; i++) {
+                uids[i] = (String)indexUidMap.get(indices[i]);
+                if(uids[i] == null) { complete = false; }
+            }
+            if(complete) { return uids; }
+        }
+        return popProtocol.executeUidl(indices);
+    }
+    
+    private int[] getMessageSizes(int[] indices) throws IOException, MailException {
+        if(indexSizeMap != null) {
+            int[] sizes = new int[indices.length];
+            boolean complete = true;
+            for(int i=0; i<indices.length; i++) {
+                if(indexSizeMap.containsKey(indices[i])) {
+                    sizes[i] = indexSizeMap.get(indices[i]);
+                }
+                else {
+                    complete = false;
+                }
+            }
+            if(complete) { return sizes; }
+        }
+        return popProtocol.executeList(indices);
+    }
 
     /* (non-Javadoc)
      * @see org.logicprobe.LogicMail.mail.AbstractIncomingMailClient#getFolderMessageIndexMap(org.logicprobe.LogicMail.mail.MailProgressHandler)
      */
     public ToIntHashtable getFolderMessageIndexMap(MailProgressHandler progressHandler) throws IOException, MailException {
-        ToIntHashtable indexUidMap = popProtocol.executeUidl(progressHandler);
-        return indexUidMap;
+        ToIntHashtable uidIndexMap = popProtocol.executeUidl(progressHandler);
+        
+        // Keep the reverse mapping, so header requests later in the session
+        // do not need to ask for unique IDs again
+        IntHashtable indexMap = new IntHashtable(uidIndexMap.size());
+        Enumeration e = uidIndexMap.keys();
+        while(e.hasMoreElements()) {
+            String uid = (String)e.nextElement();
+            indexMap.put(uidIndexMap.get(uid), uid);
+        }
+        indexUidMap = indexMap;
+        
+        return uidIndexMap;
     }
     
     /* (non-Javadoc)
@@ -541,10 +639,8 @@ public class PopClient extends AbstractIncomingMailClient {
         // the special case where maxLines == retrievedLines and we are
         // downloading a single-part message with no separators.
 
-        InputStream inputStream = MailMessageParser.convertMessageResultToStream(retrResult);
-        
         Hashtable contentMap = new Hashtable();
-        MimeMessagePart rootPart = MailMessageParser.parseRawMessage(contentMap, inputStream);
+        MimeMessagePart rootPart = MailMessageParser.parseRawMessage(contentMap, retrResult);
         if(rootPart != null) {
             int partComplete = ((Integer)contentMap.get(Boolean.TRUE)).intValue();
             boolean complete = messageNotTruncated || partComplete == 1;
@@ -36,6 +36,7 @@ import java.util.Hashtable;
 
 import net.rim.device.api.system.EventLogger;
 import net.rim.device.api.util.Arrays;
+import net.rim.device.api.util.IntIntHashtable;
 import net.rim.device.api.util.ToIntHashtable;
 
 import org.logicprobe.LogicMail.AppInfo;
@@ -51,6 +52,7 @@ import org.logicprobe.LogicMail.util.Watchdog;
 public class PopProtocol {
     private Connection connection;
     private Watchdog watchdog;
+    private boolean pipelining;
     
     /** Creates a new instance of PopProtocol */
     public PopProtocol() {
@@ -79,6 +81,27 @@ public class PopProtocol {
         this.watchdog = watchdog;
     }
     
+    /**
+     * Sets whether the server supports the RFC 2449 PIPELINING capability.
+     * When enabled, the batch command methods send all their commands in a
+     * single write, before reading any of the responses.  Otherwise, they
+     * execute their commands one at a time.
+     *
+     * @param pipelining true, if pipelining is supported
+     */
+    public void setPipelining(boolean pipelining) {
+        this.pipelining = pipelining;
+    }
+    
+    /**
+     * Checks whether commands are pipelined by the batch command methods.
+     *
+     * @return true, if pipelining
+     */
+    public boolean isPipelining() {
+        return pipelining;
+    }
+    
     /**
      * Execute the "CAPA" command
      * <p>
@@ -238,6 +261,72 @@ public class PopProtocol {
         }
     }
     
+    /**
+     * Execute the "LIST" command on a set of messages.
+     * If pipelining is enabled, all the commands are sent before any of the
+     * responses are read.
+     *
+     * @param indices Message indices
+     * @return Message sizes, in bytes, or 0 for any message whose size could
+     *         not be retrieved
+     */
+    public int[] executeList(int[] indices) throws IOException, MailException {
+        if(EventLogger.getMinimumLevel() >= EventLogger.DEBUG_INFO) {
+            EventLogger.logEvent(
+            AppInfo.GUID,
+            ("PopProtocol.executeList(" + indices.length + " messages)").getBytes(),
+            EventLogger.DEBUG_INFO);
+        }
+        String[] commands = new String[indices.length];
+        for(int i=0; i<indices.length; i++) {
+            commands[i] = LIST_ + indices[i];
+        }
+        Object[] results = executeBatch(commands, false, null);
+        
+        int[] sizes = new int[indices.length];
+        for(int i=0; i<results.length; i++) {
+            if(results[i] != null) {
+                String result = (String)results[i];
+                int p = result.lastIndexOf(' ');
+                try {
+                    sizes[i] = Integer.parseInt(result.substring(p+1));
+                } catch (NumberFormatException e) { }
+            }
+        }
+        return sizes;
+    }
+    
+    /**
+     * Execute the "LIST" command for the entire mailbox.
+     * 
+     * @param progressHandler progress handler
+     * @return Map of message indices to sizes, in bytes
+     */
+    public IntIntHashtable executeList(MailProgressHandler progressHandler) throws IOException, MailException {
+        if(EventLogger.getMinimumLevel() >= EventLogger.DEBUG_INFO) {
+            EventLogger.logEvent(
+            AppInfo.GUID,
+            ("PopProtocol.executeList()").getBytes(),
+            EventLogger.DEBUG_INFO);
+        }
+        
+        byte[][] result = executeFollowBinary(LIST, true, progressHandler);
+        IntIntHashtable indexSizeMap = new IntIntHashtable(result.length);
+        
+        for(int i=0; i<result.length; i++) {
+            byte[] line = result[i];
+            int p = Arrays.getIndex(line, (byte)' ');
+            if(p > 0 && p < line.length - 1) {
+                try {
+                    int index = StringArrays.parseInt(line, 0, p);
+                    int size = StringArrays.parseInt(line, p + 1, line.length - p - 1);
+                    indexSizeMap.put(index, size);
+                } catch (Exception e) { }
+            }
+        }
+        return indexSizeMap;
+    }
+    
     /**
      * Execute the "TOP" command
      * @param index Message index
@@ -263,6 +352,41 @@ public class PopProtocol {
         return executeFollowBinary(TOP_ + index + ' ' + lines, true, progressHandler);
     }
     
+    /**
+     * Execute the "TOP" command on a set of messages.
+     * If pipelining is enabled, all the commands are sent before any of the
+     * responses are read.
+     * 
+     * @param indices Message indices
+     * @param lines Number of lines to retrieve
+     * @param progressHandler progress handler
+     * @return The response lines for each message
+     * @throws MailException if the command failed for any of the messages,
+     *         which is only thrown once all the responses have been read
+     */
+    public byte[][][] executeTop(int[] indices, int lines, MailProgressHandler progressHandler) throws IOException, MailException {
+        if(EventLogger.getMinimumLevel() >= EventLogger.DEBUG_INFO) {
+            EventLogger.logEvent(
+            AppInfo.GUID,
+            ("PopProtocol.executeTop(" + indices.length + " messages, " + lines + ")").getBytes(),
+            EventLogger.DEBUG_INFO);
+        }
+        String[] commands = new String[indices.length];
+        for(int i=0; i<indices.length; i++) {
+            commands[i] = TOP_ + indices[i] + ' ' + lines;
+        }
+        Object[] results = executeBatch(commands, true, progressHandler);
+        
+        byte[][][] topResults = new byte[results.length][][];
+        for(int i=0; i<results.length; i++) {
+            if(results[i] == null) {
+                throw new MailException("Unable to retrieve message " + indices[i]);
+            }
+            topResults[i] = (byte[][])results[i];
+        }
+        return topResults;
+    }
+    
     /**
      * Execute the "RETR" command
      * @param index Message index
@@ -290,6 +414,40 @@ public class PopProtocol {
             EventLogger.DEBUG_INFO);
         }
         String result = execute(UIDL_ + index);
+        return parseUidlResult(result);
+    }
+    
+    /**
+     * Execute the "UIDL" command on a set of messages.
+     * If pipelining is enabled, all the commands are sent before any of the
+     * responses are read.
+     * 
+     * @param indices Message indices
+     * @return The unique ID for each message, or <code>null</code> for any
+     *         message whose unique ID could not be retrieved
+     */
+    public String[] executeUidl(int[] indices) throws IOException, MailException {
+        if(EventLogger.getMinimumLevel() >= EventLogger.DEBUG_INFO) {
+            EventLogger.logEvent(
+            AppInfo.GUID,
+            ("PopProtocol.executeUidl(" + indices.length + " messages)").getBytes(),
+            EventLogger.DEBUG_INFO);
+        }
+        String[] commands = new String[indices.length];
+        for(int i=0; i<indices.length; i++) {
+            commands[i] = UIDL_ + indices[i];
+        }
+        Object[] results = executeBatch(commands, false, null);
+        
+        String[] uids = new String[indices.length];
+        for(int i=0; i<results.length; i++) {
+            uids[i] = parseUidlResult((String)results[i]);
+        }
+        return uids;
+    }
+    
+    private static String parseUidlResult(String result) {
+        if(result == null) { return null; }
         int p = result.lastIndexOf(' ');
         if(p < result.length() - 2) {
         	return result.substring(p+1);
@@ -382,6 +540,20 @@ public class PopProtocol {
             return null;
         }
         
+        byte[][] lines = receiveFollowBinary(preCount, progressHandler);
+        watchdog.cancel();
+        return lines;
+    }
+    
+    /**
+     * Receives the lines of a multi-line response, up to the terminating
+     * lone ".", once the status line has been received.
+     *
+     * @param preCount the received byte count prior to the status line
+     * @param progressHandler progress handler
+     * @return An array of lines containing the response
+     */
+    private byte[][] receiveFollowBinary(int preCount, MailProgressHandler progressHandler) throws IOException {
         byte[] buffer = connection.receive();
         watchdog.kick();
         
@@ -398,10 +570,62 @@ public class PopProtocol {
             postCount = connection.getBytesReceived();
             if(progressHandler != null) { progressHandler.mailProgress(MailProgressHandler.TYPE_NETWORK, (postCount - preCount), -1); }
         }
-        watchdog.cancel();
         return lines;
     }
     
+    /**
+     * Execute a set of commands, and return their results in order.
+     * If pipelining is enabled, the commands are sent to the server in a
+     * single write, and the responses are then read in order.  Otherwise,
+     * each command is executed in turn.  Error responses do not stop the
+     * processing of the remaining commands.
+     *
+     * @param commands The commands to execute
+     * @param multiLine True if the commands return multi-line responses
+     * @param progressHandler progress handler
+     * @return For each command, the <code>String</code> result of a single-line
+     *         command or the <code>byte[][]</code> lines of a multi-line
+     *         response, or <code>null</code> if the response was an error.
+     */
+    private Object[] executeBatch(String[] commands, boolean multiLine, MailProgressHandler progressHandler) throws IOException, MailException {
+        Object[] results = new Object[commands.length];
+        if(!pipelining) {
+            for(int i=0; i<commands.length; i++) {
+                if(multiLine) {
+                    results[i] = executeFollowBinary(commands[i], false, progressHandler);
+                }
+                else {
+                    results[i] = execute(commands[i], false);
+                }
+            }
+            return results;
+        }
+        
+        StringBuffer buf = new StringBuffer();
+        for(int i=0; i<commands.length; i++) {
+            buf.append(commands[i]);
+            buf.append(CRLF);
+        }
+        byte[] data = buf.toString().getBytes();
+        
+        watchdog.start();
+        connection.sendRaw(data, 0, data.length);
+        watchdog.kick();
+        
+        for(int i=0; i<commands.length; i++) {
+            int preCount = connection.getBytesReceived();
+            String result = executeImpl(null, false);
+            if(result != null && multiLine) {
+                results[i] = receiveFollowBinary(preCount, progressHandler);
+            }
+            else {
+                results[i] = result;
+            }
+        }
+        watchdog.cancel();
+        return results;
+    }
+    
     /**
      * Removes escaped dots from POP responses.
      * 
@@ -486,6 +710,7 @@ public class PopProtocol {
     private static String DELE_ = "DELE ";
     private static String UIDL = "UIDL";
     private static String UIDL_ = "UIDL ";
+    private static String LIST = "LIST";
     private static String LIST_ = "LIST ";
     private static String TOP_ = "TOP ";
     private static String RETR_ = "RETR ";
@@ -495,6 +720,7 @@ public class PopProtocol {
     private static String USER_ = "USER ";
     private static String STLS = "STLS";
     private static String CAPA = "CAPA";
+    private static String CRLF = "\r\n";
     private static String[] AUTH_FAILURES = {
         "[auth]",
         "authentication",
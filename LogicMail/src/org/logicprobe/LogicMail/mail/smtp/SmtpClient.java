@@ -43,6 +43,7 @@ import org.logicprobe.LogicMail.message.Message;
 import org.logicprobe.LogicMail.message.MessageEnvelope;
 import org.logicprobe.LogicMail.message.MessageMimeConverter;
 import org.logicprobe.LogicMail.util.Connection;
+import org.logicprobe.LogicMail.util.DataSpool;
 import org.logicprobe.LogicMail.util.NetworkConnector;
 import org.logicprobe.LogicMail.util.MailMessageParser;
 import org.logicprobe.LogicMail.util.Watchdog;
@@ -56,6 +57,9 @@ import java.util.Hashtable;
  * Implements an SMTP client
  */
 public class SmtpClient implements OutgoingMailClient {
+    private static final String CAPA_PIPELINING = "PIPELINING";
+    private static final String CAPA_CHUNKING = "CHUNKING";
+
     private final NetworkConnector networkConnector;
     private final MailSettings mailSettings;
     private final GlobalConfig globalConfig;
@@ -151,6 +155,7 @@ public class SmtpClient implements OutgoingMailClient {
             }
 
             capabilities = smtpProtocol.executeExtendedHello(hostname);
+            updateExtensions();
             openStarted = true;
         }
         
@@ -164,6 +169,7 @@ public class SmtpClient implements OutgoingMailClient {
         	
         	// Re-execute the EHLO command, since some servers require this
         	capabilities = smtpProtocol.executeExtendedHello(hostname);
+        	updateExtensions();
         }
         
         if (outgoingConfig.getUseAuth() > 0) {
@@ -181,6 +187,14 @@ public class SmtpClient implements OutgoingMailClient {
         return true;
     }
 
+    /**
+     * Enable the protocol extensions advertised in the server capabilities.
+     */
+    private void updateExtensions() {
+        smtpProtocol.setPipelining(capabilities.containsKey(CAPA_PIPELINING));
+        smtpProtocol.setChunking(capabilities.containsKey(CAPA_CHUNKING));
+    }
+
     public void close() throws IOException, MailException {
         openStarted = false;
         if(connection != null) {
@@ -227,7 +241,7 @@ public class SmtpClient implements OutgoingMailClient {
         this.password = password;
     }
 
-    public byte[] sendMessage(MessageEnvelope envelope, Message message)
+    public DataSpool sendMessage(MessageEnvelope envelope, Message message)
         throws IOException, MailException {
         if (!isFresh) {
             smtpProtocol.executeReset();
@@ -235,63 +249,74 @@ public class SmtpClient implements OutgoingMailClient {
 
         isFresh = false;
 
-        byte[] rawMessage = generateRawMessage(envelope, message);
+        DataSpool rawMessage = generateRawMessage(envelope, message);
 
         sendEnvelopeInformation(envelope);
 
         // Send the message
-        if (!smtpProtocol.executeData(rawMessage)) {
+        boolean result;
+        if (smtpProtocol.isChunking()) {
+            result = smtpProtocol.executeBinaryData(
+                    rawMessage.getInputStream(), rawMessage.size());
+        } else {
+            result = smtpProtocol.executeData(rawMessage.getInputStream());
+        }
+        if (!result) {
             throw new MailException("Error sending message");
         }
 
         return rawMessage;
     }
     
-    private byte[] generateRawMessage(MessageEnvelope envelope, Message message) {
-        // Serialize the message
-        MessageMimeConverter messageMimeConverter = new MessageMimeConverter(message);
-
-        // Generate the envelope headers
-        byte[] messageHeaderData = MailMessageParser.generateMessageHeaders(envelope, true).getBytes();
+    private DataSpool generateRawMessage(MessageEnvelope envelope, Message message)
+            throws IOException {
+        // Generate the envelope headers, followed by the body headers and
+        // content, directly into the spool that the message will be sent from
+        DataSpool rawMessage = new DataSpool(
+                MailMessageParser.generateMessageHeaders(envelope, true));
 
-        // Generate the body headers and content
-        byte[] messageMimeData = messageMimeConverter.toMimeByteArray();
+        MessageMimeConverter messageMimeConverter = new MessageMimeConverter(message);
+        messageMimeConverter.writeMime(rawMessage);
 
-        // Combine the two into the raw message
-        byte[] rawMessage = new byte[messageHeaderData.length + messageMimeData.length];
-        System.arraycopy(messageHeaderData, 0, rawMessage, 0, messageHeaderData.length);
-        System.arraycopy(messageMimeData, 0, rawMessage, messageHeaderData.length, messageMimeData.length);
         return rawMessage;
     }
 
     private void sendEnvelopeInformation(MessageEnvelope envelope)
             throws IOException, MailException, RecipientException {
-        if (!smtpProtocol.executeMail(stripEmail(envelope.from[0]))) {
-            throw new MailException("Error with sender");
+        int toCount = envelope.to.length;
+        int ccCount = (envelope.cc != null) ? envelope.cc.length : 0;
+        int bccCount = (envelope.bcc != null) ? envelope.bcc.length : 0;
+
+        String[] recipients = new String[toCount + ccCount + bccCount];
+        int index = 0;
+        for (int i = 0; i < toCount; i++) {
+            recipients[index++] = stripEmail(envelope.to[i]);
         }
-
-        for (int i = 0; i < envelope.to.length; i++) {
-            String address = stripEmail(envelope.to[i]);
-            if (!smtpProtocol.executeRecipient(address)) {
-                throw new RecipientException(RecipientException.RECIPIENT_TO, address);
-            }
+        for (int i = 0; i < ccCount; i++) {
+            recipients[index++] = stripEmail(envelope.cc[i]);
+        }
+        for (int i = 0; i < bccCount; i++) {
+            recipients[index++] = stripEmail(envelope.bcc[i]);
         }
 
-        if (envelope.cc != null) {
-            for (int i = 0; i < envelope.cc.length; i++) {
-                String address = stripEmail(envelope.cc[i]);
-                if (!smtpProtocol.executeRecipient(address)) {
-                    throw new RecipientException(RecipientException.RECIPIENT_CC, address);
-                }
-            }
+        boolean[] results = smtpProtocol.executeEnvelope(
+                stripEmail(envelope.from[0]), recipients);
+
+        if (!results[0]) {
+            throw new MailException("Error with sender");
         }
 
-        if (envelope.bcc != null) {
-            for (int i = 0; i < envelope.bcc.length; i++) {
-                String address = stripEmail(envelope.bcc[i]);
-                if (!smtpProtocol.executeRecipient(address)) {
-                    throw new RecipientException(RecipientException.RECIPIENT_BCC, address);
+        for (int i = 0; i < recipients.length; i++) {
+            if (!results[i + 1]) {
+                int type;
+                if (i < toCount) {
+                    type = RecipientException.RECIPIENT_TO;
+                } else if (i < toCount + ccCount) {
+                    type = RecipientException.RECIPIENT_CC;
+                } else {
+                    type = RecipientException.RECIPIENT_BCC;
                 }
+                throw new RecipientException(type, recipients[i]);
             }
         }
     }
@@ -31,7 +31,10 @@
 
 package org.logicprobe.LogicMail.mail.smtp;
 
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Hashtable;
 
 import net.rim.device.api.crypto.MD5Digest;
@@ -42,7 +45,6 @@ import net.rim.device.api.util.Arrays;
 import org.logicprobe.LogicMail.AppInfo;
 import org.logicprobe.LogicMail.mail.MailException;
 import org.logicprobe.LogicMail.util.Connection;
-import org.logicprobe.LogicMail.util.StringArrays;
 import org.logicprobe.LogicMail.util.Watchdog;
 
 /**
@@ -51,6 +53,10 @@ import org.logicprobe.LogicMail.util.Watchdog;
 public class SmtpProtocol {
     private Connection connection;
     private Watchdog watchdog;
+    private boolean pipelining;
+    private boolean chunking;
+    private byte[] sendBuffer;
+    private int sendBufferCount;
     
     /** Specifies the PLAIN authentication mechanism */
     public static final int AUTH_PLAIN = 1;
@@ -88,6 +94,47 @@ public class SmtpProtocol {
         this.watchdog = watchdog;
     }
     
+    /**
+     * Sets whether the server supports the RFC 2920 PIPELINING extension.
+     * When enabled, {@link #executeEnvelope(String, String[])} sends all of
+     * its commands in a single write, before reading any of the replies,
+     * and {@link #executeBinaryData(byte[])} does not wait for a reply
+     * between chunks.
+     *
+     * @param pipelining true, if pipelining is supported
+     */
+    public void setPipelining(boolean pipelining) {
+        this.pipelining = pipelining;
+    }
+    
+    /**
+     * Checks whether commands are pipelined.
+     *
+     * @return true, if pipelining
+     */
+    public boolean isPipelining() {
+        return pipelining;
+    }
+    
+    /**
+     * Sets whether the server supports the RFC 3030 CHUNKING extension,
+     * and thus the "BDAT" command.
+     *
+     * @param chunking true, if chunking is supported
+     */
+    public void setChunking(boolean chunking) {
+        this.chunking = chunking;
+    }
+    
+    /**
+     * Checks whether the "BDAT" command is supported.
+     *
+     * @return true, if chunking is supported
+     */
+    public boolean isChunking() {
+        return chunking;
+    }
+    
     /**
      * Receive the initial greeting from the server, and ensure it is valid.
      * This method returns nothing, and throws a <code>MailException</code> if
@@ -295,12 +342,74 @@ public class SmtpProtocol {
         return result.startsWith(CODE_250);
     }
     
+    /**
+     * Execute the "MAIL FROM" command, followed by a "RCPT TO" command for
+     * each recipient.
+     * <p>
+     * If pipelining is enabled, all the commands are sent in a single
+     * write and every reply is then read in order.  Otherwise, the commands
+     * are executed one at a time, stopping at the first failure.
+     * </p>
+     *
+     * @param sender Sender of the message, formatted as "foo@bar.com"
+     * @param recipients Recipients of the message, formatted as "foo@bar.com"
+     * @return Array with the result of the "MAIL FROM" command in the first
+     *         element, followed by the result of each "RCPT TO" command.
+     *         Elements for commands that were not executed are false.
+     */
+    public boolean[] executeEnvelope(String sender, String[] recipients) throws IOException, MailException {
+        if(EventLogger.getMinimumLevel() >= EventLogger.DEBUG_INFO) {
+            EventLogger.logEvent(
+            AppInfo.GUID,
+            ("SmtpProtocol.executeEnvelope(\""+sender+"\", "+recipients.length+")").getBytes(),
+            EventLogger.DEBUG_INFO);
+        }
+        boolean[] results = new boolean[recipients.length + 1];
+        
+        if(!pipelining) {
+            results[0] = executeMail(sender);
+            for(int i=0; results[i] && i<recipients.length; i++) {
+                results[i + 1] = executeRecipient(recipients[i]);
+            }
+            return results;
+        }
+        
+        StringBuffer buf = new StringBuffer();
+        buf.append("MAIL FROM:<").append(sender).append('>').append(CRLF);
+        for(int i=0; i<recipients.length; i++) {
+            buf.append("RCPT TO:<").append(recipients[i]).append('>').append(CRLF);
+        }
+        byte[] commands = buf.toString().getBytes();
+        
+        watchdog.start();
+        connection.sendRaw(commands, 0, commands.length);
+        
+        for(int i=0; i<results.length; i++) {
+            results[i] = receiveReply().startsWith(CODE_250);
+            watchdog.kick();
+        }
+        watchdog.cancel();
+        
+        return results;
+    }
+    
     /**
      * Execute the "DATA" command.
      * @param message Message data fully serialized into a flat ASCII byte array
      * @return True if successful, false on failure
      */
     public boolean executeData(byte[] message) throws IOException, MailException {
+        return executeData(new ByteArrayInputStream(message));
+    }
+    
+    /**
+     * Execute the "DATA" command.
+     * The message is read from the stream in blocks and dot-stuffed as it
+     * is sent, so it never has to be held in memory as a single array.
+     * @param message Stream providing the message data in ASCII format
+     * @return True if successful, false on failure
+     */
+    public boolean executeData(InputStream message) throws IOException, MailException {
         if(EventLogger.getMinimumLevel() >= EventLogger.DEBUG_INFO) {
             EventLogger.logEvent(
             AppInfo.GUID,
@@ -319,32 +428,30 @@ public class SmtpProtocol {
             return false;
         }
         
-        int offset = 0;
-        while(offset < message.length) {
-            int p = StringArrays.indexOf(message, CHAR_LF, offset);
-            int len;
-            if(p != -1) {
-                len = (p + 1) - offset;
-            }
-            else {
-                len = message.length - offset;
-            }
-            
-            if(len == 0) { break; }
-            if(message[offset] == CHAR_PERIOD) {
-                byte[] escapedLine = new byte[len + 1];
-                escapedLine[0] = CHAR_PERIOD;
-                System.arraycopy(message, offset, escapedLine, 1, len);
-                connection.sendRaw(escapedLine, 0, escapedLine.length);
+        // Dot-stuff the message into the send buffer, so the socket is
+        // written in large blocks instead of once per line.
+        sendBufferCount = 0;
+        byte[] readBuffer = new byte[READ_BUFFER_SIZE];
+        boolean lineStart = true;
+        int len;
+        while((len = message.read(readBuffer, 0, readBuffer.length)) != -1) {
+            int offset = 0;
+            for(int i=0; i<len; i++) {
+                if(lineStart && readBuffer[i] == CHAR_PERIOD) {
+                    bufferSend(readBuffer, offset, i - offset);
+                    bufferSend(DOT, 0, 1);
+                    offset = i;
+                }
+                lineStart = (readBuffer[i] == CHAR_LF);
             }
-            else {
-                connection.sendRaw(message, offset, len);
-            }
-			watchdog.kick();
-            offset += len;
+            bufferSend(readBuffer, offset, len - offset);
         }
         
-        connection.sendCommand("\r\n.");
+        if(!lineStart) {
+            bufferSend(CRLF_BYTES, 0, CRLF_BYTES.length);
+        }
+        bufferSend(END_OF_DATA, 0, END_OF_DATA.length);
+        flushSendBuffer();
         watchdog.cancel();
 
         // Wait without a watchdog, which will fail if the underlying
@@ -354,6 +461,90 @@ public class SmtpProtocol {
         return result.startsWith(CODE_250);
     }
     
+    /**
+     * Execute the "BDAT" command, as defined in RFC 3030.
+     * <p>
+     * The message is sent as-is, without any dot-stuffing, as a sequence of
+     * chunks with the final one marked "LAST".  If pipelining is enabled,
+     * the replies to all the chunks are read after the last one is sent.
+     * This method should only be used if the server supports chunking.
+     * </p>
+     *
+     * @param message Message data fully serialized into a flat byte array
+     * @return True if successful, false on failure
+     */
+    public boolean executeBinaryData(byte[] message) throws IOException, MailException {
+        return executeBinaryData(new ByteArrayInputStream(message), message.length);
+    }
+    
+    /**
+     * Execute the "BDAT" command, as defined in RFC 3030.
+     * This works like {@link #executeBinaryData(byte[])}, except that the
+     * message is read from the stream as each chunk is sent.
+     *
+     * @param message Stream providing the message data
+     * @param length Number of bytes to send from the stream
+     * @return True if successful, false on failure
+     */
+    public boolean executeBinaryData(InputStream message, int length) throws IOException, MailException {
+        if(EventLogger.getMinimumLevel() >= EventLogger.DEBUG_INFO) {
+            EventLogger.logEvent(
+            AppInfo.GUID,
+            ("SmtpProtocol.executeBinaryData("+length+")").getBytes(),
+            EventLogger.DEBUG_INFO);
+        }
+        
+        watchdog.start();
+        
+        sendBufferCount = 0;
+        boolean success = true;
+        int pendingReplies = 0;
+        int offset = 0;
+        do {
+            int len = Math.min(BDAT_CHUNK_SIZE, length - offset);
+            boolean last = (offset + len == length);
+            
+            StringBuffer buf = new StringBuffer();
+            buf.append(BDAT).append(' ').append(len);
+            if(last) {
+                buf.append(' ').append(LAST);
+            }
+            buf.append(CRLF);
+            byte[] command = buf.toString().getBytes();
+            
+            bufferSend(command, 0, command.length);
+            bufferSend(message, len);
+            offset += len;
+            
+            if(pipelining && !last) {
+                pendingReplies++;
+                continue;
+            }
+            
+            flushSendBuffer();
+            if(last) {
+                // Like DATA, wait for the final reply without a watchdog,
+                // since the server may take a while to process the message.
+                watchdog.cancel();
+            }
+            
+            for(int i=0; i<=pendingReplies; i++) {
+                if(!receiveReply().startsWith(CODE_250)) {
+                    success = false;
+                }
+                if(!last) { watchdog.kick(); }
+            }
+            pendingReplies = 0;
+            
+            if(!success && !last) {
+                watchdog.cancel();
+                break;
+            }
+        } while(offset < length);
+        
+        return success;
+    }
+    
     /**
      * Execute the "RSET" command.
      * @return True if successful, false on failure
@@ -441,6 +632,76 @@ public class SmtpProtocol {
         return lines;
     }
 
+    /**
+     * Receive a reply from the server, skipping over any continuation lines
+     * of a multi-line reply.
+     *
+     * @return The last line of the reply
+     */
+    private String receiveReply() throws IOException, MailException {
+        byte[] buffer = connection.receive();
+        while(buffer != null && buffer.length >= 4 && buffer[3] == (byte)'-') {
+            buffer = connection.receive();
+        }
+        if(buffer == null) {
+            throw new MailException("Connection closed");
+        }
+        return new String(buffer);
+    }
+    
+    /**
+     * Append data to the send buffer, writing the buffer to the connection
+     * whenever it fills up.
+     */
+    private void bufferSend(byte[] data, int offset, int length) throws IOException {
+        if(sendBuffer == null) {
+            sendBuffer = new byte[SEND_BUFFER_SIZE];
+        }
+        while(length > 0) {
+            int count = Math.min(length, sendBuffer.length - sendBufferCount);
+            System.arraycopy(data, offset, sendBuffer, sendBufferCount, count);
+            sendBufferCount += count;
+            offset += count;
+            length -= count;
+            if(sendBufferCount == sendBuffer.length) {
+                flushSendBuffer();
+            }
+        }
+    }
+    
+    /**
+     * Append data read from a stream to the send buffer, writing the buffer
+     * to the connection whenever it fills up.
+     */
+    private void bufferSend(InputStream input, int length) throws IOException {
+        if(sendBuffer == null) {
+            sendBuffer = new byte[SEND_BUFFER_SIZE];
+        }
+        while(length > 0) {
+            int count = input.read(sendBuffer, sendBufferCount,
+                    Math.min(length, sendBuffer.length - sendBufferCount));
+            if(count == -1) {
+                throw new EOFException();
+            }
+            sendBufferCount += count;
+            length -= count;
+            if(sendBufferCount == sendBuffer.length) {
+                flushSendBuffer();
+            }
+        }
+    }
+    
+    /**
+     * Write any data in the send buffer to the connection.
+     */
+    private void flushSendBuffer() throws IOException {
+        if(sendBufferCount > 0) {
+            connection.sendRaw(sendBuffer, 0, sendBufferCount);
+            sendBufferCount = 0;
+            watchdog.kick();
+        }
+    }
+
     private static final char[] HEX_CHARS =
         {'0','1','2','3','4','5','6','7','8','9','a','b','c','d','e','f'};
 
@@ -520,6 +781,18 @@ public class SmtpProtocol {
     private static String DATA = "DATA";
     private static String RSET = "RSET";
     private static String QUIT = "QUIT";
+    private static String BDAT = "BDAT";
+    private static String LAST = "LAST";
+    private static String CRLF = "\r\n";
+    private static final byte[] CRLF_BYTES = { (byte)'\r', (byte)'\n' };
+    private static final byte[] DOT = { (byte)'.' };
+    private static final byte[] END_OF_DATA = { (byte)'.', (byte)'\r', (byte)'\n' };
+    /** Size of the buffer used to write message data to the connection */
+    private static final int SEND_BUFFER_SIZE = 16384;
+    /** Size of the blocks read from a message stream for dot-stuffing */
+    private static final int READ_BUFFER_SIZE = 4096;
+    /** Size of the chunks sent with the "BDAT" command */
+    private static final int BDAT_CHUNK_SIZE = 65536;
     private static final byte CHAR_PERIOD = (byte)'.';
     private static final byte CHAR_LF = (byte)'\n';
 }
@@ -41,6 +41,7 @@ import org.logicprobe.LogicMail.util.StringParser;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 
 import java.util.Hashtable;
 
@@ -49,20 +50,19 @@ import java.util.Hashtable;
  */
 public class MessageMimeConverter {
 	private Message message;
-    private ByteArrayOutputStream byteArrayOutputStream;
+    private OutputStream outputStream;
     private MIMEOutputStream mimeOutputStream;
+    private byte[] mimeData;
+    private IOException writeException;
 
     /** maps message parts to MIMEOutputStream objects */
     private Hashtable partMimeMap;
 
     private MessageMimeConverterPartVisitor partVisitor;
     
-    private boolean processed;
-    
     /** Creates a new instance of MessageMimeConverter */
     public MessageMimeConverter(Message message) {
     	this.message = message;
-    	this.byteArrayOutputStream = new ByteArrayOutputStream();
     	this.mimeOutputStream = null;
     	this.partMimeMap = new Hashtable();
     	this.partVisitor = new MessageMimeConverterPartVisitor();
@@ -74,8 +74,7 @@ public class MessageMimeConverter {
      * @return Message encoded in MIME format
      */
     public String toMimeString() {
-        processMessage();
-        return byteArrayOutputStream.toString();
+        return new String(toMimeByteArray());
     }
 
     /**
@@ -84,15 +83,47 @@ public class MessageMimeConverter {
      * @return Message encoded in MIME format
      */
     public byte[] toMimeByteArray() {
-        processMessage();
-        return byteArrayOutputStream.toByteArray();
+        if(mimeData == null) {
+            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+            try {
+                writeMime(byteArrayOutputStream);
+            } catch (IOException e) {
+                // Errors are already logged, and a partial result is
+                // all that can be returned from here.
+            }
+            mimeData = byteArrayOutputStream.toByteArray();
+        }
+        return mimeData;
     }
 
-    private void processMessage() {
-        if(!processed) {
+    /**
+     * Write the MIME encoded message directly to the provided stream, without
+     * building a complete copy of it in memory first.
+     * <p>
+     * The message is encoded again on every call, so callers that need the
+     * encoded form more than once should write it into a
+     * {@link org.logicprobe.LogicMail.util.DataSpool} and read it back from
+     * there.
+     * </p>
+     *
+     * @param output the stream to write the message to
+     * @throws IOException if an error occurred while writing to the stream
+     */
+    public void writeMime(OutputStream output) throws IOException {
+        outputStream = output;
+        mimeOutputStream = null;
+        writeException = null;
+        try {
             message.getStructure().accept(partVisitor);
+        } finally {
             partMimeMap.clear();
-            processed = true;
+            mimeOutputStream = null;
+            outputStream = null;
+        }
+        if(writeException != null) {
+            IOException e = writeException;
+            writeException = null;
+            throw e;
         }
     }
     
@@ -175,10 +206,7 @@ public class MessageMimeConverter {
                     currentStream.write(Base64OutputStream.encode(data, 0, data.length, true, true));
                 }
             } catch (IOException e) {
-                EventLogger.logEvent(AppInfo.GUID,
-                        ("MIME conversion error: " + e.toString()).getBytes(),
-                        EventLogger.ERROR);
-                AnalyticsDataCollector.getInstance().onApplicationError("MIME conversion error: " + e.toString());
+                handleWriteException(e);
             }
             
             finishCurrentStream(currentStream);
@@ -240,10 +268,7 @@ public class MessageMimeConverter {
                     currentStream.write(Base64OutputStream.encode(rawData, 0, rawData.length, true, true));
                 }
             } catch (IOException e) {
-                EventLogger.logEvent(AppInfo.GUID,
-                        ("MIME conversion error: " + e.toString()).getBytes(),
-                        EventLogger.ERROR);
-                AnalyticsDataCollector.getInstance().onApplicationError("MIME conversion error: " + e.toString());
+                handleWriteException(e);
             }
             
             finishCurrentStream(currentStream);
@@ -270,10 +295,7 @@ public class MessageMimeConverter {
 	        try {
 	            currentStream.write(Base64OutputStream.encode(data, 0, data.length, true, true));
 	        } catch (IOException e) {
-                EventLogger.logEvent(AppInfo.GUID,
-                        ("MIME conversion error: " + e.toString()).getBytes(),
-                        EventLogger.ERROR);
-                AnalyticsDataCollector.getInstance().onApplicationError("MIME conversion error: " + e.toString());
+                handleWriteException(e);
 	        }
 	        
 	        finishCurrentStream(currentStream);
@@ -304,10 +326,7 @@ public class MessageMimeConverter {
             try {
                 currentStream.write(Base64OutputStream.encode(data, 0, data.length, true, true));
             } catch (IOException e) {
-                EventLogger.logEvent(AppInfo.GUID,
-                        ("MIME conversion error: " + e.toString()).getBytes(),
-                        EventLogger.ERROR);
-                AnalyticsDataCollector.getInstance().onApplicationError("MIME conversion error: " + e.toString());
+                handleWriteException(e);
             }
 
             finishCurrentStream(currentStream);
@@ -321,10 +340,7 @@ public class MessageMimeConverter {
 	        try {
 	            currentStream.write("Unable to encode part".getBytes());
 	        } catch (IOException e) {
-                EventLogger.logEvent(AppInfo.GUID,
-                        ("MIME conversion error: " + e.toString()).getBytes(),
-                        EventLogger.ERROR);
-                AnalyticsDataCollector.getInstance().onApplicationError("MIME conversion error: " + e.toString());
+                handleWriteException(e);
 	        }
 	        
 	        finishCurrentStream(currentStream);
@@ -335,7 +351,7 @@ public class MessageMimeConverter {
             boolean isMultiPart = (part instanceof MultiPart);
             if (mimeOutputStream == null) {
                 mimeOutputStream = new MIMEOutputStream(
-                        byteArrayOutputStream,
+                        outputStream,
                         isMultiPart,
                         encoding);
                 
@@ -366,15 +382,22 @@ public class MessageMimeConverter {
             }
         }
         
+        private void handleWriteException(IOException e) {
+            EventLogger.logEvent(AppInfo.GUID,
+                    ("MIME conversion error: " + e.toString()).getBytes(),
+                    EventLogger.ERROR);
+            AnalyticsDataCollector.getInstance().onApplicationError("MIME conversion error: " + e.toString());
+            if(writeException == null) {
+                writeException = e;
+            }
+        }
+        
         private void finishCurrentStream(MIMEOutputStream currentStream) {
             try {
                 currentStream.flush();
                 currentStream.close();
             } catch (IOException e) {
-                EventLogger.logEvent(AppInfo.GUID,
-                        ("MIME conversion error: " + e.toString()).getBytes(),
-                        EventLogger.ERROR);
-                AnalyticsDataCollector.getInstance().onApplicationError("MIME conversion error: " + e.toString());
+                handleWriteException(e);
             }
         }
     }
@@ -92,8 +92,12 @@ public abstract class AccountNode implements Node {
 
         this.mailStoreServices.addFolderListener(new FolderListener() {
             public void folderStatusChanged(FolderEvent e) {
+                // Status changes may be pushed by the server for mailboxes
+                // that are not part of the local folder tree
                 MailboxNode mailboxNode = getMailboxNodeForEvent(e);
-                mailboxNode.mailStoreFolderStatusChanged(e);
+                if(mailboxNode != null) {
+                    mailboxNode.mailStoreFolderStatusChanged(e);
+                }
             }
 
             public void folderMessagesAvailable(FolderMessagesEvent e) {
@@ -32,25 +32,50 @@ package org.logicprobe.LogicMail.model;
 
 import java.util.Enumeration;
 import java.util.Hashtable;
+import java.util.Vector;
 
+import net.rim.device.api.system.ObjectGroup;
 import net.rim.device.api.system.PersistentObject;
 import net.rim.device.api.system.PersistentStore;
-import net.rim.device.api.collection.util.BigVector;
+import net.rim.device.api.util.Arrays;
 
 import org.logicprobe.LogicMail.mail.FolderTreeItem;
 import org.logicprobe.LogicMail.mail.MessageToken;
 import org.logicprobe.LogicMail.message.FolderMessage;
+import org.logicprobe.LogicMail.message.PersistableFolderMessage;
 
 /**
  * Manager for controlling local persistence of <code>FolderMessage</code>
  * objects representing message headers for a mail store.
+ * <p>
+ * The messages for each folder are stored in fixed-size pages, each backed
+ * by a persisted segment.  Pages are only converted into
+ * <code>FolderMessage</code> objects when they are accessed, and only a
+ * limited number of recently used pages are kept in that form.  Changes to
+ * existing pages are committed individually, so the whole cache does not
+ * need to be rewritten every time a message is added or updated.
+ * </p>
  */
 public class FolderMessageCache {
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int DEFAULT_MAX_LOADED_PAGES = 32;
+    
     private final long cacheObjectKey;
+    private final int pageSize;
+    private final int maxLoadedPages;
     
     /** Map of FolderTreeItem -> CacheEntry */
     private final Hashtable cachedFolderMap = new Hashtable();
     
+    /** Loaded pages, from least to most recently used */
+    private final Vector loadedPages = new Vector();
+    
+    /**
+     * Set when folders or pages have been added or removed, requiring a
+     * commit of the whole cache object.
+     */
+    private boolean structureChanged;
+    
     private final Object lockObj = new Object();
     private final PersistentObject persistentObject;
     private FolderMessageCacheObject cacheObject;
@@ -72,7 +97,22 @@ public class FolderMessageCache {
      * @param cacheObjectKey the cache object key
      */
     protected FolderMessageCache(long cacheObjectKey) {
+        this(cacheObjectKey, DEFAULT_PAGE_SIZE, DEFAULT_MAX_LOADED_PAGES);
+    }
+    
+    /**
+     * Instantiates a new folder message cache, with a specific key for the
+     * persistent object and specific paging parameters.  This constructor
+     * should only be called directly from test-specific subclasses.
+     *
+     * @param cacheObjectKey the cache object key
+     * @param pageSize the maximum number of messages in each page
+     * @param maxLoadedPages the maximum number of pages to keep loaded
+     */
+    protected FolderMessageCache(long cacheObjectKey, int pageSize, int maxLoadedPages) {
         this.cacheObjectKey = cacheObjectKey;
+        this.pageSize = pageSize;
+        this.maxLoadedPages = maxLoadedPages;
         persistentObject = PersistentStore.getPersistentObject(cacheObjectKey);
         Object persisted = persistentObject.getContents();
         if(persisted instanceof FolderMessageCacheObject) {
@@ -97,11 +137,71 @@ public class FolderMessageCache {
         }
     }
     
+    /**
+     * Gets all the cached messages for a folder, sorted by index.
+     * Pages that are not already loaded are read without being added to the
+     * set of loaded pages, so scanning a large folder does not evict the
+     * pages that are actually in use.
+     *
+     * @param folder the folder
+     * @return the messages
+     */
     public FolderMessage[] getFolderMessages(FolderTreeItem folder) {
-        FolderMessage[] result;
+        Vector messages = new Vector();
         synchronized(lockObj) {
             CacheEntry cacheEntry = checkAndLoadFolderCache(folder);
-            result = cacheEntry.getFolderMessages();
+            int size = cacheEntry.pages.size();
+            for(int i=0; i<size; i++) {
+                Page page = (Page)cacheEntry.pages.elementAt(i);
+                Hashtable messageMap = (page.messageMap != null) ? page.messageMap : page.createMessageMap();
+                Enumeration e = messageMap.elements();
+                while(e.hasMoreElements()) {
+                    messages.addElement(e.nextElement());
+                }
+            }
+        }
+        FolderMessage[] result = new FolderMessage[messages.size()];
+        messages.copyInto(result);
+        Arrays.sort(result, FolderMessage.getComparator());
+        return result;
+    }
+    
+    /**
+     * Gets the cached messages for a folder that have the highest indices,
+     * sorted by index.  Only the pages containing those messages are loaded.
+     *
+     * @param folder the folder
+     * @param count the maximum number of messages to return
+     * @return the messages
+     */
+    public FolderMessage[] getFolderMessages(FolderTreeItem folder, int count) {
+        Vector messages = new Vector();
+        synchronized(lockObj) {
+            CacheEntry cacheEntry = checkAndLoadFolderCache(folder);
+            int minIndex = cacheEntry.getMinimumIndex(count);
+            int size = cacheEntry.pages.size();
+            for(int i=0; i<size; i++) {
+                Page page = (Page)cacheEntry.pages.elementAt(i);
+                if(page.getMaximumIndex() < minIndex) { continue; }
+                
+                Enumeration e = loadPage(page).elements();
+                while(e.hasMoreElements()) {
+                    FolderMessage message = (FolderMessage)e.nextElement();
+                    if(message.getIndex() >= minIndex) {
+                        messages.addElement(message);
+                    }
+                }
+            }
+        }
+        FolderMessage[] result = new FolderMessage[messages.size()];
+        messages.copyInto(result);
+        Arrays.sort(result, FolderMessage.getComparator());
+        
+        // Ties on the minimum index may leave a few extra messages
+        if(result.length > count) {
+            FolderMessage[] trimmed = new FolderMessage[count];
+            System.arraycopy(result, result.length - count, trimmed, 0, count);
+            result = trimmed;
         }
         return result;
     }
@@ -109,39 +209,46 @@ public class FolderMessageCache {
     public void addFolderMessage(FolderTreeItem folder, FolderMessage message) {
         synchronized(lockObj) {
             CacheEntry cacheEntry = checkAndLoadFolderCache(folder);
-            if(cacheEntry.addFolderMessage(message)) {
-                cacheObject.addFolderMessage(folder, message);
+            String messageUid = message.getMessageToken().getMessageUid();
+            Page page = cacheEntry.findPage(messageUid);
+            if(page == null) {
+                page = cacheEntry.getPageForAdd();
+                cacheEntry.putMessage(page, messageUid, message);
             }
             else {
-                // If the item could not be added, then try to update its
+                // If the item is already present, then try to update its
                 // existing cache entry.
-                FolderMessage updatedMessage = cacheEntry.updateFolderMessage(message);
-                if(updatedMessage != null) {
-                    cacheObject.updateFolderMessage(folder, updatedMessage);
-                }
+                updateFolderMessage(page, message);
             }
         }
     }
 
     public FolderMessage getFolderMessage(FolderTreeItem folder, MessageToken messageToken) {
-        FolderMessage folderMessage = null;
         synchronized(lockObj) {
             CacheEntry cacheEntry = checkAndLoadFolderCache(folder);
-            folderMessage = cacheEntry.getFolderMessage(messageToken);
+            String messageUid = messageToken.getMessageUid();
+            Page page = cacheEntry.findPage(messageUid);
+            if(page != null) {
+                return (FolderMessage)loadPage(page).get(messageUid);
+            }
+            else {
+                return null;
+            }
         }
-        return folderMessage;
     }
     
     public void removeFolderMessage(FolderTreeItem folder, FolderMessage message) {
         synchronized(lockObj) {
             CacheEntry cacheEntry = checkAndLoadFolderCache(folder);
-            if(cacheEntry.removeFolderMessage(message)) {
-                if(cacheEntry.isEmpty()) {
-                    removeFolder(folder);
-                    cacheObject.removeFolder(folder);
+            String messageUid = message.getMessageToken().getMessageUid();
+            Page page = cacheEntry.findPage(messageUid);
+            if(page != null) {
+                cacheEntry.removeMessage(page, messageUid);
+                if(page.segment.isEmpty()) {
+                    cacheEntry.removePage(page);
                 }
-                else {
-                    cacheObject.removeFolderMessage(folder, message);
+                if(cacheEntry.pages.isEmpty()) {
+                    removeFolder(folder);
                 }
             }
         }
@@ -150,9 +257,9 @@ public class FolderMessageCache {
     public boolean updateFolderMessage(FolderTreeItem folder, FolderMessage message) {
         synchronized(lockObj) {
             CacheEntry cacheEntry = checkAndLoadFolderCache(folder);
-            FolderMessage updatedMessage = cacheEntry.updateFolderMessage(message);
-            if(updatedMessage != null) {
-                cacheObject.updateFolderMessage(folder, updatedMessage);
+            Page page = cacheEntry.findPage(message.getMessageToken().getMessageUid());
+            if(page != null) {
+                updateFolderMessage(page, message);
                 return true;
             }
             else {
@@ -161,10 +268,55 @@ public class FolderMessageCache {
         }
     }
     
+    /**
+     * Updates the index and flags of a batch of cached messages, such as
+     * those provided by a folder refresh.  Messages whose index and flags
+     * have not changed are skipped, so their pages are neither loaded nor
+     * marked for commit.
+     *
+     * @param folder the folder containing the messages
+     * @param messages the messages to update
+     * @return the provided messages that were found in the cache
+     */
+    public FolderMessage[] updateFolderMessages(FolderTreeItem folder, FolderMessage[] messages) {
+        Vector foundMessages = new Vector(messages.length);
+        synchronized(lockObj) {
+            CacheEntry cacheEntry = checkAndLoadFolderCache(folder);
+            for(int i=0; i<messages.length; i++) {
+                String messageUid = messages[i].getMessageToken().getMessageUid();
+                Page page = cacheEntry.findPage(messageUid);
+                if(page == null) { continue; }
+                
+                foundMessages.addElement(messages[i]);
+                if(page.isMessageChanged(messageUid, messages[i])) {
+                    updateFolderMessage(page, messages[i]);
+                }
+            }
+        }
+        FolderMessage[] result = new FolderMessage[foundMessages.size()];
+        foundMessages.copyInto(result);
+        return result;
+    }
+    
+    private void updateFolderMessage(Page page, FolderMessage message) {
+        String messageUid = message.getMessageToken().getMessageUid();
+        FolderMessage existingMessage = (FolderMessage)loadPage(page).get(messageUid);
+        existingMessage.setIndex(message.getIndex());
+        existingMessage.setFlags(message.getFlags());
+        page.putMessage(messageUid, existingMessage);
+    }
+    
     public void removeFolder(FolderTreeItem folder) {
         synchronized(lockObj) {
             cacheObject.removeFolder(folder);
-            cachedFolderMap.remove(folder);
+            CacheEntry cacheEntry = (CacheEntry)cachedFolderMap.remove(folder);
+            if(cacheEntry != null && cacheEntry.pages != null) {
+                int size = cacheEntry.pages.size();
+                for(int i=0; i<size; i++) {
+                    loadedPages.removeElement(cacheEntry.pages.elementAt(i));
+                }
+            }
+            structureChanged = true;
         }
     }
     
@@ -178,20 +330,61 @@ public class FolderMessageCache {
     private CacheEntry checkAndLoadFolderCache(FolderTreeItem folder) {
         CacheEntry cacheEntry = (CacheEntry)cachedFolderMap.get(folder);
         if(cacheEntry == null) {
-            cacheEntry = new CacheEntry();
-            cacheEntry.setLoaded(true);
+            cacheEntry = new CacheEntry(folder);
+            cacheEntry.pages = new Vector();
+            cacheEntry.pageMap = new Hashtable();
             cachedFolderMap.put(folder, cacheEntry);
         }
-        else if(!cacheEntry.isLoaded()) {
-            FolderMessage[] messages = cacheObject.getFolderMessages(folder);
-            for(int i=0; i<messages.length; i++) {
-                cacheEntry.addFolderMessage(messages[i]);
+        else if(cacheEntry.pages == null) {
+            Vector segments = cacheObject.getFolderSegments(folder);
+            if(segments == null) {
+                segments = cacheObject.migrateFolderMessages(folder, pageSize);
+                if(segments != null) {
+                    structureChanged = true;
+                }
+            }
+            
+            cacheEntry.pages = new Vector();
+            cacheEntry.pageMap = new Hashtable();
+            if(segments != null) {
+                cacheEntry.segments = segments;
+                int size = segments.size();
+                for(int i=0; i<size; i++) {
+                    cacheEntry.addPage(new Page((Hashtable)segments.elementAt(i)));
+                }
             }
-            cacheEntry.setLoaded(true);
         }
         return cacheEntry;
     }
     
+    /**
+     * Gets the messages contained within a page, loading them if necessary,
+     * and marks the page as the most recently used.  If too many pages are
+     * loaded as a result, the least recently used page is unloaded.
+     *
+     * @param page the page to load
+     * @return map of message UIDs to <code>FolderMessage</code> objects
+     */
+    private Hashtable loadPage(Page page) {
+        if(page.messageMap == null) {
+            page.load();
+        }
+        else if(!loadedPages.isEmpty() && loadedPages.lastElement() == page) {
+            return page.messageMap;
+        }
+        else {
+            loadedPages.removeElement(page);
+        }
+        
+        loadedPages.addElement(page);
+        if(loadedPages.size() > maxLoadedPages) {
+            Page unloadPage = (Page)loadedPages.elementAt(0);
+            loadedPages.removeElementAt(0);
+            unloadPage.messageMap = null;
+        }
+        return page.messageMap;
+    }
+    
     /**
      * Restore the persisted contents of the folder message cache.
      * This method should only be called once.
@@ -200,7 +393,7 @@ public class FolderMessageCache {
         synchronized(lockObj) {
             FolderTreeItem[] folders = cacheObject.getFolders();
             for(int i=0; i<folders.length; i++) {
-                cachedFolderMap.put(folders[i], new CacheEntry());
+                cachedFolderMap.put(folders[i], new CacheEntry(folders[i]));
             }
         }
     }
@@ -208,19 +401,57 @@ public class FolderMessageCache {
     /**
      * Commit the contents of the folder message cache to the persistent store.
      * This method should be called at the end of any batch of operations.
+     * If folders or pages have been added or removed, the whole cache object
+     * is committed.  Otherwise, only the pages that have changed are
+     * committed.
      */
     public void commit() {
         synchronized(lockObj) {
-            // Resort any message lists containing updated messages
+            boolean commitAll = structureChanged;
             Enumeration e = cachedFolderMap.elements();
             while(e.hasMoreElements()) {
-                ((CacheEntry)e.nextElement()).sortIfNecessary();
+                CacheEntry cacheEntry = (CacheEntry)e.nextElement();
+                if(cacheEntry.pages == null) { continue; }
+                int size = cacheEntry.pages.size();
+                for(int i=0; i<size; i++) {
+                    Page page = (Page)cacheEntry.pages.elementAt(i);
+                    if(page.changed) {
+                        if(!commitAll) {
+                            commitSegment(page.segment);
+                        }
+                        page.changed = false;
+                    }
+                }
             }
             
-            persistentObject.commit();
+            if(commitAll) {
+                persistentObject.commit();
+                structureChanged = false;
+            }
         }
     }
 
+    /**
+     * Commits a single changed page segment to the persistent store.
+     *
+     * @param segment the page segment to commit
+     */
+    protected void commitSegment(Hashtable segment) {
+        PersistentObject.commit(segment);
+    }
+    
+    /**
+     * Gets the number of pages currently loaded.
+     * This method is intended for use by tests.
+     *
+     * @return the number of loaded pages
+     */
+    protected int getLoadedPageCount() {
+        synchronized(lockObj) {
+            return loadedPages.size();
+        }
+    }
+    
     /**
      * Clear the contents of the folder message cache, without actually deleting
      * the persistent store object.  This method is intended to be called in
@@ -229,8 +460,10 @@ public class FolderMessageCache {
     public void clear() {
         synchronized(lockObj) {
             cachedFolderMap.clear();
+            loadedPages.removeAllElements();
             cacheObject.clear();
             persistentObject.commit();
+            structureChanged = false;
         }
     }
     
@@ -243,80 +476,184 @@ public class FolderMessageCache {
     public void destroy() {
         synchronized(lockObj) {
             cachedFolderMap.clear();
+            loadedPages.removeAllElements();
             PersistentStore.destroyPersistentObject(cacheObjectKey);
         }
     }
     
-    private static class CacheEntry {
-        private boolean loaded;
-        private boolean messagesUpdated;
-        private final BigVector messageList = new BigVector();
-        private final Hashtable messageMap = new Hashtable();
+    private class CacheEntry {
+        private final FolderTreeItem folder;
+        /** Persisted segments, or null if the folder has none yet */
+        private Vector segments;
+        /** Pages for the folder, or null if not yet loaded */
+        private Vector pages;
+        /** Map of message UIDs to the <code>Page</code> containing them, loaded with the pages */
+        private Hashtable pageMap;
         
-        public void setLoaded(boolean loaded) {
-            this.loaded = loaded;
+        public CacheEntry(FolderTreeItem folder) {
+            this.folder = folder;
         }
-
-        public boolean isLoaded() {
-            return loaded;
+        
+        public Page findPage(String messageUid) {
+            return (Page)pageMap.get(messageUid);
         }
         
-        public FolderMessage[] getFolderMessages() {
-            int size = messageList.size();
-            FolderMessage[] result = new FolderMessage[size];
-            messageList.copyInto(0, size, result, 0);
-            return result;
+        public void addPage(Page page) {
+            pages.addElement(page);
+            Enumeration e = page.segment.keys();
+            while(e.hasMoreElements()) {
+                pageMap.put(e.nextElement(), page);
+            }
         }
         
-        public boolean addFolderMessage(FolderMessage message) {
-            String messageUid = message.getMessageToken().getMessageUid();
-            if(!messageMap.containsKey(messageUid)) {
-                messageList.insertElement(FolderMessage.getComparator(), message);
-                messageMap.put(messageUid, message);
-                return true;
+        public void putMessage(Page page, String messageUid, FolderMessage message) {
+            page.putMessage(messageUid, message);
+            pageMap.put(messageUid, page);
+        }
+        
+        public void removeMessage(Page page, String messageUid) {
+            page.removeMessage(messageUid);
+            pageMap.remove(messageUid);
+        }
+        
+        public Page getPageForAdd() {
+            if(!pages.isEmpty()) {
+                Page page = (Page)pages.lastElement();
+                if(page.segment.size() < pageSize) {
+                    return page;
+                }
             }
-            else {
-                return false;
+            
+            if(segments == null) {
+                segments = cacheObject.addFolder(folder);
             }
+            Hashtable segment = new Hashtable();
+            segments.addElement(segment);
+            Page page = new Page(segment);
+            page.messageMap = new Hashtable();
+            addPage(page);
+            loadPage(page);
+            structureChanged = true;
+            return page;
         }
-
-        public FolderMessage getFolderMessage(MessageToken messageToken) {
-            String messageUid = messageToken.getMessageUid();
-            return (FolderMessage)messageMap.get(messageUid);
+        
+        public void removePage(Page page) {
+            pages.removeElement(page);
+            Enumeration e = page.segment.keys();
+            while(e.hasMoreElements()) {
+                pageMap.remove(e.nextElement());
+            }
+            segments.removeElement(page.segment);
+            loadedPages.removeElement(page);
+            structureChanged = true;
         }
         
-        public boolean removeFolderMessage(FolderMessage message) {
-            if(messageList.removeElement(FolderMessage.getComparator(), message)) {
-                messageMap.remove(message.getMessageToken().getMessageUid());
-                return true;
+        /**
+         * Gets the lowest message index that needs to be included to return
+         * the requested number of messages with the highest indices.
+         */
+        public int getMinimumIndex(int count) {
+            int total = 0;
+            int size = pages.size();
+            for(int i=0; i<size; i++) {
+                total += ((Page)pages.elementAt(i)).segment.size();
             }
-            else {
-                return false;
+            if(count >= total) { return Integer.MIN_VALUE; }
+            if(count <= 0) { return Integer.MAX_VALUE; }
+            
+            int[] indices = new int[total];
+            int j = 0;
+            for(int i=0; i<size; i++) {
+                Enumeration e = ((Page)pages.elementAt(i)).segment.elements();
+                while(e.hasMoreElements()) {
+                    indices[j++] = getIndex((PersistableFolderMessage)e.nextElement());
+                }
+            }
+            Arrays.sort(indices, 0, total);
+            return indices[total - count];
+        }
+    }
+    
+    private static class Page {
+        /** Persisted map of message UIDs to <code>PersistableFolderMessage</code> objects */
+        private final Hashtable segment;
+        /** Map of message UIDs to <code>FolderMessage</code> objects, or null if not loaded */
+        private Hashtable messageMap;
+        private boolean changed;
+        
+        public Page(Hashtable segment) {
+            this.segment = segment;
+        }
+        
+        public void load() {
+            messageMap = createMessageMap();
+        }
+        
+        public Hashtable createMessageMap() {
+            Hashtable result = new Hashtable(segment.size());
+            Enumeration e = segment.keys();
+            while(e.hasMoreElements()) {
+                Object key = e.nextElement();
+                Object element = segment.get(key);
+                if(element instanceof PersistableFolderMessage) {
+                    result.put(key, new FolderMessage((PersistableFolderMessage)element));
+                }
             }
+            return result;
         }
         
-        public FolderMessage updateFolderMessage(FolderMessage message) {
-            FolderMessage existingMessage = (FolderMessage)messageMap.get(message.getMessageToken().getMessageUid());
-            if(existingMessage != null) {
-                existingMessage.setIndex(message.getIndex());
-                existingMessage.setFlags(message.getFlags());
-                messagesUpdated = true;
-                return existingMessage;
+        public void putMessage(String messageUid, FolderMessage message) {
+            PersistableFolderMessage persistableMessage = message.getPersistable();
+            ObjectGroup.createGroup(persistableMessage);
+            segment.put(messageUid, persistableMessage);
+            if(messageMap != null) {
+                messageMap.put(messageUid, message);
             }
-            else {
-                return null;
+            changed = true;
+        }
+        
+        public void removeMessage(String messageUid) {
+            segment.remove(messageUid);
+            if(messageMap != null) {
+                messageMap.remove(messageUid);
             }
+            changed = true;
         }
         
-        public void sortIfNecessary() {
-            if(messagesUpdated) {
-                messageList.sort(FolderMessage.getComparator());
-                messagesUpdated = false;
+        /**
+         * Checks whether the index or flags of a message differ from what is
+         * in this page, without loading the page.
+         */
+        public boolean isMessageChanged(String messageUid, FolderMessage message) {
+            int index;
+            int flags;
+            if(messageMap != null) {
+                FolderMessage existingMessage = (FolderMessage)messageMap.get(messageUid);
+                index = existingMessage.getIndex();
+                flags = existingMessage.getFlags().getFlags();
+            }
+            else {
+                PersistableFolderMessage persistableMessage =
+                    (PersistableFolderMessage)segment.get(messageUid);
+                index = getIndex(persistableMessage);
+                Object value = persistableMessage.getElement(PersistableFolderMessage.FIELD_MESSAGEFLAGS);
+                flags = (value instanceof Integer) ? ((Integer)value).intValue() : 0;
             }
+            return index != message.getIndex() || flags != message.getFlags().getFlags();
         }
         
-        public boolean isEmpty() {
-            return messageList.isEmpty();
+        public int getMaximumIndex() {
+            int result = Integer.MIN_VALUE;
+            Enumeration e = segment.elements();
+            while(e.hasMoreElements()) {
+                result = Math.max(result, getIndex((PersistableFolderMessage)e.nextElement()));
+            }
+            return result;
         }
     }
+    
+    private static int getIndex(PersistableFolderMessage persistableMessage) {
+        Object value = persistableMessage.getElement(PersistableFolderMessage.FIELD_INDEX);
+        return (value instanceof Integer) ? ((Integer)value).intValue() : 0;
+    }
 }
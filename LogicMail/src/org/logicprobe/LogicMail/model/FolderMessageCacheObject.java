@@ -36,8 +36,6 @@ import java.util.Vector;
 
 import org.logicprobe.LogicMail.mail.FolderTreeItem;
 import org.logicprobe.LogicMail.mail.PersistableFolderTreeItem;
-import org.logicprobe.LogicMail.message.FolderMessage;
-import org.logicprobe.LogicMail.message.PersistableFolderMessage;
 
 import net.rim.device.api.system.ObjectGroup;
 import net.rim.device.api.util.LongHashtable;
@@ -50,6 +48,12 @@ import net.rim.device.api.util.Persistable;
  * Special care needs to be taken to ensure that all of the fields of this
  * class are in a raw form for persistence.  
  * </p>
+ * <p>
+ * The messages for each folder are split into segments, each of which is
+ * a <code>Hashtable</code> mapping message token <code>String</code> UIDs to
+ * <code>PersistableFolderMessage</code> objects.  This allows segments to
+ * be loaded and committed individually.
+ * </p>
  */
 public class FolderMessageCacheObject implements Persistable {
     /**
@@ -62,9 +66,17 @@ public class FolderMessageCacheObject implements Persistable {
      * Map of folder Unique IDs to <code>Hashtable</code> instances that map
      * message token <code>String</code> UIDs to serialized
      * <code>FolderMessage</code> objects.
+     * This is only used by data persisted before messages were split into
+     * segments, and is migrated as folders are accessed.
      */
     private LongHashtable cachedMessages;
     
+    /**
+     * Map of folder Unique IDs to <code>Vector</code> instances containing
+     * the message segments for each folder.
+     */
+    private LongHashtable cachedSegments;
+    
     /**
      * Instantiates a new folder message cache object, when creating for the
      * first time.  This constructor is not expected to be called when this
@@ -79,6 +91,9 @@ public class FolderMessageCacheObject implements Persistable {
             cachedFolders = new LongHashtable();
             cachedMessages = new LongHashtable();
         }
+        if(cachedSegments == null) {
+            cachedSegments = new LongHashtable();
+        }
     }
     
     public FolderTreeItem[] getFolders() {
@@ -108,69 +123,79 @@ public class FolderMessageCacheObject implements Persistable {
     }
     
     public void removeFolder(FolderTreeItem folder) {
+        initializeIfNecessary();
         cachedFolders.remove(folder.getUniqueId());
         cachedMessages.remove(folder.getUniqueId());
+        cachedSegments.remove(folder.getUniqueId());
     }
     
-    public FolderMessage[] getFolderMessages(FolderTreeItem folder) {
-        FolderMessage[] result;
-        if(cachedMessages != null && cachedMessages.containsKey(folder.getUniqueId())) {
-            Hashtable messageTable = (Hashtable)cachedMessages.get(folder.getUniqueId());
-            Vector loadedMessages = new Vector(messageTable.size());
-            Enumeration e = messageTable.elements();
-            while(e.hasMoreElements()) {
-                Object element = e.nextElement();
-                if(element instanceof PersistableFolderMessage) {
-                    PersistableFolderMessage persistableMessage = (PersistableFolderMessage)element;
-                    FolderMessage message = new FolderMessage(persistableMessage);
-                    loadedMessages.addElement(message);
-                }
-            }
-            result = new FolderMessage[loadedMessages.size()];
-            loadedMessages.copyInto(result);
-        }
-        else {
-            result = new FolderMessage[0];
-        }
-        return result;
+    /**
+     * Gets the message segments for a folder.
+     *
+     * @param folder the folder
+     * @return the <code>Vector</code> of segments, or null if the folder has
+     *     no segments
+     */
+    public Vector getFolderSegments(FolderTreeItem folder) {
+        initializeIfNecessary();
+        return (Vector)cachedSegments.get(folder.getUniqueId());
     }
     
-    public void addFolderMessage(FolderTreeItem folder, FolderMessage message) {
+    /**
+     * Moves the messages of a folder that was persisted before messages were
+     * split into segments into new segments.
+     *
+     * @param folder the folder
+     * @param segmentSize the maximum number of messages per segment
+     * @return the <code>Vector</code> of segments, or null if the folder had
+     *     no messages to move
+     */
+    public Vector migrateFolderMessages(FolderTreeItem folder, int segmentSize) {
+        initializeIfNecessary();
         Hashtable messageTable = (Hashtable)cachedMessages.get(folder.getUniqueId());
         if(messageTable == null) {
-            messageTable = new Hashtable();
-            PersistableFolderTreeItem persistableFolder = folder.getPersistable();
-            ObjectGroup.createGroup(persistableFolder);
-            cachedFolders.put(folder.getUniqueId(), persistableFolder);
-            cachedMessages.put(folder.getUniqueId(), messageTable);
+            return null;
         }
-        PersistableFolderMessage persistableMessage = message.getPersistable();
-        ObjectGroup.createGroup(persistableMessage);
-        messageTable.put(message.getMessageToken().getMessageUid(), persistableMessage);
-    }
-
-    public void removeFolderMessage(FolderTreeItem folder, FolderMessage message) {
-        Hashtable messageTable = (Hashtable)cachedMessages.get(folder.getUniqueId());
-        if(messageTable != null) {
-            messageTable.remove(message.getMessageToken().getMessageUid());
-            if(messageTable.isEmpty()) {
-                cachedMessages.remove(folder.getUniqueId());
+        
+        Vector segments = new Vector();
+        Hashtable segment = null;
+        Enumeration e = messageTable.keys();
+        while(e.hasMoreElements()) {
+            if(segment == null || segment.size() >= segmentSize) {
+                segment = new Hashtable();
+                segments.addElement(segment);
             }
+            Object key = e.nextElement();
+            segment.put(key, messageTable.get(key));
         }
+        cachedSegments.put(folder.getUniqueId(), segments);
+        cachedMessages.remove(folder.getUniqueId());
+        return segments;
     }
-
-    public void updateFolderMessage(FolderTreeItem folder, FolderMessage message) {
-        String messageUid = message.getMessageToken().getMessageUid();
-        Hashtable messageTable = (Hashtable)cachedMessages.get(folder.getUniqueId());
-        if(messageTable != null && messageTable.containsKey(messageUid)) {
-            PersistableFolderMessage persistableMessage = message.getPersistable();
-            ObjectGroup.createGroup(persistableMessage);
-            messageTable.put(messageUid, persistableMessage);
+    
+    /**
+     * Adds a folder to the cache, if it is not already present.
+     *
+     * @param folder the folder
+     * @return the <code>Vector</code> of segments for the folder
+     */
+    public Vector addFolder(FolderTreeItem folder) {
+        initializeIfNecessary();
+        Vector segments = (Vector)cachedSegments.get(folder.getUniqueId());
+        if(segments == null) {
+            segments = new Vector();
+            PersistableFolderTreeItem persistableFolder = folder.getPersistable();
+            ObjectGroup.createGroup(persistableFolder);
+            cachedFolders.put(folder.getUniqueId(), persistableFolder);
+            cachedSegments.put(folder.getUniqueId(), segments);
         }
+        return segments;
     }
     
     public void clear() {
+        initializeIfNecessary();
         cachedFolders.clear();
         cachedMessages.clear();
+        cachedSegments.clear();
     }
 }
@@ -33,11 +33,16 @@ package org.logicprobe.LogicMail.model;
 import java.util.Date;
 import java.util.Vector;
 
+import net.rim.device.api.system.EventLogger;
+
+import org.logicprobe.LogicMail.AnalyticsDataCollector;
+import org.logicprobe.LogicMail.AppInfo;
 import org.logicprobe.LogicMail.conf.MailSettings;
 import org.logicprobe.LogicMail.mail.ConnectionHandlerRequest;
 import org.logicprobe.LogicMail.mail.FolderTreeItem;
 import org.logicprobe.LogicMail.mail.MailStoreRequest;
 import org.logicprobe.LogicMail.mail.MailStoreRequestCallback;
+import org.logicprobe.LogicMail.mail.MessageFlagChangeRequest;
 import org.logicprobe.LogicMail.mail.MessageToken;
 import org.logicprobe.LogicMail.mail.NetworkMailStore;
 import org.logicprobe.LogicMail.message.FolderMessage;
@@ -78,6 +83,16 @@ abstract class FolderRequestHandler {
      */
     private final Vector postRefreshTasks = new Vector();
     
+    /**
+     * Flag change requests issued by the post-refresh tasks, which are
+     * collected so they can be submitted to the mail store together.
+     * This is only set while those tasks are running.
+     */
+    private volatile Vector postRefreshRequests;
+    
+    /** Thread that is running the post-refresh tasks. */
+    private volatile Thread postRefreshThread;
+    
     /** Indicates that the initial refresh has completed. */
     private volatile boolean initialRefreshComplete;
     
@@ -238,7 +253,10 @@ abstract class FolderRequestHandler {
      * Loads cached folder messages, and populates the <code>orphanedMessageSet</code>
      * with them.  If the cache has not already been loaded, then corresponding
      * events are fired to notify listeners of the messages.  The load order is
-     * determined by the global message display order setting.
+     * determined by the global message display order setting.  Only the
+     * messages within the account's retention limit are displayed, and those
+     * are read through the cache's windowed read so that large folders do not
+     * cycle every page through the loaded page set.
      */
     protected FolderMessage[] loadCachedFolderMessages() {
         boolean dispOrder = MailSettings.getInstance().getGlobalConfig().getDispOrder();
@@ -258,22 +276,31 @@ abstract class FolderRequestHandler {
             // skip notifying mail store listeners.  However, we still have to
             // add them to the orphan set, as seen above.
             if(!cacheLoaded) {
+                FolderMessage[] displayMessages = messages;
+                int displayLimit = mailStore.getAccountConfig().getMaximumFolderMessages();
+                if(displayLimit > 0 && messages.length > displayLimit) {
+                    displayMessages = folderMessageCache.getFolderMessages(folderTreeItem, displayLimit);
+                    for(int i=0; i<displayMessages.length; i++) {
+                        displayMessages[i].getFlags().setRecent(false);
+                    }
+                }
+                
                 if(dispOrder) {
-                    for(int i=0; i<messages.length; i+=5) {
-                        int endIndex = Math.min(i + 5, messages.length);
+                    for(int i=0; i<displayMessages.length; i+=5) {
+                        int endIndex = Math.min(i + 5, displayMessages.length);
                         FolderMessage[] subset = new FolderMessage[endIndex - i];
                         for(int j=0; j<subset.length; j++) {
-                            subset[j] = messages[i + j];
+                            subset[j] = displayMessages[i + j];
                         }
                         mailStoreServices.fireFolderMessagesAvailable(folderTreeItem, subset, false, false);
                     }
                 }
                 else {
-                    for(int i=messages.length-1; i >= 0; i-=5) {
+                    for(int i=displayMessages.length-1; i >= 0; i-=5) {
                         int startIndex = Math.max(i - 4, 0);
                         FolderMessage[] subset = new FolderMessage[i - startIndex + 1];
                         for(int j=0; j<subset.length; j++) {
-                            subset[j] = messages[i - j];
+                            subset[j] = displayMessages[i - j];
                         }
                         mailStoreServices.fireFolderMessagesAvailable(folderTreeItem, subset, false, false);
                     }
@@ -310,15 +337,7 @@ abstract class FolderRequestHandler {
     
     void handleFolderMessageFlagsAvailable(FolderMessage[] messages) {
         if(messages != null) {
-            Vector updatedMessages = new Vector(messages.length);
-            for(int i=0; i<messages.length; i++) {
-                if(folderMessageCache.updateFolderMessage(folderTreeItem, messages[i])) {
-                    updatedMessages.addElement(messages[i]);
-                }
-            }
-            messages = new FolderMessage[updatedMessages.size()];
-            updatedMessages.copyInto(messages);
-
+            messages = folderMessageCache.updateFolderMessages(folderTreeItem, messages);
         }
         else {
             folderMessageCache.commit();
@@ -392,9 +411,49 @@ abstract class FolderRequestHandler {
         }
         
         if(tasksToRun != null) {
-            int size = tasksToRun.size();
-            for(int i=0; i<size; i++) {
-                mailStoreServices.invokeLater((Runnable)tasksToRun.elementAt(i));
+            final PostRefreshRunnable[] tasks = new PostRefreshRunnable[tasksToRun.size()];
+            tasksToRun.copyInto(tasks);
+            mailStoreServices.invokeLater(new Runnable() {
+                public void run() {
+                    runPostRefreshTasks(tasks);
+                }
+            });
+        }
+    }
+    
+    /**
+     * Runs the tasks that were waiting for a refresh to complete.
+     * Any flag changes requested by these tasks are submitted to the mail
+     * store as a single batch, so they can be sent to the server together.
+     * A task that fails is logged, and does not prevent the remaining tasks
+     * from running.
+     *
+     * @param tasks the tasks to run
+     */
+    private void runPostRefreshTasks(PostRefreshRunnable[] tasks) {
+        Vector requests = new Vector();
+        postRefreshRequests = requests;
+        postRefreshThread = Thread.currentThread();
+        try {
+            for(int i=0; i<tasks.length; i++) {
+                try {
+                    tasks[i].run();
+                } catch (Throwable exp) {
+                    EventLogger.logEvent(AppInfo.GUID,
+                            ("Post-refresh task failed: " + exp.toString()).getBytes(),
+                            EventLogger.ERROR);
+                    AnalyticsDataCollector.getInstance().onApplicationError(
+                            "Post-refresh task failed: " + exp.toString());
+                }
+            }
+        } finally {
+            postRefreshThread = null;
+            postRefreshRequests = null;
+            
+            if(!requests.isEmpty()) {
+                MailStoreRequest[] requestArray = new MailStoreRequest[requests.size()];
+                requests.copyInto(requestArray);
+                mailStore.processRequests(requestArray);
             }
         }
     }
@@ -573,7 +632,15 @@ abstract class FolderRequestHandler {
     
     protected void processMailStoreRequest(MailStoreRequest request) {
         ((ConnectionHandlerRequest)request).setDeliberate(refreshInProgressDeliberate);
-        mailStore.processRequest(request);
+        
+        Vector requests = postRefreshRequests;
+        if(requests != null && request instanceof MessageFlagChangeRequest
+                && postRefreshThread == Thread.currentThread()) {
+            requests.addElement(request);
+        }
+        else {
+            mailStore.processRequest(request);
+        }
     }
 
     /**
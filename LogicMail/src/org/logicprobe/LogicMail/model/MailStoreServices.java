@@ -30,6 +30,7 @@
  */
 package org.logicprobe.LogicMail.model;
 
+import java.io.IOException;
 import java.util.Date;
 
 import org.logicprobe.LogicMail.mail.AbstractMailStore;
@@ -52,6 +53,7 @@ import org.logicprobe.LogicMail.message.MessageFlags;
 import org.logicprobe.LogicMail.message.MessageMimeConverter;
 import org.logicprobe.LogicMail.message.MimeMessageContent;
 import org.logicprobe.LogicMail.message.MimeMessagePart;
+import org.logicprobe.LogicMail.util.DataSpool;
 import org.logicprobe.LogicMail.util.EventListenerList;
 import org.logicprobe.LogicMail.util.MailMessageParser;
 
@@ -221,11 +223,12 @@ public abstract class MailStoreServices {
         if(!mailStore.hasAppend()) {
             return;
         }
-        String rawMessage = message.getMessageSource();
-        if(rawMessage == null) {
+        String messageSource = message.getMessageSource();
+        if(messageSource == null) {
             // Generate the message source
-            rawMessage = message.toMimeMessage(false);
+            messageSource = message.toMimeMessage(false);
         }
+        DataSpool rawMessage = new DataSpool(messageSource);
 
         // Generate the protocol-layer-compatible flag object
         int flags = message.getFlags();
@@ -270,7 +273,7 @@ public abstract class MailStoreServices {
             return;
         }
         // Generate the message source
-        String rawMessage = generateRawMessage(envelope, message);
+        DataSpool rawMessage = generateRawMessage(envelope, message);
 
         // Append the message to the folder
         requestMessageAppendRawImpl(
@@ -286,14 +289,18 @@ public abstract class MailStoreServices {
      * @param message The message to transform
      * @return The raw source
      */
-    private static String generateRawMessage(MessageEnvelope envelope, Message message) {
-        StringBuffer buf = new StringBuffer();
-        buf.append(MailMessageParser.generateMessageHeaders(envelope, false));
+    private static DataSpool generateRawMessage(MessageEnvelope envelope, Message message) {
+        DataSpool rawMessage = new DataSpool(
+                MailMessageParser.generateMessageHeaders(envelope, false));
         
         MessageMimeConverter messageMime = new MessageMimeConverter(message);
-        buf.append(messageMime.toMimeString());
+        try {
+            messageMime.writeMime(rawMessage);
+        } catch (IOException e) {
+            // Writing to a spool cannot fail, and conversion errors
+            // are already logged by the converter.
+        }
 
-        String rawMessage = buf.toString();
         return rawMessage;
     }
     
@@ -310,7 +317,7 @@ public abstract class MailStoreServices {
      * @param rawMessage Message to append
      * @param initialFlags Initial flags for the message
      */
-    public void requestMessageAppend(FolderTreeItem folderTreeItem, String rawMessage, MessageFlags initialFlags) {
+    public void requestMessageAppend(FolderTreeItem folderTreeItem, DataSpool rawMessage, MessageFlags initialFlags) {
         // Sanity check
         if(!mailStore.hasAppend()) {
             return;
@@ -320,7 +327,7 @@ public abstract class MailStoreServices {
     
     private void requestMessageAppendRawImpl(
             final FolderTreeItem folderTreeItem,
-            final String rawMessage,
+            final DataSpool rawMessage,
             final MessageFlags messageFlags) {
         
         mailStore.processRequest(mailStore.createMessageAppendRequest(
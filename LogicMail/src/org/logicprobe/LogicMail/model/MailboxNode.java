@@ -57,6 +57,7 @@ import org.logicprobe.LogicMail.message.FolderMessage;
 import org.logicprobe.LogicMail.message.Message;
 import org.logicprobe.LogicMail.message.MessageEnvelope;
 import org.logicprobe.LogicMail.message.MessageFlags;
+import org.logicprobe.LogicMail.util.DataSpool;
 import org.logicprobe.LogicMail.util.EventListenerList;
 import org.logicprobe.LogicMail.util.Serializable;
 import org.logicprobe.LogicMail.util.SerializationUtils;
@@ -381,7 +382,7 @@ public class MailboxNode implements Node, Serializable {
 	 * @param rawMessage Message to append
 	 * @param initialFlags Initial flags for the message
 	 */
-	public void appendRawMessage(String rawMessage, MessageFlags initialFlags) {
+	public void appendRawMessage(DataSpool rawMessage, MessageFlags initialFlags) {
 		parentAccount.getMailStoreServices().requestMessageAppend(
 		        this.folderTreeItem, rawMessage, initialFlags);
 	}
@@ -0,0 +1,170 @@
+/*-
+ * Copyright (c) 2011, Derek Konigsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution. 
+ * 3. Neither the name of the project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.logicprobe.LogicMail.model;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.microedition.io.Connector;
+import javax.microedition.io.file.FileConnection;
+
+import net.rim.device.api.util.CRC32;
+
+import org.logicprobe.LogicMail.util.StringParser;
+
+/**
+ * Stores large message content payloads in files named by their checksum
+ * and length, so that identical payloads referenced from several message
+ * content files are only stored once.
+ * <p>
+ * Blob files are cache entries like any other, and may be evicted while
+ * still referenced.  Content that references a missing blob is treated as
+ * not being in the cache.
+ * </p>
+ */
+class MessageContentBlobStore {
+    /** Minimum payload size for storing content in a blob file */
+    public static final int MIN_BLOB_SIZE = 4096;
+    
+    private static String BLOB_SUFFIX = ".blob";
+    
+    private final String blobDirUrl;
+    private final MessageContentCacheUsage usage;
+    private int duplicateCount;
+    private long duplicateSize;
+    
+    /**
+     * Instantiates a new blob store.
+     *
+     * @param blobDirUrl the URL of the directory for blob files, which must exist
+     * @param usage the usage tracker to update as blobs are accessed
+     */
+    public MessageContentBlobStore(String blobDirUrl, MessageContentCacheUsage usage) {
+        this.blobDirUrl = blobDirUrl;
+        this.usage = usage;
+    }
+    
+    /**
+     * Stores a payload, if an identical one is not already stored.
+     *
+     * @param data the payload data
+     * @param checksum the CRC-32 checksum of the payload data
+     */
+    public void putBlob(byte[] data, int checksum) throws IOException {
+        String blobUrl = getBlobUrl(checksum, data.length);
+        long now = System.currentTimeMillis();
+        
+        FileConnection fileConnection = (FileConnection)Connector.open(blobUrl);
+        try {
+            if(fileConnection.exists() && fileConnection.fileSize() == data.length) {
+                duplicateCount++;
+                duplicateSize += data.length;
+                if(!usage.touch(blobUrl, now)) {
+                    usage.update(blobUrl, data.length, now);
+                }
+                return;
+            }
+            
+            if(fileConnection.exists()) {
+                fileConnection.truncate(0);
+            }
+            else {
+                fileConnection.create();
+            }
+            OutputStream output = fileConnection.openOutputStream();
+            output.write(data);
+            output.close();
+            usage.update(blobUrl, data.length, now);
+        } finally {
+            fileConnection.close();
+        }
+    }
+    
+    /**
+     * Gets a stored payload.
+     *
+     * @param checksum the CRC-32 checksum of the payload data
+     * @param length the length of the payload data
+     * @return the payload data, or <code>null</code> if it is not available
+     */
+    public byte[] getBlob(int checksum, int length) throws IOException {
+        String blobUrl = getBlobUrl(checksum, length);
+        FileConnection fileConnection = (FileConnection)Connector.open(blobUrl);
+        try {
+            if(!fileConnection.exists() || fileConnection.fileSize() != length) {
+                return null;
+            }
+            
+            byte[] data = new byte[length];
+            DataInputStream input = fileConnection.openDataInputStream();
+            try {
+                input.readFully(data);
+            } finally {
+                input.close();
+            }
+            
+            if(CRC32.update(CRC32.INITIAL_VALUE, data) != checksum) {
+                return null;
+            }
+            
+            usage.touch(blobUrl, System.currentTimeMillis());
+            return data;
+        } finally {
+            fileConnection.close();
+        }
+    }
+    
+    /**
+     * Gets the number of payloads that were not stored again because an
+     * identical payload was already stored.
+     */
+    public int getDuplicateCount() {
+        return duplicateCount;
+    }
+    
+    /**
+     * Gets the total size of the payloads that were not stored again because
+     * an identical payload was already stored.
+     */
+    public long getDuplicateSize() {
+        return duplicateSize;
+    }
+    
+    private String getBlobUrl(int checksum, int length) {
+        StringBuffer buf = new StringBuffer(blobDirUrl);
+        buf.append(StringParser.toHexString(checksum & 0xFFFFFFFFL).toLowerCase());
+        buf.append('-');
+        buf.append(StringParser.toHexString(length).toLowerCase());
+        buf.append(BLOB_SUFFIX);
+        return buf.toString();
+    }
+}
@@ -0,0 +1,209 @@
+/*-
+ * Copyright (c) 2011, Derek Konigsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution. 
+ * 3. Neither the name of the project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.logicprobe.LogicMail.model;
+
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Vector;
+
+import net.rim.device.api.util.Arrays;
+import net.rim.device.api.util.Comparator;
+
+/**
+ * Keeps track of the size and last access time of the files in the message
+ * content cache, so that the least recently used files can be selected for
+ * eviction when the cache grows beyond its size limit.
+ */
+class MessageContentCacheUsage {
+    /** Map of file URLs to <code>Entry</code> objects */
+    private final Hashtable entryMap = new Hashtable();
+    private long totalSize;
+    
+    /**
+     * Adds or updates the entry for a file.
+     *
+     * @param fileUrl the file URL
+     * @param size the size of the file
+     * @param accessTime the time the file was last accessed
+     */
+    public void update(String fileUrl, long size, long accessTime) {
+        Entry entry = (Entry)entryMap.get(fileUrl);
+        if(entry == null) {
+            entry = new Entry(fileUrl);
+            entryMap.put(fileUrl, entry);
+        }
+        else {
+            totalSize -= entry.size;
+        }
+        entry.size = size;
+        entry.accessTime = accessTime;
+        totalSize += size;
+    }
+    
+    /**
+     * Updates the access time of a file, if it is being tracked.
+     *
+     * @param fileUrl the file URL
+     * @param accessTime the time the file was accessed
+     * @return true, if the file is being tracked
+     */
+    public boolean touch(String fileUrl, long accessTime) {
+        Entry entry = (Entry)entryMap.get(fileUrl);
+        if(entry != null) {
+            entry.accessTime = accessTime;
+            return true;
+        }
+        else {
+            return false;
+        }
+    }
+    
+    public boolean contains(String fileUrl) {
+        return entryMap.containsKey(fileUrl);
+    }
+    
+    public void remove(String fileUrl) {
+        Entry entry = (Entry)entryMap.remove(fileUrl);
+        if(entry != null) {
+            totalSize -= entry.size;
+        }
+    }
+    
+    /**
+     * Removes the entries for all files with URLs starting with the
+     * provided prefix, such as the files within a directory.
+     *
+     * @param urlPrefix the URL prefix
+     */
+    public void removeAll(String urlPrefix) {
+        Vector matchingUrls = new Vector();
+        Enumeration e = entryMap.keys();
+        while(e.hasMoreElements()) {
+            String fileUrl = (String)e.nextElement();
+            if(fileUrl.startsWith(urlPrefix)) {
+                matchingUrls.addElement(fileUrl);
+            }
+        }
+        int size = matchingUrls.size();
+        for(int i=0; i<size; i++) {
+            remove((String)matchingUrls.elementAt(i));
+        }
+    }
+    
+    /**
+     * Adds entries from another instance for any files that are not already
+     * being tracked by this one.
+     *
+     * @param usage the instance to merge entries from
+     */
+    public void merge(MessageContentCacheUsage usage) {
+        Enumeration e = usage.entryMap.elements();
+        while(e.hasMoreElements()) {
+            Entry entry = (Entry)e.nextElement();
+            if(!entryMap.containsKey(entry.fileUrl)) {
+                update(entry.fileUrl, entry.size, entry.accessTime);
+            }
+        }
+    }
+    
+    /**
+     * Selects the least recently used files that need to be removed to bring
+     * the total size down to the target size.  The entries for the selected
+     * files are not removed.
+     *
+     * @param targetSize the target size
+     * @return the URLs of the files to remove, least recently used first
+     */
+    public String[] selectEvictions(long targetSize) {
+        if(totalSize <= targetSize) {
+            return new String[0];
+        }
+        
+        Entry[] entries = new Entry[entryMap.size()];
+        Enumeration e = entryMap.elements();
+        for(int i=0; i<entries.length; i++) {
+            entries[i] = (Entry)e.nextElement();
+        }
+        Arrays.sort(entries, ACCESS_TIME_COMPARATOR);
+        
+        long remainingSize = totalSize;
+        int count = 0;
+        while(count < entries.length && remainingSize > targetSize) {
+            remainingSize -= entries[count].size;
+            count++;
+        }
+        
+        String[] result = new String[count];
+        for(int i=0; i<count; i++) {
+            result[i] = entries[i].fileUrl;
+        }
+        return result;
+    }
+    
+    public long getTotalSize() {
+        return totalSize;
+    }
+    
+    public int size() {
+        return entryMap.size();
+    }
+    
+    public void clear() {
+        entryMap.clear();
+        totalSize = 0;
+    }
+    
+    private static final Comparator ACCESS_TIME_COMPARATOR = new Comparator() {
+        public int compare(Object o1, Object o2) {
+            long time1 = ((Entry)o1).accessTime;
+            long time2 = ((Entry)o2).accessTime;
+            if(time1 < time2) {
+                return -1;
+            }
+            else if(time1 > time2) {
+                return 1;
+            }
+            else {
+                return 0;
+            }
+        }
+    };
+    
+    private static class Entry {
+        private final String fileUrl;
+        private long size;
+        private long accessTime;
+        
+        public Entry(String fileUrl) {
+            this.fileUrl = fileUrl;
+        }
+    }
+}
@@ -31,6 +31,7 @@
 package org.logicprobe.LogicMail.model;
 
 import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -41,6 +42,10 @@ import org.logicprobe.LogicMail.message.MimeMessagePart;
 import net.rim.device.api.util.Arrays;
 import net.rim.device.api.util.CRC32;
 import net.rim.device.api.util.DataBuffer;
+import net.rim.device.api.util.IntEnumeration;
+import net.rim.device.api.util.IntIntHashtable;
+import net.rim.device.api.util.LongEnumeration;
+import net.rim.device.api.util.LongIntHashtable;
 
 /**
  * Common base class for classes that wrap an open <code>FileConnection</code>
@@ -52,14 +57,16 @@ import net.rim.device.api.util.DataBuffer;
  *  0                   1                   2                   3
  *  0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1
  * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
- * |L M - M S G|0|1|  Off  |   A   |   B   |   C   |   D   |   0   |
+ * |L M - M S G|0|1|  Off  |   A   |   B   |   C   |   D   |  Idx  |
  * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
  * | Message token UID (UTF)                               |  CRC  |
  * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-----------------------+-------+
  * | Part UID      |  Tag  |  Cmp  |  Len  | Content data  |  CRC  |
  * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-----------------------+-------+
  * |                            .  .  .                            |      
- * +---------------------------------------------------------------+
+ * +-------+--------+-------+---+------+-------+-------+---+-------+
+ * |  UIDs |Part UID|  Pos  |...| Tags |  Tag  |  Pos  |...|  CRC  |
+ * +-------+--------+-------+---+------+-------+-------+---+-------+
  * 
  * Notes:
  *     One tick mark represents one byte position.
@@ -73,6 +80,9 @@ import net.rim.device.api.util.DataBuffer;
  * <tr><td>B</td><td>int</td><td>Optional data</td></tr>
  * <tr><td>C</td><td>int</td><td>Optional data</td></tr>
  * <tr><td>D</td><td>int</td><td>Optional data</td></tr>
+ * <tr><td>Idx</td><td>int</td><td>
+ *  Offset of the index block, or <code>0</code> if the file has no index
+ *  block and its content sections need to be read to locate content.</td></tr>
  * <tr><td>CRC</td><td>int</td><td>CRC-32 checksum of the entire header</td></tr>
  * <tr><td>Part UID</td><td>long</td><td><code>MimeMessagePart.getUniqueId()</code></td></tr>
  * <tr><td>Tag</td><td>int</td><td>
@@ -80,16 +90,30 @@ import net.rim.device.api.util.DataBuffer;
  *  part UID has changed or is unavailable.  This is set to <code>0</code> if
  *  the part tag is unset.</td></tr>
  * <tr><td>Cmp</td><td>int</td><td>Is the part complete? (-1, 0, or 1)</td></tr>
- * <tr><td>Len</td><td>int</td><td>Length of the raw data array</td></tr>
+ * <tr><td>Len</td><td>int</td><td>
+ *  Length of the raw data array.  If the content is stored in a separate
+ *  blob file, then this is the bitwise complement of the length, and the
+ *  content data array is omitted.</td></tr>
  * <tr><td>Content data</td><td>byte[]</td><td>Raw content data</td></tr>
  * <tr><td>CRC</td><td>int</td><td>CRC-32 checksum of just the content data array</td></tr>
+ * <tr><td>UIDs</td><td>int</td><td>Number of part UID index entries</td></tr>
+ * <tr><td>Pos</td><td>int</td><td>Offset of the Cmp field of a content section</td></tr>
+ * <tr><td>Tags</td><td>int</td><td>Number of part tag index entries</td></tr>
+ * <tr><td>CRC</td><td>int</td><td>CRC-32 checksum of the index block</td></tr>
  * </table>
+ * The index block always follows the last content section, and is rewritten
+ * whenever content is appended.
  * </p>
  */
 abstract class MessageContentFileBase {
     protected final FileConnection fileConnection;
     protected final String messageUid;
     protected int contentStartOffset;
+    protected int indexOffset;
+    /** Map of part UIDs to content data offsets */
+    protected final LongIntHashtable contentUidMap = new LongIntHashtable();
+    /** Map of part tag hashes to content data offsets */
+    protected final IntIntHashtable contentTagMap = new IntIntHashtable();
     private boolean fileOpened;
     
     protected static final byte[] HEADER_TEMPLATE = {
@@ -109,7 +133,10 @@ abstract class MessageContentFileBase {
     }
     
     public void close() {
+        this.contentUidMap.clear();
+        this.contentTagMap.clear();
         this.contentStartOffset = 0;
+        this.indexOffset = 0;
         this.fileOpened = false;
     }
     
@@ -174,9 +201,121 @@ abstract class MessageContentFileBase {
         }
         
         this.contentStartOffset = fileContentOffset;
+        this.indexOffset = byteArrayToInt(fileHeader, 28);
         return customValues;
     }
     
+    /**
+     * Populates the content maps.  If the file has a valid index block, then
+     * it is read directly.  Otherwise, the content sections are read to build
+     * the maps.
+     *
+     * @param input the input stream, positioned right after the header
+     * @param fileSize the size of the file
+     * @return the offset of the end of the last content section
+     */
+    protected int loadContentMap(InputStream input, int fileSize) throws IOException {
+        DataInputStream dataInput = new DataInputStream(input);
+        if(indexOffset == 0) {
+            buildContentMap(dataInput, fileSize);
+            return fileSize;
+        }
+        
+        skipFully(dataInput, indexOffset - contentStartOffset);
+        byte[] indexData = new byte[fileSize - indexOffset];
+        dataInput.readFully(indexData);
+        if(!readIndex(indexData)) {
+            // The index block is damaged, so fall back to reading the
+            // content sections that precede it
+            contentUidMap.clear();
+            contentTagMap.clear();
+            dataInput = fileConnection.openDataInputStream();
+            try {
+                skipFully(dataInput, contentStartOffset);
+                buildContentMap(dataInput, indexOffset);
+            } finally {
+                dataInput.close();
+            }
+        }
+        return indexOffset;
+    }
+    
+    private void buildContentMap(DataInputStream dataInput, int endOffset) throws IOException {
+        int offset = contentStartOffset;
+        while(offset < endOffset) {
+            long partUid = dataInput.readLong();
+            int partTagHash = dataInput.readInt();
+            skipFully(dataInput, 4); // Ignore the partComplete value here
+            int contentLen = dataInput.readInt();
+
+            // 12 = UID(8) + Tag(4)
+            int dataOffset = offset + 12;
+            
+            // Content stored in a blob file has no data in this file
+            if(contentLen < 0) { contentLen = 0; }
+            
+            skipFully(dataInput, contentLen + 4); // Len + CRC
+            
+            contentUidMap.put(partUid, dataOffset);
+            if(partTagHash != 0) {
+                contentTagMap.put(partTagHash, dataOffset);
+            }
+            
+            // UID(8) + Tag(4) + Cmp(4) + Len(4) + contentLen + CRC(4)
+            offset += 20 + contentLen + 4;
+        }
+    }
+    
+    private boolean readIndex(byte[] indexData) {
+        if(indexData.length < 12) { return false; }
+        int dataLen = indexData.length - 4;
+        int checksum = CRC32.update(CRC32.INITIAL_VALUE, indexData, 0, dataLen);
+        if(checksum != byteArrayToInt(indexData, dataLen)) { return false; }
+        
+        DataBuffer buf = new DataBuffer(indexData, 0, dataLen, true);
+        try {
+            int count = buf.readInt();
+            for(int i=0; i<count; i++) {
+                long partUid = buf.readLong();
+                contentUidMap.put(partUid, buf.readInt());
+            }
+            count = buf.readInt();
+            for(int i=0; i<count; i++) {
+                int partTagHash = buf.readInt();
+                contentTagMap.put(partTagHash, buf.readInt());
+            }
+        } catch (EOFException e) {
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Writes an index block for the current content maps.
+     *
+     * @param buf the buffer to write the index block to
+     */
+    protected void writeIndex(DataBuffer buf) {
+        int start = buf.getLength();
+        buf.writeInt(contentUidMap.size());
+        LongEnumeration e = contentUidMap.keys();
+        while(e.hasMoreElements()) {
+            long partUid = e.nextElement();
+            buf.writeLong(partUid);
+            buf.writeInt(contentUidMap.get(partUid));
+        }
+        buf.writeInt(contentTagMap.size());
+        IntEnumeration e2 = contentTagMap.keys();
+        while(e2.hasMoreElements()) {
+            int partTagHash = e2.nextElement();
+            buf.writeInt(partTagHash);
+            buf.writeInt(contentTagMap.get(partTagHash));
+        }
+        int checksum = CRC32.update(CRC32.INITIAL_VALUE,
+                buf.getArray(), buf.getArrayStart() + start, buf.getLength() - start);
+        buf.writeInt(checksum);
+    }
+    
     protected static final byte[] intToByteArray(int value) {
         return new byte[] {
                 (byte)(value >>> 24),
@@ -185,6 +324,28 @@ abstract class MessageContentFileBase {
                 (byte)value};
     }
     
+    /**
+     * Skips over the requested number of bytes, since a single skip may
+     * stop short of the full count.
+     *
+     * @param dataInput the input stream
+     * @param count the number of bytes to skip
+     * @throws EOFException if the end of the stream is reached first
+     */
+    protected static void skipFully(DataInputStream dataInput, int count) throws IOException {
+        while(count > 0) {
+            int skipped = dataInput.skipBytes(count);
+            if(skipped <= 0) {
+                // Read a byte to tell a stalled skip apart from the end of the stream
+                if(dataInput.read() == -1) {
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+    
     protected static final int byteArrayToInt(byte[] b, int off) {
         return (b[off] << 24)
         + ((b[off+1] & 0xFF) << 16)
@@ -55,16 +55,42 @@ import org.logicprobe.LogicMail.message.MimeMessageContent;
 import org.logicprobe.LogicMail.message.MimeMessagePart;
 import org.logicprobe.LogicMail.util.FilenameEncoder;
 import org.logicprobe.LogicMail.util.StringParser;
+import org.logicprobe.LogicMail.util.TimerWheel;
 
 /**
  * Front-end for reading and writing message content from local file storage.
+ * <p>
+ * The total size of the cache is kept within the limit from the global
+ * configuration by removing the least recently used files.  This is done by
+ * a background compaction task, which is scheduled whenever content added
+ * to the cache causes it to exceed its limit.  Large content payloads are
+ * stored in separate blob files named by their checksum and length, so that
+ * identical attachments in different messages are only stored once.
+ * </p>
  */
 public class MessageContentFileManager {
     private static MessageContentFileManager instance;
     private final MailSettings mailSettings;
     private String cacheUrl;
+    private long cacheLimit;
+    
+    /** Tracks the size and access time of the files in the cache */
+    private final MessageContentCacheUsage cacheUsage = new MessageContentCacheUsage();
+    /** Whether existing files have been added to the cache usage */
+    private boolean cacheUsageLoaded;
+    private MessageContentBlobStore blobStore;
+    
+    private TimerWheel.Timeout compactionTask;
+    
+    private int hitCount;
+    private int missCount;
+    private int evictionCount;
+    
+    /** Delay before compacting the cache after it exceeds its limit */
+    private static final long COMPACTION_DELAY = 5000;
     
     private static String CACHE_PREFIX = "cache/";
+    private static String BLOB_PREFIX = "blobs/";
     private static String MSG_SUFFIX = ".msg";
     private static String MSG_FILTER = "*.msg";
     private static String ALL_FILTER = "*";
@@ -106,9 +132,13 @@ public class MessageContentFileManager {
      * Refreshes the configuration based on any system configuration changes.
      */
     private synchronized void refreshConfiguration() {
+        cacheLimit = mailSettings.getGlobalConfig().getLocalCacheLimit() * 1024L * 1024L;
         String localDataLocation = mailSettings.getGlobalConfig().getLocalDataLocation();
         if(localDataLocation == null) {
             cacheUrl = null;
+            blobStore = null;
+            cacheUsage.clear();
+            folderMessageUidCache.clear();
             return;
         }
         String newCacheUrl = localDataLocation + CACHE_PREFIX;
@@ -126,7 +156,17 @@ public class MessageContentFileManager {
                     fileConnection.mkdir();
                 }
                 fileConnection.close();
+                
+                fileConnection = (FileConnection)Connector.open(newCacheUrl + BLOB_PREFIX);
+                if(!fileConnection.exists()) {
+                    fileConnection.mkdir();
+                }
+                fileConnection.close();
+                
                 cacheUrl = newCacheUrl;
+                cacheUsage.clear();
+                cacheUsageLoaded = false;
+                blobStore = new MessageContentBlobStore(newCacheUrl + BLOB_PREFIX, cacheUsage);
             } catch (IOException e) {
                 EventLogger.logEvent(AppInfo.GUID,
                         ("Unable to open cache: " + newCacheUrl
@@ -138,8 +178,13 @@ public class MessageContentFileManager {
             }
         }
         if(cacheUrl == null) {
+            blobStore = null;
+            cacheUsage.clear();
             folderMessageUidCache.clear();
         }
+        else {
+            scheduleCompaction();
+        }
     }
     
     /**
@@ -201,7 +246,10 @@ public class MessageContentFileManager {
         Vector loadedContent = new Vector(messageParts.length);
         try {
             fileConnection = getFolderFileConnection(folder);
-            if(!fileConnection.exists()) { return new MimeMessageContent[0]; }
+            if(!fileConnection.exists()) {
+                missCount += messageParts.length;
+                return new MimeMessageContent[0];
+            }
             
             String folderUrl = fileConnection.getURL();
             fileConnection.close();
@@ -209,7 +257,13 @@ public class MessageContentFileManager {
             
             fileConnection = (FileConnection)Connector.open(fileUrl);
             if(fileConnection.exists()) {
+                long now = System.currentTimeMillis();
+                if(!cacheUsage.touch(fileUrl, now)) {
+                    cacheUsage.update(fileUrl, fileConnection.fileSize(), now);
+                }
+                
                 MessageContentFileReader reader = new MessageContentFileReader(fileConnection, messageToken.getMessageUid());
+                reader.setBlobStore(blobStore);
                 reader.open();
                 
                 // Read out the custom values from the header
@@ -218,10 +272,10 @@ public class MessageContentFileManager {
                     customValues[i] = fileCustomValues[i];
                 }
                 
-                for(int i=0; i<messageParts.length; i++) {
-                    MimeMessageContent content = reader.getContent(messageParts[i]);
-                    if(content != null) {
-                        loadedContent.addElement(content);
+                MimeMessageContent[] content = reader.getContent(messageParts);
+                for(int i=0; i<content.length; i++) {
+                    if(content[i] != null) {
+                        loadedContent.addElement(content[i]);
                     }
                 }
                 
@@ -250,6 +304,9 @@ public class MessageContentFileManager {
             }
         }
         
+        hitCount += loadedContent.size();
+        missCount += messageParts.length - loadedContent.size();
+        
         MimeMessageContent[] result = new MimeMessageContent[loadedContent.size()];
         loadedContent.copyInto(result);
         return result;
@@ -321,15 +378,19 @@ public class MessageContentFileManager {
             if(customValues != null) {
                 writer.setCustomValues(customValues);
             }
+            writer.setBlobStore(blobStore);
             writer.open();
             
             //TODO: Make sure we're not appending content that already exists
             
-            for(int i=0; i<content.length; i++) {
-                writer.appendContent(content[i]);
-            }
+            writer.appendContent(content);
             
             writer.close();
+            
+            cacheUsage.update(fileUrl, fileConnection.fileSize(), System.currentTimeMillis());
+            if(cacheLimit > 0 && cacheUsage.getTotalSize() > cacheLimit) {
+                scheduleCompaction();
+            }
 
             // Make sure we add the existence of this message to the UID cache
             Hashtable messageUidSet = (Hashtable)folderMessageUidCache.get(folder);
@@ -417,12 +478,13 @@ public class MessageContentFileManager {
         Hashtable messageUidSet = (Hashtable)folderMessageUidCache.get(folder);
         for(int i=0; i<messageTokens.length; i++) {
             try {
-                FileConnection mailFileConnection =
-                    (FileConnection)Connector.open(getMessageFileUrl(folderUrl, messageTokens[i]));
+                String fileUrl = getMessageFileUrl(folderUrl, messageTokens[i]);
+                FileConnection mailFileConnection = (FileConnection)Connector.open(fileUrl);
                 if(mailFileConnection.exists() && !mailFileConnection.isDirectory() && mailFileConnection.canRead()) {
                     mailFileConnection.delete();
                 }
                 mailFileConnection.close();
+                cacheUsage.remove(fileUrl);
                 
                 if(messageUidSet != null) {
                     messageUidSet.remove(messageTokens[i].getMessageUid());
@@ -452,12 +514,13 @@ public class MessageContentFileManager {
         fileConnection.close();
         
         try {
-            FileConnection mailFileConnection =
-                (FileConnection)Connector.open(getMessageFileUrl(folderUrl, messageToken));
+            String fileUrl = getMessageFileUrl(folderUrl, messageToken);
+            FileConnection mailFileConnection = (FileConnection)Connector.open(fileUrl);
             if(mailFileConnection.exists() && !mailFileConnection.isDirectory() && mailFileConnection.canRead()) {
                 mailFileConnection.delete();
             }
             mailFileConnection.close();
+            cacheUsage.remove(fileUrl);
             
             // Update directory listing cache, if available
             Hashtable messageUidSet = (Hashtable)folderMessageUidCache.get(folder);
@@ -487,6 +550,7 @@ public class MessageContentFileManager {
         FileConnection fileConnection = null;
         try {
             fileConnection = getFolderFileConnection(folder);
+            cacheUsage.removeAll(fileConnection.getURL());
             deleteTree(fileConnection);
             return true;
         } catch (IOException exp) {
@@ -503,6 +567,159 @@ public class MessageContentFileManager {
         }
     }
     
+    /**
+     * Gets the number of message parts that were requested and found in
+     * the cache.
+     *
+     * @return the hit count
+     */
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+    
+    /**
+     * Gets the number of message parts that were requested but not found in
+     * the cache.
+     *
+     * @return the miss count
+     */
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+    
+    /**
+     * Gets the number of files removed from the cache to keep it within its
+     * size limit.
+     *
+     * @return the eviction count
+     */
+    public synchronized int getEvictionCount() {
+        return evictionCount;
+    }
+    
+    /**
+     * Gets the number of content payloads that were not stored because an
+     * identical payload was already in the cache.
+     *
+     * @return the duplicate count
+     */
+    public synchronized int getDuplicateCount() {
+        return (blobStore != null) ? blobStore.getDuplicateCount() : 0;
+    }
+    
+    /**
+     * Gets the known size of the cache.  Until the first compaction has
+     * completed, this only includes files accessed since startup.
+     *
+     * @return the cache size, in bytes
+     */
+    public synchronized long getCacheSize() {
+        return cacheUsage.getTotalSize();
+    }
+    
+    private synchronized void scheduleCompaction() {
+        if(compactionTask == null) {
+            compactionTask = TimerWheel.getInstance().schedule(
+                    "MessageContentFileManager.compaction", new Runnable() {
+                public void run() {
+                    compact();
+                }
+            }, COMPACTION_DELAY);
+        }
+    }
+    
+    /**
+     * Removes the least recently used files from the cache until it is
+     * comfortably within its size limit.  The first time this runs, the
+     * cache directory is scanned to find the files that already exist.
+     * The scan is done without holding the lock, so that the cache remains
+     * usable while it runs.
+     */
+    private void compact() {
+        String scanUrl;
+        synchronized(this) {
+            compactionTask = null;
+            scanUrl = cacheUsageLoaded ? null : cacheUrl;
+        }
+        
+        if(scanUrl != null) {
+            MessageContentCacheUsage scannedUsage = new MessageContentCacheUsage();
+            try {
+                scanCacheUsage(scanUrl, scannedUsage);
+            } catch (IOException e) {
+                EventLogger.logEvent(AppInfo.GUID,
+                        ("Unable to scan cache: " + e.getMessage()).getBytes(),
+                        EventLogger.ERROR);
+                return;
+            }
+            synchronized(this) {
+                if(scanUrl.equals(cacheUrl)) {
+                    cacheUsage.merge(scannedUsage);
+                    cacheUsageLoaded = true;
+                }
+            }
+        }
+        
+        synchronized(this) {
+            if(cacheUrl == null || !cacheUsageLoaded || cacheLimit <= 0) { return; }
+            
+            String[] fileUrls = cacheUsage.selectEvictions(cacheLimit - (cacheLimit / 10));
+            for(int i=0; i<fileUrls.length; i++) {
+                try {
+                    FileConnection fileConnection = (FileConnection)Connector.open(fileUrls[i]);
+                    if(fileConnection.exists() && !fileConnection.isDirectory()) {
+                        fileConnection.delete();
+                    }
+                    fileConnection.close();
+                } catch (IOException exp) {
+                    if (EventLogger.getMinimumLevel() >= EventLogger.DEBUG_INFO) {
+                        EventLogger.logEvent(AppInfo.GUID,
+                                ("Error evicting file from cache: " + exp.toString()).getBytes(),
+                                EventLogger.DEBUG_INFO);
+                    }
+                }
+                cacheUsage.remove(fileUrls[i]);
+            }
+            
+            if(fileUrls.length > 0) {
+                evictionCount += fileUrls.length;
+                folderMessageUidCache.clear();
+                if (EventLogger.getMinimumLevel() >= EventLogger.DEBUG_INFO) {
+                    EventLogger.logEvent(AppInfo.GUID,
+                            ("Evicted " + fileUrls.length + " files from cache, size="
+                                    + cacheUsage.getTotalSize()
+                                    + ", hits=" + hitCount
+                                    + ", misses=" + missCount).getBytes(),
+                            EventLogger.DEBUG_INFO);
+                }
+            }
+        }
+    }
+    
+    private static void scanCacheUsage(String directoryUrl, MessageContentCacheUsage usage) throws IOException {
+        FileConnection fileConnection = (FileConnection)Connector.open(directoryUrl);
+        try {
+            Enumeration en = fileConnection.list(ALL_FILTER, true);
+            while(en.hasMoreElements()) {
+                String fileName = (String)en.nextElement();
+                String fileUrl = directoryUrl + fileName;
+                if(fileName.endsWith("/")) {
+                    scanCacheUsage(fileUrl, usage);
+                }
+                else {
+                    FileConnection fileEntry = (FileConnection)Connector.open(fileUrl);
+                    try {
+                        usage.update(fileUrl, fileEntry.fileSize(), fileEntry.lastModified());
+                    } finally {
+                        fileEntry.close();
+                    }
+                }
+            }
+        } finally {
+            fileConnection.close();
+        }
+    }
+    
     private static void deleteTree(FileConnection fileConnection) throws IOException {
         if(!fileConnection.canWrite()) {
             fileConnection.setWritable(true);
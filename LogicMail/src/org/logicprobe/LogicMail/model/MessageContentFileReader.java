@@ -37,8 +37,6 @@ import java.io.InputStream;
 import javax.microedition.io.file.FileConnection;
 
 import net.rim.device.api.util.CRC32;
-import net.rim.device.api.util.IntIntHashtable;
-import net.rim.device.api.util.LongIntHashtable;
 
 import org.logicprobe.LogicMail.message.MimeMessageContent;
 import org.logicprobe.LogicMail.message.MimeMessageContentFactory;
@@ -53,9 +51,8 @@ import org.logicprobe.LogicMail.message.UnsupportedContentException;
  * </p>
  */
 public class MessageContentFileReader extends MessageContentFileBase {
-    private final LongIntHashtable contentUidMap = new LongIntHashtable();
-    private final IntIntHashtable contentTagMap = new IntIntHashtable();
     private int[] customValues;
+    private MessageContentBlobStore blobStore;
 
     /**
      * Instantiates a new message content file wrapper.
@@ -67,6 +64,17 @@ public class MessageContentFileReader extends MessageContentFileBase {
         super(fileConnection, messageUid);
     }
     
+    /**
+     * Sets the store to load content from, for content that is stored in
+     * separate blob files.  If no store is set, such content will be treated
+     * as unavailable.
+     *
+     * @param blobStore the blob store
+     */
+    void setBlobStore(MessageContentBlobStore blobStore) {
+        this.blobStore = blobStore;
+    }
+    
     /**
      * Open the file for reading.
      * The file's header will be validated against the UID supplied in the
@@ -81,8 +89,9 @@ public class MessageContentFileReader extends MessageContentFileBase {
         // Read and validate the header
         customValues = validateHeader(input);
         
-        // Iterate over the file to build a map of content sections
-        buildContentMap(input, fileConnection.fileSize());
+        // Read the index block, or iterate over the file if there is none,
+        // to build a map of content sections
+        loadContentMap(input, (int)fileConnection.fileSize());
         
         // Close the input stream
         input.close();
@@ -90,37 +99,6 @@ public class MessageContentFileReader extends MessageContentFileBase {
         super.open();
     }
 
-    public void close() {
-        this.contentUidMap.clear();
-        this.contentTagMap.clear();
-        super.close();
-    }
-    
-    private void buildContentMap(InputStream input, long fileSize) throws IOException {
-        int offset = contentStartOffset;
-
-        DataInputStream dataInput = new DataInputStream(input);
-        while(offset < fileSize) {
-            long partUid = dataInput.readLong();
-            int partTagHash = dataInput.readInt();
-            dataInput.skip(4); // Ignore the partComplete value here
-            int contentLen = dataInput.readInt();
-
-            // 12 = UID(8) + Tag(4)
-            int dataOffset = offset + 12;
-            
-            dataInput.skip(contentLen + 4); // Len + CRC
-            
-            contentUidMap.put(partUid, dataOffset);
-            if(partTagHash != 0) {
-                contentTagMap.put(partTagHash, dataOffset);
-            }
-            
-            // UID(8) + Tag(4) + Cmp(4) + Len(4) + contentLen + CRC(4)
-            offset += 20 + contentLen + 4;
-        }
-    }
-    
     /**
      * Checks whether the file contains content for the provided message part.
      *
@@ -160,41 +138,109 @@ public class MessageContentFileReader extends MessageContentFileBase {
      * @return the content, if available
      */
     public MimeMessageContent getContent(MimeMessagePart part) throws IOException, UnsupportedContentException {
+        return getContent(new MimeMessagePart[] { part })[0];
+    }
+    
+    /**
+     * Gets the content for the provided message parts.
+     * The content is read in a single forward pass over the file.
+     *
+     * @param parts the parts to get content for
+     * @return the content, in the same order as the parts, with
+     *     <code>null</code> elements for parts that have no content
+     */
+    public MimeMessageContent[] getContent(MimeMessagePart[] parts) throws IOException, UnsupportedContentException {
         checkFileOpened();
         
-        int contentOffset = -1;
+        // Find the content offsets, and order the parts by them
+        int[] offsets = new int[parts.length];
+        int[] order = new int[parts.length];
+        for(int i=0; i<parts.length; i++) {
+            offsets[i] = getContentOffset(parts[i]);
+            int j = i;
+            while(j > 0 && offsets[order[j - 1]] > offsets[i]) {
+                order[j] = order[j - 1];
+                j--;
+            }
+            order[j] = i;
+        }
+        
+        MimeMessageContent[] result = new MimeMessageContent[parts.length];
+        DataInputStream dataInput = null;
+        try {
+            int position = 0;
+            int lastOffset = -1;
+            for(int i=0; i<order.length; i++) {
+                int index = order[i];
+                int contentOffset = offsets[index];
+                if(contentOffset == -1) { continue; }
+                
+                if(contentOffset == lastOffset) {
+                    // Another part matched the same content section
+                    MimeMessageContent lastContent = result[order[i - 1]];
+                    if(lastContent == null) { continue; }
+                    result[index] = MimeMessageContentFactory.createContentRaw(
+                            parts[index], lastContent.getRawData());
+                    result[index].setPartComplete(lastContent.isPartComplete());
+                    continue;
+                }
+                
+                if(dataInput == null) {
+                    dataInput = fileConnection.openDataInputStream();
+                }
+                skipFully(dataInput, contentOffset - position);
+                
+                int partComplete = dataInput.readInt();
+                if(partComplete < -1 || partComplete > 1) { partComplete = 1; }
+                
+                int contentLen = dataInput.readInt();
+                byte[] data;
+                if(contentLen < 0) {
+                    // Cmp(4) + Len(4) + CRC(4)
+                    int fileCRC = dataInput.readInt();
+                    position = contentOffset + 12;
+                    lastOffset = contentOffset;
+                    
+                    data = (blobStore != null) ? blobStore.getBlob(fileCRC, ~contentLen) : null;
+                    if(data == null) { continue; }
+                }
+                else {
+                    data = new byte[contentLen];
+                    dataInput.readFully(data);
+                    int checksum = CRC32.update(CRC32.INITIAL_VALUE, data);
+                    
+                    int fileCRC = dataInput.readInt();
+                    
+                    if(checksum != fileCRC) {
+                        throw new IOException("Invalid content: checksum mismatch");
+                    }
+                    
+                    // Cmp(4) + Len(4) + contentLen + CRC(4)
+                    position = contentOffset + 12 + contentLen;
+                    lastOffset = contentOffset;
+                }
+                
+                result[index] = MimeMessageContentFactory.createContentRaw(parts[index], data);
+                result[index].setPartComplete(partComplete);
+            }
+        } finally {
+            if(dataInput != null) {
+                dataInput.close();
+            }
+        }
+        return result;
+    }
+    
+    private int getContentOffset(MimeMessagePart part) {
         if(contentUidMap.containsKey(part.getUniqueId())) {
-            contentOffset = contentUidMap.get(part.getUniqueId());
+            return contentUidMap.get(part.getUniqueId());
         }
         else {
             int tagHash = createPartTagHash(part);
             if(contentTagMap.containsKey(tagHash)) {
-                contentOffset = contentTagMap.get(tagHash);
+                return contentTagMap.get(tagHash);
             }
         }
-        if(contentOffset == -1) { return null; }
-        
-        DataInputStream dataInput = fileConnection.openDataInputStream();
-        dataInput.skip(contentOffset);
-        
-        int partComplete = dataInput.readInt();
-        if(partComplete < -1 || partComplete > 1) { partComplete = 1; }
-        
-        int contentLen = dataInput.readInt();
-        byte[] data = new byte[contentLen];
-        dataInput.read(data);
-        int checksum = CRC32.update(CRC32.INITIAL_VALUE, data);
-        
-        int fileCRC = dataInput.readInt();
-        
-        dataInput.close();
-        
-        if(checksum != fileCRC) {
-            throw new IOException("Invalid content: checksum mismatch");
-        }
-        
-        MimeMessageContent content = MimeMessageContentFactory.createContentRaw(part, data);
-        content.setPartComplete(partComplete);
-        return content;
+        return -1;
     }
 }
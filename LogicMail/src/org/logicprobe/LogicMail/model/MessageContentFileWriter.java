@@ -52,6 +52,7 @@ import net.rim.device.api.util.DataBuffer;
 public class MessageContentFileWriter extends MessageContentFileBase {
     private int contentEndOffset;
     private int[] customValues;
+    private MessageContentBlobStore blobStore;
     
     /**
      * Instantiates a new message content file wrapper.
@@ -78,6 +79,17 @@ public class MessageContentFileWriter extends MessageContentFileBase {
         this.customValues = values;
     }
     
+    /**
+     * Sets the store to use for large content payloads.  If set, payloads
+     * of at least {@link MessageContentBlobStore#MIN_BLOB_SIZE} bytes are
+     * written to the store, and only referenced from this file.
+     *
+     * @param blobStore the blob store
+     */
+    void setBlobStore(MessageContentBlobStore blobStore) {
+        this.blobStore = blobStore;
+    }
+    
     /**
      * Open the file for writing.
      * If the file exists, its header will be validated against the UID supplied
@@ -106,11 +118,12 @@ public class MessageContentFileWriter extends MessageContentFileBase {
         // Open an input stream
         InputStream input = fileConnection.openInputStream();
         
-        // Read and validate the header
-        validateHeader(input);
+        // Read and validate the header, keeping the existing custom values
+        customValues = validateHeader(input);
         
-        // Skip over content sections to find the offset at the end of the file
-        contentEndOffset = (int)fileConnection.fileSize();
+        // Load the existing content map, and find the offset at the end of
+        // the content sections
+        contentEndOffset = loadContentMap(input, (int)fileConnection.fileSize());
         
         // Close the input stream
         input.close();
@@ -151,6 +164,10 @@ public class MessageContentFileWriter extends MessageContentFileBase {
             }
         }
         
+        // Insert the index offset into the header
+        byte[] indexOffsetBytes = intToByteArray(indexOffset);
+        insertBytes(buf.getArray(), indexOffsetBytes, buf.getArrayStart() + 28, 4);
+        
         // Calculate and insert the checksum
         int checksum = CRC32.update(CRC32.INITIAL_VALUE, buf.getArray(), buf.getArrayStart(), buf.getLength());
         buf.writeInt(checksum);
@@ -159,33 +176,71 @@ public class MessageContentFileWriter extends MessageContentFileBase {
     }
     
     public void appendContent(MimeMessageContent content) throws IOException {
+        appendContent(new MimeMessageContent[] { content });
+    }
+    
+    /**
+     * Appends content for several message parts to the file.
+     * The content sections and the updated index block are written together,
+     * replacing the previous index block, and the header is then updated to
+     * point to the new index block.
+     *
+     * @param content the content to append
+     */
+    public void appendContent(MimeMessageContent[] content) throws IOException {
         checkFileOpened();
         
         DataBuffer buf = new DataBuffer();
 
-        // Append the message part prefix 
-        MimeMessagePart part = content.getMessagePart();
-        buf.writeLong(part.getUniqueId());
-        buf.writeInt(createPartTagHash(part));
-        
-        // Append the part-complete value
-        buf.writeInt(content.isPartComplete());
-        
-        // Append the raw content data
-        byte[] contentData = content.getRawData();
-        buf.writeInt(contentData.length);
-        buf.write(contentData);
+        for(int i=0; i<content.length; i++) {
+            // 12 = UID(8) + Tag(4)
+            int dataOffset = contentEndOffset + buf.getLength() + 12;
+            
+            // Append the message part prefix 
+            MimeMessagePart part = content[i].getMessagePart();
+            int partTagHash = createPartTagHash(part);
+            buf.writeLong(part.getUniqueId());
+            buf.writeInt(partTagHash);
+            
+            // Append the part-complete value
+            buf.writeInt(content[i].isPartComplete());
+            
+            // Append the raw content data, or a reference to a blob containing it
+            byte[] contentData = content[i].getRawData();
+            int checksum = CRC32.update(CRC32.INITIAL_VALUE, contentData);
+            if(blobStore != null && contentData.length >= MessageContentBlobStore.MIN_BLOB_SIZE) {
+                blobStore.putBlob(contentData, checksum);
+                buf.writeInt(~contentData.length);
+            }
+            else {
+                buf.writeInt(contentData.length);
+                buf.write(contentData);
+            }
+            
+            // Append the checksum
+            buf.writeInt(checksum);
+            
+            contentUidMap.put(part.getUniqueId(), dataOffset);
+            if(partTagHash != 0) {
+                contentTagMap.put(partTagHash, dataOffset);
+            }
+        }
         
-        // Compute and append the checksum
-        int checksum = CRC32.update(CRC32.INITIAL_VALUE, contentData);
-        buf.writeInt(checksum);
+        // Append the index block
+        int newIndexOffset = contentEndOffset + buf.getLength();
+        writeIndex(buf);
         
-        // Write the entry to the file
-        byte[] data = buf.toArray();
+        // Write the entries and index to the file
         OutputStream output = fileConnection.openOutputStream(contentEndOffset);
-        output.write(buf.toArray());
+        output.write(buf.getArray(), buf.getArrayStart(), buf.getLength());
+        output.close();
+        contentEndOffset = newIndexOffset;
+        
+        // Update the header with the new index offset
+        indexOffset = newIndexOffset;
+        output = fileConnection.openOutputStream();
+        output.write(generateHeader());
         output.close();
-        contentEndOffset += data.length;
     }
     
     private static final void insertBytes(byte[] dest, byte[] src, int offset, int len) {
@@ -71,8 +71,8 @@ public class NetworkMailStoreServices extends MailStoreServices {
         this.mailStore = mailStore;
         this.folderMessageCache = folderMessageCache;
         this.contentFileManager = MessageContentFileManager.getInstance();
-        this.messageCacheThreadQueue = new ThreadQueue();
-        this.requestThreadQueue = new ThreadQueue();
+        this.messageCacheThreadQueue = new ThreadQueue("NetworkMailStoreServices.messageCache");
+        this.requestThreadQueue = new ThreadQueue("NetworkMailStoreServices.request");
     }
 
     AccountConfig getAccountConfig() {
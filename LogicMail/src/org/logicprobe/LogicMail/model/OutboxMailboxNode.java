@@ -53,6 +53,7 @@ import org.logicprobe.LogicMail.message.MimeMessageContent;
 import org.logicprobe.LogicMail.message.MessageEnvelope;
 import org.logicprobe.LogicMail.message.MessageFlags;
 import org.logicprobe.LogicMail.util.AtomicBoolean;
+import org.logicprobe.LogicMail.util.DataSpool;
 import org.logicprobe.LogicMail.util.StringParser;
 
 public class OutboxMailboxNode extends MailboxNode {
@@ -256,7 +257,7 @@ public class OutboxMailboxNode extends MailboxNode {
         // Feature not supported because the outbox has no backing mail store
     }
 
-    public void appendRawMessage(String rawMessage, MessageFlags initialFlags) {
+    public void appendRawMessage(DataSpool rawMessage, MessageFlags initialFlags) {
         // Feature not supported because the outbox has no backing mail store
     }
 
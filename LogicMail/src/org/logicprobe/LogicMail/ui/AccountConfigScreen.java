@@ -118,6 +118,7 @@ public class AccountConfigScreen extends AbstractConfigScreen {
     private BasicEditField imapMaxFolderDepthEditField;
     private CheckboxField imapShowOnlySubscribedField;
     private CheckboxField imapEnableCompressionField;
+    private NumericChoiceField imapMaxConnectionsChoiceField;
     // Advanced settings fields (POP)
     private BasicEditField popMaxLinesEditField;
 
@@ -536,11 +537,17 @@ public class AccountConfigScreen extends AbstractConfigScreen {
                     resources.getString(LogicMailResource.CONFIG_ACCOUNT_IMAP_ENABLE_COMPRESSION),
                     imapConfig.getEnableCompression());
             
+            imapMaxConnectionsChoiceField = new NumericChoiceField(
+                    resources.getString(LogicMailResource.CONFIG_ACCOUNT_IMAP_MAX_CONNECTIONS),
+                    1, ImapConfig.MAX_CONNECTIONS_LIMIT, 1);
+            imapMaxConnectionsChoiceField.setSelectedValue(imapConfig.getMaxConnections());
+            
             manager.add(imapFolderPrefixField);
             manager.add(imapMaxMessageSizeEditField);
             manager.add(imapMaxFolderDepthEditField);
             manager.add(imapShowOnlySubscribedField);
             manager.add(imapEnableCompressionField);
+            manager.add(imapMaxConnectionsChoiceField);
         }
         else if(accountConfig instanceof PopConfig) {
             PopConfig popConfig = (PopConfig)accountConfig;
@@ -949,6 +956,7 @@ public class AccountConfigScreen extends AbstractConfigScreen {
 
             imapConfig.setOnlySubscribedFolders(imapShowOnlySubscribedField.getChecked());
             imapConfig.setEnableCompression(imapEnableCompressionField.getChecked());
+            imapConfig.setMaxConnections(imapMaxConnectionsChoiceField.getSelectedValue());
         }
         else if(accountConfig instanceof PopConfig) {
             PopConfig popConfig = (PopConfig)accountConfig;
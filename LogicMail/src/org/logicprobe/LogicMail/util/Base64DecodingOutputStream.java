@@ -0,0 +1,167 @@
+/*-
+ * Copyright (c) 2011, Derek Konigsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution. 
+ * 3. Neither the name of the project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.logicprobe.LogicMail.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream that decodes Base64 data as it is written, and passes the
+ * decoded bytes along to an underlying stream.
+ * <p>
+ * This allows encoded content to be decoded as it arrives from the network,
+ * without ever holding the complete encoded form in memory.  Line breaks and
+ * any other characters outside the Base64 alphabet are ignored, and decoding
+ * stops at the first padding character.
+ * </p>
+ */
+public class Base64DecodingOutputStream extends OutputStream {
+    private static final byte[] DECODE_TABLE = createDecodeTable();
+    private static final byte PAD = (byte)'=';
+
+    private final OutputStream output;
+    private final byte[] buffer = new byte[1024];
+    private int bufferCount;
+    private int quantum;
+    private int quantumSize;
+    private boolean finished;
+
+    /**
+     * Instantiates a new Base64 decoding output stream.
+     *
+     * @param output the stream to write decoded data to
+     */
+    public Base64DecodingOutputStream(OutputStream output) {
+        if(output == null) {
+            throw new NullPointerException();
+        }
+        this.output = output;
+    }
+
+    private static byte[] createDecodeTable() {
+        byte[] table = new byte[256];
+        for(int i=0; i<table.length; i++) {
+            table[i] = -1;
+        }
+        for(int i='A'; i<='Z'; i++) {
+            table[i] = (byte)(i - 'A');
+        }
+        for(int i='a'; i<='z'; i++) {
+            table[i] = (byte)(i - 'a' + 26);
+        }
+        for(int i='0'; i<='9'; i++) {
+            table[i] = (byte)(i - '0' + 52);
+        }
+        table['+'] = 62;
+        table['/'] = 63;
+        return table;
+    }
+
+    public void write(int b) throws IOException {
+        decode((byte)b);
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        int end = off + len;
+        for(int i=off; i<end; i++) {
+            decode(b[i]);
+        }
+    }
+
+    private void decode(byte b) throws IOException {
+        if(finished) { return; }
+
+        if(b == PAD) {
+            finishQuantum();
+            return;
+        }
+
+        int value = DECODE_TABLE[b & 0xFF];
+        if(value < 0) { return; }
+
+        quantum = (quantum << 6) | value;
+        quantumSize++;
+
+        if(quantumSize == 4) {
+            if(bufferCount + 3 > buffer.length) {
+                flushBuffer();
+            }
+            buffer[bufferCount++] = (byte)(quantum >> 16);
+            buffer[bufferCount++] = (byte)(quantum >> 8);
+            buffer[bufferCount++] = (byte)quantum;
+            quantum = 0;
+            quantumSize = 0;
+        }
+    }
+
+    /**
+     * Decodes any partial quantum remaining at the end of the encoded data,
+     * and ignores any further input.
+     */
+    private void finishQuantum() throws IOException {
+        if(bufferCount + 2 > buffer.length) {
+            flushBuffer();
+        }
+        if(quantumSize == 2) {
+            buffer[bufferCount++] = (byte)(quantum >> 4);
+        }
+        else if(quantumSize == 3) {
+            buffer[bufferCount++] = (byte)(quantum >> 10);
+            buffer[bufferCount++] = (byte)(quantum >> 2);
+        }
+        quantum = 0;
+        quantumSize = 0;
+        finished = true;
+    }
+
+    private void flushBuffer() throws IOException {
+        if(bufferCount > 0) {
+            output.write(buffer, 0, bufferCount);
+            bufferCount = 0;
+        }
+    }
+
+    public void flush() throws IOException {
+        flushBuffer();
+        output.flush();
+    }
+
+    /**
+     * Decodes any remaining data, and closes the underlying stream.
+     */
+    public void close() throws IOException {
+        if(!finished) {
+            finishQuantum();
+        }
+        flushBuffer();
+        output.close();
+    }
+}
@@ -33,7 +33,6 @@ package org.logicprobe.LogicMail.util;
 
 import net.rim.device.api.compress.ZLibInputStream;
 import net.rim.device.api.compress.ZLibOutputStream;
-import net.rim.device.api.io.NoCopyByteArrayOutputStream;
 import net.rim.device.api.system.EventLogger;
 import net.rim.device.api.util.Arrays;
 
@@ -60,6 +59,8 @@ public class Connection {
     private static final byte LF = (byte)0x0A;
     private static final byte[] CRLF = new byte[] { CR, LF };
     private static String strCRLF = "\r\n";
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+    private static final int MAX_IDLE_BUFFER_SIZE = 16384;
 
     private SocketConnection socket;
     private final int connectionType;
@@ -78,16 +79,20 @@ public class Connection {
     private volatile boolean connectionClosed = true;
     
     /**
-     * Byte stream used to hold received data before it is passed back to
-     * the rest of the application.
+     * Buffer used to hold received data before it is passed back to
+     * the rest of the application.  Socket reads go directly into this
+     * buffer, and unread data is kept between <code>readIndex</code> and
+     * <code>writeIndex</code>.  Data is only moved when more space is
+     * needed at the end of the buffer, so returning a response never
+     * requires copying the data that follows it.
      */
-    private final ByteArrayOutputStream byteStream = new NoCopyByteArrayOutputStream(1024);
+    private byte[] receiveBuffer = new byte[INITIAL_BUFFER_SIZE];
     
-    /**
-     * Temporary read buffer used as an intermediary between the socket and
-     * the byteStream.
-     */
-    private final byte[] readBuffer = new byte[1024];
+    /** Index of the first unread byte within the receive buffer. */
+    private int readIndex;
+    
+    /** Index following the last valid byte within the receive buffer. */
+    private int writeIndex;
     
     /**
      * Initializes a new connection object.
@@ -404,12 +409,17 @@ public class Connection {
             // Read from the socket
             int firstByte = input.read();
             if(firstByte != -1) {
-                byteStream.write((byte)firstByte);
+                appendToBuffer((byte)firstByte);
                 bytesReceived++;
                 int bytesAvailable = input.available();
                 while(bytesAvailable > 0) {
-                    int len = input.read(readBuffer, 0, Math.min(bytesAvailable, readBuffer.length));
-                    byteStream.write(readBuffer, 0, len);
+                    ensureBufferCapacity(Math.min(bytesAvailable, INITIAL_BUFFER_SIZE));
+                    int len = input.read(receiveBuffer, writeIndex,
+                            Math.min(bytesAvailable, receiveBuffer.length - writeIndex));
+                    if(len == -1) {
+                        handleSocketReadError();
+                    }
+                    writeIndex += len;
                     bytesReceived += len;
                     
                     // Check read data for a usable line
@@ -426,7 +436,7 @@ public class Connection {
                     if(bytesAvailable == 0) {
                         firstByte = input.read();
                         if(firstByte != -1) {
-                            byteStream.write((byte)firstByte);
+                            appendToBuffer((byte)firstByte);
                             bytesReceived++;
                             bytesAvailable = input.available();
                         }
@@ -437,7 +447,7 @@ public class Connection {
                 }
                 
                 // Check for any final data
-                if(byteStream.size() > 0) {
+                if(writeIndex > readIndex) {
                     line = checkForLine(responseTester);
                     if(line != null) {
                         return line;
@@ -470,34 +480,38 @@ public class Connection {
     }
 
     /**
-     * Checks the byte stream buffer for a usable line of returnable data.
-     * If a line is returned, the buffer will be updated to only contain data
-     * following that line.
+     * Checks the receive buffer for a usable line of returnable data.
+     * If a line is returned, the read index will be advanced past that line.
+     * The response tester is given a view of the unread portion of the
+     * buffer, so the only data copied is the returned line itself.
      *
      * @return the trimmed string which ended in a CRLF in the source data
      */
     private byte[] checkForLine(ConnectionResponseTester responseTester) throws IOException {
         byte[] result;
         
-        byte[] buf = byteStream.toByteArray();
-        int size = byteStream.size();
+        int size = writeIndex - readIndex;
         
-        int p = responseTester.checkForCompleteResponse(buf, size);
+        int p = responseTester.checkForCompleteResponse(receiveBuffer, readIndex, size);
         
         if(p != -1) {
             int trimCount = responseTester.trimCount();
             
-            result = Arrays.copy(buf, 0, p - trimCount);
+            result = Arrays.copy(receiveBuffer, readIndex, p - trimCount);
+            readIndex += p;
             
-            if(p < size) {
-                buf = Arrays.copy(buf, p, size - p);
-                byteStream.reset();
-                byteStream.write(buf);
-                fakeAvailable = buf.length;
+            if(readIndex < writeIndex) {
+                fakeAvailable = writeIndex - readIndex;
             }
             else {
-                byteStream.reset();
+                readIndex = 0;
+                writeIndex = 0;
                 fakeAvailable = -1;
+                
+                // Release any space that was only needed for a large response
+                if(receiveBuffer.length > MAX_IDLE_BUFFER_SIZE) {
+                    receiveBuffer = new byte[INITIAL_BUFFER_SIZE];
+                }
             }
         }
         else {
@@ -506,21 +520,67 @@ public class Connection {
         }
         return result;
     }
+    
+    /**
+     * Appends a single byte to the end of the receive buffer.
+     *
+     * @param value the byte to append
+     */
+    private void appendToBuffer(byte value) {
+        ensureBufferCapacity(1);
+        receiveBuffer[writeIndex++] = value;
+    }
+    
+    /**
+     * Makes sure the receive buffer has room for at least the requested
+     * number of bytes following the write index.  If there is not enough
+     * room, unread data is moved to the start of the buffer.  If that unread
+     * data would then fill more than half the buffer, the buffer is doubled
+     * in size instead.  This keeps the total amount of data movement linear
+     * with respect to the amount of data received.
+     *
+     * @param length the number of bytes that need to be written
+     */
+    private void ensureBufferCapacity(int length) {
+        if(writeIndex + length <= receiveBuffer.length) {
+            return;
+        }
+        
+        int unread = writeIndex - readIndex;
+        byte[] target = receiveBuffer;
+        if(unread + length > receiveBuffer.length / 2) {
+            int newSize = receiveBuffer.length * 2;
+            while(newSize < unread + length) {
+                newSize *= 2;
+            }
+            target = new byte[newSize];
+        }
+        
+        System.arraycopy(receiveBuffer, readIndex, target, 0, unread);
+        receiveBuffer = target;
+        readIndex = 0;
+        writeIndex = unread;
+    }
 
     private static ConnectionResponseTester lineResponseTester = new ConnectionResponseTester() {
         private int trimCount;
         private int lastLength = 0;
         
         public int checkForCompleteResponse(byte[] buf, int len) {
+            return checkForCompleteResponse(buf, 0, len);
+        }
+        
+        public int checkForCompleteResponse(byte[] buf, int offset, int len) {
             trimCount = 0;
-            int p = StringArrays.indexOf(buf, LF, lastLength);
+            int end = offset + len;
+            int p = StringArrays.indexOf(buf, LF, offset + lastLength);
             
-            if(p != -1 && p < len) {
+            if(p != -1 && p < end) {
                 // Specific test for responses that use a double LF in
                 // the middle, to separate things that look like separate
                 // responses but really are not.
-                while(p != -1 && p + 1 < len && buf[p + 1] == LF) {
-                    if(p + 2 == len) {
+                while(p != -1 && p + 1 < end && buf[p + 1] == LF) {
+                    if(p + 2 == end) {
                         lastLength = len;
                         return -1;
                     }
@@ -529,14 +589,19 @@ public class Connection {
                     }
                 }
                 
-                if(p > 0 && buf[p - 1] == CR) {
+                if(p == -1 || p >= end) {
+                    lastLength = len;
+                    return -1;
+                }
+                
+                if(p > offset && buf[p - 1] == CR) {
                     trimCount = 2;
                 }
                 else {
                     trimCount = 1;
                 }
                 lastLength = 0;
-                return ++p;
+                return ++p - offset;
             }
             else {
                 lastLength = len;
@@ -46,6 +46,35 @@ public abstract class ConnectionResponseTester {
      */
     public abstract int checkForCompleteResponse(byte[] buf, int len);
     
+    /**
+     * Checks a region of the provided buffer for a complete response.
+     * <p>
+     * This allows the connection to test data in place, without first
+     * copying it to the start of a new array.  Subclasses that are used
+     * on large responses should override this method, and implement
+     * {@link #checkForCompleteResponse(byte[], int)} in terms of it.
+     * The default behavior is to pass the buffer through unchanged if
+     * <code>offset</code> is zero, and to pass a copy of the region
+     * otherwise.
+     * </p>
+     * 
+     * @param buf the raw socket receive buffer
+     * @param offset the offset of the first unread byte within the buffer
+     * @param len the length of the valid data following the offset
+     * @return length of the complete response, starting from the offset,
+     *   or <code>-1</code> if none is currently available within the buffer
+     */
+    public int checkForCompleteResponse(byte[] buf, int offset, int len) {
+        if(offset == 0) {
+            return checkForCompleteResponse(buf, len);
+        }
+        else {
+            byte[] region = new byte[len];
+            System.arraycopy(buf, offset, region, 0, len);
+            return checkForCompleteResponse(region, len);
+        }
+    }
+    
     /**
      * Number of characters to trim from the response prior to returning the
      * resulting data.  Primarily useful for cases such as trimming CRLF codes.
@@ -0,0 +1,239 @@
+/*-
+ * Copyright (c) 2011, Derek Konigsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution. 
+ * 3. Neither the name of the project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.logicprobe.LogicMail.util;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Vector;
+
+/**
+ * Rewindable in-memory spool for serialized message data.
+ * <p>
+ * Data is written to the spool as a regular output stream, and is stored
+ * as a list of fixed-size chunks.  Unlike a <code>ByteArrayOutputStream</code>,
+ * the spool never has to grow a single large array and never copies its
+ * contents to return them.  Once written, the contents can be read any
+ * number of times through the streams returned by {@link #getInputStream()},
+ * which makes it possible to send the same message data to more than one
+ * destination without keeping additional copies of it.
+ * </p>
+ */
+public class DataSpool extends OutputStream {
+    private static final int DEFAULT_CHUNK_SIZE = 16384;
+    
+    private final int chunkSize;
+    private final Vector chunks = new Vector();
+    private byte[] currentChunk;
+    private int currentChunkCount;
+    private int size;
+    
+    /**
+     * Instantiates a new data spool with the default chunk size.
+     */
+    public DataSpool() {
+        this(DEFAULT_CHUNK_SIZE);
+    }
+    
+    /**
+     * Instantiates a new data spool.
+     *
+     * @param chunkSize the size of each chunk of stored data
+     */
+    public DataSpool(int chunkSize) {
+        if(chunkSize <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.chunkSize = chunkSize;
+    }
+    
+    /**
+     * Instantiates a new data spool containing the bytes of a string,
+     * encoded with the platform default character encoding.
+     *
+     * @param data the initial contents of the spool
+     */
+    public DataSpool(String data) {
+        this(DEFAULT_CHUNK_SIZE);
+        byte[] bytes = data.getBytes();
+        write(bytes, 0, bytes.length);
+    }
+    
+    public void write(int b) {
+        if(currentChunk == null || currentChunkCount == chunkSize) {
+            addChunk();
+        }
+        currentChunk[currentChunkCount++] = (byte)b;
+        size++;
+    }
+    
+    public void write(byte[] b) {
+        write(b, 0, b.length);
+    }
+    
+    public void write(byte[] b, int off, int len) {
+        if(off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        while(len > 0) {
+            if(currentChunk == null || currentChunkCount == chunkSize) {
+                addChunk();
+            }
+            int count = Math.min(len, chunkSize - currentChunkCount);
+            System.arraycopy(b, off, currentChunk, currentChunkCount, count);
+            currentChunkCount += count;
+            off += count;
+            len -= count;
+            size += count;
+        }
+    }
+    
+    private void addChunk() {
+        currentChunk = new byte[chunkSize];
+        currentChunkCount = 0;
+        chunks.addElement(currentChunk);
+    }
+    
+    /**
+     * Gets the number of bytes written to the spool.
+     *
+     * @return the size of the spool contents
+     */
+    public int size() {
+        return size;
+    }
+    
+    /**
+     * Gets a new input stream that reads the spool contents from the
+     * beginning.  The stream only sees data that was written before it
+     * was created.
+     *
+     * @return the input stream
+     */
+    public InputStream getInputStream() {
+        return new SpoolInputStream(size);
+    }
+    
+    /**
+     * Copies the spool contents into a single newly allocated array.
+     * This should only be used when a flat copy of the data is actually
+     * required, since it defeats the purpose of the spool.
+     *
+     * @return the spool contents
+     */
+    public byte[] toByteArray() {
+        byte[] result = new byte[size];
+        int offset = 0;
+        int count = chunks.size();
+        for(int i=0; i<count; i++) {
+            int len = Math.min(chunkSize, size - offset);
+            System.arraycopy(chunks.elementAt(i), 0, result, offset, len);
+            offset += len;
+        }
+        return result;
+    }
+    
+    /**
+     * Converts the spool contents into a string, decoded with the platform
+     * default character encoding.
+     */
+    public String toString() {
+        return new String(toByteArray());
+    }
+    
+    private class SpoolInputStream extends InputStream {
+        private final int length;
+        private int position;
+        private int mark;
+        
+        public SpoolInputStream(int length) {
+            this.length = length;
+        }
+        
+        public int read() {
+            if(position >= length) {
+                return -1;
+            }
+            byte[] chunk = (byte[])chunks.elementAt(position / chunkSize);
+            return chunk[position++ % chunkSize] & 0xFF;
+        }
+        
+        public int read(byte[] b, int off, int len) {
+            if(off < 0 || len < 0 || off + len > b.length) {
+                throw new IndexOutOfBoundsException();
+            }
+            if(len == 0) {
+                return 0;
+            }
+            if(position >= length) {
+                return -1;
+            }
+            
+            int total = 0;
+            while(len > 0 && position < length) {
+                byte[] chunk = (byte[])chunks.elementAt(position / chunkSize);
+                int chunkOffset = position % chunkSize;
+                int count = Math.min(len, Math.min(chunkSize - chunkOffset, length - position));
+                System.arraycopy(chunk, chunkOffset, b, off, count);
+                position += count;
+                off += count;
+                len -= count;
+                total += count;
+            }
+            return total;
+        }
+        
+        public long skip(long n) {
+            if(n <= 0) {
+                return 0;
+            }
+            int count = (int)Math.min(n, length - position);
+            position += count;
+            return count;
+        }
+        
+        public int available() {
+            return length - position;
+        }
+        
+        public boolean markSupported() {
+            return true;
+        }
+        
+        public synchronized void mark(int readlimit) {
+            mark = position;
+        }
+        
+        public synchronized void reset() {
+            position = mark;
+        }
+    }
+}
@@ -107,9 +107,18 @@ public interface DataStore {
     
     /**
      * Save the contents of the store to persistent memory.
+     * Objects that have been modified must be put into the store again
+     * before calling this method, or their changes may not be saved.
+     * The actual commit may be deferred until {@link #flush()} is called,
+     * or until a short delay has passed.
      */
     void save();
     
+    /**
+     * Commit any saved changes that are still pending to persistent memory.
+     */
+    void flush();
+    
     
     /**
      * Load the contents of the store from persistent memory.
@@ -88,4 +88,20 @@ public final class DataStoreFactory {
         }
         return connectionCacheStore;
     }
+    
+    /**
+     * Commits any pending changes in the data stores that have been created.
+     * This should be called before the application exits.
+     */
+    public static synchronized void flushAll() {
+        if(configurationStore != null) {
+            configurationStore.flush();
+        }
+        if(metadataStore != null) {
+            metadataStore.flush();
+        }
+        if(connectionCacheStore != null) {
+            connectionCacheStore.flush();
+        }
+    }
 }
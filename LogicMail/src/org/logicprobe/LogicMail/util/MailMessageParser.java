@@ -30,14 +30,7 @@
  */
 package org.logicprobe.LogicMail.util;
 
-import net.rim.device.api.io.IOUtilities;
-import net.rim.device.api.io.LineReader;
-import net.rim.device.api.io.SharedInputStream;
-import net.rim.device.api.mime.MIMEInputStream;
-import net.rim.device.api.mime.MIMEParsingException;
 import net.rim.device.api.system.EventLogger;
-import net.rim.device.api.util.Arrays;
-import net.rim.device.api.util.DataBuffer;
 
 import org.logicprobe.LogicMail.AppInfo;
 import org.logicprobe.LogicMail.message.MimeMessageContent;
@@ -49,9 +42,9 @@ import org.logicprobe.LogicMail.message.MultiPart;
 import org.logicprobe.LogicMail.message.TextPart;
 import org.logicprobe.LogicMail.message.UnsupportedContentException;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 
 import java.util.Calendar;
 import java.util.Hashtable;
@@ -64,9 +57,12 @@ import java.util.Vector;
  */
 public class MailMessageParser {
     private static String strCRLF = "\r\n";
-    private static final byte[] CRLF = new byte[] { (byte)'\r', (byte)'\n' };
-    private static final byte[] CONTENT_TYPE_KEY = "Content-Type:".getBytes();
-    private static final byte[] BOUNDARY_EQ = "boundary=".getBytes();
+
+    /**
+     * Default limit on the decoded size of a single message part.
+     * Parts larger than this are truncated and treated as incomplete.
+     */
+    public static final int MAX_CONTENT_SIZE = 1048576;
 
     private MailMessageParser() {
     }
@@ -95,9 +91,8 @@ public class MailMessageParser {
         env.cc = parseAddressList((String) headers.get("cc"));
         env.bcc = parseAddressList((String) headers.get("bcc"));
 
-        try {
-            env.date = StringParser.parseDateString((String) headers.get("date"));
-        } catch (Exception e) {
+        env.date = StringParser.parseDateString((String) headers.get("date"));
+        if (env.date == null) {
             env.date = Calendar.getInstance().getTime();
         }
 
@@ -190,145 +185,14 @@ public class MailMessageParser {
         return addresses;
     }
     
-    /**
-     * Convert string-format raw message source to an InputStream that is
-     * compatible with {@link #parseRawMessage(Hashtable, InputStream)}.
-     *
-     * @param messageSource the message source
-     * @return the input stream to be passed to the parser code
-     */
-    public static InputStream convertMessageResultToStream(String messageSource) {
-        ByteArrayInputStream inputStream = new ByteArrayInputStream(messageSource.getBytes());
-        
-        Vector lines = new Vector();
-        try {
-            LineReader reader = new LineReader(inputStream);
-            byte[] line;
-            while((line = reader.readLine()) != null) {
-                lines.addElement(line);
-            }
-        } catch (IOException e) {
-            EventLogger.logEvent(AppInfo.GUID,
-                    ("Error converting message to stream: " + e.getMessage()).getBytes(),
-                    EventLogger.WARNING);
-        }
-        
-        byte[][] resultLines = new byte[lines.size()][];
-        lines.copyInto(resultLines);
-        return convertMessageResultToStream(resultLines);
-    }
-    
-    /**
-     * Convert the server result to an InputStream wrapping a byte[] buffer
-     * that includes the CRLF markers that were stripped out by the socket
-     * reading code, and has any other necessary pre-processing applied.
-     *
-     * @param resultLines the lines of message data returned by the server
-     * @return the input stream to be passed to the parser code
-     */
-    public static InputStream convertMessageResultToStream(byte[][] resultLines) {
-        DataBuffer buf = new DataBuffer();
-        
-        boolean inHeaders = true;
-        boolean inInitialHeaders = true;
-        boolean firstHeaderLine = true;
-        byte[] boundary = null;
-        for(int i=0; i<resultLines.length; i++) {
-            if(inHeaders) {
-                // Special logic to unfold message headers and replace HTAB
-                // indentations in folded headers with spaces.
-                // This is a workaround for a bug in MIMEInputStream that
-                // causes it to fail to parse certain messages with folded
-                // headers.  (The bug appears to be fixed in OS 6.0, but the
-                // workaround is always invoked because it should not have
-                // any harmful side-effects.)
-                if(resultLines[i].length == 0) {
-                    inHeaders = false;
-                    if(!firstHeaderLine) {
-                        removeTrailingColon(buf);
-                        buf.write(CRLF);
-                    }
-                    buf.write(CRLF);
-                    
-                    if(inInitialHeaders) {
-                        boundary = getContentBoundary(buf.getArray(), buf.getArrayStart(), buf.getLength());
-                        inInitialHeaders = false;
-                    }
-                }
-                else if(resultLines[i][0] == (byte)'\t' || resultLines[i][0] == (byte)' ') {
-                    for(int j=1; j<resultLines[i].length; j++) {
-                        if(resultLines[i][j] != (byte)'\t' && resultLines[i][j] != (byte)' ') {
-                            buf.write((byte)' ');
-                            buf.write(resultLines[i], j, resultLines[i].length - j);
-                            break;
-                        }
-                    }
-                }
-                else {
-                    if(!firstHeaderLine) {
-                        removeTrailingColon(buf);
-                        buf.write(CRLF);
-                    }
-                    buf.write(resultLines[i]);
-                }
-                if(firstHeaderLine) { firstHeaderLine = false; }
-            }
-            else {
-                buf.write(resultLines[i]);
-                buf.write(CRLF);
-                if(Arrays.equals(resultLines[i], boundary)) {
-                    inHeaders = true;
-                    firstHeaderLine = true;
-                }
-            }
-        }
-        
-        ByteArrayInputStream inputStream = new ByteArrayInputStream(
-                buf.getArray(), buf.getArrayStart(), buf.getLength());
-        
-        return inputStream;
-    }
-    
-    private static void removeTrailingColon(DataBuffer buf) {
-        int len = buf.getLength();
-        if(len > 0 && buf.getArray()[buf.getArrayStart() + len - 1] == (byte)';') {
-            buf.setLength(len - 1);
-        }
-    }
-
-    private static byte[] getContentBoundary(byte[] buf, int offset, int length) {
-        int p = StringArrays.indexOf(buf, CONTENT_TYPE_KEY, offset, length, true);
-        if(p == -1) { return null; } else { p += CONTENT_TYPE_KEY.length; }
-        
-        int q = StringArrays.indexOf(buf, CRLF, p, length, false);
-        if(q == -1) { return null; }
-        
-        int r = StringArrays.indexOf(buf, BOUNDARY_EQ, p, q, true);
-        if(r == -1) { return null; } else { r += BOUNDARY_EQ.length; }
-        
-        int s = StringArrays.indexOf(buf, (byte)' ', r);
-        if(s == -1 || s > q) { s = q; }
-        
-        if(buf[r] == (byte)'\"') { r++; }
-        if(buf[s - 1] == (byte)';') { s--; }
-        if((s - r) <= 0) { return null; }
-        if(buf[s - 1] == (byte)'\"') { s--; }
-        if((s - r) <= 0) { return null; }
-        
-        byte[] result = new byte[(s - r) + 2];
-        result[0] = (byte)'-';
-        result[1] = (byte)'-';
-        System.arraycopy(buf, r, result, 2, s - r);
-        
-        return result;
-    }
-
     /**
      * Parses the raw message body.
      * There will be a single entry in the content map that does not match the
      * type information described below.  This entry will have a key of
      * <code>Boolean.TRUE</code>, and an <code>Integer</code> value representing
-     * the result of {@link MIMEInputStream#isPartComplete()} for the message.
+     * the completeness of the message, as returned by
+     * {@link MimeStreamParser#finish()}.
+     * The decoded content of each part is limited to {@link #MAX_CONTENT_SIZE}.
      *
      * @param contentMap Map to populate with MessagePart-to-MessageContent data.
      * @param inputStream The stream to read the raw message from
@@ -337,102 +201,152 @@ public class MailMessageParser {
      */
     public static MimeMessagePart parseRawMessage(Hashtable contentMap, InputStream inputStream)
         throws IOException {
-        MIMEInputStream mimeInputStream = null;
-
-        try {
-            mimeInputStream = new MIMEInputStream(inputStream);
-        } catch (MIMEParsingException e) {
-            EventLogger.logEvent(AppInfo.GUID,
-                    ("Unable to parse MIME encoded message: " + e.getMessage()).getBytes(),
-                    EventLogger.WARNING);
-            return null;
-        } catch (ArrayIndexOutOfBoundsException e) {
-            EventLogger.logEvent(AppInfo.GUID,
-                    ("Unable to parse MIME encoded message: " + e.getMessage()).getBytes(),
-                    EventLogger.WARNING);
-            return null;
-        }
-
-        contentMap.put(Boolean.TRUE, new Integer(mimeInputStream.isPartComplete()));
-        
-        MimeMessagePart rootPart = getMessagePart(contentMap, mimeInputStream);
+        return parseRawMessage(contentMap, inputStream, MAX_CONTENT_SIZE);
+    }
 
-        return rootPart;
+    /**
+     * Parses the raw message body, as described in
+     * {@link #parseRawMessage(Hashtable, InputStream)}, with a specific
+     * limit on the decoded size of each part.
+     *
+     * @param contentMap Map to populate with MessagePart-to-MessageContent data.
+     * @param inputStream The stream to read the raw message from
+     * @param maxContentSize the maximum decoded size of a single part
+     * @return The root message part.
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public static MimeMessagePart parseRawMessage(Hashtable contentMap, InputStream inputStream,
+        int maxContentSize) throws IOException {
+        MessagePartBuilder builder = new MessagePartBuilder(contentMap, maxContentSize);
+        int partComplete = new MimeStreamParser(builder).parse(inputStream);
+        return builder.getRootPart(partComplete);
     }
 
     /**
-     * Recursively walk the provided MIMEInputStream, building a message
-     * tree in the process.
+     * Parses the raw message body from the lines of message data returned
+     * by the server, without first copying them into a single buffer.
+     * The content map is populated as described in
+     * {@link #parseRawMessage(Hashtable, InputStream)}.
      *
      * @param contentMap Map to populate with MessagePart-to-MessageContent data.
-     * @param mimeInputStream MIMEInputStream of the downloaded message data
-     * @return Root MessagePart element for this portion of the message tree
+     * @param resultLines the lines of message data returned by the server
+     * @return The root message part.
+     * @throws IOException Signals that an I/O exception has occurred.
      */
-    private static MimeMessagePart getMessagePart(Hashtable contentMap, MIMEInputStream mimeInputStream)
+    public static MimeMessagePart parseRawMessage(Hashtable contentMap, byte[][] resultLines)
         throws IOException {
-        // Parse out the MIME type and relevant header fields
-        String mimeType = mimeInputStream.getContentType();
-        String type = mimeType.substring(0, mimeType.indexOf('/'));
-        String subtype = mimeType.substring(mimeType.indexOf('/') + 1);
-        String encoding = mimeInputStream.getHeader("Content-Transfer-Encoding");
-        String charset = mimeInputStream.getContentTypeParameter("charset");
-        String name = StringParser.parseEncodedHeader(mimeInputStream.getContentTypeParameter("name"), false);
-        String disposition = mimeInputStream.getHeader("Content-Disposition");
-        String contentId = mimeInputStream.getHeader("Content-ID");
-
-        // Default parameters used when headers are missing
-        if (encoding == null) {
-            encoding = "7bit";
+        MessagePartBuilder builder = new MessagePartBuilder(contentMap, MAX_CONTENT_SIZE);
+        MimeStreamParser parser = new MimeStreamParser(builder);
+        for(int i=0; i<resultLines.length; i++) {
+            parser.parseLine(resultLines[i]);
+        }
+        return builder.getRootPart(parser.finish());
+    }
+
+    /**
+     * Builds a message tree from the events generated by the MIME parser,
+     * creating content objects for each part as it is completed.
+     */
+    private static class MessagePartBuilder implements MimeStreamListener {
+        private final Hashtable contentMap;
+        private final Vector multiPartStack = new Vector();
+        private MimeMessagePart rootPart;
+        private String mimeType;
+        private String mimeSubtype;
+        private Hashtable partHeaders;
+        private PartBuffer partData;
+        private final int maxContentSize;
+
+        public MessagePartBuilder(Hashtable contentMap, int maxContentSize) {
+            this.contentMap = contentMap;
+            this.maxContentSize = maxContentSize;
         }
 
-        // Clean up the disposition field
-        if(disposition != null) {
-	        int p = disposition.indexOf(';');
-	        if(p != -1) {
-	        	disposition = disposition.substring(0, p);
-	        }
-        	disposition = disposition.toLowerCase();
+        public MimeMessagePart getRootPart(int partComplete) {
+            if(rootPart == null) {
+                EventLogger.logEvent(AppInfo.GUID,
+                        "Unable to parse MIME encoded message".getBytes(),
+                        EventLogger.WARNING);
+                return null;
+            }
+            contentMap.put(Boolean.TRUE, new Integer(partComplete));
+            return rootPart;
         }
-        
-        // Handle the multi-part case
-        if (mimeInputStream.isMultiPart() &&
-                type.equalsIgnoreCase("multipart")) {
+
+        public void multipartStarted(String mimeSubtype, Hashtable headers) {
             MimeMessagePart part = MimeMessagePartFactory.createMimeMessagePart(
-            		type, subtype, null, null, null, null, null, -1);
-            MIMEInputStream[] mimeSubparts = mimeInputStream.getParts();
+                    "multipart", mimeSubtype, null, null, null, null, null, -1);
+            addPart(part);
+            multiPartStack.addElement(part);
+        }
+
+        public void multipartEnded(int partComplete) {
+            multiPartStack.removeElementAt(multiPartStack.size() - 1);
+        }
 
-            for (int i = 0; i < mimeSubparts.length; i++) {
-                MimeMessagePart subPart = getMessagePart(contentMap, mimeSubparts[i]);
+        public OutputStream partStarted(String mimeType, String mimeSubtype, Hashtable headers) {
+            this.mimeType = mimeType;
+            this.mimeSubtype = mimeSubtype;
+            this.partHeaders = headers;
 
-                if (subPart != null) {
-                    ((MultiPart) part).addPart(subPart);
-                }
+            // A multipart with no boundary has no usable content
+            if(mimeType.equals("multipart")) {
+                partData = null;
             }
-
-            return part;
+            else {
+                partData = new PartBuffer(maxContentSize);
+            }
+            return partData;
         }
-        // Handle the single-part case
-        else {
-            // Decode the data if the part is complete or indeterminate (as is
+
+        public void partEnded(int encodedSize, int partComplete) {
+            // Parse out the relevant header fields
+            String contentType = (String)partHeaders.get("content-type");
+            String encoding = (String)partHeaders.get("content-transfer-encoding");
+            String charset = MimeStreamParser.getHeaderParameter(contentType, "charset");
+            String name = StringParser.parseEncodedHeader(
+                    MimeStreamParser.getHeaderParameter(contentType, "name"), false);
+            String disposition = (String)partHeaders.get("content-disposition");
+            String contentId = (String)partHeaders.get("content-id");
+
+            // Default parameters used when headers are missing
+            if (encoding == null) {
+                encoding = "7bit";
+            }
+
+            // Clean up the disposition field
+            if(disposition != null) {
+                disposition = MimeStreamParser.getHeaderValue(disposition).toLowerCase();
+            }
+
+            // A part that did not fit within the size limit is incomplete
+            if(partData != null && partData.isTruncated()) {
+                partComplete = MimeStreamParser.PART_INCOMPLETE;
+            }
+
+            // Keep the data if the part is complete or indeterminate (as is
             // common if this is the message's only part), or is a text part
             // where partial decoding still yields usable output.
             byte[] buffer;
-            if(mimeInputStream.isPartComplete() != 0
-                    || type.equalsIgnoreCase(TextPart.TYPE)) {
-                buffer = readRawData(mimeInputStream);
+            if(partData != null && (partComplete != MimeStreamParser.PART_INCOMPLETE
+                    || mimeType.equals(TextPart.TYPE))) {
+                buffer = partData.getData();
             }
             else {
                 buffer = null;
             }
-            
+            partData = null;
+            partHeaders = null;
+
             MimeMessagePart part = MimeMessagePartFactory.createMimeMessagePart(
-                    type, subtype, name, encoding, charset, disposition, contentId,
-                    (buffer != null) ? buffer.length : 0);
+                    mimeType, mimeSubtype, name, encoding, charset, disposition, contentId,
+                    (buffer != null) ? encodedSize : 0);
+            addPart(part);
 
             if(buffer != null && buffer.length > 0) {
                 try {
-                    MimeMessageContent content = MimeMessageContentFactory.createContentEncoded(part, buffer);
-                    content.setPartComplete(mimeInputStream.isPartComplete());
+                    MimeMessageContent content = MimeMessageContentFactory.createContentRaw(part, buffer);
+                    content.setPartComplete(partComplete);
                     contentMap.put(part, content);
                 } catch (UnsupportedContentException e) {
                     EventLogger.logEvent(AppInfo.GUID,
@@ -440,30 +354,115 @@ public class MailMessageParser {
                             EventLogger.WARNING);
                 }
             }
-            return part;
+        }
+
+        private void addPart(MimeMessagePart part) {
+            if(multiPartStack.isEmpty()) {
+                if(rootPart == null) {
+                    rootPart = part;
+                }
+            }
+            else {
+                ((MultiPart)multiPartStack.lastElement()).addPart(part);
+            }
         }
     }
-    
-    private static byte[] readRawData(MIMEInputStream mimeInputStream) throws IOException {
-        byte[] buffer;
-        SharedInputStream sis = mimeInputStream.getRawMIMEInputStream();
-        if(sis == null) { return new byte[0]; }
-        buffer = IOUtilities.streamToBytes(sis);
-
-        int offset = 0;
-        while (((offset + 3) < buffer.length) &&
-                !((buffer[offset] == '\r') &&
-                        (buffer[offset + 1] == '\n') &&
-                        (buffer[offset + 2] == '\r') &&
-                        (buffer[offset + 3] == '\n'))) {
-            offset++;
+
+    /**
+     * Collects the decoded data of a single part in fixed-size chunks,
+     * up to a size limit.  Content objects take an exact-length array, so
+     * the chunks are assembled once when the part ends and each chunk is
+     * released as it is copied.  This avoids the repeated growth copies of
+     * a single expanding buffer, and never holds two full copies of the
+     * part at the same time.
+     */
+    private static class PartBuffer extends OutputStream {
+        private static final int CHUNK_SIZE = 4096;
+        private final int limit;
+        private final Vector chunks = new Vector();
+        private byte[] chunk;
+        private int chunkCount;
+        private int count;
+        private boolean truncated;
+
+        public PartBuffer(int limit) {
+            this.limit = limit;
+        }
+
+        public void write(int b) {
+            if(count >= limit) {
+                truncated = true;
+                return;
+            }
+            if(chunk == null || chunkCount == chunk.length) {
+                nextChunk();
+            }
+            chunk[chunkCount++] = (byte)b;
+            count++;
         }
-        offset += 4;
 
-        try {
-            return Arrays.copy(buffer, offset, buffer.length - offset);
-        } catch (IndexOutOfBoundsException e) {
-            return new byte[0];
+        public void write(byte[] b, int off, int len) {
+            if(len > limit - count) {
+                len = limit - count;
+                truncated = true;
+            }
+            while(len > 0) {
+                if(chunk == null || chunkCount == chunk.length) {
+                    nextChunk();
+                }
+                int n = Math.min(len, chunk.length - chunkCount);
+                System.arraycopy(b, off, chunk, chunkCount, n);
+                chunkCount += n;
+                count += n;
+                off += n;
+                len -= n;
+            }
         }
-    }    
+
+        private void nextChunk() {
+            chunk = new byte[Math.min(CHUNK_SIZE, limit - count)];
+            chunkCount = 0;
+            chunks.addElement(chunk);
+        }
+
+        /**
+         * Checks whether data was discarded because the part exceeded
+         * the size limit.
+         *
+         * @return true, if the part was truncated
+         */
+        public boolean isTruncated() {
+            return truncated;
+        }
+
+        /**
+         * Gets the collected data, releasing the chunks that held it.
+         * A part that fits within a single full chunk is handed over as-is.
+         *
+         * @return the collected data
+         */
+        public byte[] getData() {
+            int size = chunks.size();
+            byte[] data;
+            if(size == 1 && chunkCount == chunk.length) {
+                data = chunk;
+            }
+            else {
+                data = new byte[count];
+                int pos = 0;
+                for(int i=0; i<size; i++) {
+                    byte[] item = (byte[])chunks.elementAt(i);
+                    chunks.setElementAt(null, i);
+                    int n = Math.min(item.length, count - pos);
+                    System.arraycopy(item, 0, data, pos, n);
+                    pos += n;
+                }
+            }
+            chunks.removeAllElements();
+            chunk = null;
+            chunkCount = 0;
+            count = 0;
+            return data;
+        }
+    }
 }
@@ -0,0 +1,92 @@
+/*-
+ * Copyright (c) 2011, Derek Konigsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution. 
+ * 3. Neither the name of the project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.logicprobe.LogicMail.util;
+
+import java.io.OutputStream;
+import java.util.Hashtable;
+
+/**
+ * Receives the structure and content of a MIME message as it is parsed
+ * by {@link MimeStreamParser}.
+ * <p>
+ * Events are delivered in document order.  Every call to
+ * {@link #multipartStarted(String, Hashtable)} is matched by a later call to
+ * {@link #multipartEnded(int)}, and every call to
+ * {@link #partStarted(String, String, Hashtable)} is matched by a later call to
+ * {@link #partEnded(int, int)}.  Any parts started in between belong to the
+ * innermost open multipart.
+ * </p>
+ * <p>
+ * Header tables map lower-case header names to their unfolded values.
+ * </p>
+ */
+public interface MimeStreamListener {
+    /**
+     * Invoked when the headers of a multipart entity have been parsed.
+     *
+     * @param mimeSubtype the lower-case MIME subtype
+     * @param headers the headers of the entity
+     */
+    void multipartStarted(String mimeSubtype, Hashtable headers);
+
+    /**
+     * Invoked when a multipart entity has ended.
+     *
+     * @param partComplete {@link MimeStreamParser#PART_COMPLETE} if the
+     *     closing delimiter was found, or
+     *     {@link MimeStreamParser#PART_INCOMPLETE} if the data ended first
+     */
+    void multipartEnded(int partComplete);
+
+    /**
+     * Invoked when the headers of a single-part entity have been parsed.
+     *
+     * @param mimeType the lower-case MIME type
+     * @param mimeSubtype the lower-case MIME subtype
+     * @param headers the headers of the entity
+     * @return the stream to write the decoded content of the part to, or
+     *     <code>null</code> if the content should be discarded.  The stream
+     *     is closed before {@link #partEnded(int, int)} is invoked.
+     */
+    OutputStream partStarted(String mimeType, String mimeSubtype, Hashtable headers);
+
+    /**
+     * Invoked when a single-part entity has ended.
+     *
+     * @param encodedSize the size of the encoded content of the part
+     * @param partComplete the completeness of the part, as one of
+     *     {@link MimeStreamParser#PART_COMPLETE},
+     *     {@link MimeStreamParser#PART_INCOMPLETE}, or
+     *     {@link MimeStreamParser#PART_UNKNOWN}
+     */
+    void partEnded(int encodedSize, int partComplete);
+}
@@ -0,0 +1,498 @@
+/*-
+ * Copyright (c) 2011, Derek Konigsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution. 
+ * 3. Neither the name of the project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.logicprobe.LogicMail.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * Single-pass MIME parser that reports the structure and content of a
+ * message to a {@link MimeStreamListener} as the message data is provided.
+ * <p>
+ * Data may either be pushed in one line at a time, as it is returned by the
+ * protocol code, or read from an input stream.  Part content is decoded from
+ * Base64 or quoted-printable as it is parsed, so the parser itself never
+ * buffers more than a single line of the message.
+ * </p>
+ * <p>
+ * This class does not depend on any platform MIME support, so it can be
+ * tested without a device.
+ * </p>
+ */
+public class MimeStreamParser {
+    /** The part was terminated by a boundary delimiter. */
+    public static final int PART_COMPLETE = 1;
+    /** The message data ended before the part did. */
+    public static final int PART_INCOMPLETE = 0;
+    /** The part is not enclosed by any boundaries, so it cannot be known if it is complete. */
+    public static final int PART_UNKNOWN = -1;
+
+    private static final int STATE_HEADERS = 0;
+    private static final int STATE_BODY = 1;
+    private static final int STATE_PREAMBLE = 2;
+    private static final int STATE_EPILOGUE = 3;
+    private static final int STATE_DONE = 4;
+
+    /** Longest body line that is buffered before being parsed in pieces. */
+    private static final int MAX_LINE_LENGTH = 8192;
+    private static final byte[] CRLF = new byte[] { (byte)'\r', (byte)'\n' };
+    private static final String ENCODING_BASE64 = "base64";
+    private static final String ENCODING_QUOTED_PRINTABLE = "quoted-printable";
+
+    private final MimeStreamListener listener;
+    /** Delimiters for the open multipart entities, with the innermost last. */
+    private final Vector boundaries = new Vector();
+    private final StringBuffer headerLine = new StringBuffer();
+    private Hashtable headers = new Hashtable();
+    private int headerCount;
+    private int state = STATE_HEADERS;
+    private boolean started;
+    private boolean midLine;
+    private boolean closeDelimiter;
+    private OutputStream bodyOutput;
+    private int bodyLineCount;
+    private int encodedSize;
+    private int rootComplete = PART_UNKNOWN;
+
+    /**
+     * Instantiates a new MIME stream parser.
+     *
+     * @param listener the listener to notify of the message structure
+     */
+    public MimeStreamParser(MimeStreamListener listener) {
+        if(listener == null) {
+            throw new NullPointerException();
+        }
+        this.listener = listener;
+    }
+
+    /**
+     * Parses a complete message from the provided stream, and then invokes
+     * {@link #finish()}.  Line breaks may be either CRLF or bare LF.
+     *
+     * @param input the stream to read the message from
+     * @return the completeness of the root part of the message
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public int parse(InputStream input) throws IOException {
+        byte[] buf = new byte[4096];
+        byte[] line = new byte[256];
+        int lineLength = 0;
+        int count;
+        while((count = input.read(buf, 0, buf.length)) != -1) {
+            for(int i=0; i<count; i++) {
+                byte b = buf[i];
+                if(b == (byte)'\n') {
+                    parseLineImpl(line, 0, lineLength, true);
+                    lineLength = 0;
+                    continue;
+                }
+
+                if(lineLength == line.length) {
+                    if(lineLength >= MAX_LINE_LENGTH && state == STATE_BODY) {
+                        // Pass along what we have, holding back a trailing
+                        // CR in case it is part of the line terminator
+                        int length = (line[lineLength - 1] == (byte)'\r') ? lineLength - 1 : lineLength;
+                        parseLineImpl(line, 0, length, false);
+                        if(length < lineLength) {
+                            line[0] = (byte)'\r';
+                            lineLength = 1;
+                        }
+                        else {
+                            lineLength = 0;
+                        }
+                    }
+                    else {
+                        byte[] newLine = new byte[line.length * 2];
+                        System.arraycopy(line, 0, newLine, 0, lineLength);
+                        line = newLine;
+                    }
+                }
+                line[lineLength++] = b;
+            }
+        }
+        if(lineLength > 0 || midLine) {
+            parseLineImpl(line, 0, lineLength, true);
+        }
+        return finish();
+    }
+
+    /**
+     * Parses a single line of the message.
+     *
+     * @param line the line, with or without its line terminator
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public void parseLine(byte[] line) throws IOException {
+        parseLineImpl(line, 0, line.length, true);
+    }
+
+    /**
+     * Parses a single line of the message.
+     *
+     * @param buf the buffer containing the line
+     * @param offset the offset of the line within the buffer
+     * @param length the length of the line, with or without its line terminator
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public void parseLine(byte[] buf, int offset, int length) throws IOException {
+        parseLineImpl(buf, offset, length, true);
+    }
+
+    /**
+     * Ends parsing, closing any parts that are still open.
+     * This must be called once all lines have been provided.
+     *
+     * @return the completeness of the root part of the message
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public int finish() throws IOException {
+        if(state == STATE_DONE) {
+            return rootComplete;
+        }
+
+        midLine = false;
+        if(state == STATE_HEADERS) {
+            commitHeader();
+            // Headers with no body still describe a part, and so does
+            // an incomplete message with nothing but root headers
+            if(headerCount > 0 || (started && boundaries.isEmpty())) {
+                endHeaders();
+            }
+        }
+        if(state == STATE_BODY) {
+            endPart(boundaries.isEmpty() ? PART_UNKNOWN : PART_INCOMPLETE);
+        }
+        while(!boundaries.isEmpty()) {
+            boundaries.removeElementAt(boundaries.size() - 1);
+            listener.multipartEnded(PART_INCOMPLETE);
+            rootComplete = PART_INCOMPLETE;
+        }
+        state = STATE_DONE;
+        return rootComplete;
+    }
+
+    private void parseLineImpl(byte[] buf, int offset, int length, boolean lineEnd) throws IOException {
+        if(state == STATE_DONE) { return; }
+        started = true;
+
+        if(lineEnd) {
+            if(length > 0 && buf[offset + length - 1] == (byte)'\n') { length--; }
+            if(length > 0 && buf[offset + length - 1] == (byte)'\r') { length--; }
+        }
+
+        if(midLine) {
+            // Continuation of a body line that was too long to buffer
+            writeBody(buf, offset, length);
+            midLine = !lineEnd;
+            return;
+        }
+
+        if(!boundaries.isEmpty() && length >= 2
+                && buf[offset] == (byte)'-' && buf[offset + 1] == (byte)'-') {
+            int index = matchBoundary(buf, offset, length);
+            if(index != -1) {
+                handleBoundary(index);
+                return;
+            }
+        }
+
+        switch(state) {
+        case STATE_HEADERS:
+            parseHeaderLine(buf, offset, length);
+            break;
+        case STATE_BODY:
+            // The line break preceding a delimiter belongs to the delimiter,
+            // so line breaks are written ahead of each line after the first
+            if(bodyLineCount > 0) {
+                writeBody(CRLF, 0, CRLF.length);
+            }
+            bodyLineCount++;
+            writeBody(buf, offset, length);
+            midLine = !lineEnd;
+            break;
+        default:
+            // Preamble and epilogue text is ignored
+            break;
+        }
+    }
+
+    private void parseHeaderLine(byte[] buf, int offset, int length) throws IOException {
+        if(length == 0) {
+            endHeaders();
+            return;
+        }
+
+        int end = offset + length;
+        byte first = buf[offset];
+        if((first == (byte)' ' || first == (byte)'\t') && headerLine.length() > 0) {
+            // Unfold the continuation of the previous header
+            int p = offset;
+            while(p < end && (buf[p] == (byte)' ' || buf[p] == (byte)'\t')) { p++; }
+            if(p < end) {
+                headerLine.append(' ');
+                appendChars(headerLine, buf, p, end);
+            }
+        }
+        else {
+            commitHeader();
+            appendChars(headerLine, buf, offset, end);
+        }
+    }
+
+    private void commitHeader() {
+        if(headerLine.length() == 0) { return; }
+
+        String line = headerLine.toString();
+        headerLine.setLength(0);
+
+        int p = line.indexOf(':');
+        if(p > 0) {
+            String name = line.substring(0, p).trim().toLowerCase();
+            if(!headers.containsKey(name)) {
+                headers.put(name, line.substring(p + 1).trim());
+            }
+            headerCount++;
+        }
+    }
+
+    private void endHeaders() throws IOException {
+        commitHeader();
+        Hashtable partHeaders = headers;
+        headers = new Hashtable();
+        headerCount = 0;
+
+        String mimeType = "text";
+        String mimeSubtype = "plain";
+        String contentType = (String)partHeaders.get("content-type");
+        if(contentType != null) {
+            String value = getHeaderValue(contentType);
+            int p = value.indexOf('/');
+            if(p > 0 && p < value.length() - 1) {
+                mimeType = value.substring(0, p).trim().toLowerCase();
+                mimeSubtype = value.substring(p + 1).trim().toLowerCase();
+            }
+        }
+
+        String boundary = null;
+        if(mimeType.equals("multipart")) {
+            boundary = getHeaderParameter(contentType, "boundary");
+        }
+
+        if(boundary != null && boundary.length() > 0) {
+            listener.multipartStarted(mimeSubtype, partHeaders);
+            boundaries.addElement(toBytes("--" + boundary));
+            state = STATE_PREAMBLE;
+        }
+        else {
+            OutputStream output = listener.partStarted(mimeType, mimeSubtype, partHeaders);
+            if(output != null) {
+                String encoding = (String)partHeaders.get("content-transfer-encoding");
+                if(ENCODING_BASE64.equalsIgnoreCase(encoding)) {
+                    output = new Base64DecodingOutputStream(output);
+                }
+                else if(ENCODING_QUOTED_PRINTABLE.equalsIgnoreCase(encoding)) {
+                    output = new QuotedPrintableDecodingOutputStream(output);
+                }
+            }
+            bodyOutput = output;
+            bodyLineCount = 0;
+            encodedSize = 0;
+            state = STATE_BODY;
+        }
+    }
+
+    private void writeBody(byte[] buf, int offset, int length) throws IOException {
+        encodedSize += length;
+        if(bodyOutput != null) {
+            bodyOutput.write(buf, offset, length);
+        }
+    }
+
+    private void endPart(int partComplete) throws IOException {
+        if(bodyOutput != null) {
+            bodyOutput.close();
+            bodyOutput = null;
+        }
+        midLine = false;
+        if(boundaries.isEmpty()) {
+            rootComplete = partComplete;
+        }
+        listener.partEnded(encodedSize, partComplete);
+        state = STATE_EPILOGUE;
+    }
+
+    /**
+     * Checks whether the provided line is a delimiter for any of the open
+     * multipart entities, starting with the innermost.
+     *
+     * @return the index of the matching entity, or -1 if there was no match
+     */
+    private int matchBoundary(byte[] buf, int offset, int length) {
+        int end = offset + length;
+        for(int i = boundaries.size() - 1; i >= 0; i--) {
+            byte[] boundary = (byte[])boundaries.elementAt(i);
+            if(length < boundary.length) { continue; }
+
+            int j = 0;
+            while(j < boundary.length && buf[offset + j] == boundary[j]) { j++; }
+            if(j < boundary.length) { continue; }
+
+            int p = offset + boundary.length;
+            boolean close = false;
+            if(p + 1 < end && buf[p] == (byte)'-' && buf[p + 1] == (byte)'-') {
+                close = true;
+                p += 2;
+            }
+            while(p < end && (buf[p] == (byte)' ' || buf[p] == (byte)'\t')) { p++; }
+            if(p == end) {
+                closeDelimiter = close;
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void handleBoundary(int index) throws IOException {
+        if(state == STATE_HEADERS) {
+            commitHeader();
+            if(headerCount > 0) {
+                endHeaders();
+            }
+        }
+        if(state == STATE_BODY) {
+            endPart(PART_COMPLETE);
+        }
+
+        // Any nested multipart entities that were never closed are truncated
+        while(boundaries.size() - 1 > index) {
+            boundaries.removeElementAt(boundaries.size() - 1);
+            listener.multipartEnded(PART_INCOMPLETE);
+        }
+
+        if(closeDelimiter) {
+            boundaries.removeElementAt(index);
+            listener.multipartEnded(PART_COMPLETE);
+            if(boundaries.isEmpty()) {
+                rootComplete = PART_COMPLETE;
+            }
+            state = STATE_EPILOGUE;
+        }
+        else {
+            state = STATE_HEADERS;
+        }
+    }
+
+    /**
+     * Gets the value of a structured header, without any parameters.
+     *
+     * @param header the header text
+     * @return the header value
+     */
+    public static String getHeaderValue(String header) {
+        int p = header.indexOf(';');
+        return ((p == -1) ? header : header.substring(0, p)).trim();
+    }
+
+    /**
+     * Gets a parameter from a structured header, such as the charset from a
+     * <code>Content-Type</code> header.  Quoted values are unquoted.
+     *
+     * @param header the header text
+     * @param name the parameter name, which is not case sensitive
+     * @return the parameter value, or <code>null</code> if it was not present
+     */
+    public static String getHeaderParameter(String header, String name) {
+        if(header == null) { return null; }
+
+        int length = header.length();
+        int p = header.indexOf(';');
+        while(p != -1) {
+            p++;
+            int eq = header.indexOf('=', p);
+            if(eq == -1) { break; }
+            int semi = header.indexOf(';', p);
+            if(semi != -1 && semi < eq) {
+                // Skip over a malformed parameter with no value
+                p = semi;
+                continue;
+            }
+
+            String key = header.substring(p, eq).trim();
+            int q = eq + 1;
+            while(q < length && header.charAt(q) == ' ') { q++; }
+
+            String value;
+            if(q < length && header.charAt(q) == '"') {
+                StringBuffer buf = new StringBuffer();
+                q++;
+                while(q < length && header.charAt(q) != '"') {
+                    char ch = header.charAt(q);
+                    if(ch == '\\' && q + 1 < length) {
+                        ch = header.charAt(++q);
+                    }
+                    buf.append(ch);
+                    q++;
+                }
+                value = buf.toString();
+                p = header.indexOf(';', q);
+            }
+            else {
+                p = header.indexOf(';', q);
+                value = ((p == -1) ? header.substring(q) : header.substring(q, p)).trim();
+            }
+
+            if(key.equalsIgnoreCase(name)) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    private static void appendChars(StringBuffer buf, byte[] data, int start, int end) {
+        for(int i=start; i<end; i++) {
+            buf.append((char)(data[i] & 0xFF));
+        }
+    }
+
+    private static byte[] toBytes(String text) {
+        int length = text.length();
+        byte[] result = new byte[length];
+        for(int i=0; i<length; i++) {
+            result[i] = (byte)text.charAt(i);
+        }
+        return result;
+    }
+}
@@ -36,10 +36,25 @@ import java.util.Vector;
 
 import net.rim.device.api.system.PersistentObject;
 import net.rim.device.api.system.PersistentStore;
+import net.rim.device.api.util.Arrays;
 import net.rim.device.api.util.LongHashtable;
 import net.rim.device.api.util.ToLongHashtable;
 
+/**
+ * Data store backed by a RIM persistent object.
+ * <p>
+ * Each object is kept in serialized form, and only objects that have been
+ * put into the store since the last save are serialized again.  If nothing
+ * actually changed, the persistent object is left untouched.  Commits are
+ * delayed slightly, so that several saves in quick succession only result
+ * in a single commit.
+ * </p>
+ */
 public class PersistentObjectDataStore implements DataStore {
+    /** Time to wait after a save before committing, in milliseconds */
+    private static final long COMMIT_DELAY = 1000;
+    
+
     /** Unique id for the root persistent object */
     private long storeUid;
     /** Root persistent object store */
@@ -48,6 +63,18 @@ public class PersistentObjectDataStore implements DataStore {
     private ToLongHashtable nameMap;
     /** UID to Object mappings */
     private LongHashtable objectMap;
+    /** UID to serialized data mappings, as of the last save */
+    private LongHashtable encodedMap;
+    /** UID to Object mappings for objects put since the last save */
+    private LongHashtable dirtyMap;
+    /** UIDs of objects removed since the last save */
+    private Vector removedIds;
+    /** True if the name mappings changed since the last save */
+    private boolean nameMapChanged;
+    /** True if the persistent object contains this store's data */
+    private boolean contentsWritten;
+    /** Pending commit, if any */
+    private TimerWheel.Timeout commitTask;
     
     /**
      * Creates a new instance of RmsDataStore.
@@ -58,6 +85,9 @@ public class PersistentObjectDataStore implements DataStore {
         this.store = PersistentStore.getPersistentObject(storeUid);
         this.nameMap = new ToLongHashtable();
         this.objectMap = new LongHashtable();
+        this.encodedMap = new LongHashtable();
+        this.dirtyMap = new LongHashtable();
+        this.removedIds = new Vector();
     }
 
     public Serializable getNamedObject(String name) {
@@ -91,44 +121,79 @@ public class PersistentObjectDataStore implements DataStore {
         // remove the old object from the object map.
         long oldObjectId = nameMap.get(name);
         if(oldObjectId != -1) {
-            objectMap.remove(oldObjectId);
+            removeObject(oldObjectId);
         }
         
-        nameMap.put(name, object.getUniqueId());
+        if(oldObjectId != object.getUniqueId()) {
+            nameMap.put(name, object.getUniqueId());
+            nameMapChanged = true;
+        }
         putObject(object);
     }
 
     public void putObject(Serializable object) {
         objectMap.put(object.getUniqueId(), object);
+        dirtyMap.put(object.getUniqueId(), object);
     }
 
     public void removeNamedObject(String name) {
         Serializable object = getNamedObject(name);
         if(object != null) {
-            objectMap.remove(object.getUniqueId());
+            removeObject(object.getUniqueId());
+        }
+        if(nameMap.remove(name) != -1) {
+            nameMapChanged = true;
         }
-        nameMap.remove(name);
     }
 
     public void removeObject(Serializable object) {
-        objectMap.remove(object.getUniqueId());
+        removeObject(object.getUniqueId());
     }
     
     public void removeObject(long id) {
         objectMap.remove(id);
+        dirtyMap.remove(id);
+        removedIds.addElement(new Long(id));
     }
     
     public void save() {
-        Vector objectData = new Vector();
-
-        byte[] byteArray;
-        Enumeration e = objectMap.elements();
+        boolean changed = nameMapChanged;
+        
+        // Drop the data for objects that are no longer in the store
+        int size = removedIds.size();
+        for(int i=0; i<size; i++) {
+            long id = ((Long)removedIds.elementAt(i)).longValue();
+            if(!objectMap.containsKey(id) && encodedMap.remove(id) != null) {
+                changed = true;
+            }
+        }
+        removedIds.removeAllElements();
+        
+        // Serialize the objects that were put since the last save, keeping
+        // the existing data for any that did not actually change
+        Enumeration e = dirtyMap.elements();
         while (e.hasMoreElements()) {
             try {
-                byteArray = SerializationUtils.serializeClass((Serializable)e.nextElement());
-                objectData.addElement(byteArray);
+                Serializable object = (Serializable)e.nextElement();
+                byte[] byteArray = SerializationUtils.serializeClass(object);
+                byte[] existingArray = (byte[])encodedMap.get(object.getUniqueId());
+                if(existingArray == null || !Arrays.equals(existingArray, byteArray)) {
+                    encodedMap.put(object.getUniqueId(), byteArray);
+                    changed = true;
+                }
             } catch (Exception exp) { }
         }
+        dirtyMap.clear();
+        
+        if(!changed && contentsWritten) {
+            return;
+        }
+        
+        Vector objectData = new Vector(encodedMap.size());
+        e = encodedMap.elements();
+        while (e.hasMoreElements()) {
+            objectData.addElement(e.nextElement());
+        }
 
         PersistentObjectDataStoreContainer container = new PersistentObjectDataStoreContainer();
         container.setElement(PersistentObjectDataStoreContainer.FIELD_NAME_MAP, nameMap);
@@ -136,7 +201,43 @@ public class PersistentObjectDataStore implements DataStore {
 
         synchronized(store) {
             store.setContents(container);
-            store.commit();
+        }
+        nameMapChanged = false;
+        contentsWritten = true;
+        scheduleCommit();
+    }
+    
+    public void flush() {
+        boolean commit;
+        synchronized(this) {
+            commit = (commitTask != null);
+            if(commit) {
+                commitTask.cancel();
+                commitTask = null;
+            }
+        }
+        if(commit) {
+            synchronized(store) {
+                store.commit();
+            }
+        }
+    }
+    
+    private synchronized void scheduleCommit() {
+        if(commitTask == null) {
+            commitTask = TimerWheel.getInstance().schedule(
+                    "PersistentObjectDataStore.commit", new Runnable() {
+                public void run() {
+                    flush();
+                }
+            }, COMMIT_DELAY);
+        }
+    }
+    
+    private synchronized void cancelCommit() {
+        if(commitTask != null) {
+            commitTask.cancel();
+            commitTask = null;
         }
     }
 
@@ -170,19 +271,26 @@ public class PersistentObjectDataStore implements DataStore {
             int size = newObjects.size();
             for(int i=0; i<size; i++) {
                 try {
-                    deserializedObject = SerializationUtils.deserializeClass((byte[])newObjects.elementAt(i));
+                    byte[] byteArray = (byte[])newObjects.elementAt(i);
+                    deserializedObject = SerializationUtils.deserializeClass(byteArray);
                     if(deserializedObject != null) {
-                        objectMap.put(
-                                ((Serializable)deserializedObject).getUniqueId(),
-                                deserializedObject);
+                        long id = ((Serializable)deserializedObject).getUniqueId();
+                        objectMap.put(id, deserializedObject);
+                        encodedMap.put(id, byteArray);
                     }
                 } catch (Exception exp) { }
             }
+            contentsWritten = true;
         }
     }
 
     public void delete() {
+        cancelCommit();
         PersistentStore.destroyPersistentObject(storeUid);
+        encodedMap.clear();
+        dirtyMap.clear();
+        removedIds.removeAllElements();
+        contentsWritten = false;
     }
 
     public int getSyncObjectUID() {
@@ -239,8 +347,11 @@ public class PersistentObjectDataStore implements DataStore {
         container.setElement(PersistentObjectDataStoreContainer.FIELD_NAME_MAP, syncObject.getNameMap());
         container.setElement(PersistentObjectDataStoreContainer.FIELD_OBJECT_DATA, syncObject.getObjectData());
         
-        store.setContents(container);
-        store.commit();
+        cancelCommit();
+        synchronized(store) {
+            store.setContents(container);
+            store.commit();
+        }
         return true;
     }
 }
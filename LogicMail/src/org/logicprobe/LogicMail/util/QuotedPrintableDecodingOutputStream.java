@@ -0,0 +1,162 @@
+/*-
+ * Copyright (c) 2011, Derek Konigsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution. 
+ * 3. Neither the name of the project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.logicprobe.LogicMail.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream that decodes quoted-printable data as it is written, and
+ * passes the decoded bytes along to an underlying stream.
+ * <p>
+ * Escape sequences and soft line breaks are recognized even when they are
+ * split across multiple writes.  Invalid escape sequences are dropped, which
+ * matches the behavior of {@link StringParser#decodeQuotedPrintableBytes(byte[])}.
+ * </p>
+ */
+public class QuotedPrintableDecodingOutputStream extends OutputStream {
+    private static final int STATE_NORMAL = 0;
+    private static final int STATE_ESCAPE = 1;
+    private static final int STATE_ESCAPE_HEX = 2;
+    private static final int STATE_SOFT_BREAK = 3;
+
+    private final OutputStream output;
+    private final byte[] buffer = new byte[1024];
+    private int bufferCount;
+    private int state;
+    private int escapeValue;
+
+    /**
+     * Instantiates a new quoted-printable decoding output stream.
+     *
+     * @param output the stream to write decoded data to
+     */
+    public QuotedPrintableDecodingOutputStream(OutputStream output) {
+        if(output == null) {
+            throw new NullPointerException();
+        }
+        this.output = output;
+    }
+
+    public void write(int b) throws IOException {
+        decode((byte)b);
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        int end = off + len;
+        for(int i=off; i<end; i++) {
+            decode(b[i]);
+        }
+    }
+
+    private void decode(byte b) throws IOException {
+        switch(state) {
+        case STATE_ESCAPE:
+            if(b == (byte)'\r') {
+                state = STATE_SOFT_BREAK;
+            }
+            else if(b == (byte)'\n') {
+                state = STATE_NORMAL;
+            }
+            else {
+                escapeValue = hexValue(b);
+                state = STATE_ESCAPE_HEX;
+            }
+            break;
+        case STATE_ESCAPE_HEX:
+            int value = hexValue(b);
+            if(escapeValue >= 0 && value >= 0) {
+                append((byte)((escapeValue << 4) | value));
+            }
+            state = STATE_NORMAL;
+            break;
+        case STATE_SOFT_BREAK:
+            state = STATE_NORMAL;
+            if(b != (byte)'\n') {
+                decode(b);
+            }
+            break;
+        default:
+            if(b == (byte)'=') {
+                state = STATE_ESCAPE;
+            }
+            else {
+                append(b);
+            }
+            break;
+        }
+    }
+
+    private static int hexValue(byte b) {
+        if(b >= (byte)'0' && b <= (byte)'9') {
+            return b - '0';
+        }
+        else if(b >= (byte)'A' && b <= (byte)'F') {
+            return b - 'A' + 10;
+        }
+        else if(b >= (byte)'a' && b <= (byte)'f') {
+            return b - 'a' + 10;
+        }
+        else {
+            return -1;
+        }
+    }
+
+    private void append(byte b) throws IOException {
+        if(bufferCount == buffer.length) {
+            flushBuffer();
+        }
+        buffer[bufferCount++] = b;
+    }
+
+    private void flushBuffer() throws IOException {
+        if(bufferCount > 0) {
+            output.write(buffer, 0, bufferCount);
+            bufferCount = 0;
+        }
+    }
+
+    public void flush() throws IOException {
+        flushBuffer();
+        output.flush();
+    }
+
+    /**
+     * Decodes any remaining data, and closes the underlying stream.
+     * An incomplete escape sequence at the end of the data is discarded.
+     */
+    public void close() throws IOException {
+        state = STATE_NORMAL;
+        flushBuffer();
+        output.close();
+    }
+}
@@ -38,54 +38,242 @@ import java.io.DataInputStream;
 import java.io.DataOutput;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.Hashtable;
+import java.util.Vector;
+
+import net.rim.device.api.util.IntHashtable;
+
+import org.logicprobe.LogicMail.conf.GlobalConfig;
+import org.logicprobe.LogicMail.conf.IdentityConfig;
+import org.logicprobe.LogicMail.conf.ImapConfig;
+import org.logicprobe.LogicMail.conf.OutgoingConfig;
+import org.logicprobe.LogicMail.conf.PopConfig;
+import org.logicprobe.LogicMail.mail.FolderTreeItem;
+import org.logicprobe.LogicMail.mail.LocalMessageToken;
+import org.logicprobe.LogicMail.mail.OutgoingMessageToken;
+import org.logicprobe.LogicMail.mail.imap.ImapMessageToken;
+import org.logicprobe.LogicMail.mail.pop.PopMessageToken;
+import org.logicprobe.LogicMail.message.ApplicationContent;
+import org.logicprobe.LogicMail.message.ApplicationPart;
+import org.logicprobe.LogicMail.message.AudioContent;
+import org.logicprobe.LogicMail.message.AudioPart;
+import org.logicprobe.LogicMail.message.ImageContent;
+import org.logicprobe.LogicMail.message.ImagePart;
+import org.logicprobe.LogicMail.message.MessageContent;
+import org.logicprobe.LogicMail.message.MessageEnvelope;
+import org.logicprobe.LogicMail.message.MessagePart;
+import org.logicprobe.LogicMail.message.MultiPart;
+import org.logicprobe.LogicMail.message.TextContent;
+import org.logicprobe.LogicMail.message.TextPart;
+import org.logicprobe.LogicMail.message.UnsupportedPart;
+import org.logicprobe.LogicMail.message.VideoContent;
+import org.logicprobe.LogicMail.message.VideoPart;
+import org.logicprobe.LogicMail.model.MailboxNode;
 
 /**
  * Utility class providing common methods used in serialization.
+ * <p>
+ * Serialized objects start with a short header that identifies their class,
+ * followed by the data written by {@link Serializable#serialize(DataOutput)}.
+ * Classes registered with {@link #registerType(int, Class, SerializableFactory)}
+ * are identified by a small integer type ID, and are instantiated through
+ * their factory.  Any other class is identified by its fully qualified name,
+ * and is instantiated through reflection.
+ * </p>
+ * <p>
+ * Data written before the type ID header was introduced consists of the
+ * class name followed by the object data, and can still be read.
+ * </p>
  */
 public final class SerializationUtils {
 	private SerializationUtils() { }
 	
+    /**
+     * First byte of the header.  Old data starts with the high byte of the
+     * class name length, which can never have this value.
+     */
+    private static final int FORMAT_MARKER = 0xFF;
+    /** Version of the header format */
+    private static final int FORMAT_VERSION = 1;
+    /** Type ID written for classes that have not been registered */
+    private static final int TYPE_UNREGISTERED = 0;
+    
+    // Type IDs for the built-in classes.  These are part of the stored data,
+    // so existing values must never be changed or reused.
+    private static final int TYPE_GLOBAL_CONFIG = 1;
+    private static final int TYPE_IDENTITY_CONFIG = 2;
+    private static final int TYPE_IMAP_CONFIG = 3;
+    private static final int TYPE_POP_CONFIG = 4;
+    private static final int TYPE_OUTGOING_CONFIG = 5;
+    private static final int TYPE_FOLDER_TREE_ITEM = 6;
+    private static final int TYPE_MAILBOX_NODE = 7;
+    private static final int TYPE_MESSAGE_ENVELOPE = 8;
+    private static final int TYPE_IMAP_MESSAGE_TOKEN = 9;
+    private static final int TYPE_POP_MESSAGE_TOKEN = 10;
+    private static final int TYPE_LOCAL_MESSAGE_TOKEN = 11;
+    private static final int TYPE_OUTGOING_MESSAGE_TOKEN = 12;
+    private static final int TYPE_TEXT_PART = 13;
+    private static final int TYPE_IMAGE_PART = 14;
+    private static final int TYPE_AUDIO_PART = 15;
+    private static final int TYPE_VIDEO_PART = 16;
+    private static final int TYPE_APPLICATION_PART = 17;
+    private static final int TYPE_MESSAGE_PART = 18;
+    private static final int TYPE_MULTI_PART = 19;
+    private static final int TYPE_UNSUPPORTED_PART = 20;
+    private static final int TYPE_TEXT_CONTENT = 21;
+    private static final int TYPE_IMAGE_CONTENT = 22;
+    private static final int TYPE_AUDIO_CONTENT = 23;
+    private static final int TYPE_VIDEO_CONTENT = 24;
+    private static final int TYPE_APPLICATION_CONTENT = 25;
+    private static final int TYPE_MESSAGE_CONTENT = 26;
+    private static final int TYPE_SERIALIZABLE_HASHTABLE = 27;
+    private static final int TYPE_SERIALIZABLE_VECTOR = 28;
+    
+    /** Largest buffer that is kept for reuse after serialization */
+    private static final int MAX_POOLED_BUFFER_SIZE = 65536;
+    /** Maximum number of buffers kept for reuse */
+    private static final int MAX_POOLED_BUFFERS = 4;
+    
+    /** Class name to type ID mappings */
+    private static final Hashtable typeIdMap = new Hashtable();
+    /** Type ID to class name mappings */
+    private static final IntHashtable typeNameMap = new IntHashtable();
+    /** Type ID to factory mappings */
+    private static final IntHashtable factoryMap = new IntHashtable();
+    /** Buffers available for reuse */
+    private static final Vector bufferPool = new Vector();
+    
+    static {
+        SerializableFactory factory = new DefaultSerializableFactory();
+        registerType(TYPE_GLOBAL_CONFIG, GlobalConfig.class, factory);
+        registerType(TYPE_IDENTITY_CONFIG, IdentityConfig.class, factory);
+        registerType(TYPE_IMAP_CONFIG, ImapConfig.class, factory);
+        registerType(TYPE_POP_CONFIG, PopConfig.class, factory);
+        registerType(TYPE_OUTGOING_CONFIG, OutgoingConfig.class, factory);
+        registerType(TYPE_FOLDER_TREE_ITEM, FolderTreeItem.class, factory);
+        registerType(TYPE_MAILBOX_NODE, MailboxNode.class, factory);
+        registerType(TYPE_MESSAGE_ENVELOPE, MessageEnvelope.class, factory);
+        registerType(TYPE_IMAP_MESSAGE_TOKEN, ImapMessageToken.class, factory);
+        registerType(TYPE_POP_MESSAGE_TOKEN, PopMessageToken.class, factory);
+        registerType(TYPE_LOCAL_MESSAGE_TOKEN, LocalMessageToken.class, factory);
+        registerType(TYPE_OUTGOING_MESSAGE_TOKEN, OutgoingMessageToken.class, factory);
+        registerType(TYPE_TEXT_PART, TextPart.class, factory);
+        registerType(TYPE_IMAGE_PART, ImagePart.class, factory);
+        registerType(TYPE_AUDIO_PART, AudioPart.class, factory);
+        registerType(TYPE_VIDEO_PART, VideoPart.class, factory);
+        registerType(TYPE_APPLICATION_PART, ApplicationPart.class, factory);
+        registerType(TYPE_MESSAGE_PART, MessagePart.class, factory);
+        registerType(TYPE_MULTI_PART, MultiPart.class, factory);
+        registerType(TYPE_UNSUPPORTED_PART, UnsupportedPart.class, factory);
+        registerType(TYPE_TEXT_CONTENT, TextContent.class, factory);
+        registerType(TYPE_IMAGE_CONTENT, ImageContent.class, factory);
+        registerType(TYPE_AUDIO_CONTENT, AudioContent.class, factory);
+        registerType(TYPE_VIDEO_CONTENT, VideoContent.class, factory);
+        registerType(TYPE_APPLICATION_CONTENT, ApplicationContent.class, factory);
+        registerType(TYPE_MESSAGE_CONTENT, MessageContent.class, factory);
+        registerType(TYPE_SERIALIZABLE_HASHTABLE, SerializableHashtable.class, factory);
+        registerType(TYPE_SERIALIZABLE_VECTOR, SerializableVector.class, factory);
+    }
+    
+    /**
+     * Registers a serializable class with a type ID.
+     * Once registered, the class is written with its type ID instead of its
+     * name, and is instantiated through the factory when read.
+     * Since type IDs are stored along with the data, a class must always be
+     * registered with the same type ID.
+     * 
+     * @param typeId the type ID, between 1 and 65535
+     * @param type the class to register
+     * @param factory the factory that creates instances of the class
+     * @throws IllegalArgumentException if the type ID is out of range, or is
+     *     already registered to a different class
+     */
+    public static void registerType(int typeId, Class type, SerializableFactory factory) {
+        if(typeId <= TYPE_UNREGISTERED || typeId > 0xFFFF) {
+            throw new IllegalArgumentException("Invalid type ID: " + typeId);
+        }
+        if(type == null || factory == null) {
+            throw new NullPointerException();
+        }
+        
+        String typeName = type.getName();
+        synchronized(typeIdMap) {
+            String existingName = (String)typeNameMap.get(typeId);
+            if(existingName != null && !existingName.equals(typeName)) {
+                throw new IllegalArgumentException("Type ID " + typeId + " is already registered");
+            }
+            typeIdMap.put(typeName, new Integer(typeId));
+            typeNameMap.put(typeId, typeName);
+            factoryMap.put(typeId, factory);
+        }
+    }
+    
     /**
      * Utility method to serialize any serializable class.
-     * The returned buffer consists of the fully qualified class name,
+     * The returned buffer consists of a header identifying the class,
      * followed by the serialized contents of the class.
      * 
      * @param input The object to serialize
      * @return The resulting byte array
      */
     public static byte[] serializeClass(Serializable input) {
-        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-        DataOutputStream output = new DataOutputStream(buffer);
+        SerializationBuffer buffer = acquireBuffer();
         try {
-            output.writeUTF(input.getClass().getName());
-            input.serialize(output);
+            writeClass(input, buffer.output);
+            return buffer.toByteArray();
         } catch (IOException ex) {
-            // do nothing
+            return buffer.toByteArray();
+        } finally {
+            releaseBuffer(buffer);
         }
-        return buffer.toByteArray();
     }
 
     /**
      * Utility method to serialize any serializable class and then
      * write it to a {@link DataOutputStream}.
-     * This combines a call to {@link #serializeClass(Serializable)}
-     * with the calls to actually write the length and contents of
-     * the resulting byte array to the stream.
+     * This writes the same length and contents that would result from
+     * a call to {@link #serializeClass(Serializable)}, without creating
+     * an intermediate byte array.
      * 
      * @param input The object to serialize
      * @param output The stream to write the serialized object onto
      * @throws IOException if an I/O error occurs
      */
     public static void serializeClass(Serializable input, DataOutput output) throws IOException {
-		byte[] classBytes = SerializationUtils.serializeClass(input);
-		output.writeInt(classBytes.length);
-		output.write(classBytes);
+        SerializationBuffer buffer = acquireBuffer();
+        try {
+            try {
+                writeClass(input, buffer.output);
+            } catch (IOException ex) {
+                // do nothing, matching serializeClass(Serializable)
+            }
+            output.writeInt(buffer.size());
+            output.write(buffer.getBuffer(), 0, buffer.size());
+        } finally {
+            releaseBuffer(buffer);
+        }
+    }
+    
+    private static void writeClass(Serializable input, DataOutputStream output) throws IOException {
+        String typeName = input.getClass().getName();
+        Integer typeId = (Integer)typeIdMap.get(typeName);
+        
+        output.writeByte(FORMAT_MARKER);
+        output.writeByte(FORMAT_VERSION);
+        if(typeId != null) {
+            output.writeShort(typeId.intValue());
+        }
+        else {
+            output.writeShort(TYPE_UNREGISTERED);
+            output.writeUTF(typeName);
+        }
+        input.serialize(output);
     }
     
     /**
      * Utility method to deserialize any class.
-     * First, the fully qualified class name is read from the
-     * input stream.  Then, if a class matching that name exists,
+     * First, the header identifying the class is read from the
+     * input stream.  Then, if a matching class is registered or exists,
      * it is instantiated.  Finally, if that class implements the
      * Serializable interface, the input stream is passed on
      * to its deserialize method.
@@ -95,17 +283,61 @@ public final class SerializationUtils {
      */
     public static Serializable deserializeClass(byte[] data) {
         DataInputStream input = new DataInputStream(new ByteArrayInputStream(data));
-        Object deserializedObject;
-        Serializable result = null;
+        Serializable result;
         try {
-            String classType = input.readUTF();
-            deserializedObject = Class.forName(classType).newInstance();
-            if(deserializedObject instanceof Serializable) {
-                result = (Serializable)deserializedObject;
+            if(data.length > 0 && (data[0] & 0xFF) == FORMAT_MARKER) {
+                input.readUnsignedByte();
+                if(input.readUnsignedByte() > FORMAT_VERSION) {
+                    return null;
+                }
+                int typeId = input.readUnsignedShort();
+                if(typeId == TYPE_UNREGISTERED) {
+                    result = createInstance(input.readUTF());
+                }
+                else {
+                    result = createInstance(typeId);
+                }
+            }
+            else {
+                // Data written in the original format, which only has the
+                // fully qualified class name.
+                result = createInstance(input.readUTF());
+            }
+            
+            if(result != null) {
                 result.deserialize(input);
             }
         } catch (IOException ex) {
             result = null;
+        }
+        return result;
+    }
+    
+    private static Serializable createInstance(int typeId) {
+        SerializableFactory factory = (SerializableFactory)factoryMap.get(typeId);
+        if(factory != null) {
+            return factory.createInstance(typeId);
+        }
+        else {
+            return null;
+        }
+    }
+    
+    private static Serializable createInstance(String typeName) {
+        Integer typeId = (Integer)typeIdMap.get(typeName);
+        if(typeId != null) {
+            return createInstance(typeId.intValue());
+        }
+        
+        Serializable result;
+        try {
+            Object deserializedObject = Class.forName(typeName).newInstance();
+            if(deserializedObject instanceof Serializable) {
+                result = (Serializable)deserializedObject;
+            }
+            else {
+                result = null;
+            }
         } catch (ClassNotFoundException ex) {
             result = null;
         } catch (InstantiationException ex) {
@@ -134,4 +366,114 @@ public final class SerializationUtils {
 		Serializable result = SerializationUtils.deserializeClass(classBytes);
     	return result;
     }
+    
+    private static SerializationBuffer acquireBuffer() {
+        synchronized(bufferPool) {
+            int size = bufferPool.size();
+            if(size > 0) {
+                SerializationBuffer buffer = (SerializationBuffer)bufferPool.elementAt(size - 1);
+                bufferPool.removeElementAt(size - 1);
+                return buffer;
+            }
+        }
+        return new SerializationBuffer();
+    }
+    
+    private static void releaseBuffer(SerializationBuffer buffer) {
+        // Serializing nested objects takes a buffer for each level, so they
+        // are pooled instead of sharing a single buffer.  Unusually large
+        // buffers are not kept, to avoid holding onto that memory.
+        if(buffer.getBuffer().length > MAX_POOLED_BUFFER_SIZE) {
+            return;
+        }
+        buffer.reset();
+        synchronized(bufferPool) {
+            if(bufferPool.size() < MAX_POOLED_BUFFERS) {
+                bufferPool.addElement(buffer);
+            }
+        }
+    }
+    
+    /**
+     * Output buffer that provides access to its contents without copying.
+     */
+    private static class SerializationBuffer extends ByteArrayOutputStream {
+        final DataOutputStream output = new DataOutputStream(this);
+        
+        SerializationBuffer() {
+            super(1024);
+        }
+        
+        byte[] getBuffer() {
+            return buf;
+        }
+    }
+    
+    /**
+     * Factory for the serializable classes that are part of the application.
+     */
+    private static class DefaultSerializableFactory implements SerializableFactory {
+        public Serializable createInstance(int typeId) {
+            switch(typeId) {
+            case TYPE_GLOBAL_CONFIG:
+                return new GlobalConfig();
+            case TYPE_IDENTITY_CONFIG:
+                return new IdentityConfig();
+            case TYPE_IMAP_CONFIG:
+                return new ImapConfig();
+            case TYPE_POP_CONFIG:
+                return new PopConfig();
+            case TYPE_OUTGOING_CONFIG:
+                return new OutgoingConfig();
+            case TYPE_FOLDER_TREE_ITEM:
+                return new FolderTreeItem();
+            case TYPE_MAILBOX_NODE:
+                return new MailboxNode();
+            case TYPE_MESSAGE_ENVELOPE:
+                return new MessageEnvelope();
+            case TYPE_IMAP_MESSAGE_TOKEN:
+                return new ImapMessageToken();
+            case TYPE_POP_MESSAGE_TOKEN:
+                return new PopMessageToken();
+            case TYPE_LOCAL_MESSAGE_TOKEN:
+                return new LocalMessageToken();
+            case TYPE_OUTGOING_MESSAGE_TOKEN:
+                return new OutgoingMessageToken();
+            case TYPE_TEXT_PART:
+                return new TextPart();
+            case TYPE_IMAGE_PART:
+                return new ImagePart();
+            case TYPE_AUDIO_PART:
+                return new AudioPart();
+            case TYPE_VIDEO_PART:
+                return new VideoPart();
+            case TYPE_APPLICATION_PART:
+                return new ApplicationPart();
+            case TYPE_MESSAGE_PART:
+                return new MessagePart();
+            case TYPE_MULTI_PART:
+                return new MultiPart();
+            case TYPE_UNSUPPORTED_PART:
+                return new UnsupportedPart();
+            case TYPE_TEXT_CONTENT:
+                return new TextContent();
+            case TYPE_IMAGE_CONTENT:
+                return new ImageContent();
+            case TYPE_AUDIO_CONTENT:
+                return new AudioContent();
+            case TYPE_VIDEO_CONTENT:
+                return new VideoContent();
+            case TYPE_APPLICATION_CONTENT:
+                return new ApplicationContent();
+            case TYPE_MESSAGE_CONTENT:
+                return new MessageContent();
+            case TYPE_SERIALIZABLE_HASHTABLE:
+                return new SerializableHashtable();
+            case TYPE_SERIALIZABLE_VECTOR:
+                return new SerializableVector();
+            default:
+                return null;
+            }
+        }
+    }
 }
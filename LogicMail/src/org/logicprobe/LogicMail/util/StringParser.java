@@ -35,7 +35,6 @@ import net.rim.device.api.io.Base64OutputStream;
 import net.rim.device.api.system.EventLogger;
 import net.rim.device.api.util.Arrays;
 import net.rim.device.api.util.DataBuffer;
-import net.rim.device.api.util.DateTimeUtilities;
 import net.rim.device.api.util.NumberUtilities;
 
 import java.io.IOException;
@@ -60,6 +59,10 @@ public class StringParser {
     private static final long ONE_SECOND = 1000;
     private static final long ONE_MINUTE = ONE_SECOND * 60;
     private static final long ONE_HOUR = ONE_MINUTE * 60;
+    private static final long ONE_DAY = ONE_HOUR * 24;
+    private static final int NO_ZONE_OFFSET = Integer.MIN_VALUE;
+    private static final int MAX_CACHED_TIME_ZONES = 32;
+    private static final Hashtable timeZoneCache = new Hashtable();
     private static String ENCODING_UTF8 = "UTF-8";
     private static String strCRLF = "\r\n";
     private static String WORD_SPECIALS = "=_?\"#$%&'(),.:;<>@[\\]^`{|}~";
@@ -76,132 +79,326 @@ public class StringParser {
     /**
      * Parse a string containing a date/time
      * and return a usable Date object.
+     * <p>
+     * The text is expected to follow the RFC 5322 date format, but parsing
+     * is lenient about the obsolete forms still found in the wild.  The day
+     * of the week, seconds and time zone are optional, comments are ignored,
+     * two and three digit years are interpreted as described in RFC 5322,
+     * and the <tt>asctime()</tt> ordering of fields is also accepted.
+     * Text which cannot be parsed results in a <code>null</code> return
+     * value, rather than an exception.
+     * </p>
      *
      * @param rawDate Text containing the date
-     * @return Date object instance
+     * @return Date object instance, or null if the text could not be parsed
      */
     public static Date parseDateString(String rawDate) {
-        int p = 0;
-        int q = 0;
-
-        int[] fields = new int[7];
+        if (rawDate == null) {
+            return null;
+        }
 
-        // Clean up the date string for simple parsing
-        p = rawDate.indexOf(",");
+        int year = -1;
+        int month = -1;
+        int day = -1;
+        int hour = -1;
+        int minute = -1;
+        int second = 0;
+        int zoneOffset = NO_ZONE_OFFSET;
+        TimeZone zone = null;
+        boolean hasZone = false;
 
-        if (p != -1) {
-            p++;
+        int len = rawDate.length();
+        int p = 0;
+        while (p < len) {
+            char ch = rawDate.charAt(p);
 
-            while (rawDate.charAt(p) == ' ')
+            // Skip separators and comments
+            if (ch == ' ' || ch == ',' || ch == '\t' || ch == '\r' || ch == '\n') {
                 p++;
+                continue;
+            }
+            if (ch == '(') {
+                int depth = 0;
+                while (p < len) {
+                    ch = rawDate.charAt(p++);
+                    if (ch == '(') {
+                        depth++;
+                    } else if (ch == ')' && --depth == 0) {
+                        break;
+                    }
+                }
+                continue;
+            }
 
-            rawDate = rawDate.substring(p);
-        }
+            // Find the end of the current token
+            int q = p + 1;
+            while (q < len) {
+                ch = rawDate.charAt(q);
+                if (ch == ' ' || ch == ',' || ch == '(' || ch == '\t' || ch == '\r' || ch == '\n') {
+                    break;
+                }
+                q++;
+            }
+
+            ch = rawDate.charAt(p);
+            int colon = rawDate.indexOf(':', p);
+            if (colon != -1 && colon < q && hour == -1 && isDigit(ch)) {
+                // Time of day, with optional seconds
+                hour = parseDigits(rawDate, p, colon);
+                int r = rawDate.indexOf(':', colon + 1);
+                if (r == -1 || r >= q) {
+                    minute = parseDigits(rawDate, colon + 1, q);
+                } else {
+                    minute = parseDigits(rawDate, colon + 1, r);
+                    second = parseDigits(rawDate, r + 1, q);
+                }
+            } else if (hour != -1 && !hasZone && !isDigit(ch)) {
+                // Time zone, which always follows the time of day
+                zoneOffset = parseZoneOffset(rawDate, p, q);
+                if (zoneOffset == NO_ZONE_OFFSET) {
+                    zone = getCachedTimeZone(rawDate.substring(p, q));
+                }
+                hasZone = true;
+            } else if (isDigit(ch)) {
+                // Day of the month or year, depending on the magnitude
+                int value = parseDigits(rawDate, p, q);
+                int digits = countDigits(rawDate, p, q);
+                if (day == -1 && digits <= 2 && value > 0 && value <= 31) {
+                    day = value;
+                } else if (year == -1 && value >= 0) {
+                    year = value;
+                }
+            } else if (month == -1) {
+                // Month name, or an ignored day of the week
+                month = parseMonth(rawDate, p, q);
+            }
 
-        if (rawDate.charAt(rawDate.length() - 1) == ')') {
-            rawDate = rawDate.substring(0, rawDate.lastIndexOf(' '));
+            p = q;
         }
 
-        // Set the time zone
-        Calendar cal;
-        String tz = rawDate.substring(rawDate.lastIndexOf(' ') + 1);
-        p = tz.indexOf(':');
+        if (year < 0 || month < 0 || day < 0 || hour < 0 || hour > 24
+                || minute < 0 || minute > 59 || second < 0 || second > 60) {
+            return null;
+        }
 
-        if ((p == -1) || (tz.indexOf(':', p) == -1)) {
-            cal = Calendar.getInstance(createTimeZone(tz));
-        } else {
-            cal = Calendar.getInstance(TimeZone.getDefault());
-        }
-
-        // Day
-        p = 0;
-        q = rawDate.indexOf(" ", p + 1);
-        fields[2] = Integer.parseInt(rawDate.substring(p, q).trim());
-
-        // Month
-        p = q + 1;
-        q = rawDate.indexOf(" ", p + 1);
-
-        String monthStr = rawDate.substring(p, q);
-
-        if (monthStr.equals("Jan")) {
-            fields[1] = 0;
-        } else if (monthStr.equals("Feb")) {
-            fields[1] = 1;
-        } else if (monthStr.equals("Mar")) {
-            fields[1] = 2;
-        } else if (monthStr.equals("Apr")) {
-            fields[1] = 3;
-        } else if (monthStr.equals("May")) {
-            fields[1] = 4;
-        } else if (monthStr.equals("Jun")) {
-            fields[1] = 5;
-        } else if (monthStr.equals("Jul")) {
-            fields[1] = 6;
-        } else if (monthStr.equals("Aug")) {
-            fields[1] = 7;
-        } else if (monthStr.equals("Sep")) {
-            fields[1] = 8;
-        } else if (monthStr.equals("Oct")) {
-            fields[1] = 9;
-        } else if (monthStr.equals("Nov")) {
-            fields[1] = 10;
-        } else if (monthStr.equals("Dec")) {
-            fields[1] = 11;
-        }
-
-        // Year
-        p = q + 1;
-        q = rawDate.indexOf(" ", p + 1);
-        fields[0] = Integer.parseInt(rawDate.substring(p, q).trim());
-
-        if (fields[0] < 100) {
+        if (year < 100) {
             // Handle 2-digit years according to RFC 2822:
             // 50-99 is assumed to be 19xx
             // 00-49 is assumed to be 20xx
-            if (fields[0] >= 50) {
-                fields[0] += 1900;
+            if (year >= 50) {
+                year += 1900;
             } else {
-                fields[0] += 2000;
+                year += 2000;
             }
-        } else if ((fields[0] >= 100) && (fields[0] < 1000)) {
+        } else if (year < 1000) {
             // Handle 3-digit years according to RFC 2822
-            fields[0] += 2000;
+            year += 2000;
         }
 
-        // Hour
-        p = q + 1;
-        q = rawDate.indexOf(":", p + 1);
-        fields[3] = Integer.parseInt(rawDate.substring(p, q).trim());
+        long localTime = daysFromCivil(year, month, day) * ONE_DAY
+            + hour * ONE_HOUR + minute * ONE_MINUTE + second * ONE_SECOND;
 
-        // Minute and Second
-        p = q + 1;
-        q = rawDate.indexOf(":", p + 1);
-
-        if (q == -1) {
-            // The second field is missing, so handle accordingly
-            q = rawDate.indexOf(" ", p + 1);
-            fields[4] = Integer.parseInt(rawDate.substring(p, q).trim());
-            fields[5] = 0;
-            fields[6] = 0;
+        long offset;
+        if (zoneOffset != NO_ZONE_OFFSET) {
+            offset = zoneOffset * ONE_MINUTE;
         } else {
-            // Otherwise parse minutes and seconds as normal
-            fields[4] = Integer.parseInt(rawDate.substring(p, q).trim());
+            if (zone == null) {
+                zone = TimeZone.getDefault();
+            }
+            offset = getZoneOffset(zone, localTime);
+        }
 
-            p = q + 1;
-            q = rawDate.indexOf(" ", p + 1);
+        return new Date(localTime - offset);
+    }
 
-            if (q == -1) {
-                q = rawDate.length();
+    private static boolean isDigit(char ch) {
+        return ch >= '0' && ch <= '9';
+    }
+
+    /**
+     * Parses the leading digits of a range of text.
+     *
+     * @return the value, or -1 if the range does not start with a digit
+     */
+    private static int parseDigits(String text, int start, int end) {
+        int value = -1;
+        for (int i = start; i < end; i++) {
+            char ch = text.charAt(i);
+            if (!isDigit(ch) || value > 100000) {
+                break;
             }
+            value = ((value == -1) ? 0 : (value * 10)) + (ch - '0');
+        }
+        return value;
+    }
 
-            fields[5] = Integer.parseInt(rawDate.substring(p, q).trim());
-            fields[6] = 0;
+    private static int countDigits(String text, int start, int end) {
+        int i = start;
+        while (i < end && isDigit(text.charAt(i))) {
+            i++;
         }
+        return i - start;
+    }
 
-        DateTimeUtilities.setCalendarFields(cal, fields);
+    /**
+     * Looks up a month from the first three letters of its name.
+     *
+     * @return the zero-based month, or -1 if the text is not a month name
+     */
+    private static int parseMonth(String text, int start, int end) {
+        if (end - start < 3) {
+            return -1;
+        }
+        char c0 = Character.toLowerCase(text.charAt(start));
+        char c1 = Character.toLowerCase(text.charAt(start + 1));
+        char c2 = Character.toLowerCase(text.charAt(start + 2));
+
+        switch (c0) {
+        case 'j':
+            if (c1 == 'a' && c2 == 'n') { return 0; }
+            if (c1 == 'u' && c2 == 'n') { return 5; }
+            if (c1 == 'u' && c2 == 'l') { return 6; }
+            break;
+        case 'f':
+            if (c1 == 'e' && c2 == 'b') { return 1; }
+            break;
+        case 'm':
+            if (c1 == 'a' && c2 == 'r') { return 2; }
+            if (c1 == 'a' && c2 == 'y') { return 4; }
+            break;
+        case 'a':
+            if (c1 == 'p' && c2 == 'r') { return 3; }
+            if (c1 == 'u' && c2 == 'g') { return 7; }
+            break;
+        case 's':
+            if (c1 == 'e' && c2 == 'p') { return 8; }
+            break;
+        case 'o':
+            if (c1 == 'c' && c2 == 't') { return 9; }
+            break;
+        case 'n':
+            if (c1 == 'o' && c2 == 'v') { return 10; }
+            break;
+        case 'd':
+            if (c1 == 'e' && c2 == 'c') { return 11; }
+            break;
+        }
+        return -1;
+    }
+
+    /**
+     * Parses a numeric time zone offset, such as <tt>-0800</tt>,
+     * <tt>+05:30</tt> or <tt>GMT+1</tt>.
+     *
+     * @return the offset in minutes, or <code>NO_ZONE_OFFSET</code> if the
+     *     text is not a numeric offset
+     */
+    private static int parseZoneOffset(String text, int start, int end) {
+        int p = start;
+        while (p < end && Character.isUpperCase(text.charAt(p))) {
+            p++;
+        }
+        if (p >= end - 1 || (p > start && p - start > 3)) {
+            return NO_ZONE_OFFSET;
+        }
+
+        char sign = text.charAt(p);
+        if (sign != '+' && sign != '-') {
+            return NO_ZONE_OFFSET;
+        }
+        p++;
 
-        return cal.getTime();
+        int digits = countDigits(text, p, end);
+        int hours;
+        int minutes = 0;
+        if (digits == 0) {
+            return NO_ZONE_OFFSET;
+        } else if (digits <= 2) {
+            hours = parseDigits(text, p, p + digits);
+            if (p + digits < end - 1 && text.charAt(p + digits) == ':') {
+                minutes = parseDigits(text, p + digits + 1, end);
+            }
+        } else {
+            hours = parseDigits(text, p, p + digits - 2);
+            minutes = parseDigits(text, p + digits - 2, p + digits);
+        }
+
+        if (hours > 23 || minutes < 0 || minutes > 59) {
+            return NO_ZONE_OFFSET;
+        }
+        int offset = (hours * 60) + minutes;
+        return (sign == '-') ? -offset : offset;
+    }
+
+    /**
+     * Gets the time zone for a named zone, creating and caching it if
+     * necessary.  The number of distinct zone names seen in practice is
+     * small, but the cache is bounded in case of malformed input.
+     */
+    private static TimeZone getCachedTimeZone(String tz) {
+        TimeZone result = (TimeZone) timeZoneCache.get(tz);
+        if (result == null) {
+            result = createTimeZone(tz);
+            if (timeZoneCache.size() >= MAX_CACHED_TIME_ZONES) {
+                timeZoneCache.clear();
+            }
+            timeZoneCache.put(tz, result);
+        }
+        return result;
+    }
+
+    /**
+     * Gets the offset of a time zone from UTC at a particular local time.
+     *
+     * @param zone the time zone
+     * @param localTime the local time, in milliseconds since the epoch
+     * @return the offset in milliseconds
+     */
+    private static long getZoneOffset(TimeZone zone, long localTime) {
+        if (!zone.useDaylightTime()) {
+            return zone.getRawOffset();
+        }
+
+        long days = localTime / ONE_DAY;
+        if (localTime % ONE_DAY < 0) {
+            days--;
+        }
+        int millis = (int) (localTime - (days * ONE_DAY));
+
+        // Convert the day count back to a date, so the zone can account
+        // for daylight saving time
+        long z = days + 719468;
+        long era = ((z >= 0) ? z : (z - 146096)) / 146097;
+        int doe = (int) (z - (era * 146097));
+        int yoe = (doe - (doe / 1460) + (doe / 36524) - (doe / 146096)) / 365;
+        int doy = doe - ((365 * yoe) + (yoe / 4) - (yoe / 100));
+        int mp = ((5 * doy) + 2) / 153;
+        int day = doy - (((153 * mp) + 2) / 5) + 1;
+        int month = (mp < 10) ? (mp + 2) : (mp - 10);
+        int year = (int) (yoe + (era * 400)) + ((month <= 1) ? 1 : 0);
+        int dayOfWeek = (int) (((days + 4) % 7 + 7) % 7) + Calendar.SUNDAY;
+
+        // Era 1 is AD, for which the calendar constant is not available
+        return zone.getOffset(1, year, month, day, dayOfWeek, millis);
+    }
+
+    /**
+     * Gets the number of days between the epoch and a date in the
+     * proleptic Gregorian calendar.
+     *
+     * @param year the year
+     * @param month the zero-based month
+     * @param day the day of the month
+     * @return the number of days since January 1, 1970
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        int m = month + 1;
+        long y = (m <= 2) ? (year - 1) : year;
+        long era = ((y >= 0) ? y : (y - 399)) / 400;
+        int yoe = (int) (y - (era * 400));
+        int doy = ((153 * (m + ((m > 2) ? -3 : 9))) + 2) / 5 + day - 1;
+        int doe = (yoe * 365) + (yoe / 4) - (yoe / 100) + doy;
+        return (era * 146097) + doe - 719468;
     }
 
     /**
@@ -35,102 +35,151 @@ import net.rim.device.api.system.EventLogger;
 import org.logicprobe.LogicMail.AnalyticsDataCollector;
 import org.logicprobe.LogicMail.AppInfo;
 
-// TODO: Write rigorous tests for this class
-
 /**
  * Provides a work item queue for <tt>Runnable</tt> objects.
- * This is similar to a thread pool, except all work items
- * run in sequence.  Also, the thread is not kept alive
- * when there are no pending work items.
+ * All work items run in sequence, on threads borrowed from a
+ * {@link WorkerPool}.  No thread is held by the queue when
+ * there are no pending work items.
  */
 public class ThreadQueue {
-	private Queue runnableQueue;
-	private ThreadQueueThread threadQueueThread;
+	private static final String DEFAULT_NAME = "ThreadQueue";
+	
+	private final String name;
+	private final WorkerPool workerPool;
+	private final Queue runnableQueue;
+	private final Runnable drainRunnable;
+	private boolean drainScheduled;
+	private Thread drainThread;
 	private boolean isShutdown;
 	
 	/**
-	 * Instantiates a new thread queue.
+	 * Instantiates a new thread queue on the shared worker pool.
 	 */
 	public ThreadQueue() {
-		runnableQueue = new Queue();
+		this(DEFAULT_NAME);
+	}
+	
+	/**
+	 * Instantiates a new thread queue on the shared worker pool.
+	 * 
+	 * @param name the name to record worker pool statistics under
+	 */
+	public ThreadQueue(String name) {
+		this(name, WorkerPool.getInstance());
+	}
+	
+	/**
+	 * Instantiates a new thread queue.
+	 * 
+	 * @param name the name to record worker pool statistics under
+	 * @param workerPool the worker pool to run work items on
+	 */
+	public ThreadQueue(String name, WorkerPool workerPool) {
+		this.name = name;
+		this.workerPool = workerPool;
+		this.runnableQueue = new Queue();
+		this.drainRunnable = new Runnable() {
+			public void run() {
+				drain(false);
+			}
+		};
 	}
 	
 	/**
 	 * Flushes any pending work items, and optionally
-	 * waits for the thread to join.
+	 * waits for the current work item to complete.
 	 * 
-	 * @param wait True to wait for the thread to join.
+	 * @param wait True to wait for the current work item.
 	 */
 	public void shutdown(boolean wait) {
-		isShutdown = true;
 		synchronized(runnableQueue) {
+			isShutdown = true;
 			runnableQueue.clear();
-		}
-		if(wait && threadQueueThread != null) {
-			try {
-				threadQueueThread.join();
-			} catch (InterruptedException e) { }
-			threadQueueThread = null;
+			if(wait) {
+				waitForDrain();
+			}
 		}
 	}
 	
 	/**
-	 * Blocks until all pending tasks have completed
+	 * Blocks until all pending tasks have completed.
+	 * <p>
+	 * If the pending tasks have not yet been picked up by a worker thread,
+	 * they are run directly on the calling thread.  This keeps callers that
+	 * are themselves running on the worker pool from waiting on tasks that
+	 * cannot start until a worker thread becomes available.
+	 * </p>
 	 */
 	public void completePendingTasks() {
-	    if(threadQueueThread != null) {
-	        try {
-	            threadQueueThread.join();
-	        } catch (InterruptedException e) { }
-	        threadQueueThread = null;
-	    }
+		synchronized(runnableQueue) {
+			if(drainScheduled && drainThread == null) {
+				drainThread = Thread.currentThread();
+			}
+			else {
+				waitForDrain();
+				return;
+			}
+		}
+		drain(true);
+	}
+	
+	/**
+	 * Waits for the thread draining the queue to finish.
+	 * Must be called while synchronized on the queue.
+	 */
+	private void waitForDrain() {
+		while(drainScheduled && drainThread != null
+				&& drainThread != Thread.currentThread()) {
+			try {
+				runnableQueue.wait();
+			} catch (InterruptedException e) { }
+		}
 	}
 	
 	/**
 	 * Puts the provided <tt>Runnable</tt> object on the
-	 * work item queue.  Starts the worker thread if necessary.
+	 * work item queue.  Schedules the queue on the worker pool if necessary.
 	 * 
 	 * @param runnable The <tt>Runnable</tt> object.
 	 * @throws IllegalStateException Thrown if {@link #shutdown(boolean)} has been called.
 	 */
 	public void invokeLater(Runnable runnable) {
-		if(isShutdown) {
-			throw new IllegalStateException("Thread queue has been shutdown");
-		}
-		boolean queued = false;
+		boolean schedule = false;
 		synchronized(runnableQueue) {
-			if(threadQueueThread != null && threadQueueThread.isAlive()) {
-				runnableQueue.add(runnable);
-				queued = true;
+			if(isShutdown) {
+				throw new IllegalStateException("Thread queue has been shutdown");
 			}
-		}
-		if(!queued) {
-			if(threadQueueThread != null) {
-				try {
-					threadQueueThread.join();
-				} catch (InterruptedException e) { }
-				threadQueueThread = null;
-			}
-			threadQueueThread = new ThreadQueueThread();
 			runnableQueue.add(runnable);
-			threadQueueThread.start();
+			if(!drainScheduled) {
+				drainScheduled = true;
+				schedule = true;
+			}
+		}
+		if(schedule) {
+			workerPool.execute(name, drainRunnable);
 		}
 	}
 	
 	/**
-	 * Actual thread implementation used for the work item queue.
+	 * Runs work items until the queue is empty.
+	 * 
+	 * @param claimed true if the calling thread has already claimed the
+	 *     queue, false if it needs to be claimed first
 	 */
-	private class ThreadQueueThread extends Thread {
-		/**
-		 * Instantiates a new thread queue thread.
-		 */
-		public ThreadQueueThread() {
+	private void drain(boolean claimed) {
+		if(!claimed) {
+			synchronized(runnableQueue) {
+				// Another thread may have already drained the queue on
+				// behalf of this request
+				if(!drainScheduled || drainThread != null) {
+					return;
+				}
+				drainThread = Thread.currentThread();
+			}
 		}
-
-		/* (non-Javadoc)
-		 * @see java.lang.Thread#run()
-		 */
-		public void run() {
+		
+		boolean drained = false;
+		try {
 			while(true) {
 				Runnable runnable;
 				synchronized(runnableQueue) {
@@ -138,20 +187,49 @@ public class ThreadQueue {
 						runnable = (Runnable)runnableQueue.remove();
 					}
 					else {
+						drainScheduled = false;
+						drainThread = null;
+						runnableQueue.notifyAll();
+						drained = true;
 						return;
 					}
 				}
 				Thread.yield();
 				try {
 					runnable.run();
-				} catch (RuntimeException exp) {
-	                EventLogger.logEvent(AppInfo.GUID,
-	                        ("RuntimeException: " + exp.getMessage()).getBytes(),
-	                        EventLogger.ERROR);
-	                AnalyticsDataCollector.getInstance().onApplicationError(
-	                        "RuntimeException: " + exp.getMessage());
+				} catch (Throwable exp) {
+					EventLogger.logEvent(AppInfo.GUID,
+							("Uncaught exception: " + exp.toString()).getBytes(),
+							EventLogger.ERROR);
+					AnalyticsDataCollector.getInstance().onApplicationError(
+							"Uncaught exception: " + exp.toString());
 				}
 			}
+		} finally {
+			if(!drained) {
+				releaseDrain();
+			}
+		}
+	}
+	
+	/**
+	 * Releases the queue after a drain ended abnormally, so the remaining
+	 * work items are rescheduled rather than left behind a dead thread.
+	 */
+	private void releaseDrain() {
+		boolean schedule = false;
+		synchronized(runnableQueue) {
+			drainThread = null;
+			if(!isShutdown && runnableQueue.element() != null) {
+				schedule = true;
+			}
+			else {
+				drainScheduled = false;
+			}
+			runnableQueue.notifyAll();
+		}
+		if(schedule) {
+			workerPool.execute(name, drainRunnable);
 		}
 	}
 }
@@ -0,0 +1,372 @@
+/*-
+ * Copyright (c) 2011, Derek Konigsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution. 
+ * 3. Neither the name of the project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.logicprobe.LogicMail.util;
+
+import java.util.Vector;
+
+/**
+ * Hierarchical timer wheel, shared by all the components that need to run
+ * delayed or periodic work.
+ * <p>
+ * Timers are kept in three levels of 64 slots each.  The first level holds
+ * timers that expire within the next 64 ticks, and each higher level covers
+ * a range 64 times longer than the level below it.  As time advances, the
+ * slots of the higher levels are cascaded down into the lower ones, so
+ * scheduling and cancelling a timer take constant time regardless of how
+ * many timers exist.  Timers further out than the top level can cover are
+ * kept in an overflow list.
+ * </p>
+ * <p>
+ * A single thread advances the wheel.  It sleeps until the next tick at
+ * which a slot needs attention, and exits entirely when no timers are
+ * scheduled.  Expired timers are run on a {@link WorkerPool}, so a slow task
+ * never delays other timers, and their latency is tracked along with the
+ * rest of the pool's tasks.
+ * </p>
+ */
+public class TimerWheel {
+    private static final long DEFAULT_TICK_DURATION = 250;
+    private static final int WHEEL_BITS = 6;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int LEVELS = 3;
+    private static TimerWheel instance;
+    
+    private final WorkerPool workerPool;
+    private final long tickDuration;
+    private final long startTime;
+    private final Vector[][] wheel;
+    private final Vector overflow = new Vector();
+    private long currentTick;
+    private int timerCount;
+    private Thread wheelThread;
+    
+    /**
+     * Gets the timer wheel shared by the whole application, which runs its
+     * timers on the shared {@link WorkerPool}.
+     *
+     * @return the shared timer wheel
+     */
+    public static synchronized TimerWheel getInstance() {
+        if(instance == null) {
+            instance = new TimerWheel(WorkerPool.getInstance(), DEFAULT_TICK_DURATION);
+        }
+        return instance;
+    }
+    
+    /**
+     * Instantiates a new timer wheel.
+     *
+     * @param workerPool the pool to run expired timers on
+     * @param tickDuration the resolution of the wheel, in milliseconds
+     */
+    public TimerWheel(WorkerPool workerPool, long tickDuration) {
+        if(workerPool == null) {
+            throw new NullPointerException();
+        }
+        if(tickDuration <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.workerPool = workerPool;
+        this.tickDuration = tickDuration;
+        this.startTime = System.currentTimeMillis();
+        this.wheel = new Vector[LEVELS][WHEEL_SIZE];
+        for(int i=0; i<LEVELS; i++) {
+            for(int j=0; j<WHEEL_SIZE; j++) {
+                wheel[i][j] = new Vector();
+            }
+        }
+    }
+    
+    /**
+     * Schedules a task to run once after a delay.
+     *
+     * @param name the name to record statistics under
+     * @param task the task to run
+     * @param delay the delay before running the task, in milliseconds
+     * @return the timer, which can be used to cancel the task
+     */
+    public Timeout schedule(String name, Runnable task, long delay) {
+        return schedule(name, task, delay, 0);
+    }
+    
+    /**
+     * Schedules a task to run repeatedly, with a fixed period between the
+     * scheduled start of each run.
+     *
+     * @param name the name to record statistics under
+     * @param task the task to run
+     * @param delay the delay before the first run, in milliseconds
+     * @param period the time between runs, in milliseconds
+     * @return the timer, which can be used to cancel the task
+     */
+    public Timeout scheduleAtFixedRate(String name, Runnable task, long delay, long period) {
+        if(period <= 0) {
+            throw new IllegalArgumentException();
+        }
+        return schedule(name, task, delay, period);
+    }
+    
+    private Timeout schedule(String name, Runnable task, long delay, long period) {
+        if(name == null || task == null) {
+            throw new NullPointerException();
+        }
+        if(delay < 0) {
+            throw new IllegalArgumentException();
+        }
+        Timeout timeout = new Timeout(name, task, period);
+        synchronized(wheel) {
+            advance();
+            timeout.runTime = System.currentTimeMillis() + delay;
+            timeout.deadline = getDeadline(timeout.runTime);
+            insert(timeout);
+            timerCount++;
+            
+            if(wheelThread == null) {
+                wheelThread = new WheelThread();
+                wheelThread.start();
+            }
+            else {
+                wheel.notify();
+            }
+        }
+        return timeout;
+    }
+    
+    /**
+     * Gets the number of timers currently scheduled.
+     *
+     * @return the timer count
+     */
+    public int getTimerCount() {
+        synchronized(wheel) {
+            return timerCount;
+        }
+    }
+    
+    private boolean cancel(Timeout timeout) {
+        synchronized(wheel) {
+            if(timeout.bucket == null) {
+                return false;
+            }
+            timeout.bucket.removeElement(timeout);
+            timeout.bucket = null;
+            timerCount--;
+            return true;
+        }
+    }
+    
+    /**
+     * Gets the tick at which a timer should run, which is always at least
+     * one tick in the future.
+     *
+     * @param runTime the requested run time, in milliseconds
+     * @return the deadline tick
+     */
+    private long getDeadline(long runTime) {
+        long tick = (runTime - startTime + tickDuration - 1) / tickDuration;
+        return Math.max(currentTick + 1, tick);
+    }
+    
+    /**
+     * Places a timer into the slot for its deadline.
+     * Must be called while synchronized on the wheel.
+     */
+    private void insert(Timeout timeout) {
+        long delta = timeout.deadline - currentTick;
+        Vector bucket;
+        if(delta < WHEEL_SIZE) {
+            bucket = wheel[0][(int)(timeout.deadline & WHEEL_MASK)];
+        }
+        else if(delta < (1L << (WHEEL_BITS * 2))) {
+            bucket = wheel[1][(int)((timeout.deadline >> WHEEL_BITS) & WHEEL_MASK)];
+        }
+        else if(delta < (1L << (WHEEL_BITS * 3))) {
+            bucket = wheel[2][(int)((timeout.deadline >> (WHEEL_BITS * 2)) & WHEEL_MASK)];
+        }
+        else {
+            bucket = overflow;
+        }
+        bucket.addElement(timeout);
+        timeout.bucket = bucket;
+    }
+    
+    /**
+     * Moves every timer in a bucket back through {@link #insert(Timeout)},
+     * which places them in a lower level as their deadline approaches.
+     */
+    private void cascade(Vector bucket) {
+        int size = bucket.size();
+        if(size == 0) { return; }
+        Timeout[] timeouts = new Timeout[size];
+        bucket.copyInto(timeouts);
+        bucket.removeAllElements();
+        for(int i=0; i<size; i++) {
+            insert(timeouts[i]);
+        }
+    }
+    
+    /**
+     * Advances the wheel to the current time, dispatching any expired
+     * timers.  Must be called while synchronized on the wheel.
+     */
+    private void advance() {
+        long nowTick = (System.currentTimeMillis() - startTime) / tickDuration;
+        while(currentTick < nowTick) {
+            long tick = ++currentTick;
+            if((tick & WHEEL_MASK) == 0) {
+                long tick1 = tick >> WHEEL_BITS;
+                if((tick1 & WHEEL_MASK) == 0) {
+                    long tick2 = tick1 >> WHEEL_BITS;
+                    if((tick2 & WHEEL_MASK) == 0) {
+                        cascade(overflow);
+                    }
+                    cascade(wheel[2][(int)(tick2 & WHEEL_MASK)]);
+                }
+                cascade(wheel[1][(int)(tick1 & WHEEL_MASK)]);
+            }
+            
+            Vector bucket = wheel[0][(int)(tick & WHEEL_MASK)];
+            int size = bucket.size();
+            if(size == 0) { continue; }
+            Timeout[] timeouts = new Timeout[size];
+            bucket.copyInto(timeouts);
+            bucket.removeAllElements();
+            for(int i=0; i<size; i++) {
+                Timeout timeout = timeouts[i];
+                if(timeout.deadline > tick) {
+                    insert(timeout);
+                    continue;
+                }
+                long runTime = timeout.runTime;
+                if(timeout.period > 0) {
+                    // Skip any runs that were missed entirely, rather than
+                    // running them back to back
+                    long now = System.currentTimeMillis();
+                    timeout.runTime += timeout.period;
+                    if(timeout.runTime < now) {
+                        timeout.runTime += ((now - timeout.runTime) / timeout.period + 1) * timeout.period;
+                    }
+                    timeout.deadline = getDeadline(timeout.runTime);
+                    insert(timeout);
+                }
+                else {
+                    timeout.bucket = null;
+                    timerCount--;
+                }
+                workerPool.execute(timeout.name, timeout.task, runTime);
+            }
+        }
+    }
+    
+    /**
+     * Gets the number of ticks until the wheel next needs to be advanced,
+     * based on the next occupied slot of each level.
+     * Must be called while synchronized on the wheel.
+     *
+     * @return the number of ticks, or -1 if no timers are scheduled
+     */
+    private long getTicksUntilNextEvent() {
+        if(timerCount == 0) {
+            return -1;
+        }
+        long result = Long.MAX_VALUE;
+        for(int level=0; level<LEVELS; level++) {
+            int shift = WHEEL_BITS * level;
+            long index = currentTick >> shift;
+            for(int i=1; i<=WHEEL_SIZE; i++) {
+                if(!wheel[level][(int)((index + i) & WHEEL_MASK)].isEmpty()) {
+                    result = Math.min(result, ((index + i) << shift) - currentTick);
+                    break;
+                }
+            }
+        }
+        if(!overflow.isEmpty()) {
+            int shift = WHEEL_BITS * LEVELS;
+            result = Math.min(result, (((currentTick >> shift) + 1) << shift) - currentTick);
+        }
+        return result;
+    }
+    
+    /**
+     * Handle to a scheduled timer.
+     */
+    public class Timeout {
+        private final String name;
+        private final Runnable task;
+        private final long period;
+        private long runTime;
+        private long deadline;
+        private Vector bucket;
+        
+        private Timeout(String name, Runnable task, long period) {
+            this.name = name;
+            this.task = task;
+            this.period = period;
+        }
+        
+        /**
+         * Cancels the timer.  If the task is already running, it will be
+         * allowed to finish.
+         *
+         * @return true, if the timer was still scheduled
+         */
+        public boolean cancel() {
+            return TimerWheel.this.cancel(this);
+        }
+    }
+    
+    /**
+     * Thread that advances the wheel, which exits when no timers remain.
+     */
+    private class WheelThread extends Thread {
+        public void run() {
+            synchronized(wheel) {
+                while(true) {
+                    advance();
+                    long ticks = getTicksUntilNextEvent();
+                    if(ticks == -1) {
+                        wheelThread = null;
+                        return;
+                    }
+                    
+                    long nextTime = startTime + ((currentTick + ticks) * tickDuration);
+                    long waitTime = nextTime - System.currentTimeMillis();
+                    if(waitTime > 0) {
+                        try {
+                            wheel.wait(waitTime);
+                        } catch (InterruptedException e) { }
+                    }
+                }
+            }
+        }
+    }
+}
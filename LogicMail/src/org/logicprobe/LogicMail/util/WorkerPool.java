@@ -0,0 +1,397 @@
+/*-
+ * Copyright (c) 2011, Derek Konigsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution. 
+ * 3. Neither the name of the project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.logicprobe.LogicMail.util;
+
+import java.util.Enumeration;
+import java.util.Hashtable;
+
+import net.rim.device.api.system.EventLogger;
+
+import org.logicprobe.LogicMail.AnalyticsDataCollector;
+import org.logicprobe.LogicMail.AppInfo;
+
+/**
+ * Bounded pool of worker threads, shared by all the components that need
+ * to run work in the background.
+ * <p>
+ * Threads are started on demand up to a fixed maximum, and exit once they
+ * have been idle for a while, so the number of threads does not depend on
+ * the number of accounts or other components using the pool.  Tasks are
+ * started in the order they were submitted, but may run concurrently with
+ * each other.  Components that need their tasks to run in sequence should
+ * use a {@link ThreadQueue}, which is built on top of this pool.
+ * </p>
+ * <p>
+ * Each task is submitted with a name, and the pool keeps statistics on the
+ * latency and run time of the tasks submitted under each name.  Latency is
+ * the time between when a task was meant to start and when it actually
+ * started running.  For tasks submitted directly this is the time spent
+ * waiting in the queue, and for {@link TimerWheel} tasks it also includes
+ * any lateness of the timer itself.
+ * </p>
+ */
+public class WorkerPool {
+    private static final int DEFAULT_MAX_THREADS = 3;
+    private static final long DEFAULT_KEEP_ALIVE_TIME = 30000;
+    private static WorkerPool instance;
+    
+    private final int maxThreads;
+    private final long keepAliveTime;
+    private final Queue taskQueue = new Queue();
+    private final Hashtable statisticsTable = new Hashtable();
+    private int pendingCount;
+    private int threadCount;
+    private int idleCount;
+    private boolean isShutdown;
+    
+    /**
+     * Gets the worker pool shared by the whole application.
+     *
+     * @return the shared worker pool
+     */
+    public static synchronized WorkerPool getInstance() {
+        if(instance == null) {
+            instance = new WorkerPool(DEFAULT_MAX_THREADS, DEFAULT_KEEP_ALIVE_TIME);
+        }
+        return instance;
+    }
+    
+    /**
+     * Instantiates a new worker pool.
+     *
+     * @param maxThreads the maximum number of worker threads
+     * @param keepAliveTime the time an idle worker thread waits for new
+     *     tasks before it exits, in milliseconds
+     */
+    public WorkerPool(int maxThreads, long keepAliveTime) {
+        if(maxThreads < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.maxThreads = maxThreads;
+        this.keepAliveTime = keepAliveTime;
+    }
+    
+    /**
+     * Submits a task for execution on the pool.
+     *
+     * @param name the name to record statistics under
+     * @param task the task to run
+     * @throws IllegalStateException Thrown if {@link #shutdown()} has been called.
+     */
+    public void execute(String name, Runnable task) {
+        execute(name, task, System.currentTimeMillis());
+    }
+    
+    /**
+     * Submits a task for execution on the pool.
+     *
+     * @param name the name to record statistics under
+     * @param task the task to run
+     * @param requestTime the time the task was meant to start, which latency
+     *     is measured from
+     */
+    void execute(String name, Runnable task, long requestTime) {
+        if(name == null || task == null) {
+            throw new NullPointerException();
+        }
+        
+        boolean startThread = false;
+        synchronized(taskQueue) {
+            if(isShutdown) {
+                throw new IllegalStateException("Worker pool has been shutdown");
+            }
+            taskQueue.add(new PendingTask(name, task, requestTime));
+            pendingCount++;
+            
+            if(idleCount > 0) {
+                taskQueue.notify();
+            }
+            if(pendingCount > idleCount && threadCount < maxThreads) {
+                threadCount++;
+                startThread = true;
+            }
+        }
+        
+        if(startThread) {
+            (new WorkerThread()).start();
+        }
+    }
+    
+    /**
+     * Discards any pending tasks, and lets the worker threads exit once
+     * their current tasks have completed.
+     */
+    public void shutdown() {
+        synchronized(taskQueue) {
+            isShutdown = true;
+            taskQueue.clear();
+            pendingCount = 0;
+            taskQueue.notifyAll();
+        }
+    }
+    
+    /**
+     * Gets the number of worker threads that are currently running.
+     *
+     * @return the thread count
+     */
+    public int getThreadCount() {
+        synchronized(taskQueue) {
+            return threadCount;
+        }
+    }
+    
+    /**
+     * Gets the maximum number of worker threads.
+     *
+     * @return the maximum thread count
+     */
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+    
+    /**
+     * Gets a snapshot of the statistics for every task name that has been
+     * submitted to this pool.
+     *
+     * @return the task statistics
+     */
+    public TaskStatistics[] getTaskStatistics() {
+        synchronized(statisticsTable) {
+            TaskStatistics[] result = new TaskStatistics[statisticsTable.size()];
+            Enumeration e = statisticsTable.elements();
+            int i = 0;
+            while(e.hasMoreElements()) {
+                result[i++] = new TaskStatistics((TaskStatistics)e.nextElement());
+            }
+            return result;
+        }
+    }
+    
+    /**
+     * Gets a snapshot of the statistics for a particular task name.
+     *
+     * @param name the task name
+     * @return the task statistics, or null if no tasks have completed with that name
+     */
+    public TaskStatistics getTaskStatistics(String name) {
+        synchronized(statisticsTable) {
+            TaskStatistics statistics = (TaskStatistics)statisticsTable.get(name);
+            return (statistics != null) ? new TaskStatistics(statistics) : null;
+        }
+    }
+    
+    /**
+     * Clears all collected task statistics.
+     */
+    public void resetTaskStatistics() {
+        synchronized(statisticsTable) {
+            statisticsTable.clear();
+        }
+    }
+    
+    private void recordStatistics(String name, long latency, long runTime) {
+        synchronized(statisticsTable) {
+            TaskStatistics statistics = (TaskStatistics)statisticsTable.get(name);
+            if(statistics == null) {
+                statistics = new TaskStatistics(name);
+                statisticsTable.put(name, statistics);
+            }
+            statistics.record(latency, runTime);
+        }
+    }
+    
+    private static class PendingTask {
+        final String name;
+        final Runnable task;
+        final long requestTime;
+        
+        PendingTask(String name, Runnable task, long requestTime) {
+            this.name = name;
+            this.task = task;
+            this.requestTime = requestTime;
+        }
+    }
+    
+    /**
+     * Statistics for the tasks submitted to the pool under a single name.
+     */
+    public static class TaskStatistics {
+        private final String name;
+        private int count;
+        private long totalLatency;
+        private long maxLatency;
+        private long totalRunTime;
+        private long maxRunTime;
+        
+        TaskStatistics(String name) {
+            this.name = name;
+        }
+        
+        TaskStatistics(TaskStatistics other) {
+            this.name = other.name;
+            this.count = other.count;
+            this.totalLatency = other.totalLatency;
+            this.maxLatency = other.maxLatency;
+            this.totalRunTime = other.totalRunTime;
+            this.maxRunTime = other.maxRunTime;
+        }
+        
+        void record(long latency, long runTime) {
+            count++;
+            totalLatency += latency;
+            totalRunTime += runTime;
+            if(latency > maxLatency) { maxLatency = latency; }
+            if(runTime > maxRunTime) { maxRunTime = runTime; }
+        }
+        
+        /**
+         * Gets the task name.
+         *
+         * @return the name
+         */
+        public String getName() {
+            return name;
+        }
+        
+        /**
+         * Gets the number of tasks that have completed.
+         *
+         * @return the task count
+         */
+        public int getCount() {
+            return count;
+        }
+        
+        /**
+         * Gets the average time tasks waited before starting.
+         *
+         * @return the average latency, in milliseconds
+         */
+        public long getAverageLatency() {
+            return (count > 0) ? (totalLatency / count) : 0;
+        }
+        
+        /**
+         * Gets the longest time a task waited before starting.
+         *
+         * @return the maximum latency, in milliseconds
+         */
+        public long getMaxLatency() {
+            return maxLatency;
+        }
+        
+        /**
+         * Gets the average time tasks took to run.
+         *
+         * @return the average run time, in milliseconds
+         */
+        public long getAverageRunTime() {
+            return (count > 0) ? (totalRunTime / count) : 0;
+        }
+        
+        /**
+         * Gets the longest time a task took to run.
+         *
+         * @return the maximum run time, in milliseconds
+         */
+        public long getMaxRunTime() {
+            return maxRunTime;
+        }
+        
+        public String toString() {
+            return name + ": count=" + count
+                + ", latency=" + getAverageLatency() + "/" + maxLatency
+                + "ms, run=" + getAverageRunTime() + "/" + maxRunTime + "ms";
+        }
+    }
+    
+    /**
+     * Worker thread implementation, which runs tasks until the queue has
+     * been empty for the keep-alive time.
+     */
+    private class WorkerThread extends Thread {
+        public void run() {
+            boolean exited = false;
+            try {
+                while(true) {
+                    PendingTask pending;
+                    synchronized(taskQueue) {
+                        if(pendingCount == 0 && !isShutdown) {
+                            idleCount++;
+                            try {
+                                taskQueue.wait(keepAliveTime);
+                            } catch (InterruptedException e) { }
+                            idleCount--;
+                        }
+                        if(pendingCount == 0) {
+                            threadCount--;
+                            exited = true;
+                            return;
+                        }
+                        pending = (PendingTask)taskQueue.remove();
+                        pendingCount--;
+                    }
+                    
+                    long startTime = System.currentTimeMillis();
+                    try {
+                        pending.task.run();
+                    } catch (Throwable exp) {
+                        EventLogger.logEvent(AppInfo.GUID,
+                                ("Uncaught exception: " + exp.toString()).getBytes(),
+                                EventLogger.ERROR);
+                        AnalyticsDataCollector.getInstance().onApplicationError(
+                                "Uncaught exception: " + exp.toString());
+                    }
+                    long endTime = System.currentTimeMillis();
+                    recordStatistics(pending.name,
+                            Math.max(0, startTime - pending.requestTime), endTime - startTime);
+                }
+            } finally {
+                // Keep the thread count accurate if this thread dies
+                // abnormally, and replace it if tasks are still waiting
+                if(!exited) {
+                    boolean startThread = false;
+                    synchronized(taskQueue) {
+                        threadCount--;
+                        if(!isShutdown && pendingCount > idleCount && threadCount < maxThreads) {
+                            threadCount++;
+                            startThread = true;
+                        }
+                    }
+                    if(startThread) {
+                        (new WorkerThread()).start();
+                    }
+                }
+            }
+        }
+    }
+}
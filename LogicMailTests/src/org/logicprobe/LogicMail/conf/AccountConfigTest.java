@@ -42,6 +42,8 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import net.rim.device.api.util.Arrays;
 
+import org.logicprobe.LogicMail.util.SerializableHashtable;
+
 /**
  * Unit test for AccountConfig
  */
@@ -97,6 +99,7 @@ public class AccountConfigTest extends TestCase {
         assertEquals(143, instance.getServerPort());
         assertEquals(ConnectionConfig.TRANSPORT_GLOBAL, instance.getTransportType());
         assertTrue(!instance.getEnableWiFi());
+        assertEquals(1, ((ImapConfig)instance).getMaxConnections());
     }
 
     public void testSerialization() {
@@ -111,6 +114,7 @@ public class AccountConfigTest extends TestCase {
             instance.setServerPort(995);
             instance.setTransportType(ConnectionConfig.TRANSPORT_DIRECT_TCP);
             instance.setEnableWiFi(true);
+            ((ImapConfig)instance).setMaxConnections(3);
             
             // Serialize
             TestOutputStream testOutput = new TestOutputStream();
@@ -130,11 +134,30 @@ public class AccountConfigTest extends TestCase {
             assertEquals(995, instance.getServerPort());
             assertEquals(ConnectionConfig.TRANSPORT_DIRECT_TCP, instance.getTransportType());
             assertTrue(instance.getEnableWiFi());
+            assertEquals(3, ((ImapConfig)instance).getMaxConnections());
         } catch (Throwable t) {
             fail("Exception thrown during test: "+t.toString());
             t.printStackTrace();
         }
     }
+
+    public void testMaxConnectionsLimit() {
+        ImapConfig instance = new ImapConfig();
+        instance.setMaxConnections(ImapConfig.MAX_CONNECTIONS_LIMIT + 5);
+        assertEquals(ImapConfig.MAX_CONNECTIONS_LIMIT, instance.getMaxConnections());
+        
+        // Stored values beyond the limit are clamped when loaded
+        SerializableHashtable table = new SerializableHashtable();
+        instance.writeConfigItems(table);
+        table.put("account_imap_maxConnections", new Integer(ImapConfig.MAX_CONNECTIONS_LIMIT + 5));
+        instance = new ImapConfig();
+        instance.readConfigItems(table);
+        assertEquals(ImapConfig.MAX_CONNECTIONS_LIMIT, instance.getMaxConnections());
+        
+        table.put("account_imap_maxConnections", new Integer(0));
+        instance.readConfigItems(table);
+        assertEquals(1, instance.getMaxConnections());
+    }
     
     public Test suite() {
         TestSuite suite = new TestSuite("AccountConfig");
@@ -143,6 +166,8 @@ public class AccountConfigTest extends TestCase {
         { public void run(TestCase tc) {((AccountConfigTest)tc).testInitialization(); } }));
         suite.addTest(new AccountConfigTest("serialization", new TestMethod()
         { public void run(TestCase tc) {((AccountConfigTest)tc).testSerialization(); } }));
+        suite.addTest(new AccountConfigTest("maxConnectionsLimit", new TestMethod()
+        { public void run(TestCase tc) {((AccountConfigTest)tc).testMaxConnectionsLimit(); } }));
 
         return suite;
     }
@@ -116,6 +116,7 @@ public class GlobalConfigTest extends TestCase {
             instance.setTransportType(ConnectionConfig.TRANSPORT_DIRECT_TCP);
             instance.setEnableWiFi(false);
             instance.setHideDeletedMsg(false);
+            instance.setLocalCacheLimit(128);
             
             // Serialize
             TestOutputStream testOutput = new TestOutputStream();
@@ -131,6 +132,7 @@ public class GlobalConfigTest extends TestCase {
             assertEquals(ConnectionConfig.TRANSPORT_DIRECT_TCP, instance.getTransportType());
             assertTrue(!instance.getEnableWiFi());
             assertTrue(!instance.getHideDeletedMsg());
+            assertEquals(128, instance.getLocalCacheLimit());
         } catch (Throwable t) {
             fail("Exception thrown during test: "+t.toString());
             t.printStackTrace();
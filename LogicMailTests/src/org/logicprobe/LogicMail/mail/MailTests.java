@@ -49,6 +49,8 @@ public class MailTests extends TestCase {
     public Test suite() {
         TestSuite suite = new TestSuite("LogicMail.mail");
         suite.addTest(new NetworkMailStoreTest().suite());
+        suite.addTest(new RequestQueueTest().suite());
+        suite.addTest(new PollCoordinatorTest().suite());
         suite.addTest(new ImapTests().suite());
         suite.addTest(new PopTests().suite());
         suite.addTest(new SmtpTests().suite());
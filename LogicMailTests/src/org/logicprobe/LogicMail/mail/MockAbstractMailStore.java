@@ -313,20 +313,20 @@ public class MockAbstractMailStore extends org.logicprobe.LogicMail.mail.Abstrac
         }
     }
 
-    public static final MockMethod MTHD_CREATE_MESSAGE_APPEND_REQUEST_$_FOLDERTREEITEM_STRING_MESSAGEFLAGS = new MockMethod(
+    public static final MockMethod MTHD_CREATE_MESSAGE_APPEND_REQUEST_$_FOLDERTREEITEM_DATASPOOL_MESSAGEFLAGS = new MockMethod(
         MockAbstractMailStore.class, 
-        "MTHD_CREATE_MESSAGE_APPEND_REQUEST_$_FOLDERTREEITEM_STRING_MESSAGEFLAGS",
-        new Class[]{org.logicprobe.LogicMail.mail.FolderTreeItem.class, java.lang.String.class, org.logicprobe.LogicMail.message.MessageFlags.class},
+        "MTHD_CREATE_MESSAGE_APPEND_REQUEST_$_FOLDERTREEITEM_DATASPOOL_MESSAGEFLAGS",
+        new Class[]{org.logicprobe.LogicMail.mail.FolderTreeItem.class, org.logicprobe.LogicMail.util.DataSpool.class, org.logicprobe.LogicMail.message.MessageFlags.class},
         new Class[]{},
         org.logicprobe.LogicMail.mail.MessageAppendRequest.class,
         true);
-    public org.logicprobe.LogicMail.mail.MessageAppendRequest createMessageAppendRequest(org.logicprobe.LogicMail.mail.FolderTreeItem arg0, java.lang.String arg1, org.logicprobe.LogicMail.message.MessageFlags arg2)  {
+    public org.logicprobe.LogicMail.mail.MessageAppendRequest createMessageAppendRequest(org.logicprobe.LogicMail.mail.FolderTreeItem arg0, org.logicprobe.LogicMail.util.DataSpool arg1, org.logicprobe.LogicMail.message.MessageFlags arg2)  {
         try {
             Object[] args = new Object[3];
             args[0] = arg0;
             args[1] = arg1;
             args[2] = arg2;
-            MethodInvocation mi = new MethodInvocation(MTHD_CREATE_MESSAGE_APPEND_REQUEST_$_FOLDERTREEITEM_STRING_MESSAGEFLAGS, this, args);
+            MethodInvocation mi = new MethodInvocation(MTHD_CREATE_MESSAGE_APPEND_REQUEST_$_FOLDERTREEITEM_DATASPOOL_MESSAGEFLAGS, this, args);
             getInvocationHandler().invoke(mi);
             Object retVal = mi.getReturnValue();
             return (org.logicprobe.LogicMail.mail.MessageAppendRequest)retVal;
@@ -9,20 +9,45 @@ import com.hammingweight.hammock.*;
 
 public class MockIncomingMailClient extends AMockObject implements org.logicprobe.LogicMail.mail.IncomingMailClient {
     // Overridden methods.
-    public static final MockMethod MTHD_APPEND_MESSAGE_$_FOLDERTREEITEM_STRING_MESSAGEFLAGS = new MockMethod(
+    public static final MockMethod MTHD_APPEND_MESSAGE_$_FOLDERTREEITEM_DATASPOOL_MESSAGEFLAGS = new MockMethod(
         MockIncomingMailClient.class, 
-        "MTHD_APPEND_MESSAGE_$_FOLDERTREEITEM_STRING_MESSAGEFLAGS",
-        new Class[]{org.logicprobe.LogicMail.mail.FolderTreeItem.class, java.lang.String.class, org.logicprobe.LogicMail.message.MessageFlags.class},
+        "MTHD_APPEND_MESSAGE_$_FOLDERTREEITEM_DATASPOOL_MESSAGEFLAGS",
+        new Class[]{org.logicprobe.LogicMail.mail.FolderTreeItem.class, org.logicprobe.LogicMail.util.DataSpool.class, org.logicprobe.LogicMail.message.MessageFlags.class},
         new Class[]{java.io.IOException.class, org.logicprobe.LogicMail.mail.MailException.class},
         null,
         true);
-    public void appendMessage(org.logicprobe.LogicMail.mail.FolderTreeItem arg0, java.lang.String arg1, org.logicprobe.LogicMail.message.MessageFlags arg2) throws java.io.IOException, org.logicprobe.LogicMail.mail.MailException {
+    public void appendMessage(org.logicprobe.LogicMail.mail.FolderTreeItem arg0, org.logicprobe.LogicMail.util.DataSpool arg1, org.logicprobe.LogicMail.message.MessageFlags arg2) throws java.io.IOException, org.logicprobe.LogicMail.mail.MailException {
         try {
             Object[] args = new Object[3];
             args[0] = arg0;
             args[1] = arg1;
             args[2] = arg2;
-            MethodInvocation mi = new MethodInvocation(MTHD_APPEND_MESSAGE_$_FOLDERTREEITEM_STRING_MESSAGEFLAGS, this, args);
+            MethodInvocation mi = new MethodInvocation(MTHD_APPEND_MESSAGE_$_FOLDERTREEITEM_DATASPOOL_MESSAGEFLAGS, this, args);
+            getInvocationHandler().invoke(mi);
+            mi.getReturnValue();
+        } catch (Throwable t) {
+            if (t instanceof java.lang.Error) { throw (java.lang.Error)t; }
+            if (t instanceof java.lang.RuntimeException) { throw (java.lang.RuntimeException)t; }
+            if (t instanceof java.io.IOException) { throw (java.io.IOException)t; }
+            if (t instanceof org.logicprobe.LogicMail.mail.MailException) { throw (org.logicprobe.LogicMail.mail.MailException)t; }
+            throw new HammockException(t);
+        }
+    }
+
+    public static final MockMethod MTHD_APPEND_MESSAGES_$_FOLDERTREEITEM_ARRAY_DATASPOOL_ARRAY_MESSAGEFLAGS = new MockMethod(
+        MockIncomingMailClient.class, 
+        "MTHD_APPEND_MESSAGES_$_FOLDERTREEITEM_ARRAY_DATASPOOL_ARRAY_MESSAGEFLAGS",
+        new Class[]{org.logicprobe.LogicMail.mail.FolderTreeItem.class, org.logicprobe.LogicMail.util.DataSpool[].class, org.logicprobe.LogicMail.message.MessageFlags[].class},
+        new Class[]{java.io.IOException.class, org.logicprobe.LogicMail.mail.MailException.class},
+        null,
+        true);
+    public void appendMessages(org.logicprobe.LogicMail.mail.FolderTreeItem arg0, org.logicprobe.LogicMail.util.DataSpool[] arg1, org.logicprobe.LogicMail.message.MessageFlags[] arg2) throws java.io.IOException, org.logicprobe.LogicMail.mail.MailException {
+        try {
+            Object[] args = new Object[3];
+            args[0] = arg0;
+            args[1] = arg1;
+            args[2] = arg2;
+            MethodInvocation mi = new MethodInvocation(MTHD_APPEND_MESSAGES_$_FOLDERTREEITEM_ARRAY_DATASPOOL_ARRAY_MESSAGEFLAGS, this, args);
             getInvocationHandler().invoke(mi);
             mi.getReturnValue();
         } catch (Throwable t) {
@@ -31,15 +31,26 @@
 
 package org.logicprobe.LogicMail.mail;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.Vector;
 
 import org.logicprobe.LogicMail.conf.AccountConfig;
+import org.logicprobe.LogicMail.conf.GlobalConfig;
+import org.logicprobe.LogicMail.conf.ImapConfig;
+import org.logicprobe.LogicMail.mail.imap.ImapClient;
+import org.logicprobe.LogicMail.mail.imap.ImapMessageToken;
 import org.logicprobe.LogicMail.message.FolderMessage;
 import org.logicprobe.LogicMail.message.Message;
 import org.logicprobe.LogicMail.message.MessageEnvelope;
 import org.logicprobe.LogicMail.message.MessageFlags;
 import org.logicprobe.LogicMail.message.TextContent;
 import org.logicprobe.LogicMail.message.TextPart;
+import org.logicprobe.LogicMail.util.Connection;
+import org.logicprobe.LogicMail.util.StubSocketConnection;
 
 import com.hammingweight.hammock.DefaultArgumentMatcher;
 import com.hammingweight.hammock.Hammock;
@@ -472,6 +483,89 @@ public class NetworkMailStoreTest extends TestCase {
         hammock.verify();
     }
     
+    public void testBatchRequestPipelined() throws Throwable {
+        StringBuffer buf = new StringBuffer();
+        // Open and select
+        buf.append("* OK IMAP4rev1 server ready\r\n");
+        buf.append("* CAPABILITY IMAP4rev1\r\n");
+        buf.append("A0 OK CAPABILITY completed\r\n");
+        buf.append("A1 OK LOGIN completed\r\n");
+        buf.append("* LIST (\\Noselect) \".\" \"\"\r\n");
+        buf.append("A2 OK LIST completed\r\n");
+        buf.append("* 12 EXISTS\r\n");
+        buf.append("* 0 RECENT\r\n");
+        buf.append("* OK [UIDVALIDITY 1] UIDs valid\r\n");
+        buf.append("* OK [UIDNEXT 13] Predicted next UID\r\n");
+        buf.append("A3 OK [READ-WRITE] SELECT completed\r\n");
+        // Batch, where the second request fails
+        buf.append("* 1 FETCH (UID 10 FLAGS (\\Seen))\r\n");
+        buf.append("A4 OK STORE completed\r\n");
+        buf.append("* 2 FETCH (UID 11 FLAGS (\\Seen))\r\n");
+        buf.append("A5 NO STORE failed\r\n");
+        buf.append("A6 OK COPY completed\r\n");
+        
+        StubSocketConnection socket = new StubSocketConnection(buf.toString().getBytes());
+        ImapConfig imapConfig = new ImapConfig();
+        imapConfig.setServerUser("user");
+        imapConfig.setServerPass("password");
+        ImapClient imapClient = new ImapClient(null, new GlobalConfig(), imapConfig);
+        TestClientListener clientListener = new TestClientListener();
+        imapClient.setListener(clientListener);
+        assertTrue(imapClient.open(new Connection(socket, 0)));
+        imapClient.setActiveFolder(inboxFolder, false);
+        socket.resetSentBytes();
+        
+        TestCallback callback1 = new TestCallback();
+        TestCallback callback2 = new TestCallback();
+        TestCallback callback3 = new TestCallback();
+        NetworkMailStoreRequest[] requests = new NetworkMailStoreRequest[3];
+        requests[0] = (NetworkMailStoreRequest)instance.createMessageFlagChangeRequest(
+                createImapToken("INBOX", 10), new MessageFlags(MessageFlags.Flag.SEEN), true)
+                .setRequestCallback(callback1);
+        requests[1] = (NetworkMailStoreRequest)instance.createMessageFlagChangeRequest(
+                createImapToken("INBOX", 11), new MessageFlags(MessageFlags.Flag.SEEN), true)
+                .setRequestCallback(callback2);
+        requests[2] = (NetworkMailStoreRequest)instance.createMessageCopyRequest(
+                createImapToken("INBOX", 12), new FolderTreeItem("Archive", "Archive", "."))
+                .setRequestCallback(callback3);
+        
+        NetworkBatchRequest batchRequest = new NetworkBatchRequest(instance, requests);
+        batchRequest.execute(imapClient);
+        
+        // All the commands should be sent in a single write
+        assertEquals(
+                "A4 UID STORE 10 +FLAGS (\\Seen)\r\n"
+                + "A5 UID STORE 11 +FLAGS (\\Seen)\r\n"
+                + "A6 UID COPY 12 \"Archive\"\r\n",
+                new String(socket.getSentBytes()));
+        assertEquals(1, socket.getFlushCount());
+        
+        assertTrue(callback1.completed);
+        assertTrue(!callback1.failed);
+        assertTrue(!callback2.completed);
+        assertTrue(callback2.failed);
+        assertTrue(callback2.exception instanceof MailException);
+        assertTrue(callback3.completed);
+        assertTrue(!callback3.failed);
+        
+        // The flag change reported for the failed request is discarded
+        assertEquals(1, clientListener.flagsChangedTokens.size());
+        assertEquals(createImapToken("INBOX", 10), clientListener.flagsChangedTokens.elementAt(0));
+    }
+    
+    private static MessageToken createImapToken(String folderPath, int uid) throws IOException {
+        // Tokens are normally only created by the IMAP client, so this
+        // builds one from its serialized form
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(buf);
+        output.writeLong(uid);
+        output.writeUTF(folderPath);
+        output.writeInt(uid);
+        ImapMessageToken token = new ImapMessageToken();
+        token.deserialize(new DataInputStream(new ByteArrayInputStream(buf.toByteArray())));
+        return token;
+    }
+    
     public Test suite() {
         TestSuite suite = new TestSuite("NetworkMailStore");
 
@@ -495,6 +589,8 @@ public class NetworkMailStoreTest extends TestCase {
         { public void run(TestCase tc) {((NetworkMailStoreTest)tc).testRequestMessageUndelete(); } }));
         suite.addTest(new NetworkMailStoreTest("request batch", new TestMethod()
         { public void run(TestCase tc) {((NetworkMailStoreTest)tc).testRequestBatch(); } }));
+        suite.addTest(new NetworkMailStoreTest("batchRequestPipelined", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((NetworkMailStoreTest)tc).testBatchRequestPipelined(); } }));
 
         return suite;
     }
@@ -513,4 +609,16 @@ public class NetworkMailStoreTest extends TestCase {
             this.exception = exception;
         }
 	}
+	
+	private class TestClientListener implements IncomingMailClientListener {
+	    public Vector flagsChangedTokens = new Vector();
+	    
+        public void recentFolderMessagesAvailable(FolderTreeItem folder) { }
+        public void folderMessageFlagsChanged(MessageToken token, MessageFlags messageFlags) {
+            flagsChangedTokens.addElement(token);
+        }
+        public void folderMessageExpunged(MessageToken expungedToken, MessageToken[] updatedTokens) { }
+        public void folderStatusChanged(FolderTreeItem folder) { }
+        public void idleModeError() { }
+	}
 }
@@ -0,0 +1,166 @@
+/*-
+ * Copyright (c) 2011, Derek Konigsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution. 
+ * 3. Neither the name of the project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.logicprobe.LogicMail.mail;
+
+import org.logicprobe.LogicMail.util.TimerWheel;
+import org.logicprobe.LogicMail.util.WorkerPool;
+
+import j2meunit.framework.Test;
+import j2meunit.framework.TestCase;
+import j2meunit.framework.TestMethod;
+import j2meunit.framework.TestSuite;
+
+public class PollCoordinatorTest extends TestCase {
+    // Short tick and tolerance for test purposes
+    private static final long TICK = 10;
+    private static final long TOLERANCE = 100;
+
+    private WorkerPool workerPool;
+    private PollCoordinator instance;
+    private int runCount;
+    
+    public PollCoordinatorTest() {
+    }
+    
+    public PollCoordinatorTest(String testName, TestMethod testMethod) {
+        super(testName, testMethod);
+    }
+
+    private Runnable task = new Runnable() {
+        public void run() {
+            synchronized(PollCoordinatorTest.this) {
+                runCount++;
+                PollCoordinatorTest.this.notifyAll();
+            }
+        }
+    };
+    
+    public void setUp() {
+        runCount = 0;
+        workerPool = new WorkerPool(3, 1000);
+        instance = new PollCoordinator(new TimerWheel(workerPool, TICK), workerPool);
+    }
+    
+    public void tearDown() {
+        workerPool.shutdown();
+        instance = null;
+        workerPool = null;
+    }
+
+    public void testSharedWindow() {
+        // Refreshes within the tolerance of each other share one wake-up
+        instance.schedule("test1", task, TICK * 10, TOLERANCE);
+        instance.schedule("test2", task, TICK * 12, TOLERANCE);
+        instance.schedule("test3", task, TICK * 8, TOLERANCE);
+        waitForRuns(3, TICK * 100);
+        
+        assertEquals(3, getRunCount());
+        assertEquals(1, instance.getWakeUpCount());
+        assertEquals(3, instance.getRefreshCount());
+        assertEquals(2, instance.getSavedWakeUpCount());
+    }
+    
+    public void testSeparateWindows() {
+        // Refreshes further apart than the tolerance wake up separately
+        instance.schedule("test1", task, TICK * 5, TOLERANCE);
+        instance.schedule("test2", task, TICK * 5 + TOLERANCE * 2, TOLERANCE);
+        waitForRuns(2, TICK * 100);
+        
+        assertEquals(2, getRunCount());
+        assertEquals(2, instance.getWakeUpCount());
+        assertEquals(0, instance.getSavedWakeUpCount());
+    }
+    
+    public void testZeroTolerance() {
+        instance.schedule("test1", task, TICK * 5, 0);
+        instance.schedule("test2", task, TICK * 6, 0);
+        waitForRuns(2, TICK * 100);
+        
+        assertEquals(2, getRunCount());
+        assertEquals(2, instance.getWakeUpCount());
+    }
+    
+    public void testCancel() {
+        PollCoordinator.ScheduledRefresh refresh1 = instance.schedule("test1", task, TICK * 5, TOLERANCE);
+        PollCoordinator.ScheduledRefresh refresh2 = instance.schedule("test2", task, TICK * 6, TOLERANCE);
+        assertTrue(refresh1.cancel());
+        assertTrue(!refresh1.cancel());
+        waitForRuns(1, TICK * 100);
+        sleep(TICK * 5);
+        
+        assertEquals(1, getRunCount());
+        assertEquals(1, instance.getRefreshCount());
+        assertTrue(!refresh2.cancel());
+    }
+    
+    public void testCancelAll() {
+        PollCoordinator.ScheduledRefresh refresh = instance.schedule("test", task, TICK * 5, TOLERANCE);
+        assertTrue(refresh.cancel());
+        sleep(TICK * 20);
+        
+        assertEquals(0, getRunCount());
+        assertEquals(0, instance.getWakeUpCount());
+    }
+
+    private synchronized int getRunCount() {
+        return runCount;
+    }
+    
+    private synchronized void waitForRuns(int count, long maxWait) {
+        long endTime = System.currentTimeMillis() + maxWait;
+        while(runCount < count) {
+            long waitTime = endTime - System.currentTimeMillis();
+            if(waitTime <= 0) { break; }
+            try { wait(waitTime); } catch (InterruptedException e) { }
+        }
+    }
+    
+    private static void sleep(long time) {
+        try { Thread.sleep(time); } catch (InterruptedException e) { }
+    }
+    
+    public Test suite() {
+        TestSuite suite = new TestSuite("PollCoordinatorTest");
+        
+        suite.addTest(new PollCoordinatorTest("sharedWindow", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((PollCoordinatorTest)tc).testSharedWindow(); } }));
+        suite.addTest(new PollCoordinatorTest("separateWindows", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((PollCoordinatorTest)tc).testSeparateWindows(); } }));
+        suite.addTest(new PollCoordinatorTest("zeroTolerance", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((PollCoordinatorTest)tc).testZeroTolerance(); } }));
+        suite.addTest(new PollCoordinatorTest("cancel", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((PollCoordinatorTest)tc).testCancel(); } }));
+        suite.addTest(new PollCoordinatorTest("cancelAll", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((PollCoordinatorTest)tc).testCancelAll(); } }));
+
+        return suite;
+    }
+}
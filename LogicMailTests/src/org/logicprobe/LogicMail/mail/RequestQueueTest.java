@@ -0,0 +1,238 @@
+/*-
+ * Copyright (c) 2011, Derek Konigsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution. 
+ * 3. Neither the name of the project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.logicprobe.LogicMail.mail;
+
+import java.io.IOException;
+
+import org.logicprobe.LogicMail.conf.AccountConfig;
+
+import com.hammingweight.hammock.Hammock;
+
+import j2meunit.framework.Test;
+import j2meunit.framework.TestCase;
+import j2meunit.framework.TestMethod;
+import j2meunit.framework.TestSuite;
+
+/**
+ * Unit test for RequestQueue.
+ */
+public class RequestQueueTest extends TestCase {
+    private RequestQueue instance;
+    private Hammock hammock;
+    private AccountConfig fakeAccountConfig;
+    private NetworkMailStore mailStore;
+    
+    public RequestQueueTest() {
+    }
+    
+    public RequestQueueTest(String testName, TestMethod testMethod) {
+        super(testName, testMethod);
+    }
+    
+    public void setUp() {
+        instance = new RequestQueue();
+        
+        hammock = new Hammock();
+        fakeAccountConfig = new AccountConfig() { };
+        MockIncomingMailClient mockIncomingMailClient = new MockIncomingMailClient(hammock);
+        hammock.setStubExpectation(MockIncomingMailClient.MTHD_GET_ACCT_CONFIG).setReturnValue(fakeAccountConfig);
+        hammock.setStubExpectation(MockIncomingMailClient.MTHD_GET_CONNECTION_CONFIG).setReturnValue(fakeAccountConfig);
+        hammock.setStubExpectation(MockIncomingMailClient.MTHD_SET_LISTENER_$_INCOMINGMAILCLIENTLISTENER, new Object[1]);
+        MailClientFactory.setIncomingMailClient(fakeAccountConfig, mockIncomingMailClient);
+        mailStore = new NetworkMailStore(fakeAccountConfig);
+    }
+    
+    public void tearDown() {
+        mailStore.shutdown(true);
+        mailStore = null;
+        fakeAccountConfig = null;
+        instance = null;
+    }
+    
+    public void testPriorityOrder() {
+        FakeRequest background1 = new FakeRequest(ConnectionHandlerRequest.PRIORITY_BACKGROUND);
+        FakeRequest background2 = new FakeRequest(ConnectionHandlerRequest.PRIORITY_BACKGROUND);
+        FakeRequest prefetch = new FakeRequest(ConnectionHandlerRequest.PRIORITY_PREFETCH);
+        FakeRequest interactive = new FakeRequest(ConnectionHandlerRequest.PRIORITY_INTERACTIVE);
+        
+        instance.add(background1);
+        instance.add(prefetch);
+        instance.add(background2);
+        instance.add(interactive);
+        assertEquals(4, instance.size());
+        assertEquals(2, instance.size(ConnectionHandlerRequest.PRIORITY_BACKGROUND));
+        
+        assertEquals(interactive, instance.element());
+        assertEquals(interactive, instance.remove());
+        assertEquals(prefetch, instance.remove());
+        assertEquals(background1, instance.remove());
+        assertEquals(background2, instance.remove());
+        assertNull(instance.element());
+        assertEquals(0, instance.size());
+    }
+    
+    public void testPush() {
+        FakeRequest interactive = new FakeRequest(ConnectionHandlerRequest.PRIORITY_INTERACTIVE);
+        FakeRequest pushed = new FakeRequest(ConnectionHandlerRequest.PRIORITY_BACKGROUND);
+        
+        instance.add(interactive);
+        instance.push(pushed);
+        assertEquals(pushed, instance.remove());
+        assertEquals(interactive, instance.remove());
+    }
+    
+    public void testDefaultPriority() {
+        MailStoreRequest request = mailStore.createFolderTreeRequest();
+        assertEquals(ConnectionHandlerRequest.PRIORITY_INTERACTIVE, ((ConnectionHandlerRequest)request).getPriority());
+        ((ConnectionHandlerRequest)request).setDeliberate(false);
+        assertEquals(ConnectionHandlerRequest.PRIORITY_BACKGROUND, ((ConnectionHandlerRequest)request).getPriority());
+        
+        request = mailStore.createMessageRequest(new FakeMessageToken(1), true);
+        ((ConnectionHandlerRequest)request).setDeliberate(false);
+        assertEquals(ConnectionHandlerRequest.PRIORITY_PREFETCH, ((ConnectionHandlerRequest)request).getPriority());
+        ((ConnectionHandlerRequest)request).setPriority(ConnectionHandlerRequest.PRIORITY_INTERACTIVE);
+        assertEquals(ConnectionHandlerRequest.PRIORITY_INTERACTIVE, ((ConnectionHandlerRequest)request).getPriority());
+    }
+    
+    public void testDisconnectOrder() {
+        // A disconnect is a barrier, so it has to stay in order with the
+        // requests around it rather than waiting behind later ones
+        FakeRequest before = new FakeRequest(ConnectionHandlerRequest.PRIORITY_INTERACTIVE);
+        NetworkDisconnectRequest disconnect =
+            new NetworkDisconnectRequest(mailStore, NetworkDisconnectRequest.REQUEST_DISCONNECT);
+        FakeRequest after = new FakeRequest(ConnectionHandlerRequest.PRIORITY_INTERACTIVE);
+        
+        instance.add(before);
+        instance.add(disconnect);
+        instance.add(after);
+        assertEquals(ConnectionHandlerRequest.PRIORITY_INTERACTIVE, disconnect.getPriority());
+        assertEquals(before, instance.remove());
+        assertEquals(disconnect, instance.remove());
+        assertEquals(after, instance.remove());
+    }
+    
+    public void testMergeDuplicates() {
+        FolderTreeItem folder = new FolderTreeItem("INBOX", "INBOX", ".");
+        FolderTreeItem otherFolder = new FolderTreeItem("Sent", "Sent", ".");
+        final int[] completeCount = new int[1];
+        MailStoreRequestCallback callback = new MailStoreRequestCallback() {
+            public void mailStoreRequestComplete(MailStoreRequest request) {
+                completeCount[0]++;
+            }
+            public void mailStoreRequestFailed(MailStoreRequest request, Throwable exception, boolean isFinal) { }
+        };
+        
+        NetworkMailStoreRequest request1 = (NetworkMailStoreRequest)mailStore.createFolderMessagesRecentRequest(folder, false);
+        request1.setDeliberate(false);
+        NetworkMailStoreRequest request2 = (NetworkMailStoreRequest)mailStore.createFolderMessagesRecentRequest(otherFolder, false);
+        request2.setDeliberate(false);
+        NetworkMailStoreRequest request3 = (NetworkMailStoreRequest)mailStore.createFolderMessagesRecentRequest(folder, false);
+        request3.setRequestCallback(callback);
+        
+        instance.add(request1);
+        instance.add(request2);
+        instance.add(request3);
+        assertEquals(2, instance.size());
+        assertEquals(1, instance.getMergedCount());
+        
+        // The merged request takes the priority of the deliberate duplicate
+        assertEquals(request1, instance.remove());
+        assertTrue(request1.isDeliberate());
+        assertEquals(ConnectionHandlerRequest.PRIORITY_INTERACTIVE, request1.getPriority());
+        
+        request1.fireMailStoreRequestComplete();
+        assertEquals(1, completeCount[0]);
+        assertEquals(request2, instance.remove());
+    }
+    
+    public void testMergeStatus() {
+        FolderTreeItem folder1 = new FolderTreeItem("INBOX", "INBOX", ".");
+        FolderTreeItem folder2 = new FolderTreeItem("Sent", "Sent", ".");
+        
+        MailStoreRequest request1 = mailStore.createFolderStatusRequest(new FolderTreeItem[] { folder1, folder2 });
+        MailStoreRequest request2 = mailStore.createFolderStatusRequest(new FolderTreeItem[] { folder2 });
+        MailStoreRequest request3 = mailStore.createFolderStatusRequest(new FolderTreeItem[] { folder1, new FolderTreeItem("Trash", "Trash", ".") });
+        
+        instance.add((ConnectionHandlerRequest)request1);
+        instance.add((ConnectionHandlerRequest)request2);
+        instance.add((ConnectionHandlerRequest)request3);
+        assertEquals(2, instance.size());
+        assertEquals(request1, instance.remove());
+        assertEquals(request3, instance.remove());
+    }
+    
+    public void testWaitTime() {
+        instance.add(new FakeRequest(ConnectionHandlerRequest.PRIORITY_BACKGROUND));
+        try { Thread.sleep(50); } catch (InterruptedException e) { }
+        instance.remove();
+        assertTrue(instance.getAverageWaitTime(ConnectionHandlerRequest.PRIORITY_BACKGROUND) >= 40);
+        assertTrue(instance.getMaxWaitTime(ConnectionHandlerRequest.PRIORITY_BACKGROUND) >= 40);
+        assertEquals(0, instance.getAverageWaitTime(ConnectionHandlerRequest.PRIORITY_INTERACTIVE));
+    }
+    
+    private static class FakeRequest implements ConnectionHandlerRequest {
+        private int priority;
+        
+        public FakeRequest(int priority) {
+            this.priority = priority;
+        }
+        public void setDeliberate(boolean deliberate) { }
+        public boolean isDeliberate() { return true; }
+        public void setPriority(int priority) { this.priority = priority; }
+        public int getPriority() { return priority; }
+        public boolean isAdministrative() { return false; }
+        public void showInitialStatus() { }
+        public void execute(MailClient client) throws IOException, MailException { }
+        public void notifyConnectionRequestFailed(Throwable exception, boolean isFinal) { }
+    }
+    
+    public Test suite() {
+        TestSuite suite = new TestSuite("RequestQueue");
+        
+        suite.addTest(new RequestQueueTest("priorityOrder", new TestMethod()
+        { public void run(TestCase tc) {((RequestQueueTest)tc).testPriorityOrder(); } }));
+        suite.addTest(new RequestQueueTest("push", new TestMethod()
+        { public void run(TestCase tc) {((RequestQueueTest)tc).testPush(); } }));
+        suite.addTest(new RequestQueueTest("defaultPriority", new TestMethod()
+        { public void run(TestCase tc) {((RequestQueueTest)tc).testDefaultPriority(); } }));
+        suite.addTest(new RequestQueueTest("disconnectOrder", new TestMethod()
+        { public void run(TestCase tc) {((RequestQueueTest)tc).testDisconnectOrder(); } }));
+        suite.addTest(new RequestQueueTest("mergeDuplicates", new TestMethod()
+        { public void run(TestCase tc) {((RequestQueueTest)tc).testMergeDuplicates(); } }));
+        suite.addTest(new RequestQueueTest("mergeStatus", new TestMethod()
+        { public void run(TestCase tc) {((RequestQueueTest)tc).testMergeStatus(); } }));
+        suite.addTest(new RequestQueueTest("waitTime", new TestMethod()
+        { public void run(TestCase tc) {((RequestQueueTest)tc).testWaitTime(); } }));
+        
+        return suite;
+    }
+}
@@ -0,0 +1,113 @@
+/*-
+ * Copyright (c) 2011, Derek Konigsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution. 
+ * 3. Neither the name of the project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.logicprobe.LogicMail.mail.imap;
+
+import org.logicprobe.LogicMail.conf.ConnectionConfig;
+
+import j2meunit.framework.Test;
+import j2meunit.framework.TestCase;
+import j2meunit.framework.TestMethod;
+import j2meunit.framework.TestSuite;
+
+public class FetchWindowEstimatorTest extends TestCase {
+    
+    public FetchWindowEstimatorTest() {
+    }
+    
+    public FetchWindowEstimatorTest(String testName, TestMethod testMethod) {
+        super(testName, testMethod);
+    }
+    
+    private static void updateAtRate(FetchWindowEstimator instance, int rate, int count) {
+        for(int i=0; i<count; i++) {
+            int window = instance.getWindow();
+            instance.update(window, ((long)window * 1000) / rate, true);
+        }
+    }
+    
+    public void testInitialWindow() {
+        assertEquals(8192, new FetchWindowEstimator(ConnectionConfig.TRANSPORT_WIFI_ONLY, null).getWindow());
+        assertEquals(4096, new FetchWindowEstimator(ConnectionConfig.TRANSPORT_DIRECT_TCP, null).getWindow());
+        assertEquals(50000, new FetchWindowEstimator(ConnectionConfig.TRANSPORT_DIRECT_TCP, new int[] { 50000, 50000, 0 }).getWindow());
+    }
+    
+    public void testFastLink() {
+        FetchWindowEstimator instance = new FetchWindowEstimator(ConnectionConfig.TRANSPORT_WIFI_ONLY, null);
+        
+        instance.update(8192, 100, false);
+        assertEquals("Limited to doubling", 16384, instance.getWindow());
+        
+        updateAtRate(instance, 1000000, 20);
+        assertTrue("Above 32K", instance.getWindow() > 32768);
+        assertEquals(FetchWindowEstimator.WINDOW_MAX, instance.getWindow());
+    }
+    
+    public void testSlowLink() {
+        FetchWindowEstimator instance = new FetchWindowEstimator(ConnectionConfig.TRANSPORT_MDS, null);
+        
+        int previous = instance.getWindow();
+        for(int i=0; i<10; i++) {
+            updateAtRate(instance, 500, 1);
+            assertTrue("Limited to halving", instance.getWindow() >= (previous / 2));
+            previous = instance.getWindow();
+        }
+        assertEquals(FetchWindowEstimator.WINDOW_MIN, instance.getWindow());
+    }
+    
+    public void testRoundTripTime() {
+        FetchWindowEstimator instance1 = new FetchWindowEstimator(ConnectionConfig.TRANSPORT_WIFI_ONLY, null);
+        FetchWindowEstimator instance2 = new FetchWindowEstimator(ConnectionConfig.TRANSPORT_WIFI_ONLY, null);
+        updateAtRate(instance1, 100000, 20);
+        updateAtRate(instance2, 100000, 20);
+        assertEquals(instance1.getWindow(), instance2.getWindow());
+        
+        // Same transfer time, but only the first link has a long round trip
+        instance1.update(10000, 600, false);
+        instance2.update(10000, 100, false);
+        assertTrue("Window covers round trip", instance1.getWindow() > instance2.getWindow());
+    }
+    
+    public Test suite() {
+        TestSuite suite = new TestSuite("FetchWindowEstimator");
+        
+        suite.addTest(new FetchWindowEstimatorTest("initialWindow", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((FetchWindowEstimatorTest)tc).testInitialWindow(); } }));
+        suite.addTest(new FetchWindowEstimatorTest("fastLink", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((FetchWindowEstimatorTest)tc).testFastLink(); } }));
+        suite.addTest(new FetchWindowEstimatorTest("slowLink", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((FetchWindowEstimatorTest)tc).testSlowLink(); } }));
+        suite.addTest(new FetchWindowEstimatorTest("roundTripTime", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((FetchWindowEstimatorTest)tc).testRoundTripTime(); } }));
+        
+        return suite;
+    }
+}
@@ -123,13 +123,21 @@ public class ImapClientTest extends TestCase {
      * the connection opening process.
      */
     private void configureForBasicOpen() throws Throwable {
+        configureForBasicOpen(null);
+    }
+    
+    private void configureForBasicOpen(String extraCapability) throws Throwable {
         hammock.setStubExpectation(MockImapProtocol.MTHD_SET_CONNECTION_$_CONNECTION);
         hammock.setStubExpectation(MockImapProtocol.MTHD_SET_WATCHDOG_$_WATCHDOG);
         
         Hashtable capabilities = new Hashtable();
         capabilities.put("NAMESPACE", Boolean.TRUE);
         capabilities.put("CHILDREN", Boolean.TRUE);
+        if(extraCapability != null) {
+            capabilities.put(extraCapability, Boolean.TRUE);
+        }
         hammock.setExpectation(MockImapProtocol.MTHD_EXECUTE_CAPABILITY).setReturnValue(capabilities);
+        hammock.setStubExpectation(MockImapProtocol.MTHD_SET_NON_SYNC_LITERAL_LIMIT_$_INT);
         
         hammock.setExpectation(MockImapProtocol.MTHD_EXECUTE_LOGIN_$_STRING_STRING,
                 new Object[] { accountConfig.getServerUser(), accountConfig.getServerPass() })
@@ -402,6 +410,206 @@ public class ImapClientTest extends TestCase {
         hammock.verify();
     }
     
+    public void testIdleModeVanished() throws Throwable {
+        configureForBasicOpen();
+        assertTrue(instance.open());
+        
+        FolderTreeItem inboxFolder = configureForSetActiveFolder(5);
+        instance.setActiveFolder(inboxFolder, true);
+
+        // Fetch 5 dummy messages
+        final ImapProtocol.FetchEnvelopeResponse[] responses = configureForGetFolderMessages(1, inboxFolder.getMsgCount());
+        
+        instance.getNewFolderMessages(false, new TestFolderMessageCallback(), null);
+        
+        // Only the known messages within the ranges should be reported
+        hammock.setExpectation(MockImapProtocol.MTHD_EXECUTE_IDLE_$_IMAPPROTOCOL$IDLELISTENER,
+                new Object[] { null }).setArgumentMatcher(0, new NotNullArgumentMatcher());
+        hammock.setExpectation(MockIncomingMailClientListener.MTHD_FOLDER_MESSAGE_EXPUNGED_$_MESSAGETOKEN_ARRAY_MESSAGETOKEN,
+                new Object[] { new ImapMessageToken(inboxFolder.getPath(), responses[0].uid), null }).ignoreArgument(1);
+        hammock.setExpectation(MockIncomingMailClientListener.MTHD_FOLDER_MESSAGE_EXPUNGED_$_MESSAGETOKEN_ARRAY_MESSAGETOKEN,
+                new Object[] { new ImapMessageToken(inboxFolder.getPath(), responses[2].uid), null }).ignoreArgument(1);
+        hammock.setExpectation(MockImapProtocol.MTHD_EXECUTE_IDLE_DONE);
+        
+        instance.idleModeBegin();
+        
+        // Simulate two vanished messages, along with a range that runs to
+        // the largest possible UID
+        untaggedResponseListener.vanishedResponse(new int[] {
+                responses[0].uid, responses[0].uid,
+                responses[2].uid, responses[2].uid,
+                responses[4].uid + 1, Integer.MAX_VALUE });
+        
+        // A large range of messages that were never fetched is not reported
+        untaggedResponseListener.vanishedResponse(new int[] {
+                responses[4].uid + 1, responses[4].uid + 500000 });
+        
+        instance.idleModeEnd();
+        hammock.verify();
+    }
+    
+    public void testIdleModeNotify() throws Throwable {
+        configureForBasicOpen("NOTIFY");
+        assertTrue(instance.open());
+        accountConfig.setOnlySubscribedFolders(true);
+        
+        // Load the status of the folders, so they are tracked while idle
+        FolderTreeItem folder1 = new FolderTreeItem(null, "Folder1", "INBOX.Folder1", ".", true, true);
+        FolderTreeItem inboxStatusFolder = new FolderTreeItem(null, "INBOX", "INBOX", ".", true, true);
+        ImapProtocol.StatusResponse[] statusResponses = new ImapProtocol.StatusResponse[2];
+        statusResponses[0] = createStatusResponse(5, 1, 0);
+        statusResponses[1] = createStatusResponse(3, 1, 0);
+        hammock.setExpectation(MockImapProtocol.MTHD_EXECUTE_STATUS_$_ARRAY_STRING_MAILPROGRESSHANDLER,
+                new Object[] { null, null }).setArgumentMatcher(0, new NotNullArgumentMatcher())
+                .setReturnValue(statusResponses);
+        instance.refreshFolderStatus(new FolderTreeItem[] { inboxStatusFolder, folder1 }, null);
+        
+        FolderTreeItem inboxFolder = configureForSetActiveFolder(5);
+        instance.setActiveFolder(inboxFolder, true);
+        
+        // The NOTIFY request should only be sent once per session
+        hammock.setExpectation(MockImapProtocol.MTHD_EXECUTE_NOTIFY_$_BOOLEAN,
+                new Object[] { Boolean.TRUE });
+        hammock.setExpectation(MockImapProtocol.MTHD_EXECUTE_IDLE_$_IMAPPROTOCOL$IDLELISTENER,
+                new Object[] { null }).setArgumentMatcher(0, new NotNullArgumentMatcher()).setExpectedCallCount(2);
+        hammock.setExpectation(MockIncomingMailClientListener.MTHD_FOLDER_STATUS_CHANGED_$_FOLDERTREEITEM,
+                new Object[] { folder1 });
+        hammock.setExpectation(MockImapProtocol.MTHD_EXECUTE_IDLE_DONE).setExpectedCallCount(2);
+        
+        instance.idleModeBegin();
+        
+        // Simulate two new messages in another folder, with a response that
+        // only includes the message count
+        untaggedResponseListener.statusResponse("INBOX.Folder1", createStatusResponse(5, -1, -1));
+        
+        // Responses for the active folder and unknown folders are ignored
+        untaggedResponseListener.statusResponse("INBOX", createStatusResponse(9, -1, -1));
+        untaggedResponseListener.statusResponse("Unknown", createStatusResponse(9, -1, -1));
+        
+        instance.idleModeEnd();
+        instance.idleModeBegin();
+        instance.idleModeEnd();
+        hammock.verify();
+        
+        assertEquals(5, folder1.getMsgCount());
+        assertEquals(3, folder1.getUnseenCount());
+        assertEquals(2, folder1.getRecentCount());
+    }
+    
+    public void testIdleModeStatusFallback() throws Throwable {
+        configureForBasicOpen();
+        assertTrue(instance.open());
+        accountConfig.setOnlySubscribedFolders(false);
+        
+        // Load the folder tree, so its folders are tracked while idle
+        Vector listResponses = new Vector();
+        ImapProtocol.ListResponse listResponse1 = new ImapProtocol.ListResponse();
+        listResponse1.name = "INBOX";
+        listResponse1.delim = ".";
+        listResponse1.canSelect = true;
+        listResponses.addElement(listResponse1);
+        ImapProtocol.ListResponse listResponse2 = new ImapProtocol.ListResponse();
+        listResponse2.name = "Archive";
+        listResponse2.delim = ".";
+        listResponse2.canSelect = true;
+        listResponses.addElement(listResponse2);
+        hammock.setExpectation(
+                MockImapProtocol.MTHD_EXECUTE_LIST_$_STRING_STRING_MAILPROGRESSHANDLER,
+                new Object[] { "", "%", null })
+                .setReturnValue(listResponses);
+        instance.getFolderTree(null);
+        
+        FolderTreeItem inboxFolder = configureForSetActiveFolder(5);
+        instance.setActiveFolder(inboxFolder, true);
+        
+        // Without NOTIFY, the first idle should check every folder other
+        // than the active one, and only report the ones that changed
+        hammock.setExpectation(MockImapProtocol.MTHD_EXECUTE_STATUS_$_ARRAY_STRING_MAILPROGRESSHANDLER,
+                new Object[] { null, null }).setArgumentMatcher(0, new IArgumentMatcher() {
+                    public boolean areArgumentsEqual(Object argumentExpected, Object argumentActual) {
+                        String[] paths = (String[])argumentActual;
+                        return paths.length == 1 && paths[0].equals("Archive");
+                    }
+                }).setReturnValue(new ImapProtocol.StatusResponse[] { createStatusResponse(4, 1, 0) });
+        hammock.setExpectation(MockIncomingMailClientListener.MTHD_FOLDER_STATUS_CHANGED_$_FOLDERTREEITEM,
+                new Object[] { null }).setArgumentMatcher(0, new IArgumentMatcher() {
+                    public boolean areArgumentsEqual(Object argumentExpected, Object argumentActual) {
+                        FolderTreeItem folder = (FolderTreeItem)argumentActual;
+                        return folder.getPath().equals("Archive")
+                            && folder.getMsgCount() == 4 && folder.getUnseenCount() == 1;
+                    }
+                });
+        
+        // The next idle should not repeat the check so soon
+        hammock.setExpectation(MockImapProtocol.MTHD_EXECUTE_IDLE_$_IMAPPROTOCOL$IDLELISTENER,
+                new Object[] { null }).setArgumentMatcher(0, new NotNullArgumentMatcher()).setExpectedCallCount(2);
+        hammock.setExpectation(MockImapProtocol.MTHD_EXECUTE_IDLE_DONE).setExpectedCallCount(2);
+        
+        instance.idleModeBegin();
+        instance.idleModeEnd();
+        instance.idleModeBegin();
+        instance.idleModeEnd();
+        hammock.verify();
+    }
+    
+    public void testIdleModeStatusRebuild() throws Throwable {
+        configureForBasicOpen();
+        assertTrue(instance.open());
+        accountConfig.setOnlySubscribedFolders(false);
+        
+        // Load the folder tree twice, with a folder removed the second time
+        hammock.setExpectation(
+                MockImapProtocol.MTHD_EXECUTE_LIST_$_STRING_STRING_MAILPROGRESSHANDLER,
+                new Object[] { "", "%", null })
+                .setReturnValue(createListResponses(new String[] { "INBOX", "Archive", "Removed" }));
+        instance.getFolderTree(null);
+        hammock.setExpectation(
+                MockImapProtocol.MTHD_EXECUTE_LIST_$_STRING_STRING_MAILPROGRESSHANDLER,
+                new Object[] { "", "%", null })
+                .setReturnValue(createListResponses(new String[] { "INBOX", "Archive" }));
+        instance.getFolderTree(null);
+        
+        FolderTreeItem inboxFolder = configureForSetActiveFolder(5);
+        instance.setActiveFolder(inboxFolder, true);
+        
+        // Only the folders in the current tree should be checked, and a
+        // folder the server returned no status data for is not reported
+        hammock.setExpectation(MockImapProtocol.MTHD_EXECUTE_STATUS_$_ARRAY_STRING_MAILPROGRESSHANDLER,
+                new Object[] { null, null }).setArgumentMatcher(0, new IArgumentMatcher() {
+                    public boolean areArgumentsEqual(Object argumentExpected, Object argumentActual) {
+                        String[] paths = (String[])argumentActual;
+                        return paths.length == 1 && paths[0].equals("Archive");
+                    }
+                }).setReturnValue(new ImapProtocol.StatusResponse[1]);
+        hammock.setExpectation(MockImapProtocol.MTHD_EXECUTE_IDLE_$_IMAPPROTOCOL$IDLELISTENER,
+                new Object[] { null }).setArgumentMatcher(0, new NotNullArgumentMatcher());
+        hammock.setExpectation(MockImapProtocol.MTHD_EXECUTE_IDLE_DONE);
+        
+        instance.idleModeBegin();
+        instance.idleModeEnd();
+        hammock.verify();
+    }
+    
+    private static Vector createListResponses(String[] names) {
+        Vector listResponses = new Vector();
+        for(int i=0; i<names.length; i++) {
+            ImapProtocol.ListResponse listResponse = new ImapProtocol.ListResponse();
+            listResponse.name = names[i];
+            listResponse.delim = ".";
+            listResponse.canSelect = true;
+            listResponses.addElement(listResponse);
+        }
+        return listResponses;
+    }
+    
+    private static ImapProtocol.StatusResponse createStatusResponse(int exists, int unseen, int recent) {
+        ImapProtocol.StatusResponse response = new ImapProtocol.StatusResponse();
+        response.exists = exists;
+        response.unseen = unseen;
+        response.recent = recent;
+        return response;
+    }
+    
     private ImapProtocol.FetchEnvelopeResponse[] configureForGetFolderMessages(
             int startingIndex, int endingIndex) {
         
@@ -472,6 +680,14 @@ public class ImapClientTest extends TestCase {
         { public void run(TestCase tc) throws Throwable { ((ImapClientTest) tc).testIdleModeMessagesAvailable(); }}));
         suite.addTest(new ImapClientTest("idleModeFlagsChanged", new TestMethod()
         { public void run(TestCase tc) throws Throwable { ((ImapClientTest) tc).testIdleModeFlagsChanged(); }}));
+        suite.addTest(new ImapClientTest("idleModeVanished", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapClientTest) tc).testIdleModeVanished(); }}));
+        suite.addTest(new ImapClientTest("idleModeNotify", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapClientTest) tc).testIdleModeNotify(); }}));
+        suite.addTest(new ImapClientTest("idleModeStatusFallback", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapClientTest) tc).testIdleModeStatusFallback(); }}));
+        suite.addTest(new ImapClientTest("idleModeStatusRebuild", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapClientTest) tc).testIdleModeStatusRebuild(); }}));
         suite.addTest(new ImapClientTest("idleModeExpungeFlagsChanged", new TestMethod()
         { public void run(TestCase tc) throws Throwable { ((ImapClientTest) tc).testIdleModeExpungeFlagsChanged(); }}));
 
@@ -525,6 +741,8 @@ public class ImapClientTest extends TestCase {
         public IntVector recent = new IntVector();
         public IntVector expunge = new IntVector();
         public Vector fetch = new Vector();
+        public Vector vanished = new Vector();
+        public Vector status = new Vector();
 
         public void existsResponse(int value) {
             exists.addElement(value);
@@ -538,5 +756,11 @@ public class ImapClientTest extends TestCase {
         public void fetchResponse(ImapProtocol.FetchFlagsResponse value) {
             fetch.addElement(value);
         }
+        public void vanishedResponse(int[] uids) {
+            vanished.addElement(uids);
+        }
+        public void statusResponse(String mboxpath, ImapProtocol.StatusResponse value) {
+            status.addElement(value);
+        }
     }
 }
@@ -0,0 +1,106 @@
+/*-
+ * Copyright (c) 2011, Derek Konigsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution. 
+ * 3. Neither the name of the project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.logicprobe.LogicMail.mail.imap;
+
+import java.util.Vector;
+
+/**
+ * Benchmark comparing the tree-based and cursor-based parsing of
+ * FETCH responses.
+ * <p>
+ * This is intentionally not part of any test suite, since it only reports
+ * timings and takes too long to run on every test pass.  It uses the same
+ * FETCH responses as {@link ImapParserTest}, which checks that both parsers
+ * produce the same results.
+ * </p>
+ */
+public class ImapParserBenchmark {
+    private ImapParserBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        System.out.println(run(200));
+    }
+
+    /**
+     * Parses the sample FETCH responses with both parsers.
+     *
+     * @param iterations the number of passes over the sample responses
+     * @return a summary of the time taken by each parser
+     */
+    public static String run(int iterations) {
+        String[] responses = ImapParserTest.FETCH_RESPONSES;
+        byte[][] rawText = new byte[responses.length][];
+        int[] offset = new int[responses.length];
+        for(int i=0; i<responses.length; i++) {
+            rawText[i] = responses[i].getBytes();
+            offset[i] = responses[i].indexOf('(');
+        }
+        
+        long startTime = System.currentTimeMillis();
+        for(int n=0; n<iterations; n++) {
+            for(int i=0; i<rawText.length; i++) {
+                Vector parsedText = ImapParser.parenListParser(rawText[i], offset[i], rawText[i].length - offset[i]);
+                ImapParser.parseMessageFlags((Vector)ImapParserTest.getItem(parsedText, "FLAGS"));
+                ImapParser.parseMessageEnvelope((Vector)ImapParserTest.getItem(parsedText, "ENVELOPE"));
+                ImapParser.parseMessageStructureParameter((Vector)ImapParserTest.getItem(parsedText, "BODYSTRUCTURE"));
+            }
+        }
+        long treeTime = System.currentTimeMillis() - startTime;
+        
+        startTime = System.currentTimeMillis();
+        for(int n=0; n<iterations; n++) {
+            for(int i=0; i<rawText.length; i++) {
+                ImapResponseCursor cursor = new ImapResponseCursor(rawText[i], offset[i], rawText[i].length - offset[i]);
+                cursor.enterList();
+                while(cursor.hasNext()) {
+                    if(cursor.readAtom("FLAGS")) {
+                        ImapParser.parseMessageFlags(cursor);
+                    }
+                    else if(cursor.readAtom("ENVELOPE")) {
+                        ImapParser.parseMessageEnvelope(cursor);
+                    }
+                    else if(cursor.readAtom("BODYSTRUCTURE")) {
+                        ImapParser.parseMessageStructure(cursor);
+                    }
+                    else {
+                        cursor.skipValue();
+                    }
+                }
+            }
+        }
+        long cursorTime = System.currentTimeMillis() - startTime;
+        
+        return "Parsed " + (iterations * rawText.length)
+                + " FETCH responses: tree parser " + treeTime
+                + "ms, cursor parser " + cursorTime + "ms";
+    }
+}
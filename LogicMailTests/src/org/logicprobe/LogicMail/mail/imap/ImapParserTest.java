@@ -37,6 +37,8 @@ import j2meunit.framework.TestSuite;
 
 import java.util.Vector;
 
+import org.logicprobe.LogicMail.message.MessageEnvelope;
+
 
 /**
  * Unit test for ImapParser
@@ -45,6 +47,49 @@ public class ImapParserTest extends TestCase {
     private static final Character LPAREN = new Character('(');
     private static final Character RPAREN = new Character(')');
     
+    /**
+     * Sample FETCH responses, as recorded from a variety of servers, used to
+     * compare the cursor parser against the tree parser.
+     */
+    static final String[] FETCH_RESPONSES = {
+        "* 1 FETCH (FLAGS (\\Answered \\Seen) UID 101 " +
+            "ENVELOPE (\"Mon, 12 Mar 2007 19:38:31 -0700\" \"Re: Calm down! :-)\" " +
+            "((\"jim smith\" NIL \"jsmith\" \"scratch.test\")) " +
+            "((\"jim smith\" NIL \"jsmith\" \"scratch.test\")) " +
+            "((\"jim smith\" NIL \"jsmith\" \"scratch.test\")) " +
+            "((\"John Doe\" NIL \"jdoe\" \"generic.test\")) NIL NIL " +
+            "\"<200703121933.25327.jdoe@generic.test>\" " +
+            "\"<7b02460f0703121938sff23a05xd3c2a37dc6b9eb7d@mail.scratch.test>\") " +
+            "BODYSTRUCTURE ((\"TEXT\" \"PLAIN\" (\"CHARSET\" \"us-ascii\") NIL NIL \"7BIT\" 165 8 NIL NIL NIL) " +
+            "(\"TEXT\" \"HTML\" (\"CHARSET\" \"us-ascii\") NIL NIL \"7BIT\" 627 10 NIL NIL NIL) " +
+            "\"ALTERNATIVE\" (\"BOUNDARY\" \"Boundary-00=_y9RuEFduwo6YU42\") (\"INLINE\" NIL) NIL))",
+        "* 2 FETCH (FLAGS () UID 102 ENVELOPE (\"Sun, 18 Mar 2007 09:04:29 -0700\" {23}\r\n" +
+            "[list] \"this is a test\" " +
+            "((\"Jim Smith\" NIL \"jsmith\" \"XXXX\")) " +
+            "((\"Jim Smith\" NIL \"jsmith\" \"XXXX\")) " +
+            "((\"Jim Smith\" NIL \"jsmith\" \"XXXX\")) " +
+            "((NIL NIL \"jsmith\" \"XXXXXXXX\")) " +
+            "NIL NIL NIL \"<45FD630D.1040808@XXXXX>\") " +
+            "BODYSTRUCTURE (\"MESSAGE\" \"RFC822\" NIL NIL NIL \"7BIT\" 500 " +
+            "(NIL \"Inner\" NIL NIL NIL NIL NIL NIL NIL NIL) " +
+            "(\"TEXT\" \"PLAIN\" NIL NIL NIL \"7BIT\" 10 1 NIL NIL NIL) 20 NIL (\"ATTACHMENT\" NIL) NIL))",
+        "* 3 FETCH (UID 103 FLAGS (\\Flagged $Forwarded Junk) " +
+            "ENVELOPE (\"Fri, 15 Jun 2007 12:37:27 -0400\" {42}\r\n" +
+            "[Theelist] 19\" monitor free to a good home " +
+            "((\"Jim Smith\" NIL \"jsmith\" \"smith.test\")) " +
+            "((NIL NIL \"thelist-bounces\" \"thelist.test\")) " +
+            "((\"This is the list\" NIL \"thelist\" \"thelist.test\")) " +
+            "((\"This is the list\" NIL \"thelist\" \"thelist.test\")" +
+            "(\"Someone \\\"Else\\\"\" NIL \"else\" \"else.test\")) " +
+            "NIL NIL NIL \"<1ECCDABD-5242-4180-9584-E5873C3FEA17@smith.test>\") " +
+            "BODYSTRUCTURE (((\"text\" \"plain\" (\"charset\" \"utf-8\") NIL NIL \"quoted-printable\" 42 3 NIL NIL NIL) " +
+            "(\"text\" \"html\" (\"charset\" \"utf-8\") NIL NIL \"quoted-printable\" 84 3 NIL NIL NIL) " +
+            "\"alternative\" (\"boundary\" \"b2\") NIL NIL) " +
+            "(\"application\" \"pdf\" (\"name\" \"report.pdf\") \"<part1@smith.test>\" NIL \"base64\" 12345 NIL " +
+            "(\"attachment\" (\"filename\" \"report.pdf\")) NIL) " +
+            "\"mixed\" (\"boundary\" \"b1\") NIL NIL))"
+    };
+    
     public ImapParserTest() {
     }
 
@@ -424,6 +469,182 @@ public class ImapParserTest extends TestCase {
         assertEquals("NIL", (String) temp1.elementAt(5));
     }
 
+    public void testCursorTokens() {
+        byte[] rawText = ("(ATOM \"quoted \\\"text\\\"\" {5}\r\nlit\"l " +
+            "(nested (list)) NIL 4294967296 42)").getBytes();
+        ImapResponseCursor cursor = new ImapResponseCursor(rawText, 0, rawText.length);
+        
+        assertEquals(ImapResponseCursor.TYPE_LIST, cursor.peekType());
+        assertTrue(cursor.enterList());
+        assertTrue(!cursor.readAtom("OTHER"));
+        assertTrue(cursor.readAtom("atom"));
+        assertEquals("quoted \"text\"", cursor.readString());
+        assertEquals("lit\"l", cursor.readString());
+        assertEquals(ImapResponseCursor.TYPE_LIST, cursor.peekType());
+        cursor.skipValue();
+        assertNull(cursor.readString());
+        assertEquals(-1, cursor.readNumber());
+        assertEquals(42, cursor.readNumber());
+        assertTrue(!cursor.hasNext());
+        assertEquals(ImapResponseCursor.TYPE_LIST_END, cursor.peekType());
+        cursor.leaveList();
+        assertEquals(ImapResponseCursor.TYPE_END, cursor.peekType());
+    }
+    
+    public void testCursorMatchesTreeParser() {
+        for(int i=0; i<FETCH_RESPONSES.length; i++) {
+            byte[] rawText = FETCH_RESPONSES[i].getBytes();
+            int offset = FETCH_RESPONSES[i].indexOf('(');
+            
+            Vector parsedText = ImapParser.parenListParser(rawText, offset, rawText.length - offset);
+            ImapProtocol.MessageFlags expectedFlags = ImapParser.parseMessageFlags((Vector)getItem(parsedText, "FLAGS"));
+            MessageEnvelope expectedEnvelope = ImapParser.parseMessageEnvelope((Vector)getItem(parsedText, "ENVELOPE"));
+            ImapParser.MessageSection expectedStructure = ImapParser.parseMessageStructureParameter((Vector)getItem(parsedText, "BODYSTRUCTURE"));
+            
+            ImapResponseCursor cursor = new ImapResponseCursor(rawText, offset, rawText.length - offset);
+            ImapProtocol.MessageFlags flags = null;
+            MessageEnvelope envelope = null;
+            ImapParser.MessageSection structure = null;
+            int uid = -1;
+            assertTrue(cursor.enterList());
+            while(cursor.hasNext()) {
+                if(cursor.readAtom("FLAGS")) {
+                    flags = ImapParser.parseMessageFlags(cursor);
+                }
+                else if(cursor.readAtom("UID")) {
+                    uid = cursor.readNumber();
+                }
+                else if(cursor.readAtom("ENVELOPE")) {
+                    envelope = ImapParser.parseMessageEnvelope(cursor);
+                }
+                else if(cursor.readAtom("BODYSTRUCTURE")) {
+                    structure = ImapParser.parseMessageStructure(cursor);
+                }
+                else {
+                    fail("Unexpected element");
+                }
+            }
+            
+            assertEquals(101 + i, uid);
+            assertFlagsEqual(expectedFlags, flags);
+            assertEnvelopeEqual(expectedEnvelope, envelope);
+            assertSectionEqual(expectedStructure, structure);
+            assertSectionEqual(expectedStructure, ImapParser.parseMessageStructure(rawText));
+        }
+    }
+    
+    static Object getItem(Vector parsedText, String label) {
+        int index = parsedText.indexOf(label);
+        return (index != -1) ? parsedText.elementAt(index + 1) : null;
+    }
+    
+    private void assertFlagsEqual(ImapProtocol.MessageFlags expected, ImapProtocol.MessageFlags actual) {
+        assertNotNull(actual);
+        assertTrue("seen", expected.seen == actual.seen);
+        assertTrue("answered", expected.answered == actual.answered);
+        assertTrue("flagged", expected.flagged == actual.flagged);
+        assertTrue("deleted", expected.deleted == actual.deleted);
+        assertTrue("draft", expected.draft == actual.draft);
+        assertTrue("recent", expected.recent == actual.recent);
+        assertTrue("forwarded", expected.forwarded == actual.forwarded);
+        assertTrue("junk", expected.junk == actual.junk);
+    }
+    
+    private void assertEnvelopeEqual(MessageEnvelope expected, MessageEnvelope actual) {
+        assertNotNull(actual);
+        assertEquals("date", expected.date, actual.date);
+        assertEquals("subject", expected.subject, actual.subject);
+        assertAddressesEqual("from", expected.from, actual.from);
+        assertAddressesEqual("sender", expected.sender, actual.sender);
+        assertAddressesEqual("replyTo", expected.replyTo, actual.replyTo);
+        assertAddressesEqual("to", expected.to, actual.to);
+        assertAddressesEqual("cc", expected.cc, actual.cc);
+        assertAddressesEqual("bcc", expected.bcc, actual.bcc);
+        assertEquals("inReplyTo", expected.inReplyTo, actual.inReplyTo);
+        assertEquals("messageId", expected.messageId, actual.messageId);
+    }
+    
+    private void assertAddressesEqual(String message, String[] expected, String[] actual) {
+        if(expected == null) {
+            assertNull(message, actual);
+            return;
+        }
+        assertNotNull(message, actual);
+        assertEquals(message, expected.length, actual.length);
+        for(int i=0; i<expected.length; i++) {
+            assertEquals(message, expected[i], actual[i]);
+        }
+    }
+    
+    private void assertSectionEqual(ImapParser.MessageSection expected, ImapParser.MessageSection actual) {
+        assertNotNull(actual);
+        String address = expected.address;
+        assertEquals(address, expected.address, actual.address);
+        assertEquals(address, expected.type, actual.type);
+        assertEquals(address, expected.subtype, actual.subtype);
+        assertEquals(address, expected.name, actual.name);
+        assertEquals(address, expected.encoding, actual.encoding);
+        assertEquals(address, expected.charset, actual.charset);
+        assertEquals(address, expected.disposition, actual.disposition);
+        assertEquals(address, expected.contentId, actual.contentId);
+        assertEquals(address, expected.size, actual.size);
+        if(expected.subsections == null) {
+            assertNull(address, actual.subsections);
+        }
+        else {
+            assertEquals(address, expected.subsections.length, actual.subsections.length);
+            for(int i=0; i<expected.subsections.length; i++) {
+                assertSectionEqual(expected.subsections[i], actual.subsections[i]);
+            }
+        }
+    }
+
+    public void testParseSequenceSet() {
+        int[] result = ImapParser.parseSequenceSet("41,43:116,118,120:211,214:540");
+        assertEquals(10, result.length);
+        assertEquals(41, result[0]);
+        assertEquals(41, result[1]);
+        assertEquals(43, result[2]);
+        assertEquals(116, result[3]);
+        assertEquals(214, result[8]);
+        assertEquals(540, result[9]);
+        
+        assertTrue(ImapParser.sequenceSetContains(result, 41));
+        assertTrue(!ImapParser.sequenceSetContains(result, 42));
+        assertTrue(ImapParser.sequenceSetContains(result, 43));
+        assertTrue(ImapParser.sequenceSetContains(result, 116));
+        assertTrue(!ImapParser.sequenceSetContains(result, 117));
+        assertTrue(ImapParser.sequenceSetContains(result, 540));
+        assertTrue(!ImapParser.sequenceSetContains(result, 541));
+        
+        result = ImapParser.parseSequenceSet("20:10");
+        assertEquals(2, result.length);
+        assertEquals(10, result[0]);
+        assertEquals(20, result[1]);
+        
+        result = ImapParser.parseSequenceSet("");
+        assertEquals(0, result.length);
+    }
+    
+    public void testCreateSequenceSets() {
+        String[] result = ImapParser.createSequenceSets(new int[] { 510, 1, 2, 3, 502, 511, 512, 4, 2 }, 1000);
+        assertEquals(1, result.length);
+        assertEquals("1:4,502,510:512", result[0]);
+        
+        result = ImapParser.createSequenceSets(new int[] { 7 }, 1000);
+        assertEquals(1, result.length);
+        assertEquals("7", result[0]);
+        
+        result = ImapParser.createSequenceSets(new int[0], 1000);
+        assertEquals(0, result.length);
+        
+        result = ImapParser.createSequenceSets(new int[] { 100, 102, 104, 106, 107, 108 }, 8);
+        assertEquals(3, result.length);
+        assertEquals("100,102", result[0]);
+        assertEquals("104", result[1]);
+        assertEquals("106:108", result[2]);
+    }
+
     protected void assertEquals(String expected, byte[] actual) {
         assertEquals(expected, new String(actual));
     }
@@ -471,6 +692,17 @@ public class ImapParserTest extends TestCase {
         suite.addTest(new ImapParserTest("parenStringParserBodyStructure", new TestMethod()
         { public void run(TestCase tc) { ((ImapParserTest) tc).testParenStringParserBodyStructure(); }}));
 
+        suite.addTest(new ImapParserTest("cursorTokens", new TestMethod()
+        { public void run(TestCase tc) { ((ImapParserTest) tc).testCursorTokens(); }}));
+
+        suite.addTest(new ImapParserTest("cursorMatchesTreeParser", new TestMethod()
+        { public void run(TestCase tc) { ((ImapParserTest) tc).testCursorMatchesTreeParser(); }}));
+
+        suite.addTest(new ImapParserTest("parseSequenceSet", new TestMethod()
+        { public void run(TestCase tc) { ((ImapParserTest) tc).testParseSequenceSet(); }}));
+        suite.addTest(new ImapParserTest("createSequenceSets", new TestMethod()
+        { public void run(TestCase tc) { ((ImapParserTest) tc).testCreateSequenceSets(); }}));
+
         return suite;
     }
     
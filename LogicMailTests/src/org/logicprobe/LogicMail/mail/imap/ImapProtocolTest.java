@@ -40,8 +40,13 @@ import net.rim.device.api.util.IntVector;
 import org.logicprobe.LogicMail.mail.MailException;
 import org.logicprobe.LogicMail.mail.MailProgressHandler;
 import org.logicprobe.LogicMail.message.MessageEnvelope;
+import org.logicprobe.LogicMail.util.Base64DecodingOutputStream;
+import org.logicprobe.LogicMail.util.Connection;
+import org.logicprobe.LogicMail.util.DataSpool;
 import org.logicprobe.LogicMail.util.StringParser;
+import org.logicprobe.LogicMail.util.StubSocketConnection;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.Calendar;
 import java.util.Hashtable;
@@ -90,6 +95,56 @@ public class ImapProtocolTest extends TestCase {
         assertEquals(Boolean.TRUE, result.get("DELTA"));
     }
 
+    public void testExecuteEnable() throws Throwable {
+        instance.addExecuteExpectation("ENABLE", "QRESYNC CONDSTORE",
+            new String[] { "* ENABLED QRESYNC CONDSTORE" });
+
+        Hashtable result = instance.executeEnable(new String[] { "QRESYNC", "CONDSTORE" });
+        assertNotNull(result);
+
+        assertEquals(2, result.size());
+        assertEquals(Boolean.TRUE, result.get("QRESYNC"));
+        assertEquals(Boolean.TRUE, result.get("CONDSTORE"));
+    }
+
+    public void testExecuteSelectQresync() throws Throwable {
+        instance.addExecuteExpectation("SELECT", "\"INBOX\" (QRESYNC (67890007 20050715194045000))",
+            new String[] {
+                "* 314 EXISTS",
+                "* 0 RECENT",
+                "* OK [UIDVALIDITY 67890007] UIDVALIDITY",
+                "* OK [UIDNEXT 567] Predicted next UID",
+                "* OK [HIGHESTMODSEQ 20050715194045001] Highest",
+                "* VANISHED (EARLIER) 41,43:116,118,120:211,214:540",
+                "* 49 FETCH (UID 117 FLAGS (\\Seen \\Answered) MODSEQ (90060115194045001))",
+                "* 50 FETCH (UID 119 FLAGS (\\Draft $MDNSent) MODSEQ (90060115194045308))"
+            });
+
+        ImapProtocol.SelectResponse result = instance.executeSelect("INBOX", 67890007, 20050715194045000L);
+        assertNotNull(result);
+        assertEquals(314, result.exists);
+        assertEquals(67890007, result.uidValidity);
+        assertEquals(567, result.uidNext);
+        assertEquals(20050715194045001L, result.highestModSeq);
+        
+        assertNotNull(result.vanishedUids);
+        assertEquals(10, result.vanishedUids.length);
+        assertTrue(ImapParser.sequenceSetContains(result.vanishedUids, 41));
+        assertTrue(!ImapParser.sequenceSetContains(result.vanishedUids, 42));
+        assertTrue(ImapParser.sequenceSetContains(result.vanishedUids, 300));
+        assertTrue(!ImapParser.sequenceSetContains(result.vanishedUids, 117));
+        
+        assertNotNull(result.fetchResponses);
+        assertEquals(2, result.fetchResponses.length);
+        assertEquals(49, result.fetchResponses[0].index);
+        assertEquals(117, result.fetchResponses[0].uid);
+        assertTrue(result.fetchResponses[0].flags.seen);
+        assertTrue(result.fetchResponses[0].flags.answered);
+        assertEquals(50, result.fetchResponses[1].index);
+        assertEquals(119, result.fetchResponses[1].uid);
+        assertTrue(result.fetchResponses[1].flags.draft);
+    }
+
     public void testExecuteNamespace1() throws Throwable {
         // Normal namespace:
         // NAMESPACE (("" "/")) (("Other Users/" "/")) NIL
@@ -785,6 +840,24 @@ public class ImapProtocolTest extends TestCase {
         assertTrue("seen", flags.seen);
     }
     
+    public void testExecuteFetchFlagsMalformedItem() throws Throwable {
+        instance.addExecuteExpectation("FETCH", "1:2 (FLAGS UID)",
+            new String[] {
+                "* 1 FETCH (FLAGS NIL UID 42)",
+                "* 2 FETCH (UID (43) FLAGS (\\Seen))" });
+
+        ImapProtocol.FetchFlagsResponse[] result = instance.executeFetchFlags(1,
+                2, null);
+
+        // A value of the wrong type only loses its own item
+        assertNotNull(result);
+        assertEquals(2, result.length);
+        assertEquals(42, result[0].uid);
+        assertNotNull(result[0].flags);
+        assertTrue("seen", !result[0].flags.seen);
+        assertTrue("seen", result[1].flags.seen);
+    }
+    
     public void testExecuteFetchFlagsUntagged() throws Throwable {
         instance.addExecuteExpectation(
                 "UID FETCH", "42:* (FLAGS UID)",
@@ -864,6 +937,11 @@ public class ImapProtocolTest extends TestCase {
                 new String[] {
                         "* 84 FETCH (UID 288 BODY[1]<256> {32}\r\n" + body3 + ")"
                 });
+        instance.addExecuteExpectation(
+                "UID FETCH", "288 (BODY[1]<384.128>)",
+                new String[] {
+                        "* 84 FETCH (UID 288 BODY[1]<384> \"\")"
+                });
 
         byte[] result = instance.executeFetchBody(288, "1", null);
 
@@ -899,6 +977,35 @@ public class ImapProtocolTest extends TestCase {
         assertTrue(msg, !untaggedFetch.flags.recent);
     }
 
+    public void testExecuteFetchBodyStream() throws Throwable {
+        instance.setFetchIncrement(12);
+        
+        instance.addExecuteExpectation(
+                "UID FETCH", "288 (BODY[1]<0.12>)",
+                new String[] {
+                        "* 84 FETCH (UID 288 BODY[1]<0> {12}\r\nSGVsbG8gV29y)"
+                });
+        instance.addExecuteExpectation(
+                "UID FETCH", "288 (BODY[1]<12.12>)",
+                new String[] {
+                        "* 83 FETCH (FLAGS (\\Seen) UID 287)",
+                        "* 84 FETCH (UID 288 BODY[1]<12> {6}\r\nbGQh\r\n)"
+                });
+        instance.addExecuteExpectation(
+                "UID FETCH", "288 (BODY[1]<24.12>)",
+                new String[] {
+                        "* 84 FETCH (UID 288 BODY[1]<24> \"\")"
+                });
+        
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Base64DecodingOutputStream decoder = new Base64DecodingOutputStream(output);
+        instance.executeFetchBody(288, "1", decoder, null);
+        decoder.close();
+        
+        assertEquals("Hello World!", new String(output.toByteArray()));
+        assertEquals("Untagged FETCH", 1, listener.fetch.size());
+    }
+    
     public void testExecuteStore1() throws Throwable {
         instance.addExecuteExpectation("UID STORE",
             "15 +FLAGS (\\Answered)",
@@ -961,6 +1068,50 @@ public class ImapProtocolTest extends TestCase {
         assertTrue(!result.flags.recent);
     }
     
+    public void testExecuteStoreSequenceSet() throws Throwable {
+        instance.addExecuteExpectation("UID STORE",
+            "1:3,5 +FLAGS (\\Seen)",
+            new String[] {
+                "* 1 FETCH (UID 1 FLAGS (\\Seen))"
+            });
+
+        instance.executeStore(new int[] { 5, 3, 1, 2, 2 }, true, new String[] { "\\Seen" });
+        
+        assertEquals(1, listener.fetch.size());
+    }
+    
+    public void testExecuteStoreSplitSequenceSets() throws Throwable {
+        // Alternate UIDs cannot be collapsed into ranges, so this list
+        // is too long to send with a single command.
+        int[] uids = new int[1000];
+        for(int i=0; i<uids.length; i++) {
+            uids[i] = (i * 2) + 1;
+        }
+        String[] uidSets = ImapParser.createSequenceSets(uids, 1000);
+        assertTrue(uidSets.length > 1);
+        
+        StringBuffer buf = new StringBuffer();
+        for(int i=0; i<uidSets.length; i++) {
+            buf.append("A" + i + " OK STORE completed\r\n");
+        }
+        
+        StubSocketConnection socket = new StubSocketConnection(buf.toString().getBytes());
+        ImapProtocol protocol = new ImapProtocol();
+        protocol.setConnection(new Connection(socket, 0));
+        
+        protocol.executeStore(uids, true, new String[] { "\\Seen" });
+        
+        String[] lines = StringParser.parseTokenString(new String(socket.getSentBytes()), "\r\n");
+        int count = 0;
+        for(int i=0; i<lines.length; i++) {
+            if(lines[i].length() == 0) { continue; }
+            assertEquals("A" + count + " UID STORE " + uidSets[count] + " +FLAGS (\\Seen)", lines[i]);
+            assertTrue(uidSets[count].length() <= 1000);
+            count++;
+        }
+        assertEquals(uidSets.length, count);
+    }
+    
     public void testExecuteStoreUntagged() throws Throwable {
         instance.addExecuteExpectation("UID STORE",
             "15 +FLAGS (\\Answered)",
@@ -1062,11 +1213,384 @@ public class ImapProtocolTest extends TestCase {
         assertTrue(!fetchResponse.flags.junk);
     }
     
+    public void testExecuteNoopVanished() throws Throwable {
+        instance.addExecuteExpectation("NOOP", null,
+                new String[] {
+                    "* VANISHED 405,407,410:412",
+                    "* VANISHED (EARLIER) 300:310",
+                    "* 78 EXISTS"
+                });
+        
+        instance.executeNoop();
+        
+        assertEquals(0, listener.expunge.size());
+        assertEquals(1, listener.vanished.size());
+        int[] uids = (int[])listener.vanished.elementAt(0);
+        assertEquals(6, uids.length);
+        assertEquals(405, uids[0]);
+        assertEquals(405, uids[1]);
+        assertEquals(407, uids[2]);
+        assertEquals(407, uids[3]);
+        assertEquals(410, uids[4]);
+        assertEquals(412, uids[5]);
+        
+        assertEquals(1, listener.exists.size());
+        assertEquals(78, listener.exists.elementAt(0));
+    }
+    
+    public void testExecuteNotify() throws Throwable {
+        instance.addExecuteExpectation("NOTIFY",
+                "SET (SELECTED (MessageNew MessageExpunge FlagChange)) (SUBSCRIBED (MessageNew MessageExpunge))",
+                new String[] {
+                    "* STATUS \"INBOX.Folder1\" (MESSAGES 12 UIDNEXT 40)"
+                });
+        
+        instance.executeNotify(true);
+        
+        assertEquals(1, listener.statusMailboxes.size());
+        assertEquals("INBOX.Folder1", listener.statusMailboxes.elementAt(0));
+        ImapProtocol.StatusResponse statusResponse =
+            (ImapProtocol.StatusResponse)listener.status.elementAt(0);
+        assertEquals(12, statusResponse.exists);
+        assertEquals(-1, statusResponse.recent);
+        assertEquals(-1, statusResponse.unseen);
+    }
+    
+    public void testExecuteNoopStatus() throws Throwable {
+        instance.addExecuteExpectation("NOOP", null,
+                new String[] {
+                    "* STATUS Trash (UNSEEN 4 MESSAGES 7)",
+                    "* 78 EXISTS"
+                });
+        
+        instance.executeNoop();
+        
+        assertEquals(1, listener.statusMailboxes.size());
+        assertEquals("Trash", listener.statusMailboxes.elementAt(0));
+        ImapProtocol.StatusResponse statusResponse =
+            (ImapProtocol.StatusResponse)listener.status.elementAt(0);
+        assertEquals(7, statusResponse.exists);
+        assertEquals(-1, statusResponse.recent);
+        assertEquals(4, statusResponse.unseen);
+        
+        assertEquals(1, listener.exists.size());
+        assertEquals(78, listener.exists.elementAt(0));
+    }
+    
+    public void testExecuteResponseScaling() throws Throwable {
+        // Accumulating response lines should grow the buffer geometrically,
+        // so the number of reallocations stays logarithmic in the number of
+        // lines and the final capacity stays within a constant factor of it.
+        int[] sizes = new int[] { 100, 5000 };
+        
+        for(int i=0; i<sizes.length; i++) {
+            StringBuffer buf = new StringBuffer();
+            for(int j=1; j<=sizes[i]; j++) {
+                buf.append("* ");
+                buf.append(j);
+                buf.append(" FETCH (UID ");
+                buf.append(j);
+                buf.append(" FLAGS (\\Seen))\r\n");
+            }
+            buf.append("A0 OK FETCH completed\r\n");
+            
+            final Vector[] responseVector = new Vector[1];
+            final int[] growthCount = new int[1];
+            ImapProtocol protocol = new ImapProtocol() {
+                protected Vector createResponseVector() {
+                    responseVector[0] = new Vector() {
+                        public synchronized void addElement(Object obj) {
+                            int capacity = capacity();
+                            super.addElement(obj);
+                            if(capacity() != capacity) { growthCount[0]++; }
+                        }
+                    };
+                    return responseVector[0];
+                }
+            };
+            protocol.setConnection(new Connection(
+                    new StubSocketConnection(buf.toString().getBytes()), 0));
+            
+            byte[][] result = protocol.executeResponse("UID FETCH", "1:* (FLAGS)", null);
+            
+            assertEquals("Lines for " + sizes[i], sizes[i], result.length);
+            assertEquals("Last line for " + sizes[i],
+                    "* " + sizes[i] + " FETCH (UID " + sizes[i] + " FLAGS (\\Seen))",
+                    new String(result[sizes[i] - 1]));
+            
+            int maxGrowth = 1;
+            for(int capacity = 1; capacity < sizes[i]; capacity *= 2) {
+                maxGrowth++;
+            }
+            assertTrue("Reallocations for " + sizes[i], growthCount[0] <= maxGrowth);
+            assertTrue("Capacity for " + sizes[i], responseVector[0].capacity() <= (sizes[i] * 2) + 10);
+        }
+    }
+    
+    public void testPipelinedCommands() throws Throwable {
+        StringBuffer buf = new StringBuffer();
+        buf.append("* 1 FETCH (UID 5 FLAGS (\\Seen))\r\n");
+        buf.append("A1 NO COPY failed\r\n");
+        buf.append("A0 OK STORE completed\r\n");
+        buf.append("* 4 EXISTS\r\n");
+        buf.append("A2 OK NOOP completed\r\n");
+        buf.append("* 3 FETCH (UID 7 FLAGS (\\Seen))\r\n");
+        buf.append("A3 OK STORE completed\r\n");
+        
+        StubSocketConnection socket = new StubSocketConnection(buf.toString().getBytes());
+        ImapProtocol protocol = new ImapProtocol();
+        protocol.setConnection(new Connection(socket, 0));
+        TestUntaggedResponseListener listener = new TestUntaggedResponseListener();
+        protocol.setUntaggedResponseListener(listener);
+        
+        protocol.beginPipeline();
+        assertTrue(protocol.isPipelining());
+        protocol.executeStore(5, true, new String[] { "\\Seen" });
+        protocol.executeCopy(6, "Archive");
+        assertEquals(2, protocol.getPipelineSize());
+        assertEquals("Nothing sent while queueing", 0, socket.getSentBytes().length);
+        
+        // A synchronous command must send the queued commands first
+        protocol.executeNoop();
+        assertEquals(
+                "A0 UID STORE 5 +FLAGS (\\Seen)\r\n"
+                + "A1 UID COPY 6 \"Archive\"\r\n"
+                + "A2 NOOP\r\n",
+                new String(socket.getSentBytes()));
+        assertEquals(1, listener.fetch.size());
+        assertEquals(1, listener.exists.size());
+        assertEquals(4, listener.exists.elementAt(0));
+        
+        protocol.executeStore(7, true, new String[] { "\\Seen" });
+        assertEquals(3, protocol.getPipelineSize());
+        
+        String[] results = protocol.endPipeline(null);
+        assertTrue(!protocol.isPipelining());
+        assertNotNull(results);
+        assertEquals(3, results.length);
+        assertNull(results[0]);
+        assertEquals("A1 NO COPY failed", results[1]);
+        assertNull(results[2]);
+        
+        assertEquals(2, listener.fetch.size());
+        ImapProtocol.FetchFlagsResponse fetch = (ImapProtocol.FetchFlagsResponse)listener.fetch.elementAt(1);
+        assertEquals(3, fetch.index);
+        assertEquals(7, fetch.uid);
+    }
+    
+    public void testExecuteStatusPipelined() throws Throwable {
+        StringBuffer buf = new StringBuffer();
+        buf.append("* STATUS \"INBOX\" (MESSAGES 5 RECENT 1 UNSEEN 2)\r\n");
+        buf.append("A0 OK STATUS completed\r\n");
+        buf.append("A1 OK STATUS completed\r\n");
+        buf.append("* STATUS \"Trash\" (MESSAGES 9 RECENT 0 UNSEEN 3)\r\n");
+        buf.append("A2 OK STATUS completed\r\n");
+        
+        StubSocketConnection socket = new StubSocketConnection(buf.toString().getBytes());
+        ImapProtocol protocol = new ImapProtocol();
+        protocol.setConnection(new Connection(socket, 0));
+        
+        ImapProtocol.StatusResponse[] result = protocol.executeStatus(
+                new String[] { "INBOX", "Drafts", "Trash" }, null);
+        
+        assertEquals(
+                "A0 STATUS \"INBOX\" (MESSAGES RECENT UNSEEN)\r\n"
+                + "A1 STATUS \"Drafts\" (MESSAGES RECENT UNSEEN)\r\n"
+                + "A2 STATUS \"Trash\" (MESSAGES RECENT UNSEEN)\r\n",
+                new String(socket.getSentBytes()));
+        
+        assertNotNull(result);
+        assertEquals(3, result.length);
+        assertEquals(5, result[0].exists);
+        assertEquals(1, result[0].recent);
+        assertEquals(2, result[0].unseen);
+        assertNull(result[1]);
+        assertEquals(9, result[2].exists);
+        assertEquals(0, result[2].recent);
+        assertEquals(3, result[2].unseen);
+    }
+    
+    public void testExecuteStatusUnsolicited() throws Throwable {
+        // With NOTIFY enabled, the server may send STATUS responses for
+        // other mailboxes at any time, including during a batch
+        StringBuffer buf = new StringBuffer();
+        buf.append("* STATUS \"Trash\" (MESSAGES 9)\r\n");
+        buf.append("* STATUS \"INBOX\" (MESSAGES 5 RECENT 1 UNSEEN 2)\r\n");
+        buf.append("A0 OK STATUS completed\r\n");
+        
+        StubSocketConnection socket = new StubSocketConnection(buf.toString().getBytes());
+        ImapProtocol protocol = new ImapProtocol();
+        protocol.setConnection(new Connection(socket, 0));
+        TestUntaggedResponseListener listener = new TestUntaggedResponseListener();
+        protocol.setUntaggedResponseListener(listener);
+        
+        ImapProtocol.StatusResponse[] result = protocol.executeStatus(
+                new String[] { "INBOX" }, null);
+        
+        assertNotNull(result);
+        assertEquals(1, result.length);
+        assertEquals(5, result[0].exists);
+        assertEquals(1, result[0].recent);
+        assertEquals(2, result[0].unseen);
+        
+        assertEquals(1, listener.statusMailboxes.size());
+        assertEquals("Trash", listener.statusMailboxes.elementAt(0));
+        assertEquals(9, ((ImapProtocol.StatusResponse)listener.status.elementAt(0)).exists);
+    }
+    
+    public void testExecuteStatusFailure() throws Throwable {
+        // A mailbox removed by another client should only lose its own entry
+        StringBuffer buf = new StringBuffer();
+        buf.append("* STATUS \"INBOX\" (MESSAGES 5 RECENT 1 UNSEEN 2)\r\n");
+        buf.append("A0 OK STATUS completed\r\n");
+        buf.append("A1 NO Mailbox does not exist\r\n");
+        buf.append("* STATUS \"Trash\" (MESSAGES 9 RECENT 0 UNSEEN 3)\r\n");
+        buf.append("A2 OK STATUS completed\r\n");
+        
+        StubSocketConnection socket = new StubSocketConnection(buf.toString().getBytes());
+        ImapProtocol protocol = new ImapProtocol();
+        protocol.setConnection(new Connection(socket, 0));
+        
+        ImapProtocol.StatusResponse[] result = protocol.executeStatus(
+                new String[] { "INBOX", "Removed", "Trash" }, null);
+        
+        assertNotNull(result);
+        assertEquals(3, result.length);
+        assertEquals(5, result[0].exists);
+        assertNull(result[1]);
+        assertEquals(9, result[2].exists);
+        assertEquals(3, result[2].unseen);
+    }
+    
+    public void testExecuteStatusMailboxNames() throws Throwable {
+        // INBOX is matched regardless of case, and a single response under
+        // another name is taken as the reply to its own command
+        StringBuffer buf = new StringBuffer();
+        buf.append("* STATUS inbox (MESSAGES 5 RECENT 1 UNSEEN 2)\r\n");
+        buf.append("A0 OK STATUS completed\r\n");
+        buf.append("* STATUS \"INBOX.Drafts\" (MESSAGES 3 RECENT 0 UNSEEN 1)\r\n");
+        buf.append("A1 OK STATUS completed\r\n");
+        buf.append("* STATUS \"Junk\" (MESSAGES 4)\r\n");
+        buf.append("* STATUS \"Trash\" (MESSAGES 9)\r\n");
+        buf.append("A2 OK STATUS completed\r\n");
+        buf.append("A3 OK STATUS completed\r\n");
+        
+        StubSocketConnection socket = new StubSocketConnection(buf.toString().getBytes());
+        ImapProtocol protocol = new ImapProtocol();
+        protocol.setConnection(new Connection(socket, 0));
+        TestUntaggedResponseListener listener = new TestUntaggedResponseListener();
+        protocol.setUntaggedResponseListener(listener);
+        
+        ImapProtocol.StatusResponse[] result = protocol.executeStatus(
+                new String[] { "INBOX", "Drafts", "Sent", "Archive" }, null);
+        
+        assertNotNull(result);
+        assertEquals(4, result.length);
+        assertEquals(5, result[0].exists);
+        assertEquals(1, result[0].recent);
+        assertEquals(2, result[0].unseen);
+        assertEquals(3, result[1].exists);
+        assertEquals(1, result[1].unseen);
+        
+        // Without a single candidate response, or with none at all, the
+        // mailbox has no data and any other responses are passed along
+        assertNull(result[2]);
+        assertNull(result[3]);
+        assertEquals(2, listener.statusMailboxes.size());
+        assertEquals("Junk", listener.statusMailboxes.elementAt(0));
+        assertEquals("Trash", listener.statusMailboxes.elementAt(1));
+    }
+    
+    public void testExecuteAppendNonSync() throws Throwable {
+        StringBuffer buf = new StringBuffer();
+        buf.append("A0 OK [APPENDUID 38505 3955] APPEND completed\r\n");
+        
+        StubSocketConnection socket = new StubSocketConnection(buf.toString().getBytes());
+        ImapProtocol protocol = new ImapProtocol();
+        protocol.setConnection(new Connection(socket, 0));
+        protocol.setNonSyncLiteralLimit(Integer.MAX_VALUE);
+        
+        String message = "Subject: Test\r\n\r\nHello\r\n";
+        ImapProtocol.MessageFlags flags = new ImapProtocol.MessageFlags();
+        flags.seen = true;
+        protocol.executeAppend("INBOX", new DataSpool(message), flags);
+        
+        assertEquals(
+                "A0 APPEND \"INBOX\" (\\Seen) {" + message.length() + "+}\r\n"
+                + message + "\r\n",
+                new String(socket.getSentBytes()));
+    }
+    
+    public void testExecuteAppendMultiple() throws Throwable {
+        StringBuffer buf = new StringBuffer();
+        buf.append("A0 OK [APPENDUID 38505 3955:3956] APPEND completed\r\n");
+        
+        StubSocketConnection socket = new StubSocketConnection(buf.toString().getBytes());
+        ImapProtocol protocol = new ImapProtocol();
+        protocol.setConnection(new Connection(socket, 0));
+        protocol.setNonSyncLiteralLimit(4096);
+        
+        String message1 = "Subject: One\r\n\r\nFirst\r\n";
+        String message2 = "Subject: Two\r\n\r\nSecond\r\n";
+        ImapProtocol.MessageFlags flags1 = new ImapProtocol.MessageFlags();
+        flags1.seen = true;
+        ImapProtocol.MessageFlags flags2 = new ImapProtocol.MessageFlags();
+        flags2.draft = true;
+        protocol.executeAppend("Sent",
+                new DataSpool[] { new DataSpool(message1), new DataSpool(message2) },
+                new ImapProtocol.MessageFlags[] { flags1, flags2 });
+        
+        assertEquals(
+                "A0 APPEND \"Sent\" (\\Seen) {" + message1.length() + "+}\r\n"
+                + message1
+                + " (\\Draft) {" + message2.length() + "+}\r\n"
+                + message2 + "\r\n",
+                new String(socket.getSentBytes()));
+    }
+    
+    public void testExecuteAppendSync() throws Throwable {
+        StringBuffer buf = new StringBuffer();
+        buf.append("+ Ready for literal data\r\n");
+        buf.append("A0 OK APPEND completed\r\n");
+        
+        StubSocketConnection socket = new StubSocketConnection(buf.toString().getBytes());
+        ImapProtocol protocol = new ImapProtocol();
+        protocol.setConnection(new Connection(socket, 0));
+        
+        String message = "Subject: Test\r\n\r\nHello\r\n";
+        protocol.executeAppend("INBOX", new DataSpool(message), new ImapProtocol.MessageFlags());
+        
+        assertEquals(
+                "A0 APPEND \"INBOX\" () {" + message.length() + "}\r\n"
+                + message + "\r\n",
+                new String(socket.getSentBytes()));
+    }
+    
+    public void testExecuteAppendRejected() throws Throwable {
+        StringBuffer buf = new StringBuffer();
+        buf.append("A0 NO [TRYCREATE] No such mailbox\r\n");
+        
+        StubSocketConnection socket = new StubSocketConnection(buf.toString().getBytes());
+        ImapProtocol protocol = new ImapProtocol();
+        protocol.setConnection(new Connection(socket, 0));
+        
+        try {
+            protocol.executeAppend("Missing", new DataSpool("Subject: Test\r\n\r\n"), new ImapProtocol.MessageFlags());
+            fail("Expected MailException");
+        } catch (MailException e) {
+            // Expected, since the server did not send a continuation
+        }
+    }
+    
     public Test suite() {
         TestSuite suite = new TestSuite("ImapProtocol");
 
         suite.addTest(new ImapProtocolTest("executeCapability", new TestMethod()
         { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteCapability(); }}));
+        suite.addTest(new ImapProtocolTest("executeEnable", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteEnable(); }}));
+        suite.addTest(new ImapProtocolTest("executeSelectQresync", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteSelectQresync(); }}));
         
         suite.addTest(new ImapProtocolTest("executeNamespace1", new TestMethod()
         { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteNamespace1(); }}));
@@ -1103,6 +1627,8 @@ public class ImapProtocolTest extends TestCase {
         { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteFetchFlags1(); }}));
         suite.addTest(new ImapProtocolTest("executeFetchFlags2", new TestMethod()
         { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteFetchFlags2(); }}));
+        suite.addTest(new ImapProtocolTest("executeFetchFlagsMalformedItem", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteFetchFlagsMalformedItem(); }}));
         suite.addTest(new ImapProtocolTest("executeFetchFlagsUntagged", new TestMethod()
         { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteFetchFlagsUntagged(); }}));
         
@@ -1112,6 +1638,8 @@ public class ImapProtocolTest extends TestCase {
         { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteFetchBodyLong(); }}));
         suite.addTest(new ImapProtocolTest("executeFetchBodyUntagged", new TestMethod()
         { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteFetchBodyUntagged(); }}));
+        suite.addTest(new ImapProtocolTest("executeFetchBodyStream", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteFetchBodyStream(); }}));
         
         suite.addTest(new ImapProtocolTest("executeStore1", new TestMethod()
         { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteStore1(); }}));
@@ -1121,11 +1649,41 @@ public class ImapProtocolTest extends TestCase {
         { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteStore3(); }}));
         suite.addTest(new ImapProtocolTest("executeStoreUntagged", new TestMethod()
         { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteStoreUntagged(); }}));
+        suite.addTest(new ImapProtocolTest("executeStoreSequenceSet", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteStoreSequenceSet(); }}));
+        suite.addTest(new ImapProtocolTest("executeStoreSplitSequenceSets", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteStoreSplitSequenceSets(); }}));
 
         suite.addTest(new ImapProtocolTest("executeExpunge", new TestMethod()
         { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteExpunge(); }}));
         suite.addTest(new ImapProtocolTest("executeNoop", new TestMethod()
         { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteNoop(); }}));
+        suite.addTest(new ImapProtocolTest("executeNoopVanished", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteNoopVanished(); }}));
+        suite.addTest(new ImapProtocolTest("executeNoopStatus", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteNoopStatus(); }}));
+        suite.addTest(new ImapProtocolTest("executeNotify", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteNotify(); }}));
+        suite.addTest(new ImapProtocolTest("executeResponseScaling", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteResponseScaling(); }}));
+        suite.addTest(new ImapProtocolTest("pipelinedCommands", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testPipelinedCommands(); }}));
+        suite.addTest(new ImapProtocolTest("executeStatusPipelined", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteStatusPipelined(); }}));
+        suite.addTest(new ImapProtocolTest("executeStatusFailure", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteStatusFailure(); }}));
+        suite.addTest(new ImapProtocolTest("executeStatusMailboxNames", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteStatusMailboxNames(); }}));
+        suite.addTest(new ImapProtocolTest("executeStatusUnsolicited", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteStatusUnsolicited(); }}));
+        suite.addTest(new ImapProtocolTest("executeAppendNonSync", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteAppendNonSync(); }}));
+        suite.addTest(new ImapProtocolTest("executeAppendMultiple", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteAppendMultiple(); }}));
+        suite.addTest(new ImapProtocolTest("executeAppendSync", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteAppendSync(); }}));
+        suite.addTest(new ImapProtocolTest("executeAppendRejected", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((ImapProtocolTest) tc).testExecuteAppendRejected(); }}));
         
         return suite;
     }
@@ -1154,6 +1712,8 @@ public class ImapProtocolTest extends TestCase {
      */
     class TestImapProtocol extends ImapProtocol {
         private Vector executeExpectations;
+        private Hashtable pendingResults = new Hashtable();
+        private int pendingCount = 0;
         private int fetchIncrement = 1024;
 
         public TestImapProtocol() {
@@ -1221,6 +1781,31 @@ public class ImapProtocolTest extends TestCase {
             }
         }
         
+        protected String executeNoReply(String command, String arguments) {
+            assertTrue("No expectations", !executeExpectations.isEmpty());
+
+            ExecuteExpectation expect = (ExecuteExpectation) executeExpectations.firstElement();
+            assertEquals("Bad command", expect.command, command);
+            assertEquals("Bad arguments", expect.arguments, arguments);
+            executeExpectations.removeElement(expect);
+
+            String tag = "T" + (pendingCount++) + " ";
+            pendingResults.put(tag, expect.result);
+            return tag;
+        }
+        
+        protected byte[][] receiveResponse(String tag,
+                MailProgressHandler progressHandler) throws IOException, MailException {
+            String[] expectResult = (String[]) pendingResults.remove(tag);
+            assertNotNull("Unknown tag", expectResult);
+            
+            byte[][] result = new byte[expectResult.length][];
+            for(int i=0; i<expectResult.length; i++) {
+                result[i] = expectResult[i].getBytes();
+            }
+            return result;
+        }
+        
         public void setFetchIncrement(int fetchIncrement) {
             this.fetchIncrement = fetchIncrement;
         }
@@ -1241,6 +1826,9 @@ public class ImapProtocolTest extends TestCase {
         public IntVector recent = new IntVector();
         public IntVector expunge = new IntVector();
         public Vector fetch = new Vector();
+        public Vector vanished = new Vector();
+        public Vector statusMailboxes = new Vector();
+        public Vector status = new Vector();
 
         public void existsResponse(int value) {
             exists.addElement(value);
@@ -1254,5 +1842,12 @@ public class ImapProtocolTest extends TestCase {
         public void fetchResponse(ImapProtocol.FetchFlagsResponse value) {
             fetch.addElement(value);
         }
+        public void vanishedResponse(int[] uids) {
+            vanished.addElement(uids);
+        }
+        public void statusResponse(String mboxpath, ImapProtocol.StatusResponse value) {
+            statusMailboxes.addElement(mboxpath);
+            status.addElement(value);
+        }
     }
 }
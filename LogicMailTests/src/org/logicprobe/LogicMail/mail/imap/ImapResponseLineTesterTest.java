@@ -296,6 +296,22 @@ public class ImapResponseLineTesterTest extends TestCase {
         assertEquals("Complete", 2, trimCount);
     }
     
+    public void testLinesWithOffset() {
+        byte[] input = "XXXXHello {5}\r\nWorld\r\nFoo\r\n".getBytes();
+        int responseLength = instance.checkForCompleteResponse(input, 4, 10);
+        assertEquals("Partial", -1, responseLength);
+        
+        responseLength = instance.checkForCompleteResponse(input, 4, input.length - 4);
+        int trimCount = instance.trimCount();
+        assertEquals("Literal", 18, responseLength); // "Hello {5}\r\nWorld\r\n"
+        assertEquals("Literal", 2, trimCount);
+        
+        responseLength = instance.checkForCompleteResponse(input, 22, input.length - 22);
+        trimCount = instance.trimCount();
+        assertEquals("Following", 5, responseLength); // "Foo\r\n"
+        assertEquals("Following", 2, trimCount);
+    }
+    
     public Test suite() {
         TestSuite suite = new TestSuite("ImapResponseLineTester");
 
@@ -319,6 +335,8 @@ public class ImapResponseLineTesterTest extends TestCase {
         { public void run(TestCase tc) { ((ImapResponseLineTesterTest) tc).testLinesWithMalformedQuoted(); }}));
         suite.addTest(new ImapResponseLineTesterTest("multipleChecksWithQuotedAndLiteral", new TestMethod()
         { public void run(TestCase tc) { ((ImapResponseLineTesterTest) tc).testMultipleChecksWithQuotedAndLiteral(); }}));
+        suite.addTest(new ImapResponseLineTesterTest("linesWithOffset", new TestMethod()
+        { public void run(TestCase tc) { ((ImapResponseLineTesterTest) tc).testLinesWithOffset(); }}));
 
         return suite;
     }
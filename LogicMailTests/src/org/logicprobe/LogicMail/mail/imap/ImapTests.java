@@ -49,6 +49,7 @@ public class ImapTests extends TestCase {
         suite.addTest(new ImapResponseLineTesterTest().suite());
         suite.addTest(new ImapParserTest().suite());
         suite.addTest(new ImapProtocolTest().suite());
+        suite.addTest(new FetchWindowEstimatorTest().suite());
         suite.addTest(new MailboxStateTest().suite());
         suite.addTest(new ImapClientTest().suite());
         return suite;
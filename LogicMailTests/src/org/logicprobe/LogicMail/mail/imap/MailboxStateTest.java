@@ -497,6 +497,48 @@ public class MailboxStateTest extends TestCase {
         assertEquals(msg, tokens2[2], instance.getMessageToken(22));
     }
     
+    public void testMailboxReselectedModSeq() throws Throwable {
+        ImapProtocol.SelectResponse response = new ImapProtocol.SelectResponse();
+        response.exists = 50;
+        response.uidNext = 104;
+        response.uidValidity = 123456;
+        response.highestModSeq = 1000;
+        
+        instance.mailboxSelected(response);
+        assertEquals(0, instance.getHighestModSeq());
+        instance.setHighestModSeq(response.highestModSeq);
+        
+        response.highestModSeq = 1200;
+        instance.mailboxSelected(response);
+        assertEquals(1000, instance.getHighestModSeq());
+        
+        response.uidValidity++;
+        instance.mailboxSelected(response);
+        assertEquals(0, instance.getHighestModSeq());
+    }
+    
+    public void testMessagesVanished() throws Throwable {
+        // Messages 10-14 have UIDs 110-114, and UID 105 precedes them
+        // without having been fetched.
+        ImapMessageToken[] tokens = fetchMessageBlock(10, 5);
+        Vector updatedTokens = new Vector();
+        
+        int[] uids = new int[] { 105, 105, 111, 112 };
+        ImapMessageToken[] result = instance.messagesVanished(uids, updatedTokens);
+        
+        assertEquals(2, result.length);
+        assertEquals(tokens[1], result[0]);
+        assertEquals(tokens[2], result[1]);
+        
+        assertEquals(3, updatedTokens.size());
+        assertEquals(tokens[0], instance.getMessageToken(9));
+        assertEquals(tokens[3], instance.getMessageToken(10));
+        assertEquals(tokens[4], instance.getMessageToken(11));
+        assertNull(instance.getMessageToken(12));
+        assertNull(instance.getMessageToken(13));
+        assertNull(instance.getMessageToken(14));
+    }
+    
     public Test suite() {
         TestSuite suite = new TestSuite("MailboxState");
 
@@ -516,6 +558,10 @@ public class MailboxStateTest extends TestCase {
         { public void run(TestCase tc) throws Throwable { ((MailboxStateTest) tc).testMessageExpungedNoncontiguous(); }}));
         suite.addTest(new MailboxStateTest("messageExpungedNoncontiguousUnfetched", new TestMethod()
         { public void run(TestCase tc) throws Throwable { ((MailboxStateTest) tc).testMessageExpungedNoncontiguousUnfetched(); }}));
+        suite.addTest(new MailboxStateTest("mailboxReselectedModSeq", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((MailboxStateTest) tc).testMailboxReselectedModSeq(); }}));
+        suite.addTest(new MailboxStateTest("messagesVanished", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((MailboxStateTest) tc).testMessagesVanished(); }}));
         
         return suite;
     }
@@ -57,20 +57,49 @@ public class MockImapProtocol extends org.logicprobe.LogicMail.mail.imap.ImapPro
         return super.execute(arg0, arg1, arg2);
     }
 
-    public static final MockMethod MTHD_EXECUTE_APPEND_$_STRING_STRING_IMAPPROTOCOL$MESSAGEFLAGS = new MockMethod(
+    public static final MockMethod MTHD_EXECUTE_APPEND_$_STRING_DATASPOOL_IMAPPROTOCOL$MESSAGEFLAGS = new MockMethod(
         MockImapProtocol.class, 
-        "MTHD_EXECUTE_APPEND_$_STRING_STRING_IMAPPROTOCOL$MESSAGEFLAGS",
-        new Class[]{java.lang.String.class, java.lang.String.class, org.logicprobe.LogicMail.mail.imap.ImapProtocol.MessageFlags.class},
+        "MTHD_EXECUTE_APPEND_$_STRING_DATASPOOL_IMAPPROTOCOL$MESSAGEFLAGS",
+        new Class[]{java.lang.String.class, org.logicprobe.LogicMail.util.DataSpool.class, org.logicprobe.LogicMail.mail.imap.ImapProtocol.MessageFlags.class},
         new Class[]{java.io.IOException.class, org.logicprobe.LogicMail.mail.MailException.class},
         null,
         false);
-    public void executeAppend(java.lang.String arg0, java.lang.String arg1, org.logicprobe.LogicMail.mail.imap.ImapProtocol.MessageFlags arg2) throws java.io.IOException, org.logicprobe.LogicMail.mail.MailException {
+    public void executeAppend(java.lang.String arg0, org.logicprobe.LogicMail.util.DataSpool arg1, org.logicprobe.LogicMail.mail.imap.ImapProtocol.MessageFlags arg2) throws java.io.IOException, org.logicprobe.LogicMail.mail.MailException {
         try {
             Object[] args = new Object[3];
             args[0] = arg0;
             args[1] = arg1;
             args[2] = arg2;
-            MethodInvocation mi = new MethodInvocation(MTHD_EXECUTE_APPEND_$_STRING_STRING_IMAPPROTOCOL$MESSAGEFLAGS, this, args);
+            MethodInvocation mi = new MethodInvocation(MTHD_EXECUTE_APPEND_$_STRING_DATASPOOL_IMAPPROTOCOL$MESSAGEFLAGS, this, args);
+            getInvocationHandler().invoke(mi);
+            if (mi.isEvaluated()) {
+                mi.getReturnValue();
+                return;
+            }
+        } catch (Throwable t) {
+            if (t instanceof java.lang.Error) { throw (java.lang.Error)t; }
+            if (t instanceof java.lang.RuntimeException) { throw (java.lang.RuntimeException)t; }
+            if (t instanceof java.io.IOException) { throw (java.io.IOException)t; }
+            if (t instanceof org.logicprobe.LogicMail.mail.MailException) { throw (org.logicprobe.LogicMail.mail.MailException)t; }
+            throw new HammockException(t);
+        }
+        super.executeAppend(arg0, arg1, arg2);
+    }
+
+    public static final MockMethod MTHD_EXECUTE_APPEND_$_STRING_ARRAY_DATASPOOL_ARRAY_IMAPPROTOCOL$MESSAGEFLAGS = new MockMethod(
+        MockImapProtocol.class, 
+        "MTHD_EXECUTE_APPEND_$_STRING_ARRAY_DATASPOOL_ARRAY_IMAPPROTOCOL$MESSAGEFLAGS",
+        new Class[]{java.lang.String.class, org.logicprobe.LogicMail.util.DataSpool[].class, org.logicprobe.LogicMail.mail.imap.ImapProtocol.MessageFlags[].class},
+        new Class[]{java.io.IOException.class, org.logicprobe.LogicMail.mail.MailException.class},
+        null,
+        false);
+    public void executeAppend(java.lang.String arg0, org.logicprobe.LogicMail.util.DataSpool[] arg1, org.logicprobe.LogicMail.mail.imap.ImapProtocol.MessageFlags[] arg2) throws java.io.IOException, org.logicprobe.LogicMail.mail.MailException {
+        try {
+            Object[] args = new Object[3];
+            args[0] = arg0;
+            args[1] = arg1;
+            args[2] = arg2;
+            MethodInvocation mi = new MethodInvocation(MTHD_EXECUTE_APPEND_$_STRING_ARRAY_DATASPOOL_ARRAY_IMAPPROTOCOL$MESSAGEFLAGS, this, args);
             getInvocationHandler().invoke(mi);
             if (mi.isEvaluated()) {
                 mi.getReturnValue();
@@ -194,21 +223,21 @@ public class MockImapProtocol extends org.logicprobe.LogicMail.mail.imap.ImapPro
         return super.executeCompressDeflate();
     }
 
-    public static final MockMethod MTHD_EXECUTE_CONTINUE_$_STRING_STRING_ARRAY_BYTE_STRING = new MockMethod(
+    public static final MockMethod MTHD_EXECUTE_CONTINUE_$_STRING_ARRAY_STRING_ARRAY_DATASPOOL_STRING = new MockMethod(
         MockImapProtocol.class, 
-        "MTHD_EXECUTE_CONTINUE_$_STRING_STRING_ARRAY_BYTE_STRING",
-        new Class[]{java.lang.String.class, java.lang.String.class, byte[].class, java.lang.String.class},
+        "MTHD_EXECUTE_CONTINUE_$_STRING_ARRAY_STRING_ARRAY_DATASPOOL_STRING",
+        new Class[]{java.lang.String.class, java.lang.String[].class, org.logicprobe.LogicMail.util.DataSpool[].class, java.lang.String.class},
         new Class[]{java.io.IOException.class, org.logicprobe.LogicMail.mail.MailException.class},
         byte[][].class,
         false);
-    public byte[][] executeContinue(java.lang.String arg0, java.lang.String arg1, byte[] arg2, java.lang.String arg3) throws java.io.IOException, org.logicprobe.LogicMail.mail.MailException {
+    public byte[][] executeContinue(java.lang.String arg0, java.lang.String[] arg1, org.logicprobe.LogicMail.util.DataSpool[] arg2, java.lang.String arg3) throws java.io.IOException, org.logicprobe.LogicMail.mail.MailException {
         try {
             Object[] args = new Object[4];
             args[0] = arg0;
             args[1] = arg1;
             args[2] = arg2;
             args[3] = arg3;
-            MethodInvocation mi = new MethodInvocation(MTHD_EXECUTE_CONTINUE_$_STRING_STRING_ARRAY_BYTE_STRING, this, args);
+            MethodInvocation mi = new MethodInvocation(MTHD_EXECUTE_CONTINUE_$_STRING_ARRAY_STRING_ARRAY_DATASPOOL_STRING, this, args);
             getInvocationHandler().invoke(mi);
             if (mi.isEvaluated()) {
                 Object retVal = mi.getReturnValue();
@@ -782,6 +811,33 @@ public class MockImapProtocol extends org.logicprobe.LogicMail.mail.imap.ImapPro
         return super.executeNoReply(arg0, arg1);
     }
 
+    public static final MockMethod MTHD_EXECUTE_NOTIFY_$_BOOLEAN = new MockMethod(
+        MockImapProtocol.class, 
+        "MTHD_EXECUTE_NOTIFY_$_BOOLEAN",
+        new Class[]{Boolean.class},
+        new Class[]{java.io.IOException.class, org.logicprobe.LogicMail.mail.MailException.class},
+        null,
+        false);
+    public void executeNotify(boolean arg0) throws java.io.IOException, org.logicprobe.LogicMail.mail.MailException {
+        try {
+            Object[] args = new Object[1];
+            args[0] = new Boolean(arg0);
+            MethodInvocation mi = new MethodInvocation(MTHD_EXECUTE_NOTIFY_$_BOOLEAN, this, args);
+            getInvocationHandler().invoke(mi);
+            if (mi.isEvaluated()) {
+                mi.getReturnValue();
+                return;
+            }
+        } catch (Throwable t) {
+            if (t instanceof java.lang.Error) { throw (java.lang.Error)t; }
+            if (t instanceof java.lang.RuntimeException) { throw (java.lang.RuntimeException)t; }
+            if (t instanceof java.io.IOException) { throw (java.io.IOException)t; }
+            if (t instanceof org.logicprobe.LogicMail.mail.MailException) { throw (org.logicprobe.LogicMail.mail.MailException)t; }
+            throw new HammockException(t);
+        }
+        super.executeNotify(arg0);
+    }
+
     public static final MockMethod MTHD_EXECUTE_RESPONSE_$_STRING_STRING_IMAPPROTOCOL$EXECUTECALLBACK_MAILPROGRESSHANDLER = new MockMethod(
         MockImapProtocol.class, 
         "MTHD_EXECUTE_RESPONSE_$_STRING_STRING_IMAPPROTOCOL$EXECUTECALLBACK_MAILPROGRESSHANDLER",
@@ -1087,6 +1143,31 @@ public class MockImapProtocol extends org.logicprobe.LogicMail.mail.imap.ImapPro
         super.setConnection(arg0);
     }
 
+    public static final MockMethod MTHD_SET_NON_SYNC_LITERAL_LIMIT_$_INT = new MockMethod(
+        MockImapProtocol.class, 
+        "MTHD_SET_NON_SYNC_LITERAL_LIMIT_$_INT",
+        new Class[]{Integer.class},
+        new Class[]{},
+        null,
+        false);
+    public void setNonSyncLiteralLimit(int arg0)  {
+        try {
+            Object[] args = new Object[1];
+            args[0] = new Integer(arg0);
+            MethodInvocation mi = new MethodInvocation(MTHD_SET_NON_SYNC_LITERAL_LIMIT_$_INT, this, args);
+            getInvocationHandler().invoke(mi);
+            if (mi.isEvaluated()) {
+                mi.getReturnValue();
+                return;
+            }
+        } catch (Throwable t) {
+            if (t instanceof java.lang.Error) { throw (java.lang.Error)t; }
+            if (t instanceof java.lang.RuntimeException) { throw (java.lang.RuntimeException)t; }
+            throw new HammockException(t);
+        }
+        super.setNonSyncLiteralLimit(arg0);
+    }
+
     public static final MockMethod MTHD_SET_UNTAGGED_RESPONSE_LISTENER_$_IMAPPROTOCOL$UNTAGGEDRESPONSELISTENER = new MockMethod(
         MockImapProtocol.class, 
         "MTHD_SET_UNTAGGED_RESPONSE_LISTENER_$_IMAPPROTOCOL$UNTAGGEDRESPONSELISTENER",
@@ -32,9 +32,14 @@ package org.logicprobe.LogicMail.mail.pop;
 
 import java.util.Hashtable;
 
+import net.rim.device.api.util.IntIntHashtable;
+
 import org.logicprobe.LogicMail.conf.ConnectionConfig;
 import org.logicprobe.LogicMail.mail.MailException;
+import org.logicprobe.LogicMail.mail.MailProgressHandler;
+import org.logicprobe.LogicMail.util.Connection;
 import org.logicprobe.LogicMail.util.MockConnection;
+import org.logicprobe.LogicMail.util.StubSocketConnection;
 
 import com.hammingweight.hammock.Hammock;
 import com.hammingweight.hammock.mocks.microedition.io.MockSocketConnection;
@@ -173,6 +178,90 @@ public class PopProtocolTest extends TestCase {
         assertFollowsEquals(expected, response);
     }
 
+    public void testExecuteList() throws Throwable {
+        expectCommand("LIST");
+        expectResponse(new String[] {
+                "+OK 3 messages",
+                "1 120",
+                "2 4500",
+                "3 78",
+                "."
+        });
+        
+        IntIntHashtable result = instance.executeList((MailProgressHandler)null);
+        assertEquals(3, result.size());
+        assertEquals(120, result.get(1));
+        assertEquals(4500, result.get(2));
+        assertEquals(78, result.get(3));
+    }
+    
+    public void testExecuteUidlBatch() throws Throwable {
+        expectCommand("UIDL 1");
+        expectResponse("+OK 1 uid-one");
+        expectCommand("UIDL 2");
+        expectResponse("-ERR No such message");
+        
+        String[] result = instance.executeUidl(new int[] { 1, 2 });
+        assertEquals(2, result.length);
+        assertEquals("uid-one", result[0]);
+        assertNull(result[1]);
+    }
+    
+    public void testExecuteTopPipelined() throws Throwable {
+        StringBuffer buf = new StringBuffer();
+        buf.append("+OK\r\n");
+        buf.append("Subject: First\r\n");
+        buf.append("..Dotted\r\n");
+        buf.append(".\r\n");
+        buf.append("+OK\r\n");
+        buf.append("Subject: Second\r\n");
+        buf.append(".\r\n");
+        buf.append("+OK 2 200\r\n");
+        buf.append("+OK 3 300\r\n");
+        
+        StubSocketConnection socket = new StubSocketConnection(buf.toString().getBytes());
+        PopProtocol protocol = new PopProtocol();
+        protocol.setConnection(new Connection(socket, 0));
+        protocol.setPipelining(true);
+        
+        byte[][][] topResult = protocol.executeTop(new int[] { 2, 3 }, 0, null);
+        assertEquals("TOP 2 0\r\nTOP 3 0\r\n", new String(socket.getSentBytes()));
+        assertEquals(2, topResult.length);
+        assertEquals(2, topResult[0].length);
+        assertEquals("Subject: First", new String(topResult[0][0]));
+        assertEquals(".Dotted", new String(topResult[0][1]));
+        assertEquals(1, topResult[1].length);
+        assertEquals("Subject: Second", new String(topResult[1][0]));
+        
+        socket.resetSentBytes();
+        int[] listResult = protocol.executeList(new int[] { 2, 3 });
+        assertEquals("LIST 2\r\nLIST 3\r\n", new String(socket.getSentBytes()));
+        assertEquals(200, listResult[0]);
+        assertEquals(300, listResult[1]);
+    }
+    
+    public void testExecuteTopPipelinedError() throws Throwable {
+        StringBuffer buf = new StringBuffer();
+        buf.append("-ERR No such message\r\n");
+        buf.append("+OK\r\n");
+        buf.append("Subject: Second\r\n");
+        buf.append(".\r\n");
+        buf.append("+OK 1 uid-one\r\n");
+        
+        StubSocketConnection socket = new StubSocketConnection(buf.toString().getBytes());
+        PopProtocol protocol = new PopProtocol();
+        protocol.setConnection(new Connection(socket, 0));
+        protocol.setPipelining(true);
+        
+        try {
+            protocol.executeTop(new int[] { 9, 1 }, 0, null);
+            fail("Expected exception on failed command");
+        } catch (MailException e) {
+            // The connection must still be in sync after the failure
+            assertEquals("uid-one", protocol.executeUidl(1));
+        }
+    }
+    
     private static String[] copyArray(String[] input) {
         if(input == null || input.length == 0) { return input; }
         
@@ -223,6 +312,14 @@ public class PopProtocolTest extends TestCase {
         { public void run(TestCase tc) throws Throwable { ((PopProtocolTest)tc).testExecuteRetr(); }}));
         suite.addTest(new PopProtocolTest("executeRetrEscapedDots", new TestMethod()
         { public void run(TestCase tc) throws Throwable { ((PopProtocolTest)tc).testExecuteRetrEscapedDots(); }}));
+        suite.addTest(new PopProtocolTest("executeList", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((PopProtocolTest)tc).testExecuteList(); }}));
+        suite.addTest(new PopProtocolTest("executeUidlBatch", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((PopProtocolTest)tc).testExecuteUidlBatch(); }}));
+        suite.addTest(new PopProtocolTest("executeTopPipelined", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((PopProtocolTest)tc).testExecuteTopPipelined(); }}));
+        suite.addTest(new PopProtocolTest("executeTopPipelinedError", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((PopProtocolTest)tc).testExecuteTopPipelinedError(); }}));
         
         return suite;
     }
@@ -36,7 +36,9 @@ import java.io.IOException;
 import net.rim.device.api.util.Arrays;
 
 import org.logicprobe.LogicMail.conf.ConnectionConfig;
+import org.logicprobe.LogicMail.util.Connection;
 import org.logicprobe.LogicMail.util.MockConnection;
+import org.logicprobe.LogicMail.util.StubSocketConnection;
 
 import com.hammingweight.hammock.Hammock;
 import com.hammingweight.hammock.IArgumentMatcher;
@@ -108,7 +110,6 @@ public class SmtpProtocolTest extends TestCase {
                 "This is the message content\r\n",
         };
         expectRawSmtpData(rawMessage);
-        expectCommand("\r\n.");
         expectResponse("250 2.0.0 p6SJXCeA015681 Message accepted for delivery");
         boolean result = instance.executeData(toByteArray(rawMessage));
         
@@ -118,7 +119,7 @@ public class SmtpProtocolTest extends TestCase {
     public void testExecuteDataEmpty() throws Throwable {
         expectCommand("DATA");
         expectResponse("354 Enter mail, end with \".\" on a line by itself");
-        expectCommand("\r\n.");
+        expectRawSmtpData(new String[0]);
         expectResponse("250 2.0.0 p6SJXCeA015681 Message accepted for delivery");
         boolean result = instance.executeData(new byte[0]);
         
@@ -132,7 +133,6 @@ public class SmtpProtocolTest extends TestCase {
                 "\r\n"
         };
         expectRawSmtpData(rawMessage);
-        expectCommand("\r\n.");
         expectResponse("250 2.0.0 p6SJXCeA015681 Message accepted for delivery");
         boolean result = instance.executeData(toByteArray(rawMessage));
         
@@ -159,13 +159,99 @@ public class SmtpProtocolTest extends TestCase {
         expectedData[8] = "." + expectedData[8];
         expectedData[9] = "." + expectedData[9];
         expectRawSmtpData(expectedData);
-        expectCommand("\r\n.");
         expectResponse("250 2.0.0 p6SJXCeA015681 Message accepted for delivery");
         boolean result = instance.executeData(toByteArray(rawMessage));
         
         assertTrue(result);
     }
     
+    public void testExecuteDataUnterminated() throws Throwable {
+        expectCommand("DATA");
+        expectResponse("354 Enter mail, end with \".\" on a line by itself");
+        expectRawSmtpData(new String[] { "Subject: Test\r\n", "\r\n", "Text\r\n" });
+        expectResponse("250 2.0.0 p6SJXCeA015681 Message accepted for delivery");
+        boolean result = instance.executeData("Subject: Test\r\n\r\nText".getBytes());
+        
+        assertTrue(result);
+    }
+    
+    public void testExecuteEnvelope() throws Throwable {
+        expectCommand("MAIL FROM:<foobar@test.org>");
+        expectResponse("250 2.1.0 Sender ok");
+        expectCommand("RCPT TO:<barfoo@test.net>");
+        expectResponse("550 5.1.1 User unknown");
+        
+        boolean[] result = instance.executeEnvelope("foobar@test.org",
+                new String[] { "barfoo@test.net", "other@test.net" });
+        
+        assertEquals(3, result.length);
+        assertTrue(result[0]);
+        assertTrue(!result[1]);
+        assertTrue(!result[2]);
+    }
+    
+    public void testExecuteEnvelopePipelined() throws Throwable {
+        StringBuffer buf = new StringBuffer();
+        buf.append("250 2.1.0 Sender ok\r\n");
+        buf.append("550-5.1.1 User unknown\r\n");
+        buf.append("550 5.1.1 Try again later\r\n");
+        buf.append("250 2.1.5 Recipient ok\r\n");
+        
+        StubSocketConnection socket = new StubSocketConnection(buf.toString().getBytes());
+        SmtpProtocol protocol = new SmtpProtocol();
+        protocol.setConnection(new Connection(socket, 0));
+        protocol.setPipelining(true);
+        
+        boolean[] result = protocol.executeEnvelope("foobar@test.org",
+                new String[] { "barfoo@test.net", "other@test.net" });
+        
+        assertEquals(
+                "MAIL FROM:<foobar@test.org>\r\n" +
+                "RCPT TO:<barfoo@test.net>\r\n" +
+                "RCPT TO:<other@test.net>\r\n",
+                new String(socket.getSentBytes()));
+        assertEquals(3, result.length);
+        assertTrue(result[0]);
+        assertTrue(!result[1]);
+        assertTrue(result[2]);
+    }
+    
+    public void testExecuteBinaryData() throws Throwable {
+        StubSocketConnection socket = new StubSocketConnection(
+                "250 2.0.0 Message accepted for delivery\r\n".getBytes());
+        SmtpProtocol protocol = new SmtpProtocol();
+        protocol.setConnection(new Connection(socket, 0));
+        protocol.setChunking(true);
+        
+        String message = "Subject: Test\r\n\r\n.Dotted line\r\n";
+        boolean result = protocol.executeBinaryData(message.getBytes());
+        
+        assertTrue(result);
+        assertEquals("BDAT " + message.length() + " LAST\r\n" + message,
+                new String(socket.getSentBytes()));
+    }
+    
+    public void testExecuteBinaryDataChunked() throws Throwable {
+        StubSocketConnection socket = new StubSocketConnection(
+                ("250 2.0.0 70000 octets received\r\n" +
+                "250 2.0.0 Message accepted for delivery\r\n").getBytes());
+        SmtpProtocol protocol = new SmtpProtocol();
+        protocol.setConnection(new Connection(socket, 0));
+        protocol.setChunking(true);
+        protocol.setPipelining(true);
+        
+        byte[] message = new byte[70000];
+        for(int i=0; i<message.length; i++) { message[i] = (byte)'x'; }
+        boolean result = protocol.executeBinaryData(message);
+        
+        assertTrue(result);
+        String sent = new String(socket.getSentBytes());
+        assertEquals(70000 + "BDAT 65536\r\n".length() + "BDAT 4464 LAST\r\n".length(),
+                sent.length());
+        assertTrue(sent.startsWith("BDAT 65536\r\nxxx"));
+        assertEquals(12 + 65536, sent.indexOf("BDAT 4464 LAST\r\nxxx"));
+    }
+    
     private void expectCommand(String command) {
         hammock.setExpectation(MockConnection.MTHD_SEND_COMMAND_$_STRING,
                 new Object[] { command });
@@ -176,22 +262,21 @@ public class SmtpProtocolTest extends TestCase {
             .setReturnValue(response.getBytes());
     }
     
-    private void expectRawSmtpData(String[] data) {
-        int offset = 0;
+    /**
+     * Expects the already dot-stuffed message data, followed by the end of
+     * data marker, to be sent in a single buffered write.
+     */
+    private void expectRawSmtpData(String[] data) throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
         for(int i=0; i<data.length; i++) {
-            byte[] line = data[i].getBytes();
-            if(line[0] == (byte)'.') {
-                hammock.setExpectation(MockConnection.MTHD_SEND_RAW_$_ARRAY_BYTE_INT_INT,
-                        new Object[] { line, new Integer(0), new Integer(line.length) } );
-                offset += line.length - 1;
-            }
-            else {
-                hammock.setExpectation(MockConnection.MTHD_SEND_RAW_$_ARRAY_BYTE_INT_INT,
-                        new Object[] { line, new Integer(offset), new Integer(line.length) } )
-                        .setArgumentMatcher(0, new ArrayOffsetArgumentMatcher(offset, line.length));
-                offset += line.length;
-            }
+            stream.write(data[i].getBytes());
         }
+        stream.write(".\r\n".getBytes());
+        byte[] expected = stream.toByteArray();
+        
+        hammock.setExpectation(MockConnection.MTHD_SEND_RAW_$_ARRAY_BYTE_INT_INT,
+                new Object[] { expected, new Integer(0), new Integer(expected.length) } )
+                .setArgumentMatcher(0, new ArrayOffsetArgumentMatcher(0, expected.length));
     }
 
     private static class ArrayOffsetArgumentMatcher implements IArgumentMatcher {
@@ -239,6 +324,16 @@ public class SmtpProtocolTest extends TestCase {
         { public void run(TestCase tc) throws Throwable { ((SmtpProtocolTest)tc).testExecuteDataAlmostEmpty(); }}));
         suite.addTest(new SmtpProtocolTest("executeDataWithDots", new TestMethod()
         { public void run(TestCase tc) throws Throwable { ((SmtpProtocolTest)tc).testExecuteDataWithDots(); }}));
+        suite.addTest(new SmtpProtocolTest("executeDataUnterminated", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((SmtpProtocolTest)tc).testExecuteDataUnterminated(); }}));
+        suite.addTest(new SmtpProtocolTest("executeEnvelope", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((SmtpProtocolTest)tc).testExecuteEnvelope(); }}));
+        suite.addTest(new SmtpProtocolTest("executeEnvelopePipelined", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((SmtpProtocolTest)tc).testExecuteEnvelopePipelined(); }}));
+        suite.addTest(new SmtpProtocolTest("executeBinaryData", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((SmtpProtocolTest)tc).testExecuteBinaryData(); }}));
+        suite.addTest(new SmtpProtocolTest("executeBinaryDataChunked", new TestMethod()
+        { public void run(TestCase tc) throws Throwable { ((SmtpProtocolTest)tc).testExecuteBinaryDataChunked(); }}));
         
         return suite;
     }
@@ -31,6 +31,7 @@
 package org.logicprobe.LogicMail.model;
 
 import java.util.Calendar;
+import java.util.Hashtable;
 
 import org.logicprobe.LogicMail.mail.FakeMessageToken;
 import org.logicprobe.LogicMail.mail.FolderTreeItem;
@@ -310,6 +311,48 @@ public class FolderMessageCacheTest extends TestCase {
         }
     }
     
+    public void testUpdateFolderMessages() {
+        TestFolderMessageCache instance = new TestFolderMessageCache();
+        instance.addFolderMessage(folder1, message1a);
+        instance.addFolderMessage(folder1, message1b);
+        instance.commit();
+        instance = new TestFolderMessageCache();
+        instance.restore();
+        
+        // A batch with no changes should neither load nor commit the page
+        FolderMessage[] unchanged = instance.updateFolderMessages(folder1, new FolderMessage[] {
+                new FolderMessage(new FakeMessageToken(1), new MessageEnvelope(), 1, 11, -1),
+                new FolderMessage(new FakeMessageToken(2), new MessageEnvelope(), 2, 12, -1) });
+        assertEquals("Update unchanged", 2, unchanged.length);
+        instance.commit();
+        assertEquals("Update unchanged", 0, instance.getLoadedPageCount());
+        assertEquals("Update unchanged", 0, instance.segmentCommitCount);
+        
+        FolderMessage unchangedMessage1a = new FolderMessage(new FakeMessageToken(1), new MessageEnvelope(), 1, 11, -1);
+        FolderMessage updatedMessage1b = new FolderMessage(new FakeMessageToken(2), new MessageEnvelope(), 10, 12, -1);
+        updatedMessage1b.setFlagged(true);
+        FolderMessage[] result = instance.updateFolderMessages(folder1,
+                new FolderMessage[] { unchangedMessage1a, updatedMessage1b, message2a });
+        assertEquals("Update batch", 2, result.length);
+        assertContains("Update batch", unchangedMessage1a, result);
+        assertContains("Update batch", updatedMessage1b, result);
+        
+        instance.commit();
+        assertEquals("Update batch", 1, instance.getLoadedPageCount());
+        assertEquals("Update batch", 1, instance.segmentCommitCount);
+        instance = new TestFolderMessageCache();
+        instance.restore();
+        
+        FolderMessage[] messages = instance.getFolderMessages(folder1);
+        assertEquals("Update batch, restored", 2, messages.length);
+        assertEquals("Update batch, restored", message1a, messages[0]);
+        assertEquals("Update batch, restored", 1, messages[0].getIndex());
+        assertTrue("Update batch, restored", !messages[0].isFlagged());
+        assertEquals("Update batch, restored", message1b, messages[1]);
+        assertEquals("Update batch, restored", 10, messages[1].getIndex());
+        assertTrue("Update batch, restored", messages[1].isFlagged());
+    }
+    
     public void testRemoveFolder() {
         FolderMessageCache instance = new TestFolderMessageCache();
         instance.addFolderMessage(folder1, message1a);
@@ -362,6 +405,112 @@ public class FolderMessageCacheTest extends TestCase {
         assertLacks("Remove two, restored", folder2, folders);
     }
     
+    public void testPagedFolderMessages() {
+        FolderMessageCache instance = new TestFolderMessageCache(3, 2);
+        FolderMessage[] folderMessages = createFolderMessages(10);
+        for(int i=folderMessages.length - 1; i >= 0; i--) {
+            instance.addFolderMessage(folder1, folderMessages[i]);
+        }
+        
+        FolderMessage[] messages = instance.getFolderMessages(folder1);
+        assertEquals("Paged", 10, messages.length);
+        for(int i=0; i<messages.length; i++) {
+            assertEquals("Paged", folderMessages[i], messages[i]);
+            assertEquals("Paged", i + 1, messages[i].getIndex());
+        }
+        
+        instance.commit();
+        instance = new TestFolderMessageCache(3, 2);
+        instance.restore();
+        
+        messages = instance.getFolderMessages(folder1);
+        assertEquals("Paged, restored", 10, messages.length);
+        for(int i=0; i<messages.length; i++) {
+            assertEquals("Paged, restored", folderMessages[i], messages[i]);
+        }
+    }
+    
+    public void testWindowedFolderMessages() {
+        FolderMessageCache instance = new TestFolderMessageCache(3, 2);
+        FolderMessage[] folderMessages = createFolderMessages(10);
+        for(int i=0; i<folderMessages.length; i++) {
+            instance.addFolderMessage(folder1, folderMessages[i]);
+        }
+        
+        FolderMessage[] messages = instance.getFolderMessages(folder1, 4);
+        assertEquals("Window", 4, messages.length);
+        for(int i=0; i<messages.length; i++) {
+            assertEquals("Window", folderMessages[i + 6], messages[i]);
+        }
+        
+        messages = instance.getFolderMessages(folder1, 20);
+        assertEquals("Large window", 10, messages.length);
+        
+        messages = instance.getFolderMessages(folder1, 0);
+        assertEquals("Empty window", 0, messages.length);
+    }
+    
+    public void testEvictedPagePersistence() {
+        FolderMessageCache instance = new TestFolderMessageCache(3, 1);
+        FolderMessage[] folderMessages = createFolderMessages(10);
+        for(int i=0; i<folderMessages.length; i++) {
+            instance.addFolderMessage(folder1, folderMessages[i]);
+        }
+        instance.commit();
+        
+        // Loading the last page evicts the first one, so the update has to
+        // reload it before changing the message.
+        instance.getFolderMessage(folder1, folderMessages[9].getMessageToken());
+        FolderMessage updatedMessage = new FolderMessage(new FakeMessageToken(101), new MessageEnvelope(), 1, 101, -1);
+        updatedMessage.setFlagged(true);
+        assertTrue("Update evicted", instance.updateFolderMessage(folder1, updatedMessage));
+        instance.commit();
+        
+        instance = new TestFolderMessageCache(3, 1);
+        instance.restore();
+        FolderMessage message = instance.getFolderMessage(folder1, folderMessages[0].getMessageToken());
+        assertNotNull("Update evicted, restored", message);
+        assertTrue("Update evicted, restored", message.isFlagged());
+        assertEquals("Update evicted, restored", 10, instance.getFolderMessages(folder1).length);
+    }
+    
+    public void testRestoredPageLookup() {
+        FolderMessageCache instance = new TestFolderMessageCache(3, 1);
+        FolderMessage[] folderMessages = createFolderMessages(10);
+        for(int i=0; i<folderMessages.length; i++) {
+            instance.addFolderMessage(folder1, folderMessages[i]);
+        }
+        instance.commit();
+        
+        instance = new TestFolderMessageCache(3, 1);
+        instance.restore();
+        
+        // Reading the whole folder should not cycle pages through the loaded set
+        assertEquals("Full read", 10, instance.getFolderMessages(folder1).length);
+        assertEquals("Full read", 0, instance.getLoadedPageCount());
+        
+        FolderMessage updatedMessage = new FolderMessage(new FakeMessageToken(105), new MessageEnvelope(), 5, 105, -1);
+        updatedMessage.setFlagged(true);
+        assertTrue("Update", instance.updateFolderMessage(folder1, updatedMessage));
+        assertTrue("Update", instance.getFolderMessage(folder1, folderMessages[4].getMessageToken()).isFlagged());
+        
+        instance.removeFolderMessage(folder1, folderMessages[4]);
+        assertNull("Remove", instance.getFolderMessage(folder1, folderMessages[4].getMessageToken()));
+        assertTrue("Remove", !instance.updateFolderMessage(folder1, updatedMessage));
+        
+        instance.addFolderMessage(folder1, folderMessages[4]);
+        assertNotNull("Add", instance.getFolderMessage(folder1, folderMessages[4].getMessageToken()));
+        assertEquals("Add", 10, instance.getFolderMessages(folder1).length);
+    }
+    
+    private FolderMessage[] createFolderMessages(int count) {
+        FolderMessage[] result = new FolderMessage[count];
+        for(int i=0; i<count; i++) {
+            result[i] = new FolderMessage(new FakeMessageToken(101 + i), createEnvelope(), i + 1, 101 + i, -1);
+        }
+        return result;
+    }
+    
     public void assertContains(String message, Object expected, Object[] array) {
         for(int i=0; i<array.length; i++) {
             if(array[i] != null && array[i].equals(expected)) {
@@ -398,18 +547,39 @@ public class FolderMessageCacheTest extends TestCase {
         { public void run(TestCase tc) {((FolderMessageCacheTest)tc).testUpdateFolderMessage(); } }));
         suite.addTest(new FolderMessageCacheTest("updateFolderMessagePersistence", new TestMethod()
         { public void run(TestCase tc) {((FolderMessageCacheTest)tc).testUpdateFolderMessagePersistence(); } }));
+        suite.addTest(new FolderMessageCacheTest("updateFolderMessages", new TestMethod()
+        { public void run(TestCase tc) {((FolderMessageCacheTest)tc).testUpdateFolderMessages(); } }));
         suite.addTest(new FolderMessageCacheTest("removeFolder", new TestMethod()
         { public void run(TestCase tc) {((FolderMessageCacheTest)tc).testRemoveFolder(); } }));
         suite.addTest(new FolderMessageCacheTest("removeFolderPersistence", new TestMethod()
         { public void run(TestCase tc) {((FolderMessageCacheTest)tc).testRemoveFolderPersistence(); } }));
+        suite.addTest(new FolderMessageCacheTest("pagedFolderMessages", new TestMethod()
+        { public void run(TestCase tc) {((FolderMessageCacheTest)tc).testPagedFolderMessages(); } }));
+        suite.addTest(new FolderMessageCacheTest("windowedFolderMessages", new TestMethod()
+        { public void run(TestCase tc) {((FolderMessageCacheTest)tc).testWindowedFolderMessages(); } }));
+        suite.addTest(new FolderMessageCacheTest("evictedPagePersistence", new TestMethod()
+        { public void run(TestCase tc) {((FolderMessageCacheTest)tc).testEvictedPagePersistence(); } }));
+        suite.addTest(new FolderMessageCacheTest("restoredPageLookup", new TestMethod()
+        { public void run(TestCase tc) {((FolderMessageCacheTest)tc).testRestoredPageLookup(); } }));
 
         return suite;
     }
     
     private class TestFolderMessageCache extends FolderMessageCache {
+        private int segmentCommitCount;
+        
         public TestFolderMessageCache() {
             //"org.logicprobe.LogicMail.model.TestFolderMessageCacheObject"
             super(0x50eb4d81a1fe479bL);
         }
+        
+        public TestFolderMessageCache(int pageSize, int maxLoadedPages) {
+            super(0x50eb4d81a1fe479bL, pageSize, maxLoadedPages);
+        }
+        
+        protected void commitSegment(Hashtable segment) {
+            segmentCommitCount++;
+            super.commitSegment(segment);
+        }
     }
 }
@@ -0,0 +1,132 @@
+/*-
+ * Copyright (c) 2011, Derek Konigsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution. 
+ * 3. Neither the name of the project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.logicprobe.LogicMail.model;
+
+import j2meunit.framework.Test;
+import j2meunit.framework.TestCase;
+import j2meunit.framework.TestMethod;
+import j2meunit.framework.TestSuite;
+
+public class MessageContentCacheUsageTest extends TestCase {
+    public MessageContentCacheUsageTest() {
+    }
+    
+    public MessageContentCacheUsageTest(String testName, TestMethod testMethod) {
+        super(testName, testMethod);
+    }
+
+    public void setUp() {
+    }
+
+    public void tearDown() {
+    }
+    
+    public void testTotalSize() {
+        MessageContentCacheUsage instance = new MessageContentCacheUsage();
+        instance.update("file:///a/1.msg", 100, 1000);
+        instance.update("file:///a/2.msg", 200, 2000);
+        instance.update("file:///b/3.msg", 300, 3000);
+        assertEquals(3, instance.size());
+        assertEquals(600, instance.getTotalSize());
+        
+        instance.update("file:///a/2.msg", 250, 4000);
+        assertEquals(3, instance.size());
+        assertEquals(650, instance.getTotalSize());
+        
+        instance.remove("file:///a/1.msg");
+        assertEquals(550, instance.getTotalSize());
+        assertTrue(!instance.contains("file:///a/1.msg"));
+        
+        instance.removeAll("file:///b/");
+        assertEquals(1, instance.size());
+        assertEquals(250, instance.getTotalSize());
+        
+        instance.clear();
+        assertEquals(0, instance.size());
+        assertEquals(0, instance.getTotalSize());
+    }
+    
+    public void testSelectEvictions() {
+        MessageContentCacheUsage instance = new MessageContentCacheUsage();
+        instance.update("file:///a/1.msg", 100, 3000);
+        instance.update("file:///a/2.msg", 100, 1000);
+        instance.update("file:///a/3.msg", 100, 2000);
+        instance.update("file:///a/4.msg", 100, 4000);
+        
+        assertEquals(0, instance.selectEvictions(400).length);
+        
+        String[] result = instance.selectEvictions(250);
+        assertEquals(2, result.length);
+        assertEquals("file:///a/2.msg", result[0]);
+        assertEquals("file:///a/3.msg", result[1]);
+        
+        assertTrue(instance.touch("file:///a/2.msg", 5000));
+        assertTrue(!instance.touch("file:///a/5.msg", 5000));
+        result = instance.selectEvictions(250);
+        assertEquals(2, result.length);
+        assertEquals("file:///a/3.msg", result[0]);
+        assertEquals("file:///a/1.msg", result[1]);
+        
+        result = instance.selectEvictions(0);
+        assertEquals(4, result.length);
+        assertEquals("file:///a/2.msg", result[3]);
+    }
+    
+    public void testMerge() {
+        MessageContentCacheUsage instance = new MessageContentCacheUsage();
+        instance.update("file:///a/1.msg", 100, 5000);
+        
+        MessageContentCacheUsage scanned = new MessageContentCacheUsage();
+        scanned.update("file:///a/1.msg", 100, 1000);
+        scanned.update("file:///a/2.msg", 200, 2000);
+        
+        instance.merge(scanned);
+        assertEquals(2, instance.size());
+        assertEquals(300, instance.getTotalSize());
+        
+        String[] result = instance.selectEvictions(100);
+        assertEquals(1, result.length);
+        assertEquals("file:///a/2.msg", result[0]);
+    }
+    
+    public Test suite() {
+        TestSuite suite = new TestSuite("MessageContentCacheUsage");
+
+        suite.addTest(new MessageContentCacheUsageTest("totalSize", new TestMethod()
+        { public void run(TestCase tc) {((MessageContentCacheUsageTest)tc).testTotalSize(); } }));
+        suite.addTest(new MessageContentCacheUsageTest("selectEvictions", new TestMethod()
+        { public void run(TestCase tc) {((MessageContentCacheUsageTest)tc).testSelectEvictions(); } }));
+        suite.addTest(new MessageContentCacheUsageTest("merge", new TestMethod()
+        { public void run(TestCase tc) {((MessageContentCacheUsageTest)tc).testMerge(); } }));
+
+        return suite;
+    }
+}
@@ -30,14 +30,20 @@
  */
 package org.logicprobe.LogicMail.model;
 
+import java.io.OutputStream;
+import java.util.Enumeration;
+
 import javax.microedition.io.Connector;
 import javax.microedition.io.file.FileConnection;
 
 import net.rim.device.api.util.Arrays;
+import net.rim.device.api.util.CRC32;
+import net.rim.device.api.util.DataBuffer;
 
 import org.logicprobe.LogicMail.message.ApplicationContent;
 import org.logicprobe.LogicMail.message.ApplicationPart;
 import org.logicprobe.LogicMail.message.MimeMessageContent;
+import org.logicprobe.LogicMail.message.MimeMessagePart;
 import org.logicprobe.LogicMail.message.TextContent;
 import org.logicprobe.LogicMail.message.TextPart;
 
@@ -52,6 +58,7 @@ import j2meunit.framework.TestSuite;
  */
 public class MessageContentFileTest extends TestCase {
     private static String FILE_URL = "file:///SDCard/BlackBerry/MessageContentFileTest.dat";
+    private static String BLOB_DIR_URL = "file:///SDCard/BlackBerry/MessageContentFileTest/";
     private FileConnection fileConnection;
     
     public MessageContentFileTest() {
@@ -221,6 +228,151 @@ public class MessageContentFileTest extends TestCase {
         reader.close();
     }
     
+    public void testGetMultipleContent() throws Throwable {
+        TextPart textPart = new TextPart("plain", "", "", "", "", "", -1, "1");
+        TextContent textContent = new TextContent(textPart, "Hello World");
+        ApplicationPart appPart = new ApplicationPart("octet-stream", "", "", "", "", -1, "2");
+        ApplicationContent appContent = new ApplicationContent(appPart, new byte[] { (byte)0xDE, (byte)0xAD, (byte)0xBE, (byte)0xEF } );
+        TextPart missingPart = new TextPart("html", "", "", "", "", "", -1, "3");
+        
+        MessageContentFileWriter writer = new MessageContentFileWriter(fileConnection, "12340000");
+        writer.open();
+        writer.appendContent(new MimeMessageContent[] { textContent, appContent });
+        writer.close();
+        
+        MessageContentFileReader reader = new MessageContentFileReader(fileConnection, "12340000");
+        reader.open();
+        MimeMessageContent[] readContent = reader.getContent(
+                new MimeMessagePart[] { appPart, missingPart, textPart });
+        assertNotNull(readContent);
+        assertEquals(3, readContent.length);
+        assertTrue(readContent[0] instanceof ApplicationContent);
+        assertTrue(Arrays.equals(appContent.getRawData(), readContent[0].getRawData()));
+        assertNull(readContent[1]);
+        assertTrue(readContent[2] instanceof TextContent);
+        assertEquals(textContent.getText(), ((TextContent)readContent[2]).getText());
+        reader.close();
+    }
+    
+    public void testOpenFileWithoutIndex() throws Throwable {
+        TextPart textPart = new TextPart("plain", "", "", "", "", "", -1, "1");
+        TextContent textContent = new TextContent(textPart, "Hello World");
+        ApplicationPart appPart = new ApplicationPart("octet-stream", "", "", "", "", -1, "2");
+        ApplicationContent appContent = new ApplicationContent(appPart, new byte[] { (byte)0xDE, (byte)0xAD, (byte)0xBE, (byte)0xEF } );
+        
+        // Create a file the way it was written before index blocks existed
+        DataBuffer buf = new DataBuffer();
+        buf.write(new byte[] { 'L', 'M', '-', 'M', 'S', 'G', '\0', '1' });
+        buf.writeInt(0);
+        buf.write(new byte[20]);
+        buf.writeUTF("12340000");
+        int contentOffset = buf.getLength() + 4;
+        byte[] header = buf.toArray();
+        header[8] = (byte)(contentOffset >>> 24);
+        header[9] = (byte)(contentOffset >>> 16);
+        header[10] = (byte)(contentOffset >>> 8);
+        header[11] = (byte)contentOffset;
+        buf = new DataBuffer();
+        buf.write(header);
+        buf.writeInt(CRC32.update(CRC32.INITIAL_VALUE, header));
+        byte[] data = textContent.getRawData();
+        buf.writeLong(textPart.getUniqueId());
+        buf.writeInt(0);
+        buf.writeInt(textContent.isPartComplete());
+        buf.writeInt(data.length);
+        buf.write(data);
+        buf.writeInt(CRC32.update(CRC32.INITIAL_VALUE, data));
+        
+        fileConnection.create();
+        OutputStream output = fileConnection.openOutputStream();
+        output.write(buf.toArray());
+        output.close();
+        
+        MessageContentFileReader reader = new MessageContentFileReader(fileConnection, "12340000");
+        reader.open();
+        assertTrue(reader.hasContent(textPart));
+        assertEquals(textContent.getText(), ((TextContent)reader.getContent(textPart)).getText());
+        reader.close();
+        
+        // Appending content should add an index block
+        MessageContentFileWriter writer = new MessageContentFileWriter(fileConnection, "12340000");
+        writer.open();
+        writer.appendContent(appContent);
+        writer.close();
+        
+        reader.open();
+        assertTrue(reader.hasContent(textPart));
+        assertTrue(reader.hasContent(appPart));
+        MimeMessageContent[] readContent = reader.getContent(new MimeMessagePart[] { textPart, appPart });
+        assertEquals(textContent.getText(), ((TextContent)readContent[0]).getText());
+        assertTrue(Arrays.equals(appContent.getRawData(), readContent[1].getRawData()));
+        reader.close();
+    }
+    
+    public void testBlobContent() throws Throwable {
+        TextPart textPart = new TextPart("plain", "", "", "", "", "", -1, "1");
+        TextContent textContent = new TextContent(textPart, "Hello World");
+        ApplicationPart appPart = new ApplicationPart("octet-stream", "", "", "", "", -1, "2");
+        byte[] appData = new byte[MessageContentBlobStore.MIN_BLOB_SIZE];
+        for(int i=0; i<appData.length; i++) {
+            appData[i] = (byte)i;
+        }
+        ApplicationContent appContent = new ApplicationContent(appPart, appData);
+        
+        FileConnection blobConnection = (FileConnection)Connector.open(BLOB_DIR_URL);
+        if(!blobConnection.exists()) {
+            blobConnection.mkdir();
+        }
+        blobConnection.close();
+        
+        MessageContentCacheUsage usage = new MessageContentCacheUsage();
+        MessageContentBlobStore blobStore = new MessageContentBlobStore(BLOB_DIR_URL, usage);
+        try {
+            MessageContentFileWriter writer = new MessageContentFileWriter(fileConnection, "12340000");
+            writer.setBlobStore(blobStore);
+            writer.open();
+            writer.appendContent(new MimeMessageContent[] { textContent, appContent });
+            writer.close();
+            assertEquals(1, usage.size());
+            assertEquals(appData.length, usage.getTotalSize());
+            assertTrue(fileConnection.fileSize() < appData.length);
+            
+            // Storing the same payload again should not add another blob
+            writer.open();
+            writer.appendContent(appContent);
+            writer.close();
+            assertEquals(1, usage.size());
+            assertEquals(1, blobStore.getDuplicateCount());
+            
+            MessageContentFileReader reader = new MessageContentFileReader(fileConnection, "12340000");
+            reader.setBlobStore(blobStore);
+            reader.open();
+            MimeMessageContent[] readContent = reader.getContent(new MimeMessagePart[] { textPart, appPart });
+            assertEquals(textContent.getText(), ((TextContent)readContent[0]).getText());
+            assertNotNull(readContent[1]);
+            assertTrue(Arrays.equals(appData, readContent[1].getRawData()));
+            reader.close();
+            
+            // Without the blob store, the content should be unavailable
+            reader = new MessageContentFileReader(fileConnection, "12340000");
+            reader.open();
+            assertTrue(reader.hasContent(appPart));
+            assertNull(reader.getContent(appPart));
+            assertNotNull(reader.getContent(textPart));
+            reader.close();
+        } finally {
+            blobConnection = (FileConnection)Connector.open(BLOB_DIR_URL);
+            Enumeration e = blobConnection.list();
+            while(e.hasMoreElements()) {
+                FileConnection blobFile = (FileConnection)Connector.open(BLOB_DIR_URL + e.nextElement());
+                blobFile.delete();
+                blobFile.close();
+            }
+            blobConnection.delete();
+            blobConnection.close();
+        }
+    }
+    
     public Test suite() {
         TestSuite suite = new TestSuite("MessageContentFileTest");
         suite.addTest(new MessageContentFileTest("openNewFile", new TestMethod()
@@ -235,6 +387,12 @@ public class MessageContentFileTest extends TestCase {
         { public void run(TestCase tc) throws Throwable {((MessageContentFileTest)tc).testAddMultipleContentToNewFile(); } }));
         suite.addTest(new MessageContentFileTest("addContentToExistingFile", new TestMethod()
         { public void run(TestCase tc) throws Throwable {((MessageContentFileTest)tc).testAddContentToExistingFile(); } }));
+        suite.addTest(new MessageContentFileTest("getMultipleContent", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((MessageContentFileTest)tc).testGetMultipleContent(); } }));
+        suite.addTest(new MessageContentFileTest("openFileWithoutIndex", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((MessageContentFileTest)tc).testOpenFileWithoutIndex(); } }));
+        suite.addTest(new MessageContentFileTest("blobContent", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((MessageContentFileTest)tc).testBlobContent(); } }));
         
         return suite;
     }
@@ -49,6 +49,7 @@ public class ModelTests extends TestCase {
         testSuite.addTest(new MailboxNodeTest().suite());
         testSuite.addTest(new MessageNodeTest().suite());
         testSuite.addTest(new MessageContentFileTest().suite());
+        testSuite.addTest(new MessageContentCacheUsageTest().suite());
         testSuite.addTest(new MailFileComparatorTest().suite());
         testSuite.addTest(new FolderMessageCacheTest().suite());
         return testSuite;
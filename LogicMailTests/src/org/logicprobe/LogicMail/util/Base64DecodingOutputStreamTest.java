@@ -0,0 +1,104 @@
+/*-
+ * Copyright (c) 2011, Derek Konigsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution. 
+ * 3. Neither the name of the project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.logicprobe.LogicMail.util;
+
+import java.io.ByteArrayOutputStream;
+
+import j2meunit.framework.Test;
+import j2meunit.framework.TestCase;
+import j2meunit.framework.TestMethod;
+import j2meunit.framework.TestSuite;
+
+public class Base64DecodingOutputStreamTest extends TestCase {
+    
+    public Base64DecodingOutputStreamTest() {
+    }
+    
+    public Base64DecodingOutputStreamTest(String testName, TestMethod testMethod) {
+        super(testName, testMethod);
+    }
+
+    private static String decode(String input) throws Throwable {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Base64DecodingOutputStream instance = new Base64DecodingOutputStream(output);
+        instance.write(input.getBytes());
+        instance.close();
+        return new String(output.toByteArray());
+    }
+    
+    public void testDecode() throws Throwable {
+        assertEquals("", decode(""));
+        assertEquals("f", decode("Zg=="));
+        assertEquals("fo", decode("Zm8="));
+        assertEquals("foo", decode("Zm9v"));
+        assertEquals("foob", decode("Zm9vYg=="));
+        assertEquals("fooba", decode("Zm9vYmE="));
+        assertEquals("foobar", decode("Zm9vYmFy"));
+    }
+    
+    public void testDecodeUnpadded() throws Throwable {
+        assertEquals("f", decode("Zg"));
+        assertEquals("fo", decode("Zm8"));
+        assertEquals("foob", decode("Zm9vYg"));
+    }
+    
+    public void testDecodeLineBreaks() throws Throwable {
+        assertEquals("foobar", decode("Zm9v\r\nYmFy\r\n"));
+        assertEquals("foobar", decode("Zm\r\n9vY\r\nmFy"));
+        assertEquals("fo", decode("Zm8=\r\n"));
+    }
+    
+    public void testDecodeSplitWrites() throws Throwable {
+        byte[] input = "SGVsbG8g\r\nV29ybGQh".getBytes();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Base64DecodingOutputStream instance = new Base64DecodingOutputStream(output);
+        for(int i=0; i<input.length; i++) {
+            instance.write(input, i, 1);
+        }
+        instance.close();
+        assertEquals("Hello World!", new String(output.toByteArray()));
+    }
+    
+    public Test suite() {
+        TestSuite suite = new TestSuite("Base64DecodingOutputStream");
+        
+        suite.addTest(new Base64DecodingOutputStreamTest("decode", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((Base64DecodingOutputStreamTest)tc).testDecode(); } }));
+        suite.addTest(new Base64DecodingOutputStreamTest("decodeUnpadded", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((Base64DecodingOutputStreamTest)tc).testDecodeUnpadded(); } }));
+        suite.addTest(new Base64DecodingOutputStreamTest("decodeLineBreaks", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((Base64DecodingOutputStreamTest)tc).testDecodeLineBreaks(); } }));
+        suite.addTest(new Base64DecodingOutputStreamTest("decodeSplitWrites", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((Base64DecodingOutputStreamTest)tc).testDecodeSplitWrites(); } }));
+        
+        return suite;
+    }
+}
@@ -32,6 +32,8 @@ package org.logicprobe.LogicMail.util;
 
 import net.rim.device.api.util.Arrays;
 
+import org.logicprobe.LogicMail.mail.imap.ImapResponseLineTester;
+
 import j2meunit.framework.Test;
 import j2meunit.framework.TestCase;
 import j2meunit.framework.TestMethod;
@@ -196,6 +198,43 @@ public class ConnectionTest extends TestCase {
         connection.close();
     }
     
+    public void testReceiveLargeFetchTranscript() throws Throwable {
+        // Replays a pipelined FETCH of 10k messages, each with a literal,
+        // to make sure every response is reassembled intact and the byte
+        // count matches the transcript.
+        final int count = 10000;
+        StringBuffer buf = new StringBuffer();
+        for(int i=1; i<=count; i++) {
+            String literal = "Subject: Message " + i + "\r\n\r\n";
+            buf.append("* ");
+            buf.append(i);
+            buf.append(" FETCH (UID ");
+            buf.append(i + 1000);
+            buf.append(" FLAGS (\\Seen) BODY[HEADER] {");
+            buf.append(literal.length());
+            buf.append("}\r\n");
+            buf.append(literal);
+            buf.append(")\r\n");
+        }
+        buf.append("A001 OK FETCH completed\r\n");
+        byte[] transcript = buf.toString().getBytes();
+        
+        Connection connection = new Connection(new StubSocketConnection(transcript), 0);
+        ImapResponseLineTester responseTester = new ImapResponseLineTester();
+        
+        for(int i=1; i<=count; i++) {
+            byte[] actual = connection.receive(responseTester);
+            assertNotNull("Response " + i, actual);
+            assertTrue("Response " + i, StringArrays.startsWith(actual, ("* " + i + " FETCH").getBytes()));
+            assertEquals("Response " + i, ')', (char)actual[actual.length - 1]);
+        }
+        byte[] expected = "A001 OK FETCH completed".getBytes();
+        byte[] actual = connection.receive(responseTester);
+        assertTrue("Tagged response", Arrays.equals(expected, actual));
+        assertEquals("Bytes received", transcript.length, connection.getBytesReceived());
+        connection.close();
+    }
+    
     public Test suite() {
         TestSuite suite = new TestSuite("Connection");
         
@@ -211,6 +250,8 @@ public class ConnectionTest extends TestCase {
         { public void run(TestCase tc) throws Throwable {((ConnectionTest)tc).testReceiveLine(); } }));
         suite.addTest(new ConnectionTest("receiveCustomDelimiter", new TestMethod()
         { public void run(TestCase tc) throws Throwable {((ConnectionTest)tc).testReceiveCustomDelimiter(); } }));
+        suite.addTest(new ConnectionTest("receiveLargeFetchTranscript", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((ConnectionTest)tc).testReceiveLargeFetchTranscript(); } }));
         
         return suite;
     }
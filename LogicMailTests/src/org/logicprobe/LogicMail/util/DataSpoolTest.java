@@ -0,0 +1,122 @@
+/*-
+ * Copyright (c) 2011, Derek Konigsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution. 
+ * 3. Neither the name of the project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.logicprobe.LogicMail.util;
+
+import java.io.InputStream;
+
+import j2meunit.framework.Test;
+import j2meunit.framework.TestCase;
+import j2meunit.framework.TestMethod;
+import j2meunit.framework.TestSuite;
+
+public class DataSpoolTest extends TestCase {
+    public DataSpoolTest() {
+    }
+    
+    public DataSpoolTest(String testName, TestMethod testMethod) {
+        super(testName, testMethod);
+    }
+    
+    public void testEmpty() throws Throwable {
+        DataSpool instance = new DataSpool();
+        assertEquals(0, instance.size());
+        assertEquals(0, instance.toByteArray().length);
+        assertEquals(-1, instance.getInputStream().read());
+    }
+    
+    public void testWriteAcrossChunks() throws Throwable {
+        DataSpool instance = new DataSpool(4);
+        instance.write("Hello".getBytes());
+        instance.write(' ');
+        instance.write("World!".getBytes(), 0, 5);
+        
+        assertEquals(11, instance.size());
+        assertEquals("Hello World", instance.toString());
+    }
+    
+    public void testReadRepeatedly() throws Throwable {
+        DataSpool instance = new DataSpool(3);
+        instance.write("abcdefgh".getBytes());
+        
+        for(int pass=0; pass<2; pass++) {
+            InputStream input = instance.getInputStream();
+            assertEquals(8, input.available());
+            assertEquals('a', input.read());
+            
+            byte[] buf = new byte[10];
+            int len = input.read(buf, 1, 5);
+            assertEquals(5, len);
+            assertEquals("bcdef", new String(buf, 1, len));
+            
+            len = input.read(buf, 0, 10);
+            assertEquals(2, len);
+            assertEquals("gh", new String(buf, 0, len));
+            assertEquals(-1, input.read(buf, 0, 10));
+            input.close();
+        }
+    }
+    
+    public void testStringConstructor() throws Throwable {
+        DataSpool instance = new DataSpool("Subject: Test\r\n\r\n");
+        instance.write("Body".getBytes());
+        assertEquals("Subject: Test\r\n\r\nBody", instance.toString());
+    }
+    
+    public void testInputStreamSnapshot() throws Throwable {
+        DataSpool instance = new DataSpool(4);
+        instance.write("abc".getBytes());
+        InputStream input = instance.getInputStream();
+        instance.write("def".getBytes());
+        
+        byte[] buf = new byte[10];
+        assertEquals(3, input.read(buf, 0, 10));
+        assertEquals(-1, input.read());
+        assertEquals(6, (int)instance.getInputStream().skip(100));
+    }
+    
+    public Test suite() {
+        TestSuite suite = new TestSuite("DataSpool");
+        
+        suite.addTest(new DataSpoolTest("empty", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((DataSpoolTest)tc).testEmpty(); } }));
+        suite.addTest(new DataSpoolTest("writeAcrossChunks", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((DataSpoolTest)tc).testWriteAcrossChunks(); } }));
+        suite.addTest(new DataSpoolTest("readRepeatedly", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((DataSpoolTest)tc).testReadRepeatedly(); } }));
+        suite.addTest(new DataSpoolTest("stringConstructor", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((DataSpoolTest)tc).testStringConstructor(); } }));
+        suite.addTest(new DataSpoolTest("inputStreamSnapshot", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((DataSpoolTest)tc).testInputStreamSnapshot(); } }));
+        
+        return suite;
+    }
+}
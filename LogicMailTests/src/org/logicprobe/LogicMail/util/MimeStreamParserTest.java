@@ -0,0 +1,203 @@
+/*-
+ * Copyright (c) 2011, Derek Konigsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution. 
+ * 3. Neither the name of the project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.logicprobe.LogicMail.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.Hashtable;
+
+import j2meunit.framework.Test;
+import j2meunit.framework.TestCase;
+import j2meunit.framework.TestMethod;
+import j2meunit.framework.TestSuite;
+
+public class MimeStreamParserTest extends TestCase {
+    private static final String MULTIPART_MESSAGE =
+        "From: sender@example.com\r\n" +
+        "Content-Type: multipart/mixed;\r\n" +
+        "\tboundary=\"outer\"\r\n" +
+        "\r\n" +
+        "This is the preamble\r\n" +
+        "--outer\r\n" +
+        "Content-Type: text/plain; charset=us-ascii\r\n" +
+        "Content-Transfer-Encoding: quoted-printable\r\n" +
+        "\r\n" +
+        "Hello=20W=\r\n" +
+        "orld\r\n" +
+        "Second line\r\n" +
+        "--outer\r\n" +
+        "Content-Type: multipart/alternative; boundary=inner\r\n" +
+        "\r\n" +
+        "--inner\r\n" +
+        "Content-Type: image/png; name=\"test.png\"\r\n" +
+        "Content-Transfer-Encoding: base64\r\n" +
+        "\r\n" +
+        "SGVsbG8g\r\n" +
+        "V29ybGQh\r\n" +
+        "--inner--\r\n" +
+        "--outer--\r\n" +
+        "This is the epilogue\r\n";
+    
+    public MimeStreamParserTest() {
+    }
+    
+    public MimeStreamParserTest(String testName, TestMethod testMethod) {
+        super(testName, testMethod);
+    }
+    
+    /**
+     * Listener that records all parser events into a string.
+     */
+    private static class RecordingListener implements MimeStreamListener {
+        private final StringBuffer buf = new StringBuffer();
+        private ByteArrayOutputStream partData;
+        
+        public void multipartStarted(String mimeSubtype, Hashtable headers) {
+            buf.append("multipart/").append(mimeSubtype).append('{');
+        }
+        public void multipartEnded(int partComplete) {
+            buf.append('}').append(partComplete).append(';');
+        }
+        public OutputStream partStarted(String mimeType, String mimeSubtype, Hashtable headers) {
+            buf.append(mimeType).append('/').append(mimeSubtype).append('[');
+            partData = new ByteArrayOutputStream();
+            return partData;
+        }
+        public void partEnded(int encodedSize, int partComplete) {
+            buf.append(new String(partData.toByteArray()));
+            buf.append(']').append(partComplete).append(';');
+        }
+        public String toString() {
+            return buf.toString();
+        }
+    }
+    
+    public void testSinglePart() throws Throwable {
+        RecordingListener listener = new RecordingListener();
+        MimeStreamParser instance = new MimeStreamParser(listener);
+        int result = instance.parse(new ByteArrayInputStream(
+                "Subject: Test\nContent-Type: text/html\n\nHello\nWorld\n".getBytes()));
+        
+        assertEquals(MimeStreamParser.PART_UNKNOWN, result);
+        assertEquals("text/html[Hello\r\nWorld]-1;", listener.toString());
+    }
+    
+    public void testDefaultContentType() throws Throwable {
+        RecordingListener listener = new RecordingListener();
+        MimeStreamParser instance = new MimeStreamParser(listener);
+        instance.parse(new ByteArrayInputStream("Subject: Test\r\n\r\nHello\r\n".getBytes()));
+        
+        assertEquals("text/plain[Hello]-1;", listener.toString());
+    }
+    
+    public void testMultiPart() throws Throwable {
+        RecordingListener listener = new RecordingListener();
+        MimeStreamParser instance = new MimeStreamParser(listener);
+        int result = instance.parse(new ByteArrayInputStream(MULTIPART_MESSAGE.getBytes()));
+        
+        assertEquals(MimeStreamParser.PART_COMPLETE, result);
+        assertEquals(
+                "multipart/mixed{" +
+                "text/plain[Hello World\r\nSecond line]1;" +
+                "multipart/alternative{image/png[Hello World!]1;}1;" +
+                "}1;",
+                listener.toString());
+    }
+    
+    public void testTruncatedMultiPart() throws Throwable {
+        RecordingListener listener = new RecordingListener();
+        MimeStreamParser instance = new MimeStreamParser(listener);
+        
+        String truncated = MULTIPART_MESSAGE.substring(0, MULTIPART_MESSAGE.indexOf("V29y"));
+        int p = 0;
+        int q;
+        while((q = truncated.indexOf("\r\n", p)) != -1) {
+            instance.parseLine(truncated.substring(p, q).getBytes());
+            p = q + 2;
+        }
+        int result = instance.finish();
+        
+        assertEquals(MimeStreamParser.PART_INCOMPLETE, result);
+        assertEquals(
+                "multipart/mixed{" +
+                "text/plain[Hello World\r\nSecond line]1;" +
+                "multipart/alternative{image/png[Hello ]0;}0;" +
+                "}0;",
+                listener.toString());
+    }
+    
+    public void testGetHeaderParameter() {
+        String header = "text/plain; charset=\"UTF-8\"; format=flowed;name=\"a \\\"b\\\";c\"";
+        assertEquals("text/plain", MimeStreamParser.getHeaderValue(header));
+        assertEquals("UTF-8", MimeStreamParser.getHeaderParameter(header, "charset"));
+        assertEquals("flowed", MimeStreamParser.getHeaderParameter(header, "FORMAT"));
+        assertEquals("a \"b\";c", MimeStreamParser.getHeaderParameter(header, "name"));
+        assertNull(MimeStreamParser.getHeaderParameter(header, "boundary"));
+        assertNull(MimeStreamParser.getHeaderParameter("text/plain", "charset"));
+        assertEquals("x", MimeStreamParser.getHeaderParameter("multipart/mixed; boundary=x;", "boundary"));
+    }
+    
+    public void testQuotedPrintableSplitWrites() throws Throwable {
+        byte[] input = "caf=C3=A9 =\r\nna=3Dve=\nend".getBytes();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        QuotedPrintableDecodingOutputStream instance = new QuotedPrintableDecodingOutputStream(output);
+        for(int i=0; i<input.length; i++) {
+            instance.write(input, i, 1);
+        }
+        instance.close();
+        
+        byte[] expected = "caf__ na=veend".getBytes();
+        expected[3] = (byte)0xC3;
+        expected[4] = (byte)0xA9;
+        assertEquals(new String(expected), new String(output.toByteArray()));
+    }
+    
+    public Test suite() {
+        TestSuite suite = new TestSuite("MimeStreamParser");
+        
+        suite.addTest(new MimeStreamParserTest("singlePart", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((MimeStreamParserTest)tc).testSinglePart(); } }));
+        suite.addTest(new MimeStreamParserTest("defaultContentType", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((MimeStreamParserTest)tc).testDefaultContentType(); } }));
+        suite.addTest(new MimeStreamParserTest("multiPart", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((MimeStreamParserTest)tc).testMultiPart(); } }));
+        suite.addTest(new MimeStreamParserTest("truncatedMultiPart", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((MimeStreamParserTest)tc).testTruncatedMultiPart(); } }));
+        suite.addTest(new MimeStreamParserTest("getHeaderParameter", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((MimeStreamParserTest)tc).testGetHeaderParameter(); } }));
+        suite.addTest(new MimeStreamParserTest("quotedPrintableSplitWrites", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((MimeStreamParserTest)tc).testQuotedPrintableSplitWrites(); } }));
+        
+        return suite;
+    }
+}
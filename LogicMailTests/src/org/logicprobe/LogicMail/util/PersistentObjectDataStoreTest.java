@@ -147,6 +147,93 @@ public class PersistentObjectDataStoreTest extends TestCase {
         assertEquals(41, testObject2.getValue());
     }
     
+    public void testSaveUnchanged() {
+        PersistentObjectDataStore instance = new PersistentObjectDataStore(storeUid);
+        SerializableTestClass testObject = new SerializableTestClass();
+        testObject.setValue(40);
+        instance.putNamedObject("Test", testObject);
+        instance.save();
+        
+        Object contents = PersistentStore.getPersistentObject(storeUid).getContents();
+        assertNotNull(contents);
+        
+        // Putting back an unmodified object should not replace the contents
+        instance.putNamedObject("Test", testObject);
+        instance.save();
+        assertSame(contents, PersistentStore.getPersistentObject(storeUid).getContents());
+        
+        instance.flush();
+        assertSame(contents, PersistentStore.getPersistentObject(storeUid).getContents());
+    }
+    
+    public void testSaveChanged() {
+        PersistentObjectDataStore instance = new PersistentObjectDataStore(storeUid);
+        SerializableTestClass testObject1 = new SerializableTestClass();
+        SerializableTestClass testObject2 = new SerializableTestClass();
+        testObject1.setValue(40);
+        testObject2.setValue(41);
+        long testId1 = testObject1.getUniqueId();
+        long testId2 = testObject2.getUniqueId();
+        instance.putObject(testObject1);
+        instance.putObject(testObject2);
+        instance.save();
+        
+        Object contents = PersistentStore.getPersistentObject(storeUid).getContents();
+        
+        testObject1.setValue(42);
+        instance.putObject(testObject1);
+        instance.save();
+        assertTrue(contents != PersistentStore.getPersistentObject(storeUid).getContents());
+        instance.flush();
+        
+        instance = new PersistentObjectDataStore(storeUid);
+        instance.load();
+        assertEquals(42, ((SerializableTestClass)instance.getObject(testId1)).getValue());
+        assertEquals(41, ((SerializableTestClass)instance.getObject(testId2)).getValue());
+    }
+    
+    public void testSaveRemoved() {
+        PersistentObjectDataStore instance = new PersistentObjectDataStore(storeUid);
+        SerializableTestClass testObject1 = new SerializableTestClass();
+        SerializableTestClass testObject2 = new SerializableTestClass();
+        long testId1 = testObject1.getUniqueId();
+        long testId2 = testObject2.getUniqueId();
+        instance.putNamedObject("Test 1", testObject1);
+        instance.putObject(testObject2);
+        instance.save();
+        
+        instance.removeNamedObject("Test 1");
+        instance.save();
+        instance.flush();
+        
+        instance = new PersistentObjectDataStore(storeUid);
+        instance.load();
+        assertNull(instance.getNamedObject("Test 1"));
+        assertNull(instance.getObject(testId1));
+        assertNotNull(instance.getObject(testId2));
+    }
+    
+    public void testDelayedCommitTimer() {
+        TimerWheel timerWheel = TimerWheel.getInstance();
+        int timerCount = timerWheel.getTimerCount();
+        
+        PersistentObjectDataStore instance = new PersistentObjectDataStore(storeUid);
+        SerializableTestClass testObject = new SerializableTestClass();
+        testObject.setValue(40);
+        instance.putObject(testObject);
+        instance.save();
+        assertEquals("Scheduled", timerCount + 1, timerWheel.getTimerCount());
+        
+        // Saves in quick succession share the same pending commit
+        testObject.setValue(41);
+        instance.putObject(testObject);
+        instance.save();
+        assertEquals("Coalesced", timerCount + 1, timerWheel.getTimerCount());
+        
+        instance.flush();
+        assertEquals("Flushed", timerCount, timerWheel.getTimerCount());
+    }
+    
     public Test suite() {
         TestSuite suite = new TestSuite("PersistentObjectDataStore");
 
@@ -156,6 +243,14 @@ public class PersistentObjectDataStoreTest extends TestCase {
         { public void run(TestCase tc) {((PersistentObjectDataStoreTest)tc).testNamedObject(); } }));
         suite.addTest(new PersistentObjectDataStoreTest("Save Load", new TestMethod()
         { public void run(TestCase tc) {((PersistentObjectDataStoreTest)tc).testSaveLoad(); } }));
+        suite.addTest(new PersistentObjectDataStoreTest("Save unchanged", new TestMethod()
+        { public void run(TestCase tc) {((PersistentObjectDataStoreTest)tc).testSaveUnchanged(); } }));
+        suite.addTest(new PersistentObjectDataStoreTest("Save changed", new TestMethod()
+        { public void run(TestCase tc) {((PersistentObjectDataStoreTest)tc).testSaveChanged(); } }));
+        suite.addTest(new PersistentObjectDataStoreTest("Save removed", new TestMethod()
+        { public void run(TestCase tc) {((PersistentObjectDataStoreTest)tc).testSaveRemoved(); } }));
+        suite.addTest(new PersistentObjectDataStoreTest("Delayed commit timer", new TestMethod()
+        { public void run(TestCase tc) {((PersistentObjectDataStoreTest)tc).testDelayedCommitTimer(); } }));
 
         return suite;
     }
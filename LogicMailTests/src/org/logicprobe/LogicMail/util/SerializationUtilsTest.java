@@ -0,0 +1,189 @@
+/*-
+ * Copyright (c) 2011, Derek Konigsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution. 
+ * 3. Neither the name of the project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.logicprobe.LogicMail.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+import j2meunit.framework.Test;
+import j2meunit.framework.TestCase;
+import j2meunit.framework.TestMethod;
+import j2meunit.framework.TestSuite;
+
+import net.rim.device.api.system.PersistentStore;
+
+import org.logicprobe.LogicMail.conf.ImapConfig;
+import org.logicprobe.LogicMail.mail.FolderTreeItem;
+
+/**
+ * Unit test for SerializationUtils
+ */
+public class SerializationUtilsTest extends TestCase {
+    // "org.logicprobe.LogicMail.util.SerializationUtilsTest"
+    private static final long storeUid = 0x5a1e7b3c9d04f261L;
+    
+    public SerializationUtilsTest() {
+    }
+    
+    public SerializationUtilsTest(String testName, TestMethod testMethod) {
+        super(testName, testMethod);
+    }
+    
+    public void tearDown() {
+        PersistentStore.destroyPersistentObject(storeUid);
+    }
+    
+    public void testRegisteredClass() throws Throwable {
+        FolderTreeItem folder = new FolderTreeItem("INBOX", "INBOX", ".");
+        byte[] data = SerializationUtils.serializeClass(folder);
+        
+        assertEquals("Format marker", (byte)0xFF, data[0]);
+        assertEquals("Format version", 1, data[1]);
+        assertTrue("No class name", data.length < legacySerialize(folder).length);
+        
+        Serializable result = SerializationUtils.deserializeClass(data);
+        assertTrue(result instanceof FolderTreeItem);
+        FolderTreeItem resultFolder = (FolderTreeItem)result;
+        assertEquals(folder.getUniqueId(), resultFolder.getUniqueId());
+        assertEquals("INBOX", resultFolder.getPath());
+        assertEquals(".", resultFolder.getDelim());
+    }
+    
+    public void testUnregisteredClass() throws Throwable {
+        SerializableTestClass testObject = new SerializableTestClass();
+        testObject.setValue(42);
+        
+        Serializable result = SerializationUtils.deserializeClass(
+                SerializationUtils.serializeClass(testObject));
+        assertTrue(result instanceof SerializableTestClass);
+        assertEquals(testObject.getUniqueId(), result.getUniqueId());
+        assertEquals(42, ((SerializableTestClass)result).getValue());
+    }
+    
+    public void testLegacyFormat() throws Throwable {
+        SerializableTestClass testObject = new SerializableTestClass();
+        testObject.setValue(43);
+        Serializable result = SerializationUtils.deserializeClass(legacySerialize(testObject));
+        assertTrue(result instanceof SerializableTestClass);
+        assertEquals(testObject.getUniqueId(), result.getUniqueId());
+        assertEquals(43, ((SerializableTestClass)result).getValue());
+        
+        ImapConfig config = new ImapConfig();
+        config.setAcctName("Legacy");
+        result = SerializationUtils.deserializeClass(legacySerialize(config));
+        assertTrue(result instanceof ImapConfig);
+        assertEquals(config.getUniqueId(), result.getUniqueId());
+        assertEquals("Legacy", ((ImapConfig)result).getAcctName());
+    }
+    
+    public void testStream() throws Throwable {
+        ImapConfig config = new ImapConfig();
+        config.setAcctName("Stream");
+        FolderTreeItem folder = new FolderTreeItem("Sent", "Sent", "/");
+        
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(buffer);
+        SerializationUtils.serializeClass(config, output);
+        SerializationUtils.serializeClass(folder, output);
+        
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(buffer.toByteArray()));
+        Serializable result1 = SerializationUtils.deserializeClass(input);
+        Serializable result2 = SerializationUtils.deserializeClass(input);
+        assertTrue(result1 instanceof ImapConfig);
+        assertEquals("Stream", ((ImapConfig)result1).getAcctName());
+        assertTrue(result2 instanceof FolderTreeItem);
+        assertEquals("Sent", ((FolderTreeItem)result2).getPath());
+        assertEquals(-1, input.read());
+    }
+    
+    public void testSaveLoadManyObjects() throws Throwable {
+        final int accountCount = 50;
+        final int folderCount = 20;
+        
+        PersistentObjectDataStore instance = new PersistentObjectDataStore(storeUid);
+        long[] configIds = new long[accountCount];
+        for(int i=0; i<accountCount; i++) {
+            ImapConfig config = new ImapConfig();
+            config.setAcctName("Account " + i);
+            config.setServerName("imap" + i + ".example.com");
+            config.setFolderPrefix("INBOX");
+            configIds[i] = config.getUniqueId();
+            instance.putObject(config);
+            
+            for(int j=0; j<folderCount; j++) {
+                String path = "INBOX.Folder" + j;
+                instance.putObject(new FolderTreeItem("Folder" + j, path, "."));
+            }
+        }
+        
+        instance.save();
+        
+        instance = new PersistentObjectDataStore(storeUid);
+        instance.load();
+        
+        for(int i=0; i<accountCount; i++) {
+            Serializable result = instance.getObject(configIds[i]);
+            assertTrue("Account " + i, result instanceof ImapConfig);
+            assertEquals("Account " + i, ((ImapConfig)result).getAcctName());
+        }
+    }
+    
+    /**
+     * Serializes an object the way it was done before type IDs were added.
+     */
+    private static byte[] legacySerialize(Serializable input) throws Throwable {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(buffer);
+        output.writeUTF(input.getClass().getName());
+        input.serialize(output);
+        return buffer.toByteArray();
+    }
+    
+    public Test suite() {
+        TestSuite suite = new TestSuite("SerializationUtils");
+        
+        suite.addTest(new SerializationUtilsTest("registeredClass", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((SerializationUtilsTest)tc).testRegisteredClass(); } }));
+        suite.addTest(new SerializationUtilsTest("unregisteredClass", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((SerializationUtilsTest)tc).testUnregisteredClass(); } }));
+        suite.addTest(new SerializationUtilsTest("legacyFormat", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((SerializationUtilsTest)tc).testLegacyFormat(); } }));
+        suite.addTest(new SerializationUtilsTest("stream", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((SerializationUtilsTest)tc).testStream(); } }));
+        suite.addTest(new SerializationUtilsTest("saveLoadManyObjects", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((SerializationUtilsTest)tc).testSaveLoadManyObjects(); } }));
+        
+        return suite;
+    }
+}
@@ -0,0 +1,72 @@
+/*-
+ * Copyright (c) 2011, Derek Konigsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution. 
+ * 3. Neither the name of the project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.logicprobe.LogicMail.util;
+
+/**
+ * Benchmark of {@link StringParser#parseDateString(String)} over a large
+ * set of typical dates.
+ * <p>
+ * This is intentionally not part of any test suite, since it only reports
+ * timings and takes too long to run on every test pass.  The dates come
+ * from the same generator that {@link StringParserTest} uses to check
+ * parsing correctness.
+ * </p>
+ */
+public class StringParserBenchmark {
+    private StringParserBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        System.out.println(run(100000));
+    }
+
+    /**
+     * Parses the requested number of generated dates.
+     *
+     * @param count the number of dates to parse
+     * @return a summary of the time taken
+     */
+    public static String run(int count) {
+        String[] rawDates = StringParserTest.createRawDates(count);
+
+        int failures = 0;
+        long startTime = System.currentTimeMillis();
+        for(int i=0; i<count; i++) {
+            if(StringParser.parseDateString(rawDates[i]) == null) {
+                failures++;
+            }
+        }
+        long parseTime = System.currentTimeMillis() - startTime;
+
+        return "Parsed " + count + " dates in " + parseTime + "ms"
+                + (failures > 0 ? (", " + failures + " failed") : "");
+    }
+}
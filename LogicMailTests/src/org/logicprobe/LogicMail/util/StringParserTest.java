@@ -38,6 +38,7 @@ import j2meunit.framework.TestSuite;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.Hashtable;
+import java.util.Random;
 import java.util.TimeZone;
 
 import net.rim.device.api.util.Arrays;
@@ -140,6 +141,92 @@ public class StringParserTest extends TestCase {
         assertEquals("Test 6", 45, cal.get(Calendar.SECOND));
     }
 
+    /**
+     * Test of parseDateString method with obsolete and malformed dates.
+     */
+    public void testParseDateStringLenient() {
+        Date result;
+        Calendar cal;
+
+        result = StringParser.parseDateString("Wed Oct 24 18:01:02 2007");
+        assertNotNull("asctime", result);
+        cal = Calendar.getInstance();
+        cal.setTime(result);
+        cal.setTimeZone(TimeZone.getDefault());
+        assertEquals("asctime", 2007, cal.get(Calendar.YEAR));
+        assertEquals("asctime", 9, cal.get(Calendar.MONTH));
+        assertEquals("asctime", 24, cal.get(Calendar.DAY_OF_MONTH));
+        assertEquals("asctime", 18, cal.get(Calendar.HOUR_OF_DAY));
+        assertEquals("asctime", 1, cal.get(Calendar.MINUTE));
+        assertEquals("asctime", 2, cal.get(Calendar.SECOND));
+
+        result = StringParser.parseDateString("mon,1 jan 99 23:59 (Comment (nested)) +05:30");
+        assertNotNull("obsolete", result);
+        cal = Calendar.getInstance();
+        cal.setTime(result);
+        cal.setTimeZone(TimeZone.getTimeZone("GMT+05:30"));
+        assertEquals("obsolete", 1999, cal.get(Calendar.YEAR));
+        assertEquals("obsolete", 0, cal.get(Calendar.MONTH));
+        assertEquals("obsolete", 1, cal.get(Calendar.DAY_OF_MONTH));
+        assertEquals("obsolete", 23, cal.get(Calendar.HOUR_OF_DAY));
+        assertEquals("obsolete", 59, cal.get(Calendar.MINUTE));
+        assertEquals("obsolete", 0, cal.get(Calendar.SECOND));
+
+        assertEquals("Same instant",
+                StringParser.parseDateString("Sat, 10 Feb 2007 21:27:01 -0800").getTime(),
+                StringParser.parseDateString("Sun, 11 Feb 2007 05:27:01 GMT").getTime());
+
+        assertNull("Null", StringParser.parseDateString(null));
+        assertNull("Empty", StringParser.parseDateString(""));
+        assertNull("Garbage", StringParser.parseDateString("garbage"));
+        assertNull("No month", StringParser.parseDateString("Sat, 10 Foo 2007 21:27:01 -0800"));
+        assertNull("No time", StringParser.parseDateString("Sat, 10 Feb 2007"));
+        assertNull("Bad time", StringParser.parseDateString("Sat, 10 Feb 2007 99:27:01 -0800"));
+        assertNull("Truncated", StringParser.parseDateString("Sat, 10 Feb 2007 21:"));
+        assertNull("Comment", StringParser.parseDateString("((("));
+    }
+
+    /**
+     * Test of parseDateString over a sample of typical date formats.
+     */
+    public void testParseDateStringVariants() {
+        String[] rawDates = createRawDates(500);
+        for(int i=0; i<rawDates.length; i++) {
+            assertNotNull(rawDates[i], StringParser.parseDateString(rawDates[i]));
+        }
+    }
+
+    /**
+     * Generates a repeatable set of dates in the typical formats found in
+     * message headers.
+     *
+     * @param count the number of dates to generate
+     * @return the raw date strings
+     */
+    static String[] createRawDates(int count) {
+        final String[] days = { "Mon, ", "Tue, ", "Wed, ", "Thu, ", "Fri, ", "Sat, ", "Sun, ", "" };
+        final String[] months = { "Jan", "Feb", "Mar", "Apr", "May", "Jun",
+                "Jul", "Aug", "Sep", "Oct", "Nov", "Dec" };
+        final String[] zones = { " -0800", " +0000", " +0100 (CET)", " -0500 (EST)",
+                " GMT", " EST", " +0530", " -0700 (PDT)", " America/Los_Angeles", "" };
+
+        Random random = new Random(1);
+        String[] rawDates = new String[count];
+        for(int i=0; i<count; i++) {
+            StringBuffer buf = new StringBuffer();
+            buf.append(days[random.nextInt(days.length)]);
+            buf.append(1 + random.nextInt(28)).append(' ');
+            buf.append(months[random.nextInt(months.length)]).append(' ');
+            buf.append(1995 + random.nextInt(30)).append(' ');
+            buf.append(random.nextInt(24)).append(':');
+            buf.append(10 + random.nextInt(50)).append(':');
+            buf.append(10 + random.nextInt(50));
+            buf.append(zones[random.nextInt(zones.length)]);
+            rawDates[i] = buf.toString();
+        }
+        return rawDates;
+    }
+
     /**
      * Test of createDateString method, of class org.logicprobe.LogicMail.util.StringParser.
      */
@@ -759,6 +846,10 @@ public class StringParserTest extends TestCase {
         
         testSuite.addTest(new StringParserTest("parseDateString", new TestMethod()
         { public void run(TestCase tc) { ((StringParserTest) tc).testParseDateString(); }}));
+        testSuite.addTest(new StringParserTest("parseDateStringLenient", new TestMethod()
+        { public void run(TestCase tc) { ((StringParserTest) tc).testParseDateStringLenient(); }}));
+        testSuite.addTest(new StringParserTest("parseDateStringVariants", new TestMethod()
+        { public void run(TestCase tc) { ((StringParserTest) tc).testParseDateStringVariants(); }}));
         
         testSuite.addTest(new StringParserTest("createDateString", new TestMethod()
         { public void run(TestCase tc) { ((StringParserTest) tc).testCreateDateString(); }}));
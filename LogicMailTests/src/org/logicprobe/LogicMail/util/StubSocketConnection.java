@@ -48,6 +48,7 @@ public class StubSocketConnection implements SocketConnection {
     private boolean isDataOutputStreamOpen = false;
     private byte[] inputData;
     private ByteArrayOutputStream byteOutput;
+    private int flushCount;
     
     public StubSocketConnection() {
         this(new byte[0]);
@@ -64,6 +65,15 @@ public class StubSocketConnection implements SocketConnection {
     
     public void resetSentBytes() {
         byteOutput.reset();
+        flushCount = 0;
+    }
+    
+    /**
+     * Gets the number of times sent data was flushed to the socket, which
+     * corresponds to the number of separate writes.
+     */
+    public int getFlushCount() {
+        return flushCount;
     }
     
     public boolean isClosed() {
@@ -102,7 +112,17 @@ public class StubSocketConnection implements SocketConnection {
     public DataOutputStream openDataOutputStream() throws IOException {
         if(isDataOutputStreamOpen) { throw new IOException(); }
         isDataOutputStreamOpen = true;
-        return new DataOutputStream(byteOutput);
+        return new DataOutputStream(new OutputStream() {
+            public void write(int b) throws IOException {
+                byteOutput.write(b);
+            }
+            public void write(byte[] b, int off, int len) throws IOException {
+                byteOutput.write(b, off, len);
+            }
+            public void flush() throws IOException {
+                flushCount++;
+            }
+        });
     }
     
     public InputStream openInputStream() throws IOException {
@@ -0,0 +1,182 @@
+/*-
+ * Copyright (c) 2011, Derek Konigsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution. 
+ * 3. Neither the name of the project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.logicprobe.LogicMail.util;
+
+import java.util.Vector;
+
+import j2meunit.framework.Test;
+import j2meunit.framework.TestCase;
+import j2meunit.framework.TestMethod;
+import j2meunit.framework.TestSuite;
+
+public class ThreadQueueTest extends TestCase {
+    private WorkerPool workerPool;
+    
+    public ThreadQueueTest() {
+    }
+    
+    public ThreadQueueTest(String testName, TestMethod testMethod) {
+        super(testName, testMethod);
+    }
+    
+    public void setUp() {
+        workerPool = new WorkerPool(2, 1000);
+    }
+    
+    public void tearDown() {
+        workerPool.shutdown();
+        workerPool = null;
+    }
+
+    public void testInvokeLaterOrder() {
+        ThreadQueue instance = new ThreadQueue("test", workerPool);
+        final Vector results = new Vector();
+        for(int i=0; i<20; i++) {
+            final Integer value = new Integer(i);
+            instance.invokeLater(new Runnable() {
+                public void run() { results.addElement(value); }
+            });
+        }
+        instance.completePendingTasks();
+        
+        assertEquals(20, results.size());
+        for(int i=0; i<20; i++) {
+            assertEquals(new Integer(i), results.elementAt(i));
+        }
+        instance.shutdown(true);
+    }
+    
+    public void testThreadCount() {
+        // Many queues sharing a small pool should not need more threads
+        // than the pool allows
+        ThreadQueue[] queues = new ThreadQueue[10];
+        final int[] counter = new int[1];
+        for(int i=0; i<queues.length; i++) {
+            queues[i] = new ThreadQueue("test" + i, workerPool);
+            queues[i].invokeLater(new Runnable() {
+                public void run() {
+                    try { Thread.sleep(5); } catch (InterruptedException e) { }
+                    synchronized(counter) { counter[0]++; }
+                }
+            });
+            assertTrue(workerPool.getThreadCount() <= workerPool.getMaxThreads());
+        }
+        for(int i=0; i<queues.length; i++) {
+            queues[i].completePendingTasks();
+        }
+        
+        synchronized(counter) {
+            assertEquals(queues.length, counter[0]);
+        }
+        assertTrue(workerPool.getThreadCount() <= workerPool.getMaxThreads());
+        
+        int count = 0;
+        WorkerPool.TaskStatistics[] stats = workerPool.getTaskStatistics();
+        for(int i=0; i<stats.length; i++) {
+            count += stats[i].getCount();
+        }
+        assertTrue(count <= queues.length);
+    }
+    
+    public void testNestedCompletePendingTasks() {
+        // A task on one queue waiting for another queue must not deadlock,
+        // even when every pool thread is busy
+        final WorkerPool singlePool = new WorkerPool(1, 1000);
+        final ThreadQueue outer = new ThreadQueue("outer", singlePool);
+        final ThreadQueue inner = new ThreadQueue("inner", singlePool);
+        final boolean[] result = new boolean[2];
+        
+        outer.invokeLater(new Runnable() {
+            public void run() {
+                inner.invokeLater(new Runnable() {
+                    public void run() { result[0] = true; }
+                });
+                inner.completePendingTasks();
+                result[1] = result[0];
+            }
+        });
+        outer.completePendingTasks();
+        
+        assertTrue(result[0]);
+        assertTrue(result[1]);
+        singlePool.shutdown();
+    }
+    
+    public void testTaskError() {
+        // An Error thrown by a task must not strand the rest of the queue
+        ThreadQueue instance = new ThreadQueue("test", workerPool);
+        final Vector results = new Vector();
+        instance.invokeLater(new Runnable() {
+            public void run() { throw new Error("test"); }
+        });
+        instance.invokeLater(new Runnable() {
+            public void run() { results.addElement("first"); }
+        });
+        instance.completePendingTasks();
+        assertEquals(1, results.size());
+        
+        instance.invokeLater(new Runnable() {
+            public void run() { results.addElement("second"); }
+        });
+        instance.completePendingTasks();
+        assertEquals(2, results.size());
+        assertTrue(workerPool.getThreadCount() <= workerPool.getMaxThreads());
+        instance.shutdown(true);
+    }
+    
+    public void testShutdown() {
+        ThreadQueue instance = new ThreadQueue("test", workerPool);
+        instance.shutdown(true);
+        try {
+            instance.invokeLater(new Runnable() { public void run() { } });
+            fail("invokeLater() after shutdown() should have thrown an exception");
+        } catch (IllegalStateException e) {
+            // Expected exception
+        }
+    }
+    
+    public Test suite() {
+        TestSuite suite = new TestSuite("ThreadQueueTest");
+        
+        suite.addTest(new ThreadQueueTest("invokeLaterOrder", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((ThreadQueueTest)tc).testInvokeLaterOrder(); } }));
+        suite.addTest(new ThreadQueueTest("threadCount", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((ThreadQueueTest)tc).testThreadCount(); } }));
+        suite.addTest(new ThreadQueueTest("nestedCompletePendingTasks", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((ThreadQueueTest)tc).testNestedCompletePendingTasks(); } }));
+        suite.addTest(new ThreadQueueTest("taskError", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((ThreadQueueTest)tc).testTaskError(); } }));
+        suite.addTest(new ThreadQueueTest("shutdown", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((ThreadQueueTest)tc).testShutdown(); } }));
+
+        return suite;
+    }
+}
@@ -0,0 +1,183 @@
+/*-
+ * Copyright (c) 2011, Derek Konigsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution. 
+ * 3. Neither the name of the project nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.logicprobe.LogicMail.util;
+
+import j2meunit.framework.Test;
+import j2meunit.framework.TestCase;
+import j2meunit.framework.TestMethod;
+import j2meunit.framework.TestSuite;
+
+public class TimerWheelTest extends TestCase {
+    // Short tick for test purposes
+    private static final long TICK = 10;
+
+    private WorkerPool workerPool;
+    private TimerWheel instance;
+    private int runCount;
+    
+    public TimerWheelTest() {
+    }
+    
+    public TimerWheelTest(String testName, TestMethod testMethod) {
+        super(testName, testMethod);
+    }
+
+    private Runnable task = new Runnable() {
+        public void run() {
+            synchronized(TimerWheelTest.this) {
+                runCount++;
+                TimerWheelTest.this.notifyAll();
+            }
+        }
+    };
+    
+    public void setUp() {
+        runCount = 0;
+        workerPool = new WorkerPool(2, 1000);
+        instance = new TimerWheel(workerPool, TICK);
+    }
+    
+    public void tearDown() {
+        workerPool.shutdown();
+        instance = null;
+        workerPool = null;
+    }
+
+    public void testSchedule() {
+        instance.schedule("test", task, TICK * 5);
+        assertEquals(1, instance.getTimerCount());
+        waitForRuns(1, TICK * 50);
+        assertEquals(1, getRunCount());
+        assertEquals(0, instance.getTimerCount());
+        
+        // Statistics are recorded once the task returns
+        sleep(TICK * 5);
+        WorkerPool.TaskStatistics stats = workerPool.getTaskStatistics("test");
+        assertNotNull(stats);
+        assertEquals(1, stats.getCount());
+    }
+    
+    public void testScheduleOrder() {
+        final StringBuffer buf = new StringBuffer();
+        instance.schedule("test", new Runnable() {
+            public void run() { synchronized(buf) { buf.append('b'); } }
+        }, TICK * 10);
+        instance.schedule("test", new Runnable() {
+            public void run() { synchronized(buf) { buf.append('a'); } }
+        }, TICK * 2);
+        sleep(TICK * 30);
+        synchronized(buf) {
+            assertEquals("ab", buf.toString());
+        }
+    }
+    
+    public void testScheduleLongDelay() {
+        // Delay that lands in the second level of the wheel, and must
+        // be cascaded down before it runs
+        instance.schedule("test", task, TICK * 80);
+        sleep(TICK * 40);
+        assertEquals(0, getRunCount());
+        waitForRuns(1, TICK * 200);
+        assertEquals(1, getRunCount());
+    }
+    
+    public void testCancel() {
+        TimerWheel.Timeout timeout = instance.schedule("test", task, TICK * 5);
+        assertTrue(timeout.cancel());
+        assertEquals(0, instance.getTimerCount());
+        assertTrue(!timeout.cancel());
+        sleep(TICK * 20);
+        assertEquals(0, getRunCount());
+    }
+    
+    public void testScheduleAtFixedRate() {
+        TimerWheel.Timeout timeout = instance.scheduleAtFixedRate("test", task, TICK * 2, TICK * 2);
+        waitForRuns(3, TICK * 100);
+        assertTrue(timeout.cancel());
+        assertTrue(getRunCount() >= 3);
+        assertEquals(0, instance.getTimerCount());
+        
+        int count = getRunCount();
+        sleep(TICK * 20);
+        assertEquals(count, getRunCount());
+    }
+    
+    public void testIllegalArguments() {
+        try {
+            instance.schedule("test", task, -1);
+            fail("Negative delay should have thrown an exception");
+        } catch (IllegalArgumentException e) {
+            // Expected exception
+        }
+        try {
+            instance.scheduleAtFixedRate("test", task, 0, 0);
+            fail("Zero period should have thrown an exception");
+        } catch (IllegalArgumentException e) {
+            // Expected exception
+        }
+    }
+
+    private synchronized int getRunCount() {
+        return runCount;
+    }
+    
+    private synchronized void waitForRuns(int count, long maxWait) {
+        long endTime = System.currentTimeMillis() + maxWait;
+        while(runCount < count) {
+            long waitTime = endTime - System.currentTimeMillis();
+            if(waitTime <= 0) { break; }
+            try { wait(waitTime); } catch (InterruptedException e) { }
+        }
+    }
+    
+    private static void sleep(long time) {
+        try { Thread.sleep(time); } catch (InterruptedException e) { }
+    }
+    
+    public Test suite() {
+        TestSuite suite = new TestSuite("TimerWheelTest");
+        
+        suite.addTest(new TimerWheelTest("schedule", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((TimerWheelTest)tc).testSchedule(); } }));
+        suite.addTest(new TimerWheelTest("scheduleOrder", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((TimerWheelTest)tc).testScheduleOrder(); } }));
+        suite.addTest(new TimerWheelTest("scheduleLongDelay", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((TimerWheelTest)tc).testScheduleLongDelay(); } }));
+        suite.addTest(new TimerWheelTest("cancel", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((TimerWheelTest)tc).testCancel(); } }));
+        suite.addTest(new TimerWheelTest("scheduleAtFixedRate", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((TimerWheelTest)tc).testScheduleAtFixedRate(); } }));
+        suite.addTest(new TimerWheelTest("illegalArguments", new TestMethod()
+        { public void run(TestCase tc) throws Throwable {((TimerWheelTest)tc).testIllegalArguments(); } }));
+
+        return suite;
+    }
+}
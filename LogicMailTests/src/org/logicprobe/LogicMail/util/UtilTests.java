@@ -51,11 +51,17 @@ public class UtilTests extends TestCase {
         testSuite.addTest(new SerializableHashtableTest().suite());
         testSuite.addTest(new EventListenerListTest().suite());
         testSuite.addTest(new PersistentObjectDataStoreTest().suite());
+        testSuite.addTest(new SerializationUtilsTest().suite());
         testSuite.addTest(new QueueTest().suite());
         testSuite.addTest(new ConnectionTest().suite());
         testSuite.addTest(new FilenameEncoderTest().suite());
         testSuite.addTest(new AtomicBooleanTest().suite());
         testSuite.addTest(new WatchdogTest().suite());
+        testSuite.addTest(new TimerWheelTest().suite());
+        testSuite.addTest(new ThreadQueueTest().suite());
+        testSuite.addTest(new Base64DecodingOutputStreamTest().suite());
+        testSuite.addTest(new MimeStreamParserTest().suite());
+        testSuite.addTest(new DataSpoolTest().suite());
         return testSuite;
     }
 }